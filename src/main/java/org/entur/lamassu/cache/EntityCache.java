@@ -1,18 +1,36 @@
 package org.entur.lamassu.cache;
 
 import org.entur.lamassu.model.entities.Entity;
+import org.redisson.api.RBatch;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public interface EntityCache<T extends Entity> {
     List<T> getAll(Set<String> keys);
     List<T> getAll();
     Map<String, T> getAllAsMap(Set<String> keys);
+    CompletableFuture<List<T>> getAllAsync(Set<String> keys);
+
+    /**
+     * The entities found, by key. Keys without an entity are left out, so a batch of keys can be
+     * looked up in one round trip and matched with the results afterwards.
+     */
+    CompletableFuture<Map<String, T>> getAllAsMapAsync(Set<String> keys);
     T get(String key);
     void updateAll(Map<String, T> entities, int ttl, TimeUnit timeUnit);
     void removeAll(Set<String> keys);
+    void updateAll(RBatch batch, Map<String, T> entities, int ttl, TimeUnit timeUnit);
+    void removeAll(RBatch batch, Set<String> keys);
+
+    /**
+     * Sets the time to live of the entities with the given keys, without writing the entities
+     * again. Keys that are no longer in the cache are skipped.
+     */
+    void refreshTtl(RBatch batch, Set<String> keys, int ttl, TimeUnit timeUnit);
     boolean hasKey(String key);
+    Set<String> getExistingKeys(Set<String> keys);
 }
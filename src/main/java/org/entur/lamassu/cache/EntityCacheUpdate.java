@@ -0,0 +1,67 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache;
+
+import org.entur.lamassu.model.entities.Entity;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Change event published by the leader after it has written a batch of entities for
+ * a system to an entity cache. Used to keep local replicas on reader nodes current.
+ */
+public class EntityCacheUpdate<T extends Entity> implements Serializable {
+    private String systemId;
+    private Map<String, T> updatedEntities;
+    private Set<String> removedKeys;
+
+    public EntityCacheUpdate() {}
+
+    public EntityCacheUpdate(String systemId, Map<String, T> updatedEntities, Set<String> removedKeys) {
+        this.systemId = systemId;
+        this.updatedEntities = updatedEntities;
+        this.removedKeys = removedKeys;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
+    }
+
+    public Map<String, T> getUpdatedEntities() {
+        return updatedEntities;
+    }
+
+    public void setUpdatedEntities(Map<String, T> updatedEntities) {
+        this.updatedEntities = updatedEntities;
+    }
+
+    public Set<String> getRemovedKeys() {
+        return removedKeys;
+    }
+
+    public void setRemovedKeys(Set<String> removedKeys) {
+        this.removedKeys = removedKeys;
+    }
+}
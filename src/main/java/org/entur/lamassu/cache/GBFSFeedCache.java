@@ -21,10 +21,15 @@ package org.entur.lamassu.cache;
 import org.entur.gbfs.v2_3.gbfs.GBFSFeedName;
 import org.entur.lamassu.model.provider.FeedProvider;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public interface GBFSFeedCache {
     <T> T find(GBFSFeedName feedName, FeedProvider feedProvider);
+    <T> CompletableFuture<T> findAsync(GBFSFeedName feedName, FeedProvider feedProvider);
     <T> void update(GBFSFeedName feedName, FeedProvider feedProvider, T feed, int ttl, TimeUnit timeUnit);
     <T> T getAndUpdate(GBFSFeedName feedName, FeedProvider feedProvider, T feed, int ttl, TimeUnit timeUnit);
+    SerializedGBFSFeed findSerialized(GBFSFeedName feedName, FeedProvider feedProvider);
+    CompletableFuture<SerializedGBFSFeed> findSerializedAsync(GBFSFeedName feedName, FeedProvider feedProvider);
+    void updateSerialized(GBFSFeedName feedName, FeedProvider feedProvider, SerializedGBFSFeed feed, int ttl, TimeUnit timeUnit);
 }
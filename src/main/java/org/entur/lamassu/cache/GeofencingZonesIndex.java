@@ -0,0 +1,251 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache;
+
+import org.entur.lamassu.model.entities.Entity;
+import org.entur.lamassu.model.entities.GeofencingZones;
+import org.entur.lamassu.model.entities.MultiPolygon;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.GeometryUtil;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Point lookup index over the zones of one system. The bounding boxes of the zones are packed
+ * into an STR tree stored as flat arrays: level 0 holds one box per zone, and node i of each
+ * following level covers nodes [i * NODE_CAPACITY, (i + 1) * NODE_CAPACITY) of the level below.
+ * The polygons are kept as flat coordinate arrays, so a lookup does not touch the GeoJSON.
+ */
+public class GeofencingZonesIndex implements Entity {
+    private static final int NODE_CAPACITY = 16;
+
+    private String systemId;
+
+    // Zone index of each entry at level 0
+    private int[] zones;
+
+    // minLon, minLat, maxLon, maxLat of every node, level by level
+    private double[] bounds;
+
+    // Node offset of each level, with the total node count as the last element
+    private int[] levelOffsets;
+
+    // Zone -> polygon -> ring -> [lon0, lat0, lon1, lat1, ...], the first ring being the exterior
+    private double[][][][] polygons;
+
+    private List<GeofencingZones.Properties> properties;
+
+    public GeofencingZonesIndex() {}
+
+    public static GeofencingZonesIndex of(GeofencingZones geofencingZones) {
+        var index = new GeofencingZonesIndex();
+        index.systemId = geofencingZones.getSystemId();
+
+        var features = geofencingZones.getGeojson() != null && geofencingZones.getGeojson().getFeatures() != null
+                ? geofencingZones.getGeojson().getFeatures()
+                : List.<GeofencingZones.Feature>of();
+
+        index.polygons = new double[features.size()][][][];
+        index.properties = new ArrayList<>(features.size());
+        var entries = new ArrayList<double[]>();
+        for (var i = 0; i < features.size(); i++) {
+            var feature = features.get(i);
+            index.polygons[i] = toPolygons(feature.getGeometry());
+            index.properties.add(feature.getProperties());
+            var box = getBounds(index.polygons[i]);
+            if (box != null) {
+                entries.add(new double[] { box[0], box[1], box[2], box[3], i });
+            }
+        }
+
+        sortTileRecursive(entries);
+        index.zones = entries.stream().mapToInt(entry -> (int) entry[4]).toArray();
+        index.build(entries);
+        return index;
+    }
+
+    /**
+     * The zones containing the given point, in the order they were listed in the feed
+     */
+    public List<Integer> getZonesContaining(double lat, double lon) {
+        var result = search(lon, lat, lon, lat);
+        result.removeIf(zone -> !polygonsContain(polygons[zone], lon, lat));
+        return result;
+    }
+
+    /**
+     * The zones whose bounding box intersects the given bounding box, in the order they were
+     * listed in the feed
+     */
+    public List<Integer> getZonesIntersecting(BoundingBox boundingBox) {
+        return search(boundingBox.getMinLon(), boundingBox.getMinLat(), boundingBox.getMaxLon(), boundingBox.getMaxLat());
+    }
+
+    public int getZoneCount() {
+        return polygons.length;
+    }
+
+    public GeofencingZones.Properties getProperties(int zone) {
+        return properties.get(zone);
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    @Override
+    public String getId() {
+        return systemId;
+    }
+
+    private List<Integer> search(double minLon, double minLat, double maxLon, double maxLat) {
+        var result = new ArrayList<Integer>();
+        if (zones.length == 0) {
+            return result;
+        }
+        var stack = new ArrayList<int[]>();
+        stack.add(new int[] { levelOffsets.length - 2, 0 });
+        while (!stack.isEmpty()) {
+            var node = stack.remove(stack.size() - 1);
+            var level = node[0];
+            var offset = (levelOffsets[level] + node[1]) * 4;
+            if (maxLon < bounds[offset] || maxLat < bounds[offset + 1] || minLon > bounds[offset + 2] || minLat > bounds[offset + 3]) {
+                continue;
+            }
+            if (level == 0) {
+                result.add(zones[node[1]]);
+                continue;
+            }
+            var childLevelSize = levelOffsets[level] - levelOffsets[level - 1];
+            var end = Math.min((node[1] + 1) * NODE_CAPACITY, childLevelSize);
+            for (var child = node[1] * NODE_CAPACITY; child < end; child++) {
+                stack.add(new int[] { level - 1, child });
+            }
+        }
+        result.sort(Comparator.naturalOrder());
+        return result;
+    }
+
+    private void build(List<double[]> entries) {
+        var levels = new ArrayList<double[]>();
+        var level = new double[entries.size() * 4];
+        for (var i = 0; i < entries.size(); i++) {
+            System.arraycopy(entries.get(i), 0, level, i * 4, 4);
+        }
+        levels.add(level);
+        while (level.length > 4) {
+            var size = level.length / 4;
+            var parent = new double[((size + NODE_CAPACITY - 1) / NODE_CAPACITY) * 4];
+            for (var i = 0; i < size; i++) {
+                var p = (i / NODE_CAPACITY) * 4;
+                if (i % NODE_CAPACITY == 0) {
+                    System.arraycopy(level, i * 4, parent, p, 4);
+                } else {
+                    parent[p] = Math.min(parent[p], level[i * 4]);
+                    parent[p + 1] = Math.min(parent[p + 1], level[i * 4 + 1]);
+                    parent[p + 2] = Math.max(parent[p + 2], level[i * 4 + 2]);
+                    parent[p + 3] = Math.max(parent[p + 3], level[i * 4 + 3]);
+                }
+            }
+            levels.add(parent);
+            level = parent;
+        }
+
+        levelOffsets = new int[levels.size() + 1];
+        for (var i = 0; i < levels.size(); i++) {
+            levelOffsets[i + 1] = levelOffsets[i] + levels.get(i).length / 4;
+        }
+        bounds = new double[levelOffsets[levels.size()] * 4];
+        for (var i = 0; i < levels.size(); i++) {
+            System.arraycopy(levels.get(i), 0, bounds, levelOffsets[i] * 4, levels.get(i).length);
+        }
+    }
+
+    /**
+     * Orders the entries into vertical slices by center longitude, and each slice by center
+     * latitude, so that consecutive runs of NODE_CAPACITY entries are spatially compact
+     */
+    private static void sortTileRecursive(List<double[]> entries) {
+        var leafCount = (entries.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        var sliceSize = (int) Math.ceil(Math.sqrt(leafCount)) * NODE_CAPACITY;
+        entries.sort(Comparator.comparingDouble(entry -> entry[0] + entry[2]));
+        for (var start = 0; start < entries.size(); start += sliceSize) {
+            entries.subList(start, Math.min(start + sliceSize, entries.size()))
+                    .sort(Comparator.comparingDouble(entry -> entry[1] + entry[3]));
+        }
+    }
+
+    private static boolean polygonsContain(double[][][] polygons, double lon, double lat) {
+        for (var polygon : polygons) {
+            if (polygon.length == 0 || !GeometryUtil.ringContains(polygon[0], lon, lat)) {
+                continue;
+            }
+            var inHole = false;
+            for (var i = 1; i < polygon.length && !inHole; i++) {
+                inHole = GeometryUtil.ringContains(polygon[i], lon, lat);
+            }
+            if (!inHole) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double[][][] toPolygons(MultiPolygon multiPolygon) {
+        if (multiPolygon == null || multiPolygon.getCoordinates() == null) {
+            return new double[0][][];
+        }
+        return multiPolygon.getCoordinates().stream()
+                .map(polygon -> polygon.stream()
+                        .map(ring -> {
+                            var flat = new double[ring.size() * 2];
+                            for (var i = 0; i < ring.size(); i++) {
+                                flat[2 * i] = ring.get(i).get(0);
+                                flat[2 * i + 1] = ring.get(i).get(1);
+                            }
+                            return flat;
+                        })
+                        .toArray(double[][]::new))
+                .toArray(double[][][]::new);
+    }
+
+    private static double[] getBounds(double[][][] polygons) {
+        double[] box = null;
+        for (var polygon : polygons) {
+            if (polygon.length == 0) {
+                continue;
+            }
+            // Holes are inside the exterior ring, which alone determines the bounds
+            var ring = polygon[0];
+            for (var i = 0; i + 1 < ring.length; i += 2) {
+                if (box == null) {
+                    box = new double[] { ring[i], ring[i + 1], ring[i], ring[i + 1] };
+                } else {
+                    box[0] = Math.min(box[0], ring[i]);
+                    box[1] = Math.min(box[1], ring[i + 1]);
+                    box[2] = Math.max(box[2], ring[i]);
+                    box[3] = Math.max(box[3], ring[i + 1]);
+                }
+            }
+        }
+        return box;
+    }
+}
@@ -0,0 +1,37 @@
+package org.entur.lamassu.cache;
+
+import org.entur.lamassu.util.BoundingBox;
+
+import java.io.Serializable;
+
+/**
+ * The latest update of one system's entities in a map layer, and the extent of those entities
+ * after the update
+ */
+public class LayerUpdate implements Serializable {
+    private long generation;
+    private BoundingBox extent;
+
+    public LayerUpdate() {}
+
+    public LayerUpdate(long generation, BoundingBox extent) {
+        this.generation = generation;
+        this.extent = extent;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public BoundingBox getExtent() {
+        return extent;
+    }
+
+    public void setExtent(BoundingBox extent) {
+        this.extent = extent;
+    }
+}
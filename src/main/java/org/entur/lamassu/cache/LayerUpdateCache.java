@@ -0,0 +1,27 @@
+package org.entur.lamassu.cache;
+
+import org.entur.lamassu.util.BoundingBox;
+import org.redisson.api.RBatch;
+
+import java.util.Map;
+
+/**
+ * Keeps track of the latest update of each system in each map layer, so that readers can tell
+ * which systems may have changed within an area since they last looked.
+ */
+public interface LayerUpdateCache {
+    String VEHICLES = "vehicles";
+    String STATIONS = "stations";
+    String GEOFENCING_ZONES = "geofencingZones";
+
+    void update(RBatch batch, String layer, String systemId, BoundingBox extent);
+    void update(String layer, String systemId, BoundingBox extent);
+
+    /**
+     * Records a change to a system's entities within the given area between feed updates, such as
+     * entities that expire. The system's extent is widened to include the area, as the changed
+     * entities may be outside the extent of its latest feed update.
+     */
+    void updateWithin(String layer, String systemId, BoundingBox area);
+    Map<String, LayerUpdate> getAll(String layer);
+}
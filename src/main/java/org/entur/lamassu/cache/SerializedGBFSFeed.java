@@ -0,0 +1,73 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache;
+
+import java.io.Serializable;
+
+/**
+ * A GBFS feed as the JSON it is served as, optionally also gzip compressed, along with what is
+ * needed to answer conditional requests for it
+ */
+public class SerializedGBFSFeed implements Serializable {
+    private byte[] data;
+    private byte[] gzipData;
+    private String eTag;
+    private Integer lastUpdated;
+
+    public SerializedGBFSFeed() {}
+
+    public SerializedGBFSFeed(byte[] data, byte[] gzipData, String eTag, Integer lastUpdated) {
+        this.data = data;
+        this.gzipData = gzipData;
+        this.eTag = eTag;
+        this.lastUpdated = lastUpdated;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public byte[] getGzipData() {
+        return gzipData;
+    }
+
+    public void setGzipData(byte[] gzipData) {
+        this.gzipData = gzipData;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    public Integer getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(Integer lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache;
+
+import org.entur.lamassu.model.entities.GeofencingZones;
+
+import java.util.List;
+
+/**
+ * Geofencing zones with simplified polygons, keyed by system and tolerance
+ */
+public interface SimplifiedGeofencingZonesCache extends EntityCache<GeofencingZones> {
+    // Tolerances in meters, about one pixel of a 256 pixel tile at zoom 15, 12, 9 and 6
+    List<Integer> TOLERANCES = List.of(5, 40, 300, 2500);
+}
@@ -19,17 +19,69 @@
 package org.entur.lamassu.cache;
 
 import org.entur.lamassu.model.entities.LocationEntity;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.service.FilterParameters;
+import org.entur.lamassu.util.BoundingBox;
 import org.redisson.api.GeoOrder;
+import org.redisson.api.GeoPosition;
 import org.redisson.api.GeoUnit;
+import org.redisson.api.RBatch;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-public interface SpatialIndex<S extends SpatialIndexId, T extends LocationEntity> {
+public interface SpatialIndex<S extends SpatialIndexId, T extends LocationEntity, F extends FilterParameters> {
     void addAll(Map<S, T> spatialIndexUpdateMap);
     void removeAll(Set<S> ids);
-    List<S> radius(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder);
+    void addAll(RBatch batch, Map<S, T> spatialIndexUpdateMap);
+    void removeAll(RBatch batch, Set<S> ids);
+    void updatePartitions(RBatch batch, FeedProvider feedProvider, Map<S, T> entries);
+    List<S> radius(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count);
+    List<S> box(BoundingBox boundingBox, F filterParameters, Integer count);
+    Map<S, GeoPosition> boxWithPositions(BoundingBox boundingBox, F filterParameters, Integer count);
+    List<S> nearest(Double longitude, Double latitude, F filterParameters, int count, double maxRadius);
+    CompletableFuture<List<S>> radiusAsync(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count);
+    CompletableFuture<List<S>> boxAsync(BoundingBox boundingBox, F filterParameters, Integer count);
+    CompletableFuture<List<S>> nearestAsync(Double longitude, Double latitude, F filterParameters, int count, double maxRadius);
+
+    /**
+     * Like radiusAsync, boxAsync and nearestAsync, with the position of each entry as returned
+     * by the search, so that positions need not be looked up afterwards. Entries are in search
+     * order. A count of null returns every entry found.
+     */
+    CompletableFuture<Map<S, GeoPosition>> radiusWithPositionsAsync(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count);
+    CompletableFuture<Map<S, GeoPosition>> boxWithPositionsAsync(BoundingBox boundingBox, F filterParameters, Integer count);
+    CompletableFuture<Map<S, GeoPosition>> nearestWithPositionsAsync(Double longitude, Double latitude, F filterParameters, int count, double maxRadius);
+
+    /**
+     * Counts the entries within the bounding box by the cell of the tile grid at the zoom level
+     * they are in, without returning the entries themselves. A cell is returned once for each
+     * group of entries counted together, so the same cell may be returned more than once.
+     */
+    CompletableFuture<List<SpatialIndexCell<S>>> cellsAsync(BoundingBox boundingBox, F filterParameters, int zoom);
+
+    /**
+     * Estimates the number of entries within the bounding box from the density of the index,
+     * without searching it. Filters the index can not apply cheaply are ignored, so the estimate
+     * leans towards too many entries.
+     */
+    CompletableFuture<Double> estimateCountAsync(BoundingBox boundingBox, F filterParameters);
+
+    /**
+     * Estimates the number of cells cellsAsync reads or counts for the bounding box at the zoom
+     * level, which is at most the number of entries it counts
+     */
+    CompletableFuture<Double> estimateCellCountAsync(BoundingBox boundingBox, F filterParameters, int zoom);
+
+    /**
+     * Looks up the positions of the given entries, leaving out entries not in the index. Meant
+     * for maintenance of the index, as searches return positions along with the entries.
+     */
+    Map<S, GeoPosition> getPositions(Collection<S> ids);
     Collection<S> getAll();
+    Iterator<S> iterator(int batchSize);
 }
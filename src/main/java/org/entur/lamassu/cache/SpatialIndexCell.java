@@ -0,0 +1,67 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache;
+
+/**
+ * Entries of a spatial index counted in one cell of the tile grid at some zoom level, by their
+ * number and mean position. Entries are only counted together when they are in the same
+ * partition of the index, and the id is that of one entry of that partition, so it carries the
+ * attributes the index is partitioned by that are shared by every entry counted.
+ */
+public class SpatialIndexCell<S extends SpatialIndexId> {
+    private final int x;
+    private final int y;
+    private final int count;
+    private final double latitude;
+    private final double longitude;
+    private final S id;
+
+    public SpatialIndexCell(int x, int y, int count, double latitude, double longitude, S id) {
+        this.x = x;
+        this.y = y;
+        this.count = count;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.id = id;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public S getId() {
+        return id;
+    }
+}
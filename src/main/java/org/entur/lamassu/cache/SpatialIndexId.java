@@ -19,4 +19,5 @@
 package org.entur.lamassu.cache;
 
 public interface SpatialIndexId {
+    String getSystemId();
 }
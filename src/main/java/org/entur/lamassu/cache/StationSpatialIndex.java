@@ -19,5 +19,6 @@
 package org.entur.lamassu.cache;
 
 import org.entur.lamassu.model.entities.Station;
+import org.entur.lamassu.service.StationFilterParameters;
 
-public interface StationSpatialIndex extends SpatialIndex<StationSpatialIndexId, Station> {}
+public interface StationSpatialIndex extends SpatialIndex<StationSpatialIndexId, Station, StationFilterParameters> {}
@@ -0,0 +1,19 @@
+package org.entur.lamassu.cache;
+
+import org.redisson.api.RBatch;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Per-system index of the time at which the vehicle behind each vehicle spatial index entry
+ * expires from the vehicle cache. Used to find spatial index orphans without scanning the
+ * whole spatial index.
+ */
+public interface VehicleExpiryIndex {
+    void addAll(RBatch batch, String systemId, Set<VehicleSpatialIndexId> ids, long expiresAtEpochSeconds);
+    void addAll(String systemId, Set<VehicleSpatialIndexId> ids, long expiresAtEpochSeconds);
+    void removeAll(RBatch batch, String systemId, Set<VehicleSpatialIndexId> ids);
+    void removeAll(String systemId, Set<VehicleSpatialIndexId> ids);
+    Collection<VehicleSpatialIndexId> getExpired(String systemId, long nowEpochSeconds, int limit);
+}
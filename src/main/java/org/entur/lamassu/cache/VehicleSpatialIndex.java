@@ -1,5 +1,6 @@
 package org.entur.lamassu.cache;
 
 import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.service.VehicleFilterParameters;
 
-public interface VehicleSpatialIndex extends SpatialIndex<VehicleSpatialIndexId, Vehicle> {}
+public interface VehicleSpatialIndex extends SpatialIndex<VehicleSpatialIndexId, Vehicle, VehicleFilterParameters> {}
@@ -2,19 +2,40 @@ package org.entur.lamassu.cache.impl;
 
 import org.entur.lamassu.cache.EntityCache;
 import org.entur.lamassu.model.entities.Entity;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
 import org.redisson.api.RMapCache;
+import org.redisson.api.RScript;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 abstract class EntityCacheImpl<T extends Entity> implements EntityCache<T> {
+    /**
+     * Moves the expiry of each entry still in the map, the way the map cache itself stores it: as
+     * the score of the key in the map's timeout set
+     */
+    private static final String REFRESH_TTL_SCRIPT =
+            "local expireAt = tonumber(ARGV[1]); " +
+            "local refreshed = 0; " +
+            "for i = 2, #ARGV do " +
+                "if redis.call('hexists', KEYS[1], ARGV[i]) == 1 then " +
+                    "redis.call('zadd', KEYS[2], expireAt, ARGV[i]); " +
+                    "refreshed = refreshed + 1; " +
+                "end; " +
+            "end; " +
+            "return refreshed;";
+
     RMapCache<String, T> cache;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -47,6 +68,26 @@ abstract class EntityCacheImpl<T extends Entity> implements EntityCache<T> {
         return Map.of();
     }
 
+    @Override
+    public CompletableFuture<List<T>> getAllAsync(Set<String> keys) {
+        return getAllAsMapAsync(keys).thenApply(entities -> new ArrayList<>(entities.values()));
+    }
+
+    /**
+     * Like spatial index searches, a lookup that does not complete within 5 seconds fails, rather
+     * than being answered as if the entities did not exist
+     */
+    @Override
+    public CompletableFuture<Map<String, T>> getAllAsMapAsync(Set<String> keys) {
+        return cache.getAllAsync(keys).toCompletableFuture()
+                .orTimeout(5, TimeUnit.SECONDS)
+                .whenComplete((entities, e) -> {
+                    if (e != null) {
+                        logger.warn("Unable to fetch entities from cache within 5 seconds", e);
+                    }
+                });
+    }
+
     @Override
     public T get(String key) {
         try {
@@ -67,7 +108,71 @@ abstract class EntityCacheImpl<T extends Entity> implements EntityCache<T> {
 
     @Override
     public void removeAll(Set<String> keys) {
-        cache.fastRemoveAsync(String.valueOf(keys));
+        cache.fastRemoveAsync(keys.toArray(new String[0]));
+    }
+
+    @Override
+    public void updateAll(RBatch batch, Map<String, T> entities, int ttl, TimeUnit timeUnit) {
+        batch.<String, T>getMapCache(cache.getName()).putAllAsync(entities, ttl, timeUnit);
+    }
+
+    @Override
+    public void removeAll(RBatch batch, Set<String> keys) {
+        batch.<String, T>getMapCache(cache.getName()).fastRemoveAsync(keys.toArray(new String[0]));
+    }
+
+    /**
+     * Only the expiry is written, so unchanged entities are not serialized and sent again. Keys are
+     * passed as script arguments, which are encoded like the map's keys as long as the map's codec
+     * encodes keys and values alike.
+     */
+    @Override
+    public void refreshTtl(RBatch batch, Set<String> keys, int ttl, TimeUnit timeUnit) {
+        var args = new ArrayList<Object>(keys.size() + 1);
+        args.add(System.currentTimeMillis() + timeUnit.toMillis(ttl));
+        args.addAll(keys);
+
+        batch.getScript(cache.getCodec()).evalAsync(
+                RScript.Mode.READ_WRITE,
+                REFRESH_TTL_SCRIPT,
+                RScript.ReturnType.INTEGER,
+                List.of(cache.getName(), getTimeoutSetName()),
+                args.toArray()
+        );
+    }
+
+    private String getTimeoutSetName() {
+        // Same naming as the map cache, which keeps the timeout set in the map's hash slot
+        var name = cache.getName();
+        if (name.contains("{")) {
+            return "redisson__timeout__set:" + name;
+        }
+        return "redisson__timeout__set:{" + name + "}";
+    }
+
+    @Override
+    public Set<String> getExistingKeys(Set<String> keys) {
+        // Send all checks before waiting for any of them, so they share round trips
+        var checks = new HashMap<String, RFuture<Boolean>>(keys.size());
+        keys.forEach(key -> checks.put(key, cache.containsKeyAsync(key)));
+
+        var existingKeys = new HashSet<String>();
+        try {
+            for (var check : checks.entrySet()) {
+                if (Boolean.TRUE.equals(check.getValue().get(5, TimeUnit.SECONDS))) {
+                    existingKeys.add(check.getKey());
+                }
+            }
+            return existingKeys;
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Unable to check if cache has keys within 5 seconds", e);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while checking if cache has keys", e);
+            Thread.currentThread().interrupt();
+        }
+
+        // Report all keys as existing, so callers never treat an entity as missing by mistake
+        return keys;
     }
 
     @Override
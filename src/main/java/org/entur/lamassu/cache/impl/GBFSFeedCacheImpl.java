@@ -20,41 +20,78 @@ package org.entur.lamassu.cache.impl;
 
 import org.entur.gbfs.v2_3.gbfs.GBFSFeedName;
 import org.entur.lamassu.cache.GBFSFeedCache;
+import org.entur.lamassu.cache.SerializedGBFSFeed;
 import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.util.LocalCache;
 import org.redisson.api.RMapCache;
+import org.redisson.api.RTopic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Feeds are read through a local near cache. Whenever a feed is updated, its key is published
+ * on the feed updates topic, and every node drops its local copy. The time to live of the near
+ * cache bounds how long a copy can be stale if an invalidation is missed.
+ *
+ * <p>Redisson's RLocalCachedMap is not used, as it is backed by a plain hash without expiry of
+ * single entries, whereas each feed expires after the ttl of the feed. RLocalCachedMapCache,
+ * which has both, is only part of Redisson PRO.
+ */
 @Component
 public class GBFSFeedCacheImpl implements GBFSFeedCache {
     private final RMapCache<String, Object> cache;
+    private final RTopic feedUpdatesTopic;
+    private final LocalCache<String, Object> nearCache;
+
+    // Incremented on every invalidation, so that feeds loaded while one happened are not kept
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private int listenerId;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
-    public GBFSFeedCacheImpl(RMapCache<String, Object> feedCache) {
+    public GBFSFeedCacheImpl(
+            RMapCache<String, Object> feedCache,
+            @Qualifier("feedUpdatesTopic") RTopic feedUpdatesTopic,
+            @Value("${org.entur.lamassu.feedNearCache.ttl:60}") int nearCacheTtl
+    ) {
         this.cache = feedCache;
+        this.feedUpdatesTopic = feedUpdatesTopic;
+        this.nearCache = new LocalCache<>(nearCacheTtl, TimeUnit.SECONDS, 10000);
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerId = feedUpdatesTopic.addListener(String.class, (channel, key) -> invalidate(key));
+    }
+
+    @PreDestroy
+    public void stop() {
+        feedUpdatesTopic.removeListener(listenerId);
     }
 
     @Override
     public <T> T find(GBFSFeedName feedName, FeedProvider feedProvider) {
-        var key = getKey(feedName, feedProvider.getSystemId());
-        try {
-            @SuppressWarnings("unchecked") T feed = (T) cache.getAsync(key).get(5, TimeUnit.SECONDS);
-            return feed;
-        } catch (ExecutionException | TimeoutException e) {
-            logger.warn("Unable to fetch feed from cache within 5 second", e);
-        } catch (InterruptedException e) {
-            logger.warn("Interrupted while fetching feed from cache", e);
-            Thread.currentThread().interrupt();
-        }
-        return null;
+        return this.<T>findAsync(feedName, feedProvider).join();
+    }
+
+    @Override
+    public <T> CompletableFuture<T> findAsync(GBFSFeedName feedName, FeedProvider feedProvider) {
+        @SuppressWarnings("unchecked") CompletableFuture<T> feed = (CompletableFuture<T>) findNear(getKey(feedName, feedProvider.getSystemId()));
+        return feed;
     }
 
     @Override
@@ -65,6 +102,7 @@ public class GBFSFeedCacheImpl implements GBFSFeedCache {
         );
         try {
             cache.putAsync(key, feed, ttl, timeUnit).get(5, TimeUnit.SECONDS);
+            publishUpdate(key);
         } catch (ExecutionException | TimeoutException e) {
             logger.warn("Unable to update feed cache within 5 second", e);
         } catch (InterruptedException e) {
@@ -81,6 +119,7 @@ public class GBFSFeedCacheImpl implements GBFSFeedCache {
         );
         try {
             @SuppressWarnings("unchecked") T old = (T) cache.putAsync(key, feed, ttl, timeUnit).get(5, TimeUnit.SECONDS);
+            publishUpdate(key);
             return old;
         } catch (ExecutionException | TimeoutException e) {
             logger.warn("Unable to update feed cache within 5 second", e);
@@ -91,6 +130,74 @@ public class GBFSFeedCacheImpl implements GBFSFeedCache {
         return null;
     }
 
+    @Override
+    public SerializedGBFSFeed findSerialized(GBFSFeedName feedName, FeedProvider feedProvider) {
+        return findSerializedAsync(feedName, feedProvider).join();
+    }
+
+    @Override
+    public CompletableFuture<SerializedGBFSFeed> findSerializedAsync(GBFSFeedName feedName, FeedProvider feedProvider) {
+        return findNear(getSerializedKey(feedName, feedProvider.getSystemId()))
+                .thenApply(SerializedGBFSFeed.class::cast);
+    }
+
+    @Override
+    public void updateSerialized(GBFSFeedName feedName, FeedProvider feedProvider, SerializedGBFSFeed feed, int ttl, TimeUnit timeUnit) {
+        var key = getSerializedKey(feedName, feedProvider.getSystemId());
+        try {
+            cache.putAsync(key, feed, ttl, timeUnit).get(5, TimeUnit.SECONDS);
+            publishUpdate(key);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Unable to update serialized feed cache within 5 second", e);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while updating serialized feed cache", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Object> findNear(String key) {
+        var feed = nearCache.get(key);
+        if (feed != null) {
+            return CompletableFuture.completedFuture(feed);
+        }
+        var invalidationCount = invalidations.get();
+        return findRemote(key).thenApply(remoteFeed -> {
+            if (invalidations.get() == invalidationCount) {
+                nearCache.put(key, remoteFeed);
+
+                // An invalidation between the check and the put may have missed the feed just put
+                if (invalidations.get() != invalidationCount) {
+                    nearCache.invalidate(key);
+                }
+            }
+            return remoteFeed;
+        });
+    }
+
+    private CompletableFuture<Object> findRemote(String key) {
+        return cache.getAsync(key).toCompletableFuture()
+                .orTimeout(5, TimeUnit.SECONDS)
+                .whenComplete((feed, e) -> {
+                    if (e != null) {
+                        logger.warn("Unable to fetch feed from cache within 5 second", e);
+                    }
+                });
+    }
+
+    private void invalidate(String key) {
+        invalidations.incrementAndGet();
+        nearCache.invalidate(key);
+    }
+
+    private void publishUpdate(String key) {
+        invalidate(key);
+        feedUpdatesTopic.publishAsync(key);
+    }
+
+    private String getSerializedKey(GBFSFeedName feedName, String systemId) {
+        return mergeStrings(getKey(feedName, systemId), "serialized");
+    }
+
     private String getKey(GBFSFeedName feedName, String systemId) {
         return mergeStrings(feedName.value(), systemId);
     }
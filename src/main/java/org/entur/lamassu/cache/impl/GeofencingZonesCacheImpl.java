@@ -21,11 +21,12 @@ package org.entur.lamassu.cache.impl;
 import org.entur.lamassu.cache.GeofencingZonesCache;
 import org.entur.lamassu.model.entities.GeofencingZones;
 import org.redisson.api.RMapCache;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 @Component
 public class GeofencingZonesCacheImpl extends EntityCacheImpl<GeofencingZones> implements GeofencingZonesCache {
-    protected GeofencingZonesCacheImpl(RMapCache<String, GeofencingZones> cache) {
+    protected GeofencingZonesCacheImpl(@Qualifier("geofencingZonesCache") RMapCache<String, GeofencingZones> cache) {
         super(cache);
     }
 }
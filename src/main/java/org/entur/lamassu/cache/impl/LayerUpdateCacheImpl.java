@@ -0,0 +1,89 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.impl;
+
+import org.entur.lamassu.cache.LayerUpdate;
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.config.cache.RedissonCacheConfig;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.LocalCache;
+import org.redisson.api.RBatch;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class LayerUpdateCacheImpl implements LayerUpdateCache {
+    private final RedissonClient redissonClient;
+
+    // Read for every tile request, so readers only look for new updates once per second
+    private final LocalCache<String, Map<String, LayerUpdate>> localCache = new LocalCache<>(1, TimeUnit.SECONDS, 10);
+
+    @Value("${org.entur.lamassu.serializationVersion}")
+    private String serializationVersion;
+
+    @Autowired
+    public LayerUpdateCacheImpl(RedissonClient redissonClient) {
+        this.redissonClient = redissonClient;
+    }
+
+    @Override
+    public void update(RBatch batch, String layer, String systemId, BoundingBox extent) {
+        batch.<String, LayerUpdate>getMap(getKey(layer)).fastPutAsync(systemId, createUpdate(extent));
+    }
+
+    @Override
+    public void update(String layer, String systemId, BoundingBox extent) {
+        redissonClient.<String, LayerUpdate>getMap(getKey(layer)).fastPut(systemId, createUpdate(extent));
+    }
+
+    @Override
+    public void updateWithin(String layer, String systemId, BoundingBox area) {
+        redissonClient.<String, LayerUpdate>getMap(getKey(layer)).compute(systemId, (key, previous) -> {
+            var extent = new BoundingBox(area.getMinLat(), area.getMinLon(), area.getMaxLat(), area.getMaxLon());
+            if (previous == null) {
+                return createUpdate(extent);
+            }
+            if (previous.getExtent() != null) {
+                extent.expandToInclude(previous.getExtent());
+            }
+            // The generation must change even if the feed update was written within the same millisecond
+            return new LayerUpdate(Math.max(Instant.now().toEpochMilli(), previous.getGeneration() + 1), extent);
+        });
+    }
+
+    @Override
+    public Map<String, LayerUpdate> getAll(String layer) {
+        return localCache.get(layer, key -> redissonClient.<String, LayerUpdate>getMap(getKey(key)).readAllMap());
+    }
+
+    // A system is updated by one feed update at a time, so the update time identifies the update
+    private LayerUpdate createUpdate(BoundingBox extent) {
+        return new LayerUpdate(Instant.now().toEpochMilli(), extent);
+    }
+
+    private String getKey(String layer) {
+        return RedissonCacheConfig.LAYER_UPDATE_CACHE_KEY + "_" + layer + "_" + serializationVersion;
+    }
+}
@@ -15,65 +15,772 @@
  *  * limitations under the Licence.
  *
  */
-
 package org.entur.lamassu.cache.impl;
 
 import io.lettuce.core.RedisException;
+import io.micrometer.core.instrument.Metrics;
 import org.entur.lamassu.cache.SpatialIndex;
+import org.entur.lamassu.cache.SpatialIndexCell;
 import org.entur.lamassu.cache.SpatialIndexId;
+import org.entur.lamassu.cache.SpatialIndexPartition;
 import org.entur.lamassu.model.entities.LocationEntity;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.service.FilterParameters;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.GeoUtil;
+import org.entur.lamassu.util.LocalCache;
+import org.entur.lamassu.util.SpatialIndexCellCodec;
+import org.entur.lamassu.util.WebMercatorUtil;
 import org.redisson.api.GeoEntry;
 import org.redisson.api.GeoOrder;
+import org.redisson.api.GeoPosition;
 import org.redisson.api.GeoUnit;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
 import org.redisson.api.RGeo;
+import org.redisson.api.RMap;
+import org.redisson.api.RMapAsync;
+import org.redisson.api.RedissonClient;
 import org.redisson.api.geo.GeoSearchArgs;
+import org.redisson.api.geo.OptionalGeoSearch;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.codec.CompositeCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Spatial index split into partitions by system, and by any further attributes chosen by the
+ * subclass. Each partition is kept in a separate geo set, and its attributes and bounding box
+ * are kept in a partition map, so that queries only search the partitions that can contain
+ * matching entries.
+ *
+ * Members are stored in a compact binary encoding chosen by the subclass, which leaves out the
+ * attributes held by the partition descriptor. Query results are filtered on the encoded members,
+ * and only the members that are returned are decoded.
+ *
+ * The entries of each partition are also counted by cell of the tile grid at zoom levels up to
+ * 16 when the partition is updated, so that they can be counted by cell without searching them.
+ */
+public abstract class SpatialIndexImpl<S extends SpatialIndexId, T extends LocationEntity, F extends FilterParameters> implements SpatialIndex<S, T, F> {
+    private static final String PARTITIONS_CACHE_KEY = "partitions";
+    private static final double NEAREST_INITIAL_RADIUS_METERS = 250;
+    private static final double BOX_MARGIN_METERS = 1;
+    private static final long SEARCH_TIMEOUT_SECONDS = 5;
+    private static final String SEARCH_FAILURES_METRIC = "lamassu.spatialindex.search.failures";
+    private static final int MAX_STORED_CELL_ZOOM = 16;
+    private static final Codec CELLS_CODEC = new CompositeCodec(StringCodec.INSTANCE, ByteArrayCodec.INSTANCE);
+
+    private final RedissonClient redissonClient;
+    private final String name;
+    private final String serializationVersion;
+    private final RMap<String, SpatialIndexPartition> partitions;
+    private final RMap<String, byte[]> cells;
 
-public abstract class SpatialIndexImpl<S extends SpatialIndexId, T extends LocationEntity> implements SpatialIndex<S, T> {
-    private final RGeo<S> spatialIndex;
+    // Partitions of each system as last written by this node, so that updates need not read them back
+    private final Map<String, Map<String, SpatialIndexPartition>> writtenPartitions = new ConcurrentHashMap<>();
+
+    // Partitions change at most once per feed update, so readers can hold on to them for a little while
+    private final LocalCache<String, Map<String, SpatialIndexPartition>> partitionsCache = new LocalCache<>(5, TimeUnit.SECONDS, 1);
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    protected SpatialIndexImpl(RGeo<S> spatialIndex) {
-        this.spatialIndex = spatialIndex;
+    protected SpatialIndexImpl(RedissonClient redissonClient, String name, String serializationVersion) {
+        this.redissonClient = redissonClient;
+        this.name = name;
+        this.serializationVersion = serializationVersion;
+        this.partitions = redissonClient.getMap(name + "Partitions_" + serializationVersion);
+        this.cells = redissonClient.getMap(name + "Cells_" + serializationVersion, CELLS_CODEC);
     }
 
+    /**
+     * Name of the partition the entry with the given id belongs to, unique within the index
+     */
+    protected abstract String getPartitionName(S id);
+
+    /**
+     * Add the attributes shared by all entries of a partition to its description
+     */
+    protected abstract void describePartition(SpatialIndexPartition partition, S id);
+
+    /**
+     * Whether a partition can contain entries matching the filters
+     */
+    protected abstract boolean filterPartition(SpatialIndexPartition partition, F filterParameters);
+
+    /**
+     * Whether the entries matching the filters are exactly the entries of the partitions
+     * accepted by filterPartition, so that entries need not be filtered individually. By default
+     * entries are partitioned by every attribute they can be filtered on.
+     */
+    protected boolean isFilteredByPartition(F filterParameters) {
+        return true;
+    }
+
+    /**
+     * Filter on encoded members, for filters that are not determined by partition. Only used when
+     * isFilteredByPartition is false, so subclasses overriding one must override the other.
+     */
+    protected Predicate<byte[]> memberFilter(F filterParameters) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no filters that are not determined by partition");
+    }
+
+    protected abstract byte[] encode(S id);
+
+    protected abstract S decode(byte[] member, SpatialIndexPartition partition);
+
     @Override
     public void addAll(Map<S, T> spatialIndexUpdateMap) {
         try {
-            spatialIndex.addAsync(spatialIndexUpdateMap.entrySet().stream()
-                    .filter(e -> e.getValue() != null)
-                    .filter(e -> e.getValue().getLat() != null && e.getValue().getLon() != null)
-                    .map(this::map).toArray(GeoEntry[]::new));
+            groupByPartition(spatialIndexUpdateMap).forEach((partitionKey, entries) ->
+                    getGeo(partitionKey).addAsync(toGeoEntries(entries))
+            );
         } catch (RedisException e) {
             logger.warn("Caught exception while adding entries to spatialIndex", e);
         }
     }
 
+    @Override
+    public void addAll(RBatch batch, Map<S, T> spatialIndexUpdateMap) {
+        groupByPartition(spatialIndexUpdateMap).forEach((partitionKey, entries) ->
+                batch.<byte[]>getGeo(partitionKey, ByteArrayCodec.INSTANCE).addAsync(toGeoEntries(entries))
+        );
+    }
+
+    private Map<String, Map<S, T>> groupByPartition(Map<S, T> spatialIndexUpdateMap) {
+        return spatialIndexUpdateMap.entrySet().stream()
+                .collect(Collectors.groupingBy(
+                        e -> getPartitionKey(e.getKey()),
+                        Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)
+                ));
+    }
+
+    private GeoEntry[] toGeoEntries(Map<S, T> spatialIndexUpdateMap) {
+        return spatialIndexUpdateMap.entrySet().stream()
+                .filter(e -> e.getValue() != null)
+                .filter(e -> e.getValue().getLat() != null && e.getValue().getLon() != null)
+                .map(this::map).toArray(GeoEntry[]::new);
+    }
+
     private GeoEntry map(Map.Entry<S, T> entry) {
         var key = entry.getKey();
         var entity = entry.getValue();
-        return new GeoEntry(entity.getLon(), entity.getLat(), key);
+        return new GeoEntry(entity.getLon(), entity.getLat(), encode(key));
     }
 
     @Override
     public void removeAll(Set<S> ids) {
-        spatialIndex.removeAllAsync(ids);
+        groupIdsByPartition(ids).forEach((partitionKey, partitionIds) ->
+                getGeo(partitionKey).removeAllAsync(partitionIds)
+        );
+    }
+
+    @Override
+    public void removeAll(RBatch batch, Set<S> ids) {
+        groupIdsByPartition(ids).forEach((partitionKey, partitionIds) ->
+                batch.<byte[]>getGeo(partitionKey, ByteArrayCodec.INSTANCE).removeAllAsync(partitionIds)
+        );
+    }
+
+    private Map<String, List<byte[]>> groupIdsByPartition(Set<S> ids) {
+        return ids.stream().collect(Collectors.groupingBy(
+                this::getPartitionKey,
+                Collectors.mapping(this::encode, Collectors.toList())
+        ));
+    }
+
+    @Override
+    public void updatePartitions(RBatch batch, FeedProvider feedProvider, Map<S, T> entries) {
+        var updatedPartitions = new HashMap<String, SpatialIndexPartition>();
+        var batchCells = batch.<String, byte[]>getMap(cells.getName(), CELLS_CODEC);
+
+        groupByPartition(entries).forEach((partitionKey, partitionEntries) -> {
+            var partition = new SpatialIndexPartition();
+            partition.setKey(partitionKey);
+            partition.setCodespace(feedProvider.getCodespace());
+            partition.setSystemId(feedProvider.getSystemId());
+            partition.setOperatorId(feedProvider.getOperatorId());
+            describePartition(partition, partitionEntries.keySet().iterator().next());
+            partition.setBoundingBox(BoundingBox.ofEntities(partitionEntries.values()));
+            partition.setSize(partitionEntries.size());
+            updatedPartitions.put(partitionKey, partition);
+            putCells(batchCells, partitionKey, partitionEntries);
+        });
+
+        // Partitions that are no longer in use are kept without a bounding box. Queries skip them,
+        // but they are still visited when scanning the index for orphans.
+        var previousPartitions = writtenPartitions.computeIfAbsent(feedProvider.getSystemId(), this::readPartitions);
+        previousPartitions.values().stream()
+                .filter(partition -> partition.getBoundingBox() != null)
+                .filter(partition -> !updatedPartitions.containsKey(partition.getKey()))
+                .forEach(partition -> {
+                    partition.setBoundingBox(null);
+                    partition.setSize(0);
+                    updatedPartitions.put(partition.getKey(), partition);
+                    batchCells.fastRemoveAsync(getCellsKeys(partition.getKey()));
+                });
+
+        var batchPartitions = batch.<String, SpatialIndexPartition>getMap(partitions.getName());
+        updatedPartitions.forEach(batchPartitions::fastPutAsync);
+
+        var writtenSystemPartitions = new HashMap<>(previousPartitions);
+        writtenSystemPartitions.putAll(updatedPartitions);
+        writtenPartitions.put(feedProvider.getSystemId(), writtenSystemPartitions);
+    }
+
+    /**
+     * Counts the entries of a partition by cell at the deepest stored zoom level, and merges the
+     * cells into their parent cells for each zoom level up
+     */
+    private void putCells(RMapAsync<String, byte[]> batchCells, String partitionKey, Map<S, T> partitionEntries) {
+        var id = partitionEntries.keySet().iterator().next();
+        var member = encode(id);
+        var sums = new HashMap<Long, CellSum>();
+        for (var entity : partitionEntries.values()) {
+            if (entity != null && entity.getLat() != null && entity.getLon() != null) {
+                count(sums, entity.getLat(), entity.getLon(), MAX_STORED_CELL_ZOOM);
+            }
+        }
+
+        for (int zoom = MAX_STORED_CELL_ZOOM; zoom >= 0; zoom--) {
+            var zoomCells = new ArrayList<SpatialIndexCell<S>>(sums.size());
+            for (var sum : sums.values()) {
+                zoomCells.add(sum.toCell(id));
+            }
+            batchCells.fastPutAsync(getCellsKey(partitionKey, zoom), SpatialIndexCellCodec.encode(member, zoomCells));
+
+            var parents = new HashMap<Long, CellSum>();
+            for (var sum : sums.values()) {
+                parents.computeIfAbsent(getCellKey(sum.x >> 1, sum.y >> 1), key -> new CellSum(sum.x >> 1, sum.y >> 1)).add(sum);
+            }
+            sums = parents;
+        }
+    }
+
+    /**
+     * Only read when a system is first updated by this node, later updates use the partitions
+     * written by the previous update
+     */
+    private Map<String, SpatialIndexPartition> readPartitions(String systemId) {
+        return partitions.readAllValues().stream()
+                .filter(partition -> systemId.equals(partition.getSystemId()))
+                .collect(Collectors.toMap(SpatialIndexPartition::getKey, Function.identity()));
+    }
+
+    @Override
+    public List<S> radius(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count) {
+        return radiusAsync(longitude, latitude, radius, geoUnit, geoOrder, filterParameters, count).join();
+    }
+
+    @Override
+    public CompletableFuture<List<S>> radiusAsync(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count) {
+        return radiusHits(longitude, latitude, radius, geoUnit, geoOrder, filterParameters, count).thenApply(this::decode);
+    }
+
+    @Override
+    public CompletableFuture<Map<S, GeoPosition>> radiusWithPositionsAsync(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count) {
+        return radiusHits(longitude, latitude, radius, geoUnit, geoOrder, filterParameters, count).thenApply(this::decodeWithPositions);
+    }
+
+    private CompletableFuture<List<Hit>> radiusHits(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count) {
+        var searchArea = BoundingBox.ofCircle(latitude, longitude, GeoUtil.toMeters(radius, geoUnit));
+        return search(searchArea, () -> GeoSearchArgs.from(longitude, latitude).radius(radius, geoUnit), latitude, longitude, geoOrder, filterParameters, count, null);
+    }
+
+    @Override
+    public List<S> box(BoundingBox boundingBox, F filterParameters, Integer count) {
+        return boxAsync(boundingBox, filterParameters, count).join();
+    }
+
+    /**
+     * Entries are ordered by distance from the center of the bounding box
+     */
+    @Override
+    public CompletableFuture<List<S>> boxAsync(BoundingBox boundingBox, F filterParameters, Integer count) {
+        return boxHits(boundingBox, filterParameters, count).thenApply(this::decode);
+    }
+
+    @Override
+    public Map<S, GeoPosition> boxWithPositions(BoundingBox boundingBox, F filterParameters, Integer count) {
+        return boxWithPositionsAsync(boundingBox, filterParameters, count).join();
+    }
+
+    /**
+     * Entries are ordered by distance from the center of the bounding box
+     */
+    @Override
+    public CompletableFuture<Map<S, GeoPosition>> boxWithPositionsAsync(BoundingBox boundingBox, F filterParameters, Integer count) {
+        return boxHits(boundingBox, filterParameters, count).thenApply(this::decodeWithPositions);
+    }
+
+    private CompletableFuture<List<Hit>> boxHits(BoundingBox boundingBox, F filterParameters, Integer count) {
+        var latitude = (boundingBox.getMinLat() + boundingBox.getMaxLat()) / 2;
+        var longitude = (boundingBox.getMinLon() + boundingBox.getMaxLon()) / 2;
+        return search(boundingBox, () -> getBoxSearchArgs(boundingBox), latitude, longitude, GeoOrder.ASC, filterParameters, count, boundingBox);
+    }
+
+    /**
+     * A box around the center of the bounding box that covers all of it. Redis measures the width
+     * of the box at the latitude of each entry, so the width is that of the bounding box at its
+     * latitude closest to the equator, where it is widest. The box is widened by a meter, so that
+     * entries on the edges are not lost to rounding. The box still covers entries outside the
+     * bounding box towards the poles, so the results must be checked against the bounding box.
+     */
+    private OptionalGeoSearch getBoxSearchArgs(BoundingBox boundingBox) {
+        var latitude = (boundingBox.getMinLat() + boundingBox.getMaxLat()) / 2;
+        var longitude = (boundingBox.getMinLon() + boundingBox.getMaxLon()) / 2;
+        var widestLatitude = boundingBox.getMinLat() <= 0 && boundingBox.getMaxLat() >= 0
+                ? 0
+                : Math.min(Math.abs(boundingBox.getMinLat()), Math.abs(boundingBox.getMaxLat()));
+        var height = (boundingBox.getMaxLat() - boundingBox.getMinLat()) * GeoUtil.METERS_PER_DEGREE_LATITUDE + BOX_MARGIN_METERS;
+        var width = (boundingBox.getMaxLon() - boundingBox.getMinLon()) * GeoUtil.METERS_PER_DEGREE_LATITUDE * Math.cos(Math.toRadians(widestLatitude)) + BOX_MARGIN_METERS;
+        return GeoSearchArgs.from(longitude, latitude).box(width, height, GeoUnit.METERS);
+    }
+
+    /**
+     * Searches the partitions overlapping the search area, and orders the matching entries by
+     * distance from the given point. Entries outside the bounding box are left out, if one is given.
+     */
+    private CompletableFuture<List<Hit>> search(
+            BoundingBox searchArea,
+            Supplier<OptionalGeoSearch> searchArgs,
+            double latitude,
+            double longitude,
+            GeoOrder geoOrder,
+            F filterParameters,
+            Integer count,
+            BoundingBox boundingBox
+    ) {
+        var filteredByPartition = filterParameters == null || isFilteredByPartition(filterParameters);
+
+        // When every entry of the searched partitions is a match, each partition need return at most count entries
+        var partitionCount = filteredByPartition ? count : null;
+
+        return getSearchedPartitions(searchArea, filterParameters).thenCompose(searchedPartitions -> {
+            var searches = new ArrayList<CompletableFuture<Map<byte[], GeoPosition>>>();
+            for (var partition : searchedPartitions) {
+                searches.add(searchPartition(partition, searchArgs, geoOrder, partitionCount, boundingBox));
+            }
+
+            return allOf(searches).thenApply(done -> {
+                var memberFilter = filteredByPartition ? null : memberFilter(filterParameters);
+                var hits = new ArrayList<Hit>();
+                for (int i = 0; i < searches.size(); i++) {
+                    var partition = searchedPartitions.get(i);
+                    searches.get(i).join().forEach((member, position) -> {
+                        if (memberFilter == null || memberFilter.test(member)) {
+                            var distance = GeoUtil.distance(latitude, longitude, position.getLatitude(), position.getLongitude());
+                            hits.add(new Hit(member, position, distance, partition));
+                        }
+                    });
+                }
+
+                Comparator<Hit> comparator = Comparator.comparingDouble(hit -> hit.distance);
+                if (geoOrder == GeoOrder.DESC) {
+                    comparator = comparator.reversed();
+                }
+                hits.sort(comparator);
+
+                if (count != null && hits.size() > count) {
+                    return new ArrayList<>(hits.subList(0, count));
+                }
+                return hits;
+            });
+        });
+    }
+
+    /**
+     * Searches one partition, keeping only entries within the bounding box if one is given. A
+     * search limited to count entries may have returned entries outside the bounding box in place
+     * of entries inside it, and the partition is then searched again without the limit.
+     */
+    private CompletableFuture<Map<byte[], GeoPosition>> searchPartition(
+            SpatialIndexPartition partition,
+            Supplier<OptionalGeoSearch> searchArgs,
+            GeoOrder geoOrder,
+            Integer count,
+            BoundingBox boundingBox
+    ) {
+        var geo = getGeo(partition.getKey());
+        if (count == null) {
+            return getSearchResult(partition.getKey(), geo.searchWithPositionAsync(searchArgs.get()))
+                    .thenApply(result -> within(result, boundingBox));
+        }
+        return getSearchResult(partition.getKey(), geo.searchWithPositionAsync(searchArgs.get().order(geoOrder).count(count))).thenCompose(result -> {
+            var inside = within(result, boundingBox);
+            if (result.size() < count || inside.size() == result.size()) {
+                return CompletableFuture.completedFuture(inside);
+            }
+            return getSearchResult(partition.getKey(), geo.searchWithPositionAsync(searchArgs.get()))
+                    .thenApply(all -> within(all, boundingBox));
+        });
+    }
+
+    private static Map<byte[], GeoPosition> within(Map<byte[], GeoPosition> positions, BoundingBox boundingBox) {
+        if (boundingBox == null) {
+            return positions;
+        }
+        var result = new LinkedHashMap<byte[], GeoPosition>();
+        positions.forEach((member, position) -> {
+            if (boundingBox.contains(position.getLatitude(), position.getLongitude())) {
+                result.put(member, position);
+            }
+        });
+        return result;
+    }
+
+    private List<S> decode(List<Hit> hits) {
+        return hits.stream().map(hit -> decode(hit.member, hit.partition)).collect(Collectors.toList());
+    }
+
+    private Map<S, GeoPosition> decodeWithPositions(List<Hit> hits) {
+        var result = new LinkedHashMap<S, GeoPosition>();
+        hits.forEach(hit -> result.put(decode(hit.member, hit.partition), hit.position));
+        return result;
     }
 
+    /**
+     * Cells down to zoom level 16 are read as stored by the last update of each searched partition,
+     * when the entries matching the filters are exactly the entries of the searched partitions.
+     * A stored cell is returned when its mean position is within the bounding box, so cells on the
+     * edge of the bounding box may count entries just outside it, or leave out entries just inside
+     * it. Entries removed or expired since the last update are still counted. Otherwise the
+     * entries within the bounding box are searched and counted.
+     */
     @Override
-    public List<S> radius(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder) {
-        return spatialIndex.search(GeoSearchArgs.from(longitude, latitude).radius(radius, geoUnit).order(geoOrder));
+    public CompletableFuture<List<SpatialIndexCell<S>>> cellsAsync(BoundingBox boundingBox, F filterParameters, int zoom) {
+        var filteredByPartition = filterParameters == null || isFilteredByPartition(filterParameters);
+        return getSearchedPartitions(boundingBox, filterParameters).thenCompose(searchedPartitions -> {
+            if (filteredByPartition && zoom <= MAX_STORED_CELL_ZOOM) {
+                return readCells(searchedPartitions, boundingBox, zoom);
+            }
+            return searchCells(searchedPartitions, boundingBox, filteredByPartition ? null : memberFilter(filterParameters), zoom);
+        });
+    }
+
+    private CompletableFuture<List<SpatialIndexCell<S>>> readCells(List<SpatialIndexPartition> searchedPartitions, BoundingBox boundingBox, int zoom) {
+        var partitionsByCellsKey = new HashMap<String, SpatialIndexPartition>();
+        searchedPartitions.forEach(partition -> partitionsByCellsKey.put(getCellsKey(partition.getKey(), zoom), partition));
+        return getSearchResult(cells.getName(), cells.getAllAsync(partitionsByCellsKey.keySet())).thenApply(values -> {
+            var result = new ArrayList<SpatialIndexCell<S>>();
+            values.forEach((cellsKey, value) -> {
+                var partition = partitionsByCellsKey.get(cellsKey);
+                SpatialIndexCellCodec.decode(value, member -> decode(member, partition)).stream()
+                        .filter(cell -> boundingBox.contains(cell.getLatitude(), cell.getLongitude()))
+                        .forEach(result::add);
+            });
+            return result;
+        });
+    }
+
+    private CompletableFuture<List<SpatialIndexCell<S>>> searchCells(List<SpatialIndexPartition> searchedPartitions, BoundingBox boundingBox, Predicate<byte[]> memberFilter, int zoom) {
+        var searches = new ArrayList<CompletableFuture<Map<byte[], GeoPosition>>>();
+        for (var partition : searchedPartitions) {
+            searches.add(searchPartition(partition, () -> getBoxSearchArgs(boundingBox), GeoOrder.ASC, null, boundingBox));
+        }
+
+        return allOf(searches).thenApply(done -> {
+            var result = new ArrayList<SpatialIndexCell<S>>();
+            for (int i = 0; i < searches.size(); i++) {
+                var sums = new HashMap<Long, CellSum>();
+                byte[] counted = null;
+                for (var entry : searches.get(i).join().entrySet()) {
+                    if (memberFilter == null || memberFilter.test(entry.getKey())) {
+                        count(sums, entry.getValue().getLatitude(), entry.getValue().getLongitude(), zoom);
+                        counted = entry.getKey();
+                    }
+                }
+                if (counted != null) {
+                    var id = decode(counted, searchedPartitions.get(i));
+                    for (var sum : sums.values()) {
+                        result.add(sum.toCell(id));
+                    }
+                }
+            }
+            return result;
+        });
+    }
+
+    private static void count(Map<Long, CellSum> sums, double latitude, double longitude, int zoom) {
+        var x = getTileIndex(WebMercatorUtil.lonToTileX(longitude, zoom), zoom);
+        var y = getTileIndex(WebMercatorUtil.latToTileY(latitude, zoom), zoom);
+        sums.computeIfAbsent(getCellKey(x, y), key -> new CellSum(x, y)).add(latitude, longitude);
+    }
+
+    private static int getTileIndex(double tileCoordinate, int zoom) {
+        return Math.max(0, Math.min((int) tileCoordinate, (1 << zoom) - 1));
+    }
+
+    private static long getCellKey(int x, int y) {
+        return ((long) x << 32) | y;
+    }
+
+    private static String getCellsKey(String partitionKey, int zoom) {
+        return partitionKey + "_" + zoom;
+    }
+
+    private static String[] getCellsKeys(String partitionKey) {
+        var keys = new String[MAX_STORED_CELL_ZOOM + 1];
+        for (int zoom = 0; zoom <= MAX_STORED_CELL_ZOOM; zoom++) {
+            keys[zoom] = getCellsKey(partitionKey, zoom);
+        }
+        return keys;
+    }
+
+    /**
+     * Entries are assumed to be spread evenly over the bounding box of their partition
+     */
+    @Override
+    public CompletableFuture<Double> estimateCountAsync(BoundingBox boundingBox, F filterParameters) {
+        return getSearchedPartitions(boundingBox, filterParameters).thenApply(searchedPartitions -> searchedPartitions.stream()
+                .mapToDouble(partition -> partition.getSize() * partition.getBoundingBox().overlap(boundingBox))
+                .sum());
+    }
+
+    /**
+     * Stored cells are read for the whole of each searched partition, so each partition counts
+     * the cells of its bounding box, up to one per entry
+     */
+    @Override
+    public CompletableFuture<Double> estimateCellCountAsync(BoundingBox boundingBox, F filterParameters, int zoom) {
+        var filteredByPartition = filterParameters == null || isFilteredByPartition(filterParameters);
+        if (!filteredByPartition || zoom > MAX_STORED_CELL_ZOOM) {
+            return estimateCountAsync(boundingBox, filterParameters);
+        }
+        return getSearchedPartitions(boundingBox, filterParameters).thenApply(searchedPartitions -> searchedPartitions.stream()
+                .mapToDouble(partition -> Math.min(partition.getSize(), getTileCount(partition.getBoundingBox(), zoom)))
+                .sum());
+    }
+
+    private static double getTileCount(BoundingBox boundingBox, int zoom) {
+        var width = getTileIndex(WebMercatorUtil.lonToTileX(boundingBox.getMaxLon(), zoom), zoom)
+                - getTileIndex(WebMercatorUtil.lonToTileX(boundingBox.getMinLon(), zoom), zoom) + 1;
+        var height = getTileIndex(WebMercatorUtil.latToTileY(boundingBox.getMinLat(), zoom), zoom)
+                - getTileIndex(WebMercatorUtil.latToTileY(boundingBox.getMaxLat(), zoom), zoom) + 1;
+        return (double) width * height;
+    }
+
+    private CompletableFuture<List<SpatialIndexPartition>> getSearchedPartitions(BoundingBox searchArea, F filterParameters) {
+        return getPartitions().thenApply(partitionsByKey -> partitionsByKey.values().stream()
+                .filter(partition -> partition.getBoundingBox() != null && partition.getBoundingBox().intersects(searchArea))
+                .filter(partition -> filterParameters == null || filterPartition(partition, filterParameters))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<S> nearest(Double longitude, Double latitude, F filterParameters, int count, double maxRadius) {
+        return nearestAsync(longitude, latitude, filterParameters, count, maxRadius).join();
+    }
+
+    /**
+     * Searches circles of doubling radius around the point until count matching entries are found.
+     * Every entry within a circle is searched, so the count nearest entries in a circle holding at
+     * least count entries are the count nearest entries overall. The search also stops once the
+     * circle covers every partition that can hold matching entries.
+     */
+    @Override
+    public CompletableFuture<List<S>> nearestAsync(Double longitude, Double latitude, F filterParameters, int count, double maxRadius) {
+        return nearestHits(longitude, latitude, filterParameters, count, maxRadius).thenApply(this::decode);
+    }
+
+    @Override
+    public CompletableFuture<Map<S, GeoPosition>> nearestWithPositionsAsync(Double longitude, Double latitude, F filterParameters, int count, double maxRadius) {
+        return nearestHits(longitude, latitude, filterParameters, count, maxRadius).thenApply(this::decodeWithPositions);
+    }
+
+    private CompletableFuture<List<Hit>> nearestHits(Double longitude, Double latitude, F filterParameters, int count, double maxRadius) {
+        return getPartitions().thenCompose(partitionsByKey -> {
+            var searchLimit = partitionsByKey.values().stream()
+                    .filter(partition -> partition.getBoundingBox() != null)
+                    .filter(partition -> filterParameters == null || filterPartition(partition, filterParameters))
+                    .mapToDouble(partition -> partition.getBoundingBox().maxDistance(latitude, longitude))
+                    .max()
+                    .orElse(0);
+            searchLimit = Math.min(searchLimit, maxRadius);
+
+            var radius = Math.min(NEAREST_INITIAL_RADIUS_METERS, searchLimit);
+            return nearest(longitude, latitude, filterParameters, count, radius, searchLimit);
+        });
+    }
+
+    private CompletableFuture<List<Hit>> nearest(Double longitude, Double latitude, F filterParameters, int count, double radius, double searchLimit) {
+        return radiusHits(longitude, latitude, radius, GeoUnit.METERS, GeoOrder.ASC, filterParameters, count).thenCompose(result -> {
+            if (result.size() >= count || radius >= searchLimit) {
+                return CompletableFuture.completedFuture(result);
+            }
+            return nearest(longitude, latitude, filterParameters, count, Math.min(radius * 2, searchLimit), searchLimit);
+        });
+    }
+
+    /**
+     * Looks up the positions in one request per partition
+     */
+    @Override
+    public Map<S, GeoPosition> getPositions(Collection<S> ids) {
+        var result = new HashMap<S, GeoPosition>();
+        ids.stream().collect(Collectors.groupingBy(this::getPartitionKey)).forEach((partitionKey, partitionIds) -> {
+            var idsByMember = new HashMap<ByteBuffer, S>();
+            var members = partitionIds.stream()
+                    .map(id -> {
+                        var member = encode(id);
+                        idsByMember.put(ByteBuffer.wrap(member), id);
+                        return member;
+                    })
+                    .toArray(byte[][]::new);
+            getGeo(partitionKey).pos(members).forEach((member, position) -> {
+                if (position != null) {
+                    result.put(idsByMember.get(ByteBuffer.wrap(member)), position);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * A partition that cannot be searched within 5 seconds fails the search, rather than leaving
+     * its entries out of the result unnoticed. Failures are logged and counted by cause.
+     */
+    private <R> CompletableFuture<R> getSearchResult(String partitionKey, RFuture<R> search) {
+        return search.toCompletableFuture()
+                .orTimeout(SEARCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .handle((result, e) -> {
+                    if (e == null) {
+                        return result;
+                    }
+                    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    var timedOut = cause instanceof TimeoutException;
+                    Metrics.counter(SEARCH_FAILURES_METRIC, "index", name, "cause", timedOut ? "timeout" : "error").increment();
+                    if (timedOut) {
+                        logger.warn("Unable to search spatial index partition {} within {} seconds", partitionKey, SEARCH_TIMEOUT_SECONDS);
+                        throw new CompletionException(new TimeoutException("Spatial index partition could not be searched within " + SEARCH_TIMEOUT_SECONDS + " seconds"));
+                    }
+                    logger.warn("Unable to search spatial index partition {}", partitionKey, cause);
+                    throw new CompletionException(cause);
+                });
+    }
+
+    private static CompletableFuture<Void> allOf(List<? extends CompletableFuture<?>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 
     @Override
     public Collection<S> getAll() {
-        return spatialIndex.readAll();
+        return partitions.readAllValues().stream()
+                .flatMap(partition -> getGeo(partition.getKey()).readAll().stream()
+                        .map(member -> decode(member, partition)))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Iterator<S> iterator(int batchSize) {
+        var partitionIterator = partitions.readAllValues().iterator();
+        return new Iterator<>() {
+            private SpatialIndexPartition partition;
+            private Iterator<byte[]> members = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!members.hasNext() && partitionIterator.hasNext()) {
+                    partition = partitionIterator.next();
+                    members = getGeo(partition.getKey()).iterator(batchSize);
+                }
+                return members.hasNext();
+            }
+
+            @Override
+            public S next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return decode(members.next(), partition);
+            }
+        };
+    }
+
+    private CompletableFuture<Map<String, SpatialIndexPartition>> getPartitions() {
+        var cached = partitionsCache.get(PARTITIONS_CACHE_KEY);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return partitions.readAllMapAsync().toCompletableFuture()
+                .orTimeout(5, TimeUnit.SECONDS)
+                .thenApply(partitionsByKey -> {
+                    partitionsCache.put(PARTITIONS_CACHE_KEY, partitionsByKey);
+                    return partitionsByKey;
+                });
+    }
+
+    private RGeo<byte[]> getGeo(String partitionKey) {
+        return redissonClient.getGeo(partitionKey, ByteArrayCodec.INSTANCE);
+    }
+
+    private String getPartitionKey(S id) {
+        return name + "_" + getPartitionName(id) + "_" + serializationVersion;
+    }
+
+    private static class CellSum {
+        private final int x;
+        private final int y;
+        private int count;
+        private double latSum;
+        private double lonSum;
+
+        private CellSum(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        private void add(double latitude, double longitude) {
+            count++;
+            latSum += latitude;
+            lonSum += longitude;
+        }
+
+        private void add(CellSum other) {
+            count += other.count;
+            latSum += other.latSum;
+            lonSum += other.lonSum;
+        }
+
+        private <S extends SpatialIndexId> SpatialIndexCell<S> toCell(S id) {
+            return new SpatialIndexCell<>(x, y, count, latSum / count, lonSum / count, id);
+        }
+    }
+
+    private static class Hit {
+        private final byte[] member;
+        private final GeoPosition position;
+        private final double distance;
+        private final SpatialIndexPartition partition;
+
+        private Hit(byte[] member, GeoPosition position, double distance, SpatialIndexPartition partition) {
+            this.member = member;
+            this.position = position;
+            this.distance = distance;
+            this.partition = partition;
+        }
     }
 }
@@ -18,18 +18,66 @@
 
 package org.entur.lamassu.cache.impl;
 
+import org.entur.lamassu.cache.SpatialIndexPartition;
 import org.entur.lamassu.cache.StationSpatialIndex;
 import org.entur.lamassu.cache.StationSpatialIndexId;
+import org.entur.lamassu.config.cache.RedissonCacheConfig;
 import org.entur.lamassu.model.entities.Station;
-import org.redisson.api.RGeo;
+import org.entur.lamassu.service.StationFilterParameters;
+import org.entur.lamassu.util.SpatialIndexIdFilter;
+import org.entur.lamassu.util.SpatialIndexMemberCodec;
+import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.function.Predicate;
+
 @Component
-public class StationSpatialIndexImpl extends SpatialIndexImpl<StationSpatialIndexId, Station> implements StationSpatialIndex {
+public class StationSpatialIndexImpl extends SpatialIndexImpl<StationSpatialIndexId, Station, StationFilterParameters> implements StationSpatialIndex {
 
     @Autowired
-    public StationSpatialIndexImpl(RGeo<StationSpatialIndexId> stationSpatialIndex) {
-        super(stationSpatialIndex);
+    public StationSpatialIndexImpl(
+            RedissonClient redissonClient,
+            @Value("${org.entur.lamassu.serializationVersion}") String serializationVersion
+    ) {
+        super(redissonClient, RedissonCacheConfig.STATION_SPATIAL_INDEX_KEY, serializationVersion);
+    }
+
+    // A station can have vehicles of several form factors and propulsion types available, and
+    // availability changes all the time, so stations are only partitioned by system
+    @Override
+    protected String getPartitionName(StationSpatialIndexId id) {
+        return id.getSystemId();
+    }
+
+    @Override
+    protected void describePartition(SpatialIndexPartition partition, StationSpatialIndexId id) {
+        // Stations have no attributes shared by all stations of a system
+    }
+
+    @Override
+    protected boolean filterPartition(SpatialIndexPartition partition, StationFilterParameters filterParameters) {
+        return SpatialIndexIdFilter.filterPartition(partition, filterParameters);
+    }
+
+    @Override
+    protected boolean isFilteredByPartition(StationFilterParameters filterParameters) {
+        return filterParameters.getAvailableFormFactors() == null && filterParameters.getAvailablePropulsionTypes() == null;
+    }
+
+    @Override
+    protected Predicate<byte[]> memberFilter(StationFilterParameters filterParameters) {
+        return SpatialIndexMemberCodec.stationFilter(filterParameters);
+    }
+
+    @Override
+    protected byte[] encode(StationSpatialIndexId id) {
+        return SpatialIndexMemberCodec.encodeStation(id);
+    }
+
+    @Override
+    protected StationSpatialIndexId decode(byte[] member, SpatialIndexPartition partition) {
+        return SpatialIndexMemberCodec.decodeStation(member, partition);
     }
 }
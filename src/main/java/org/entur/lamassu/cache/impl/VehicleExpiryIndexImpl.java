@@ -0,0 +1,62 @@
+package org.entur.lamassu.cache.impl;
+
+import org.entur.lamassu.cache.VehicleExpiryIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.config.cache.RedissonCacheConfig;
+import org.redisson.api.RBatch;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Component
+public class VehicleExpiryIndexImpl implements VehicleExpiryIndex {
+    private final RedissonClient redissonClient;
+
+    @Value("${org.entur.lamassu.serializationVersion}")
+    private String serializationVersion;
+
+    @Autowired
+    public VehicleExpiryIndexImpl(RedissonClient redissonClient) {
+        this.redissonClient = redissonClient;
+    }
+
+    @Override
+    public void addAll(RBatch batch, String systemId, Set<VehicleSpatialIndexId> ids, long expiresAtEpochSeconds) {
+        double score = expiresAtEpochSeconds;
+        batch.<VehicleSpatialIndexId>getScoredSortedSet(getKey(systemId))
+                .addAllAsync(ids.stream().collect(Collectors.toMap(Function.identity(), id -> score)));
+    }
+
+    @Override
+    public void addAll(String systemId, Set<VehicleSpatialIndexId> ids, long expiresAtEpochSeconds) {
+        double score = expiresAtEpochSeconds;
+        redissonClient.<VehicleSpatialIndexId>getScoredSortedSet(getKey(systemId))
+                .addAll(ids.stream().collect(Collectors.toMap(Function.identity(), id -> score)));
+    }
+
+    @Override
+    public void removeAll(RBatch batch, String systemId, Set<VehicleSpatialIndexId> ids) {
+        batch.<VehicleSpatialIndexId>getScoredSortedSet(getKey(systemId)).removeAllAsync(ids);
+    }
+
+    @Override
+    public void removeAll(String systemId, Set<VehicleSpatialIndexId> ids) {
+        redissonClient.<VehicleSpatialIndexId>getScoredSortedSet(getKey(systemId)).removeAll(ids);
+    }
+
+    @Override
+    public Collection<VehicleSpatialIndexId> getExpired(String systemId, long nowEpochSeconds, int limit) {
+        return redissonClient.<VehicleSpatialIndexId>getScoredSortedSet(getKey(systemId))
+                .valueRange(Double.NEGATIVE_INFINITY, true, nowEpochSeconds, true, 0, limit);
+    }
+
+    private String getKey(String systemId) {
+        return RedissonCacheConfig.VEHICLE_EXPIRY_INDEX_KEY + "_" + systemId + "_" + serializationVersion;
+    }
+}
@@ -1,17 +1,60 @@
 package org.entur.lamassu.cache.impl;
 
+import org.entur.lamassu.cache.SpatialIndexPartition;
 import org.entur.lamassu.cache.VehicleSpatialIndex;
 import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.config.cache.RedissonCacheConfig;
 import org.entur.lamassu.model.entities.Vehicle;
-import org.redisson.api.RGeo;
+import org.entur.lamassu.service.VehicleFilterParameters;
+import org.entur.lamassu.util.SpatialIndexIdFilter;
+import org.entur.lamassu.util.SpatialIndexMemberCodec;
+import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+
 @Component
-public class VehicleSpatialIndexImpl extends SpatialIndexImpl<VehicleSpatialIndexId, Vehicle> implements VehicleSpatialIndex {
+public class VehicleSpatialIndexImpl extends SpatialIndexImpl<VehicleSpatialIndexId, Vehicle, VehicleFilterParameters> implements VehicleSpatialIndex {
 
     @Autowired
-    public VehicleSpatialIndexImpl(RGeo<VehicleSpatialIndexId> vehicleSpatialIndex) {
-        super(vehicleSpatialIndex);
+    public VehicleSpatialIndexImpl(
+            RedissonClient redissonClient,
+            @Value("${org.entur.lamassu.serializationVersion}") String serializationVersion
+    ) {
+        super(redissonClient, RedissonCacheConfig.VEHICLE_SPATIAL_INDEX_KEY, serializationVersion);
+    }
+
+    // Vehicles are partitioned by every attribute they can be filtered on
+    @Override
+    protected String getPartitionName(VehicleSpatialIndexId id) {
+        return id.getSystemId()
+                + "_" + id.getFormFactor()
+                + "_" + id.getPropulsionType()
+                + (id.getReserved() ? "_reserved" : "")
+                + (id.getDisabled() ? "_disabled" : "");
+    }
+
+    @Override
+    protected void describePartition(SpatialIndexPartition partition, VehicleSpatialIndexId id) {
+        partition.setFormFactor(id.getFormFactor());
+        partition.setPropulsionType(id.getPropulsionType());
+        partition.setReserved(id.getReserved());
+        partition.setDisabled(id.getDisabled());
+    }
+
+    @Override
+    protected boolean filterPartition(SpatialIndexPartition partition, VehicleFilterParameters filterParameters) {
+        return SpatialIndexIdFilter.filterVehiclePartition(partition, filterParameters);
+    }
+
+    @Override
+    protected byte[] encode(VehicleSpatialIndexId id) {
+        return SpatialIndexMemberCodec.encodeVehicle(id);
+    }
+
+    @Override
+    protected VehicleSpatialIndexId decode(byte[] member, SpatialIndexPartition partition) {
+        return SpatialIndexMemberCodec.decodeVehicle(member, partition);
     }
 }
@@ -0,0 +1,247 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.replica;
+
+import org.entur.lamassu.cache.EntityCacheUpdate;
+import org.entur.lamassu.cache.SpatialIndexId;
+import org.entur.lamassu.cache.StationSpatialIndexId;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.LocationEntity;
+import org.entur.lamassu.model.entities.Station;
+import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.service.FeedProviderService;
+import org.entur.lamassu.util.SpatialIndexIdUtil;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RTopic;
+import org.redisson.api.map.event.EntryExpiredListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Keeps the local replicas of the vehicle and station caches and spatial indexes current on
+ * reader nodes. Replicas are bootstrapped from the leader's caches, and then updated from
+ * the change events published by the leader and from the expiry events of the leader's caches.
+ */
+@Component
+@Profile("!leader")
+@ConditionalOnProperty(name = "org.entur.lamassu.localReplica.enabled", havingValue = "true")
+public class EntityCacheReplicator {
+    private final Replication<VehicleSpatialIndexId, Vehicle> vehicleReplication;
+    private final Replication<StationSpatialIndexId, Station> stationReplication;
+
+    @Autowired
+    public EntityCacheReplicator(
+            FeedProviderService feedProviderService,
+            RMapCache<String, Vehicle> vehicleCache,
+            RMapCache<String, Station> stationCache,
+            @Qualifier("vehicleUpdatesTopic") RTopic vehicleUpdatesTopic,
+            @Qualifier("stationUpdatesTopic") RTopic stationUpdatesTopic,
+            ReplicaVehicleCache replicaVehicleCache,
+            ReplicaVehicleSpatialIndex replicaVehicleSpatialIndex,
+            ReplicaStationCache replicaStationCache,
+            ReplicaStationSpatialIndex replicaStationSpatialIndex
+    ) {
+        vehicleReplication = new Replication<>(
+                feedProviderService,
+                vehicleCache,
+                vehicleUpdatesTopic,
+                replicaVehicleCache,
+                replicaVehicleSpatialIndex,
+                Vehicle::getSystemId,
+                SpatialIndexIdUtil::createVehicleSpatialIndexId
+        );
+        stationReplication = new Replication<>(
+                feedProviderService,
+                stationCache,
+                stationUpdatesTopic,
+                replicaStationCache,
+                replicaStationSpatialIndex,
+                station -> station.getSystem().getId(),
+                SpatialIndexIdUtil::createStationSpatialIndexId
+        );
+    }
+
+    @PostConstruct
+    public void start() {
+        vehicleReplication.start();
+        stationReplication.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        vehicleReplication.stop();
+        stationReplication.stop();
+    }
+
+    private static class Replication<S extends SpatialIndexId, T extends LocationEntity> {
+        private final Logger logger = LoggerFactory.getLogger(EntityCacheReplicator.class);
+        private final FeedProviderService feedProviderService;
+        private final RMapCache<String, T> source;
+        private final RTopic topic;
+        private final ReplicaEntityCache<T> cache;
+        private final ReplicaSpatialIndex<S, T, ?> spatialIndex;
+        private final Function<T, String> systemIdResolver;
+        private final BiFunction<T, FeedProvider, S> spatialIndexIdFactory;
+
+        // Keys of the updates received while bootstrapping. These updates may be older or newer than
+        // the snapshot, so the keys are read again from the source after the snapshot instead
+        private final Set<String> pendingKeys = new HashSet<>();
+        private boolean bootstrapped = false;
+
+        private int topicListenerId;
+        private int expiryListenerId;
+
+        Replication(
+                FeedProviderService feedProviderService,
+                RMapCache<String, T> source,
+                RTopic topic,
+                ReplicaEntityCache<T> cache,
+                ReplicaSpatialIndex<S, T, ?> spatialIndex,
+                Function<T, String> systemIdResolver,
+                BiFunction<T, FeedProvider, S> spatialIndexIdFactory
+        ) {
+            this.feedProviderService = feedProviderService;
+            this.source = source;
+            this.topic = topic;
+            this.cache = cache;
+            this.spatialIndex = spatialIndex;
+            this.systemIdResolver = systemIdResolver;
+            this.spatialIndexIdFactory = spatialIndexIdFactory;
+        }
+
+        void start() {
+            topicListenerId = topic.addListener(EntityCacheUpdate.class, (channel, update) -> onUpdate(update));
+            expiryListenerId = source.addListener((EntryExpiredListener<String, T>) event -> onExpired(event.getKey()));
+            bootstrap();
+        }
+
+        void stop() {
+            topic.removeListener(topicListenerId);
+            source.removeListener(expiryListenerId);
+        }
+
+        private void bootstrap() {
+            var snapshot = source.readAllMap();
+            synchronized (this) {
+                snapshot.forEach(this::put);
+            }
+
+            // Keys updated while they are read again are read once more, until no updates are pending
+            while (true) {
+                Set<String> keys;
+                synchronized (this) {
+                    if (pendingKeys.isEmpty()) {
+                        bootstrapped = true;
+                        break;
+                    }
+                    keys = new HashSet<>(pendingKeys);
+                    pendingKeys.clear();
+                }
+                var current = source.getAll(keys);
+                synchronized (this) {
+                    keys.forEach(key -> {
+                        var entity = current.get(key);
+                        if (entity != null) {
+                            put(key, entity);
+                        } else {
+                            remove(key);
+                        }
+                    });
+                }
+            }
+            logger.info("Bootstrapped local replica of {} with {} entities", source.getName(), snapshot.size());
+        }
+
+        private synchronized void onUpdate(EntityCacheUpdate<?> message) {
+            @SuppressWarnings("unchecked")
+            var update = (EntityCacheUpdate<T>) message;
+            if (!bootstrapped) {
+                pendingKeys.addAll(update.getRemovedKeys());
+                pendingKeys.addAll(update.getUpdatedEntities().keySet());
+                return;
+            }
+            update.getRemovedKeys().forEach(this::remove);
+            update.getUpdatedEntities().forEach(this::put);
+        }
+
+        private synchronized void onExpired(String key) {
+            if (!bootstrapped) {
+                pendingKeys.add(key);
+                return;
+            }
+            remove(key);
+        }
+
+        private void put(String key, T entity) {
+            var spatialIndexId = createSpatialIndexId(entity);
+            if (spatialIndexId == null) {
+                logger.debug("Unable to create spatial index id for replicated entity={}", key);
+                return;
+            }
+
+            var previousEntity = cache.get(key);
+            if (previousEntity != null) {
+                var previousSpatialIndexId = createSpatialIndexId(previousEntity);
+                if (previousSpatialIndexId != null && !previousSpatialIndexId.equals(spatialIndexId)) {
+                    spatialIndex.removeAll(Set.of(previousSpatialIndexId));
+                }
+            }
+
+            cache.updateAll(Map.of(key, entity), 0, TimeUnit.SECONDS);
+            spatialIndex.addAll(Map.of(spatialIndexId, entity));
+        }
+
+        private void remove(String key) {
+            var entity = cache.get(key);
+            if (entity == null) {
+                return;
+            }
+
+            cache.removeAll(Set.of(key));
+
+            var spatialIndexId = createSpatialIndexId(entity);
+            if (spatialIndexId != null) {
+                spatialIndex.removeAll(Set.of(spatialIndexId));
+            }
+        }
+
+        private S createSpatialIndexId(T entity) {
+            var feedProvider = feedProviderService.getFeedProviderBySystemId(systemIdResolver.apply(entity));
+            if (feedProvider == null) {
+                return null;
+            }
+            return spatialIndexIdFactory.apply(entity, feedProvider);
+        }
+    }
+}
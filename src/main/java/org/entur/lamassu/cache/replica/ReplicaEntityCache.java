@@ -0,0 +1,119 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.replica;
+
+import org.entur.lamassu.cache.EntityCache;
+import org.entur.lamassu.model.entities.Entity;
+import org.redisson.api.RBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory entity cache used on reader nodes when local replicas are enabled.
+ * Entries are written by {@link EntityCacheReplicator}, and expire when the leader's
+ * cache entries expire, hence the ttl given to updateAll is ignored. There is nothing to batch
+ * for an in-memory cache, so batched updates are applied immediately.
+ */
+abstract class ReplicaEntityCache<T extends Entity> implements EntityCache<T> {
+    private final Map<String, T> entities = new ConcurrentHashMap<>();
+
+    @Override
+    public List<T> getAll(Set<String> keys) {
+        return keys.stream()
+                .map(entities::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<T> getAll() {
+        return new ArrayList<>(entities.values());
+    }
+
+    @Override
+    public Map<String, T> getAllAsMap(Set<String> keys) {
+        var result = new HashMap<String, T>();
+        keys.forEach(key -> {
+            var entity = entities.get(key);
+            if (entity != null) {
+                result.put(key, entity);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<List<T>> getAllAsync(Set<String> keys) {
+        return CompletableFuture.completedFuture(getAll(keys));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, T>> getAllAsMapAsync(Set<String> keys) {
+        return CompletableFuture.completedFuture(getAllAsMap(keys));
+    }
+
+    @Override
+    public T get(String key) {
+        return entities.get(key);
+    }
+
+    @Override
+    public void updateAll(Map<String, T> entities, int ttl, TimeUnit timeUnit) {
+        this.entities.putAll(entities);
+    }
+
+    @Override
+    public void removeAll(Set<String> keys) {
+        keys.forEach(entities::remove);
+    }
+
+    @Override
+    public void updateAll(RBatch batch, Map<String, T> entities, int ttl, TimeUnit timeUnit) {
+        updateAll(entities, ttl, timeUnit);
+    }
+
+    @Override
+    public void removeAll(RBatch batch, Set<String> keys) {
+        removeAll(keys);
+    }
+
+    @Override
+    public void refreshTtl(RBatch batch, Set<String> keys, int ttl, TimeUnit timeUnit) {
+        // Entries expire when the leader's entries expire, so there is no ttl to refresh
+    }
+
+    @Override
+    public boolean hasKey(String key) {
+        return entities.containsKey(key);
+    }
+
+    @Override
+    public Set<String> getExistingKeys(Set<String> keys) {
+        return keys.stream().filter(entities::containsKey).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.replica;
+
+import org.entur.lamassu.cache.SpatialIndex;
+import org.entur.lamassu.cache.SpatialIndexCell;
+import org.entur.lamassu.cache.SpatialIndexId;
+import org.entur.lamassu.model.entities.LocationEntity;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.service.FilterParameters;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.GeoUtil;
+import org.entur.lamassu.util.WebMercatorUtil;
+import org.redisson.api.GeoOrder;
+import org.redisson.api.GeoPosition;
+import org.redisson.api.GeoUnit;
+import org.redisson.api.RBatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory spatial index used on reader nodes when local replicas are enabled. Entries
+ * are bucketed in a fixed grid of lat/lon cells, and radius queries only visit the cells
+ * overlapping the bounding box of the query circle. Batched updates are applied immediately.
+ */
+public abstract class ReplicaSpatialIndex<S extends SpatialIndexId, T extends LocationEntity, F extends FilterParameters> implements SpatialIndex<S, T, F> {
+    private static final double CELL_SIZE_DEGREES = 0.01;
+    private static final double NEAREST_INITIAL_RADIUS_METERS = 250;
+
+    private final Map<S, double[]> positions = new ConcurrentHashMap<>();
+    private final Map<Long, Set<S>> cells = new ConcurrentHashMap<>();
+
+    @Override
+    public void addAll(Map<S, T> spatialIndexUpdateMap) {
+        spatialIndexUpdateMap.forEach((id, entity) -> {
+            if (entity == null || entity.getLat() == null || entity.getLon() == null) {
+                return;
+            }
+            var position = new double[] { entity.getLat(), entity.getLon() };
+            var previousPosition = positions.put(id, position);
+            if (previousPosition != null) {
+                removeFromCell(id, previousPosition);
+            }
+            addToCell(id, position);
+        });
+    }
+
+    @Override
+    public void removeAll(Set<S> ids) {
+        ids.forEach(id -> {
+            var position = positions.remove(id);
+            if (position != null) {
+                removeFromCell(id, position);
+            }
+        });
+    }
+
+    @Override
+    public void addAll(RBatch batch, Map<S, T> spatialIndexUpdateMap) {
+        addAll(spatialIndexUpdateMap);
+    }
+
+    @Override
+    public void removeAll(RBatch batch, Set<S> ids) {
+        removeAll(ids);
+    }
+
+    @Override
+    public void updatePartitions(RBatch batch, FeedProvider feedProvider, Map<S, T> entries) {
+        // The replica is not partitioned
+    }
+
+    /**
+     * Whether an entry matches the filters
+     */
+    protected abstract boolean filter(S id, F filterParameters);
+
+    @Override
+    public List<S> radius(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count) {
+        var radiusMeters = GeoUtil.toMeters(radius, geoUnit);
+        var latitudeDelta = GeoUtil.metersToLatitudeDegrees(radiusMeters);
+        var longitudeDelta = GeoUtil.metersToLongitudeDegrees(radiusMeters, Math.min(90, Math.abs(latitude) + latitudeDelta));
+
+        var hits = new ArrayList<Map.Entry<S, Double>>();
+        forEachCandidate(
+                latitude - latitudeDelta,
+                longitude - longitudeDelta,
+                latitude + latitudeDelta,
+                longitude + longitudeDelta,
+                id -> {
+                    if (filterParameters != null && !filter(id, filterParameters)) {
+                        return;
+                    }
+                    var position = positions.get(id);
+                    if (position == null) {
+                        return;
+                    }
+                    var distance = GeoUtil.distance(latitude, longitude, position[0], position[1]);
+                    if (distance <= radiusMeters) {
+                        hits.add(Map.entry(id, distance));
+                    }
+                }
+        );
+
+        return sortAndLimit(hits, geoOrder, count);
+    }
+
+    @Override
+    public List<S> box(BoundingBox boundingBox, F filterParameters, Integer count) {
+        var latitude = (boundingBox.getMinLat() + boundingBox.getMaxLat()) / 2;
+        var longitude = (boundingBox.getMinLon() + boundingBox.getMaxLon()) / 2;
+
+        var hits = new ArrayList<Map.Entry<S, Double>>();
+        forEachCandidate(
+                boundingBox.getMinLat(),
+                boundingBox.getMinLon(),
+                boundingBox.getMaxLat(),
+                boundingBox.getMaxLon(),
+                id -> {
+                    if (filterParameters != null && !filter(id, filterParameters)) {
+                        return;
+                    }
+                    var position = positions.get(id);
+                    if (position == null || !boundingBox.contains(position[0], position[1])) {
+                        return;
+                    }
+                    hits.add(Map.entry(id, GeoUtil.distance(latitude, longitude, position[0], position[1])));
+                }
+        );
+
+        return sortAndLimit(hits, GeoOrder.ASC, count);
+    }
+
+    @Override
+    public Map<S, GeoPosition> boxWithPositions(BoundingBox boundingBox, F filterParameters, Integer count) {
+        return withPositions(box(boundingBox, filterParameters, count));
+    }
+
+    private List<S> sortAndLimit(List<Map.Entry<S, Double>> hits, GeoOrder geoOrder, Integer count) {
+        Comparator<Map.Entry<S, Double>> comparator = Map.Entry.comparingByValue();
+        if (geoOrder == GeoOrder.DESC) {
+            comparator = comparator.reversed();
+        }
+        hits.sort(comparator);
+
+        var stream = hits.stream().map(Map.Entry::getKey);
+
+        if (count != null) {
+            stream = stream.limit(count.longValue());
+        }
+
+        return stream.collect(Collectors.toList());
+    }
+
+    // Searches circles of doubling radius around the point until count matching entries are found
+    @Override
+    public List<S> nearest(Double longitude, Double latitude, F filterParameters, int count, double maxRadius) {
+        var radius = Math.min(NEAREST_INITIAL_RADIUS_METERS, maxRadius);
+        while (true) {
+            var result = radius(longitude, latitude, radius, GeoUnit.METERS, GeoOrder.ASC, filterParameters, count);
+            if (result.size() >= count || radius >= maxRadius || result.size() == positions.size()) {
+                return result;
+            }
+            radius = Math.min(radius * 2, maxRadius);
+        }
+    }
+
+    // The replica is held in memory, so the asynchronous variants complete immediately
+
+    @Override
+    public CompletableFuture<List<S>> radiusAsync(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count) {
+        return CompletableFuture.completedFuture(radius(longitude, latitude, radius, geoUnit, geoOrder, filterParameters, count));
+    }
+
+    @Override
+    public CompletableFuture<List<S>> boxAsync(BoundingBox boundingBox, F filterParameters, Integer count) {
+        return CompletableFuture.completedFuture(box(boundingBox, filterParameters, count));
+    }
+
+    @Override
+    public CompletableFuture<List<S>> nearestAsync(Double longitude, Double latitude, F filterParameters, int count, double maxRadius) {
+        return CompletableFuture.completedFuture(nearest(longitude, latitude, filterParameters, count, maxRadius));
+    }
+
+    @Override
+    public CompletableFuture<Map<S, GeoPosition>> radiusWithPositionsAsync(Double longitude, Double latitude, Double radius, GeoUnit geoUnit, GeoOrder geoOrder, F filterParameters, Integer count) {
+        return CompletableFuture.completedFuture(withPositions(radius(longitude, latitude, radius, geoUnit, geoOrder, filterParameters, count)));
+    }
+
+    @Override
+    public CompletableFuture<Map<S, GeoPosition>> boxWithPositionsAsync(BoundingBox boundingBox, F filterParameters, Integer count) {
+        return CompletableFuture.completedFuture(boxWithPositions(boundingBox, filterParameters, count));
+    }
+
+    @Override
+    public CompletableFuture<Map<S, GeoPosition>> nearestWithPositionsAsync(Double longitude, Double latitude, F filterParameters, int count, double maxRadius) {
+        return CompletableFuture.completedFuture(withPositions(nearest(longitude, latitude, filterParameters, count, maxRadius)));
+    }
+
+    // Entries removed since the search are left out
+    private Map<S, GeoPosition> withPositions(List<S> ids) {
+        var result = new LinkedHashMap<S, GeoPosition>();
+        ids.forEach(id -> {
+            var position = positions.get(id);
+            if (position != null) {
+                result.put(id, new GeoPosition(position[1], position[0]));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Entries are not counted ahead of time, so each entry is returned as a cell of its own
+     */
+    @Override
+    public CompletableFuture<List<SpatialIndexCell<S>>> cellsAsync(BoundingBox boundingBox, F filterParameters, int zoom) {
+        var result = new ArrayList<SpatialIndexCell<S>>();
+        boxWithPositions(boundingBox, filterParameters, null).forEach((id, position) -> {
+            var x = (int) WebMercatorUtil.lonToTileX(position.getLongitude(), zoom);
+            var y = (int) WebMercatorUtil.latToTileY(position.getLatitude(), zoom);
+            result.add(new SpatialIndexCell<>(x, y, 1, position.getLatitude(), position.getLongitude(), id));
+        });
+        return CompletableFuture.completedFuture(result);
+    }
+
+    @Override
+    public Map<S, GeoPosition> getPositions(Collection<S> ids) {
+        return withPositions(new ArrayList<>(ids));
+    }
+
+    /**
+     * Counts the entries of the cells overlapping the bounding box, without applying the filters
+     */
+    @Override
+    public CompletableFuture<Double> estimateCountAsync(BoundingBox boundingBox, F filterParameters) {
+        var count = new long[1];
+        forEachCell(
+                boundingBox.getMinLat(),
+                boundingBox.getMinLon(),
+                boundingBox.getMaxLat(),
+                boundingBox.getMaxLon(),
+                ids -> count[0] += ids.size()
+        );
+        return CompletableFuture.completedFuture((double) count[0]);
+    }
+
+    /**
+     * Each entry is a cell of its own, see cellsAsync
+     */
+    @Override
+    public CompletableFuture<Double> estimateCellCountAsync(BoundingBox boundingBox, F filterParameters, int zoom) {
+        return estimateCountAsync(boundingBox, filterParameters);
+    }
+
+    @Override
+    public Collection<S> getAll() {
+        return new ArrayList<>(positions.keySet());
+    }
+
+    @Override
+    public Iterator<S> iterator(int batchSize) {
+        return positions.keySet().iterator();
+    }
+
+    private void forEachCandidate(double minLat, double minLon, double maxLat, double maxLon, Consumer<S> consumer) {
+        forEachCell(minLat, minLon, maxLat, maxLon, ids -> ids.forEach(consumer));
+    }
+
+    private void forEachCell(double minLat, double minLon, double maxLat, double maxLon, Consumer<Set<S>> consumer) {
+        var minLatIndex = latitudeIndex(minLat);
+        var maxLatIndex = latitudeIndex(maxLat);
+        var minLonIndex = longitudeIndex(minLon);
+        var maxLonIndex = longitudeIndex(maxLon);
+
+        long cellCount = (long) (maxLatIndex - minLatIndex + 1) * (maxLonIndex - minLonIndex + 1);
+
+        if (cellCount > cells.size()) {
+            // Cheaper to visit the occupied cells than every cell covered by the query
+            cells.forEach((key, ids) -> {
+                var latIndex = (int) (key >> 32);
+                var lonIndex = (int) (key & 0xffffffffL);
+                if (latIndex >= minLatIndex && latIndex <= maxLatIndex && lonIndex >= minLonIndex && lonIndex <= maxLonIndex) {
+                    consumer.accept(ids);
+                }
+            });
+        } else {
+            for (var latIndex = minLatIndex; latIndex <= maxLatIndex; latIndex++) {
+                for (var lonIndex = minLonIndex; lonIndex <= maxLonIndex; lonIndex++) {
+                    var ids = cells.get(cellKey(latIndex, lonIndex));
+                    if (ids != null) {
+                        consumer.accept(ids);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addToCell(S id, double[] position) {
+        cells.compute(cellKey(latitudeIndex(position[0]), longitudeIndex(position[1])), (key, ids) -> {
+            var cell = ids != null ? ids : ConcurrentHashMap.<S>newKeySet();
+            cell.add(id);
+            return cell;
+        });
+    }
+
+    private void removeFromCell(S id, double[] position) {
+        cells.computeIfPresent(cellKey(latitudeIndex(position[0]), longitudeIndex(position[1])), (key, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static int latitudeIndex(double latitude) {
+        return (int) Math.floor((Math.max(-90, Math.min(90, latitude)) + 90) / CELL_SIZE_DEGREES);
+    }
+
+    private static int longitudeIndex(double longitude) {
+        return (int) Math.floor((Math.max(-180, Math.min(180, longitude)) + 180) / CELL_SIZE_DEGREES);
+    }
+
+    private static long cellKey(int latitudeIndex, int longitudeIndex) {
+        return ((long) latitudeIndex << 32) | (longitudeIndex & 0xffffffffL);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.replica;
+
+import org.entur.lamassu.cache.StationSpatialIndex;
+import org.entur.lamassu.cache.StationSpatialIndexId;
+import org.entur.lamassu.model.entities.Station;
+import org.entur.lamassu.service.StationFilterParameters;
+import org.entur.lamassu.util.SpatialIndexIdFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+@Component
+@Primary
+@Profile("!leader")
+@ConditionalOnProperty(name = "org.entur.lamassu.localReplica.enabled", havingValue = "true")
+public class ReplicaStationSpatialIndex extends ReplicaSpatialIndex<StationSpatialIndexId, Station, StationFilterParameters> implements StationSpatialIndex {
+    @Override
+    protected boolean filter(StationSpatialIndexId id, StationFilterParameters filterParameters) {
+        return SpatialIndexIdFilter.filterStation(id, filterParameters);
+    }
+}
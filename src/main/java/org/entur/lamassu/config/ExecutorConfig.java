@@ -0,0 +1,82 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.entur.lamassu.util.VirtualThreadUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * With virtual threads enabled, requests, query resolvers and feed updates run on virtual
+ * threads, so that threads blocked on Redis do not limit how much work is in progress. This
+ * requires a runtime with virtual threads, otherwise platform threads are used as before.
+ */
+@Configuration
+public class ExecutorConfig {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Value("${org.entur.lamassu.virtualThreads:false}")
+    private boolean virtualThreads;
+
+    /**
+     * Queries continue on this executor once their cache lookups complete, so that field
+     * resolvers, which may block on the cache, never run on the Redis client's event loop.
+     *
+     * <p>A query holds a thread of this pool only while its fields are resolved, not while it
+     * waits for Redis, so the pool bounds the number of queries resolving at once rather than the
+     * number in flight. Queries beyond that wait in the pool's queue. The default of 200 matches
+     * Tomcat's default number of request threads, which bounded resolution before queries were
+     * made asynchronous. Following Little's law, resolverThreads should be at least the rate of
+     * queries per second times the seconds a query takes to resolve, with room for the cache
+     * lookups resolvers make on a cold data loader cache.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService resolverExecutor(@Value("${org.entur.lamassu.resolverThreads:200}") int threads) {
+        return getVirtualThreadExecutor()
+                .orElseGet(() -> Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("resolver-")));
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "org.entur.lamassu.virtualThreads", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> getVirtualThreadExecutor().ifPresent(protocolHandler::setExecutor);
+    }
+
+    private Optional<ExecutorService> getVirtualThreadExecutor() {
+        if (!virtualThreads) {
+            return Optional.empty();
+        }
+        var executor = VirtualThreadUtil.newVirtualThreadPerTaskExecutor();
+        if (executor.isEmpty()) {
+            logger.warn("Virtual threads are not supported by this runtime, using platform threads");
+        }
+        return executor;
+    }
+}
@@ -1,19 +1,24 @@
 package org.entur.lamassu.config.cache;
 
 import org.entur.gbfs.validation.model.ValidationResult;
-import org.entur.lamassu.cache.StationSpatialIndexId;
-import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.cache.GeofencingZonesIndex;
 import org.entur.lamassu.model.entities.GeofencingZones;
+import org.entur.lamassu.model.entities.PricingPlan;
 import org.entur.lamassu.model.entities.Station;
+import org.entur.lamassu.model.entities.System;
 import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.entities.VehicleType;
 import org.redisson.Redisson;
+import org.redisson.api.BatchOptions;
 import org.redisson.api.RBucket;
-import org.redisson.api.RGeo;
 import org.redisson.api.RMapCache;
+import org.redisson.api.RTopic;
 import org.redisson.api.RedissonClient;
 import org.redisson.codec.Kryo5Codec;
 import org.redisson.config.Config;
 import org.redisson.spring.data.connection.RedissonConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -26,15 +31,27 @@ public class RedissonCacheConfig {
     public static final String GBFS_FEED_CACHE_KEY = "gbfsFeedCache";
     public static final String VEHICLE_CACHE_KEY = "vehicleCache";
     public static final String STATION_CACHE_KEY = "stationCache";
+    public static final String VEHICLE_TYPE_CACHE_KEY = "vehicleTypeCache";
+    public static final String PRICING_PLAN_CACHE_KEY = "pricingPlanCache";
+    public static final String SYSTEM_CACHE_KEY = "systemCache";
     public static final String GEOFENCING_ZONES_CACHE_KEY = "geofencingZonesCache";
+    public static final String GEOFENCING_ZONES_INDEX_CACHE_KEY = "geofencingZonesIndexCache";
+    public static final String SIMPLIFIED_GEOFENCING_ZONES_CACHE_KEY = "simplifiedGeofencingZonesCache";
     public static final String VEHICLE_SPATIAL_INDEX_KEY = "vehicleSpatialIndex";
     public static final String STATION_SPATIAL_INDEX_KEY = "stationSpatialIndex";
+    public static final String VEHICLE_EXPIRY_INDEX_KEY = "vehicleExpiryIndex";
+    public static final String LAYER_UPDATE_CACHE_KEY = "layerUpdateCache";
     public static final String VALIDATION_REPORT_CACHE_KEY = "validationReportCache";
     public static final String CACHE_READY_KEY = "cacheReady";
+    public static final String VEHICLE_UPDATES_TOPIC_KEY = "vehicleUpdates";
+    public static final String STATION_UPDATES_TOPIC_KEY = "stationUpdates";
+    public static final String FEED_UPDATES_TOPIC_KEY = "feedUpdates";
 
     @Value("${org.entur.lamassu.serializationVersion}")
     private String serializationVersion;
 
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
     private final Config redissonConfig;
 
     public RedissonCacheConfig(
@@ -42,7 +59,8 @@ public class RedissonCacheConfig {
             @Value("${org.entur.lamassu.redis.master.port}") String masterPort,
             @Value("${org.entur.lamassu.redis.slave.enabled:false}") boolean slaveEnabled,
             @Value("${org.entur.lamassu.redis.slave.host:na}") String slaveHost,
-            @Value("${org.entur.lamassu.redis.slave.port:na}") String slavePort
+            @Value("${org.entur.lamassu.redis.slave.port:na}") String slavePort,
+            @Value("${org.entur.lamassu.redis.cluster.enabled:false}") boolean clusterEnabled
     ) {
         redissonConfig = new Config();
 
@@ -56,7 +74,10 @@ public class RedissonCacheConfig {
                 masterPort
         );
 
-        if (slaveEnabled) {
+        if (clusterEnabled) {
+            redissonConfig.useClusterServers()
+                    .addNodeAddress(masterAddress);
+        } else if (slaveEnabled) {
             var slaveAddress = String.format(
                     "redis://%s:%s",
                     slaveHost,
@@ -84,6 +105,27 @@ public class RedissonCacheConfig {
         return Redisson.create(redissonConfig);
     }
 
+    /**
+     * Options for the batches in which the leader writes the entities of one feed update. By default
+     * the commands of a batch are sent together, but each is applied on its own, so readers may observe
+     * an update that is partially applied for as long as the batch takes to apply.
+     *
+     * With atomicUpdates, the batch is wrapped in MULTI/EXEC, and readers never observe a partially
+     * applied update. Redis then applies the whole update of a provider in one go, which for a large
+     * provider blocks every other client, readers included, for as long as it takes. A feed update
+     * writes to keys in many hash slots, which a Redis Cluster can not update in one transaction, so
+     * updates are never atomic when clustered.
+     */
+    @Bean
+    public BatchOptions cacheUpdateBatchOptions(@Value("${org.entur.lamassu.atomicUpdates:false}") boolean atomicUpdates) {
+        if (atomicUpdates && redissonConfig.isClusterConfig()) {
+            logger.warn("Atomic cache updates are not supported by Redis Cluster, updating without transactions");
+            atomicUpdates = false;
+        }
+        return BatchOptions.defaults()
+                .executionMode(atomicUpdates ? BatchOptions.ExecutionMode.IN_MEMORY_ATOMIC : BatchOptions.ExecutionMode.IN_MEMORY);
+    }
+
     @Bean
     public RedissonConnectionFactory redissonConnectionFactory(RedissonClient redisson) {
         return new RedissonConnectionFactory(redisson);
@@ -99,6 +141,21 @@ public class RedissonCacheConfig {
         return redissonClient.getMapCache(VEHICLE_CACHE_KEY + "_" + serializationVersion);
     }
 
+    @Bean
+    public RMapCache<String, VehicleType> vehicleTypeCache(RedissonClient redissonClient) {
+        return redissonClient.getMapCache(VEHICLE_TYPE_CACHE_KEY + "_" + serializationVersion);
+    }
+
+    @Bean
+    public RMapCache<String, PricingPlan> pricingPlanCache(RedissonClient redissonClient) {
+        return redissonClient.getMapCache(PRICING_PLAN_CACHE_KEY + "_" + serializationVersion);
+    }
+
+    @Bean
+    public RMapCache<String, System> systemCache(RedissonClient redissonClient) {
+        return redissonClient.getMapCache(SYSTEM_CACHE_KEY + "_" + serializationVersion);
+    }
+
     @Bean
     public RMapCache<String, Station> stationCache(RedissonClient redissonClient) {
         return redissonClient.getMapCache(STATION_CACHE_KEY + "_" + serializationVersion);
@@ -110,13 +167,13 @@ public class RedissonCacheConfig {
     }
 
     @Bean
-    public RGeo<VehicleSpatialIndexId> vehicleSpatialIndex(RedissonClient redissonClient) {
-        return redissonClient.getGeo(VEHICLE_SPATIAL_INDEX_KEY + "_" + serializationVersion);
+    public RMapCache<String, GeofencingZonesIndex> geofencingZonesIndexCache(RedissonClient redissonClient) {
+        return redissonClient.getMapCache(GEOFENCING_ZONES_INDEX_CACHE_KEY + "_" + serializationVersion);
     }
 
     @Bean
-    public RGeo<StationSpatialIndexId> stationSpatialIndex(RedissonClient redissonClient) {
-        return redissonClient.getGeo(STATION_SPATIAL_INDEX_KEY + "_" + serializationVersion);
+    public RMapCache<String, GeofencingZones> simplifiedGeofencingZonesCache(RedissonClient redissonClient) {
+        return redissonClient.getMapCache(SIMPLIFIED_GEOFENCING_ZONES_CACHE_KEY + "_" + serializationVersion);
     }
 
     @Bean
@@ -128,4 +185,19 @@ public class RedissonCacheConfig {
     public RBucket<Boolean> cacheReady(RedissonClient redissonClient) {
         return redissonClient.getBucket(CACHE_READY_KEY + "_" + serializationVersion);
     }
+
+    @Bean
+    public RTopic vehicleUpdatesTopic(RedissonClient redissonClient) {
+        return redissonClient.getTopic(VEHICLE_UPDATES_TOPIC_KEY + "_" + serializationVersion);
+    }
+
+    @Bean
+    public RTopic stationUpdatesTopic(RedissonClient redissonClient) {
+        return redissonClient.getTopic(STATION_UPDATES_TOPIC_KEY + "_" + serializationVersion);
+    }
+
+    @Bean
+    public RTopic feedUpdatesTopic(RedissonClient redissonClient) {
+        return redissonClient.getTopic(FEED_UPDATES_TOPIC_KEY + "_" + serializationVersion);
+    }
 }
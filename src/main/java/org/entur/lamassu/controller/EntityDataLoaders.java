@@ -0,0 +1,82 @@
+package org.entur.lamassu.controller;
+
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
+import org.dataloader.MappedBatchLoader;
+import org.entur.lamassu.cache.EntityCache;
+import org.entur.lamassu.cache.PricingPlanCache;
+import org.entur.lamassu.cache.SystemCache;
+import org.entur.lamassu.cache.VehicleTypeCache;
+import org.entur.lamassu.model.entities.Entity;
+import org.entur.lamassu.model.entities.PricingPlan;
+import org.entur.lamassu.model.entities.System;
+import org.entur.lamassu.model.entities.VehicleType;
+import org.entur.lamassu.util.LocalCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data loaders for the entities referenced by vehicles. A new set of loaders is created for each
+ * request, so that the references of all vehicles in a response are looked up in one batch per
+ * entity type, and each key only once. The entities are shared by all vehicles in a system, so
+ * they are also held in small local caches shared by all requests.
+ */
+@Component
+public class EntityDataLoaders {
+    public static final String VEHICLE_TYPES = "vehicleTypes";
+    public static final String PRICING_PLANS = "pricingPlans";
+    public static final String SYSTEMS = "systems";
+
+    private final VehicleTypeCache vehicleTypeCache;
+    private final PricingPlanCache pricingPlanCache;
+    private final SystemCache systemCache;
+
+    private final LocalCache<String, VehicleType> vehicleTypes = new LocalCache<>(60, TimeUnit.SECONDS, 10000);
+    private final LocalCache<String, PricingPlan> pricingPlans = new LocalCache<>(60, TimeUnit.SECONDS, 10000);
+    private final LocalCache<String, System> systems = new LocalCache<>(60, TimeUnit.SECONDS, 1000);
+
+    @Autowired
+    public EntityDataLoaders(VehicleTypeCache vehicleTypeCache, PricingPlanCache pricingPlanCache, SystemCache systemCache) {
+        this.vehicleTypeCache = vehicleTypeCache;
+        this.pricingPlanCache = pricingPlanCache;
+        this.systemCache = systemCache;
+    }
+
+    public DataLoaderRegistry newRegistry() {
+        var registry = new DataLoaderRegistry();
+        registry.register(VEHICLE_TYPES, DataLoader.newMappedDataLoader(batchLoader(vehicleTypeCache, vehicleTypes)));
+        registry.register(PRICING_PLANS, DataLoader.newMappedDataLoader(batchLoader(pricingPlanCache, pricingPlans)));
+        registry.register(SYSTEMS, DataLoader.newMappedDataLoader(batchLoader(systemCache, systems)));
+        return registry;
+    }
+
+    private <T extends Entity> MappedBatchLoader<String, T> batchLoader(EntityCache<T> cache, LocalCache<String, T> localCache) {
+        return keys -> {
+            var result = new HashMap<String, T>();
+            var missingKeys = new HashSet<String>();
+            keys.forEach(key -> {
+                var entity = localCache.get(key);
+                if (entity == null) {
+                    missingKeys.add(key);
+                } else {
+                    result.put(key, entity);
+                }
+            });
+
+            if (missingKeys.isEmpty()) {
+                return CompletableFuture.completedFuture(result);
+            }
+
+            return cache.getAllAsMapAsync(missingKeys).thenApply(loaded -> {
+                loaded.forEach(localCache::put);
+                result.putAll(loaded);
+                return result;
+            });
+        };
+    }
+}
@@ -5,6 +5,7 @@ import org.entur.gbfs.v2_3.gbfs.GBFSFeed;
 import org.entur.gbfs.v2_3.gbfs.GBFSFeedName;
 import org.entur.gbfs.v2_3.gbfs.GBFSFeeds;
 import org.entur.lamassu.cache.GBFSFeedCache;
+import org.entur.lamassu.cache.SerializedGBFSFeed;
 import org.entur.lamassu.model.discovery.System;
 import org.entur.lamassu.model.discovery.SystemDiscovery;
 import org.entur.lamassu.model.provider.FeedProvider;
@@ -12,14 +13,23 @@ import org.entur.lamassu.service.FeedProviderService;
 import org.entur.lamassu.service.SystemDiscoveryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.net.URI;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 @RestController
@@ -67,23 +77,22 @@ public class GBFSFeedController {
         return systemDiscovery;
     }
 
+    /**
+     * Feeds are read from the cache without holding on to the request thread. The request headers
+     * are copied before the lookup, so the response can be completed from any thread.
+     */
     @GetMapping(value = {"/gbfs/{systemId}/{feed}", "/gbfs/{systemId}/{feed}.json"})
-    public Object getGbfsFeedForProvider(@PathVariable String systemId, @PathVariable String feed) {
+    public CompletableFuture<ResponseEntity<Object>> getGbfsFeedForProvider(@PathVariable String systemId, @PathVariable String feed, @RequestHeader HttpHeaders headers) {
         try {
             var feedName = GBFSFeedName.fromValue(feed);
-            var feedProvider = feedProviderService.getFeedProviderBySystemId(systemId);
-
-            if (feedProvider == null) {
-                throw new NoSuchElementException();
-            }
-
-            var data = feedCache.find(feedName, feedProvider);
-
-            if (data == null) {
-                throw new NoSuchElementException();
-            }
-
-            return data;
+            var feedProvider = getFeedProvider(systemId);
+            return feedCache.findSerializedAsync(feedName, feedProvider).thenCompose(serialized -> {
+                if (serialized == null) {
+                    // Fall back to the deserialized feed until the serialized one has been stored
+                    return getFeed(feedName, feedProvider).thenApply(ResponseEntity::ok);
+                }
+                return CompletableFuture.completedFuture(getSerializedFeedResponse(serialized, headers));
+            });
         } catch (IllegalArgumentException e) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
         } catch (NoSuchElementException e) {
@@ -92,15 +101,113 @@ public class GBFSFeedController {
     }
 
     @GetMapping(value = {"/gbfs-internal/{systemId}/{feed}", "/gbfs-internal/{systemId}/{feed}.json"})
-    public Object getInternalGbfsFeedForProvider(@PathVariable String systemId, @PathVariable String feed) {
-        var feedName = GBFSFeedName.fromValue(feed);
+    public CompletableFuture<ResponseEntity<Object>> getInternalGbfsFeedForProvider(@PathVariable String systemId, @PathVariable String feed, @RequestHeader HttpHeaders headers) {
+        if (!GBFSFeedName.GBFS.value().equals(feed)) {
+            return getGbfsFeedForProvider(systemId, feed, headers);
+        }
+
+        try {
+            var feedProvider = getFeedProvider(systemId);
+            return this.<GBFS>getFeed(GBFSFeedName.GBFS, feedProvider)
+                    .thenApply(data -> ResponseEntity.ok(modifyDiscoveryUrls(feedProvider, data)));
+        } catch (NoSuchElementException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /**
+     * Feeds that can not be read from the cache in time are unavailable, not missing
+     */
+    @ExceptionHandler(TimeoutException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public void handleTimeout() {
+    }
+
+    private ResponseEntity<Object> getSerializedFeedResponse(SerializedGBFSFeed serialized, HttpHeaders headers) {
+        var lastModified = serialized.getLastUpdated() != null ? serialized.getLastUpdated() * 1000L : -1;
+        var gzip = serialized.getGzipData() != null && acceptsGzip(headers.getFirst(HttpHeaders.ACCEPT_ENCODING));
+
+        // Each encoding is a different representation, and must have its own entity tag
+        var eTag = gzip ? serialized.getETag() + "-gzip" : serialized.getETag();
+
+        var notModified = isNotModified(headers, eTag, lastModified);
+        var response = notModified
+                ? ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                : ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+
+        response.cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .eTag(eTag);
+
+        if (lastModified >= 0) {
+            response.lastModified(lastModified);
+        }
+
+        if (notModified) {
+            return response.build();
+        }
+
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return response.body(serialized.getGzipData());
+        }
+
+        return response.body(serialized.getData());
+    }
+
+    /**
+     * Same rules as WebRequest.checkNotModified: If-None-Match takes precedence, and
+     * If-Modified-Since is compared at a resolution of seconds
+     */
+    private boolean isNotModified(HttpHeaders headers, String eTag, long lastModified) {
+        var ifNoneMatch = headers.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            var tag = stripETag(eTag);
+            return ifNoneMatch.stream().anyMatch(candidate -> candidate.equals("*") || stripETag(candidate).equals(tag));
+        }
+        var ifModifiedSince = headers.getIfModifiedSince();
+        return lastModified >= 0 && ifModifiedSince >= 0 && (lastModified / 1000 * 1000) <= ifModifiedSince;
+    }
+
+    private String stripETag(String eTag) {
+        var tag = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        if (tag.length() > 1 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        return tag;
+    }
+
+    private boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (var coding : acceptEncoding.split(",")) {
+            var parts = coding.split(";");
+            var name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private FeedProvider getFeedProvider(String systemId) {
         var feedProvider = feedProviderService.getFeedProviderBySystemId(systemId);
-        var data = getGbfsFeedForProvider(systemId, feed);
-        if (feedName.equals(GBFSFeedName.GBFS)) {
-            return modifyDiscoveryUrls(feedProvider, (GBFS) data);
-        } else {
-            return data;
+
+        if (feedProvider == null) {
+            throw new NoSuchElementException();
         }
+
+        return feedProvider;
+    }
+
+    private <T> CompletableFuture<T> getFeed(GBFSFeedName feedName, FeedProvider feedProvider) {
+        return feedCache.<T>findAsync(feedName, feedProvider).thenApply(data -> {
+            if (data == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+            }
+            return data;
+        });
     }
 
     private GBFS modifyDiscoveryUrls(FeedProvider feedProvider, GBFS data) {
@@ -2,46 +2,79 @@ package org.entur.lamassu.controller;
 
 import graphql.GraphqlErrorException;
 import graphql.kickstart.tools.GraphQLQueryResolver;
-import org.entur.lamassu.cache.GeofencingZonesCache;
+import graphql.schema.DataFetchingEnvironment;
 import org.entur.lamassu.cache.StationCache;
 import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.GeofencingRules;
 import org.entur.lamassu.model.entities.GeofencingZones;
 import org.entur.lamassu.model.entities.Operator;
 import org.entur.lamassu.model.entities.PropulsionType;
 import org.entur.lamassu.model.entities.Station;
 import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.entities.VehicleCluster;
 import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.service.BoundingBoxQueryParameters;
 import org.entur.lamassu.service.FeedProviderService;
 import org.entur.lamassu.service.GeoSearchService;
+import org.entur.lamassu.service.GeofencingZonesService;
 import org.entur.lamassu.service.RangeQueryParameters;
 import org.entur.lamassu.service.StationFilterParameters;
 import org.entur.lamassu.service.VehicleFilterParameters;
+import org.entur.lamassu.util.BoundingBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Component
 public class GraphQLQueryController implements GraphQLQueryResolver {
+    static final int MAX_CLUSTER_ZOOM = 22;
+
+    private static final Set<String> SPATIAL_INDEX_VEHICLE_FIELDS = Set.of(
+            "__typename",
+            "id",
+            "lat",
+            "lon",
+            "isReserved",
+            "isDisabled",
+            "vehicleType",
+            "vehicleType/__typename",
+            "vehicleType/formFactor",
+            "vehicleType/propulsionType"
+    );
+
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private final GeoSearchService geoSearchService;
     private final FeedProviderService feedProviderService;
     private final StationCache stationCache;
-    private final GeofencingZonesCache geofencingZonesCache;
+    private final GeofencingZonesService geofencingZonesService;
+    private final Executor resolverExecutor;
 
     @Autowired
-    public GraphQLQueryController(GeoSearchService geoSearchService, FeedProviderService feedProviderService, StationCache stationCache, GeofencingZonesCache geofencingZonesCache) {
+    public GraphQLQueryController(
+            GeoSearchService geoSearchService,
+            FeedProviderService feedProviderService,
+            StationCache stationCache,
+            GeofencingZonesService geofencingZonesService,
+            @Qualifier("resolverExecutor") Executor resolverExecutor
+    ) {
         this.geoSearchService = geoSearchService;
         this.feedProviderService = feedProviderService;
         this.stationCache = stationCache;
-        this.geofencingZonesCache = geofencingZonesCache;
+        this.geofencingZonesService = geofencingZonesService;
+        this.resolverExecutor = resolverExecutor;
     }
 
     public Collection<String> getCodespaces() {
@@ -52,31 +85,30 @@ public class GraphQLQueryController implements GraphQLQueryResolver {
         return feedProviderService.getOperators();
     }
 
-    public Collection<Vehicle> getVehicles(
+    public CompletableFuture<List<Vehicle>> getVehicles(
             Double lat,
             Double lon,
             Double range,
             Integer count,
+            Integer nearest,
+            Double minLat,
+            Double minLon,
+            Double maxLat,
+            Double maxLon,
             List<String> codespaces,
             List<String> systems,
             List<String> operators,
             List<FormFactor> formFactors,
             List<PropulsionType> propulsionTypes,
             boolean includeReserved,
-            boolean includeDisabled
+            boolean includeDisabled,
+            DataFetchingEnvironment environment
     ) {
-        validateRange(range);
         validateCount(count);
         validateCodespaces(codespaces);
         validateSystems(systems);
         validateOperators(operators);
 
-        var queryParams = new RangeQueryParameters();
-        queryParams.setLat(lat);
-        queryParams.setLon(lon);
-        queryParams.setRange(range);
-        queryParams.setCount(count);
-
         var filterParams = new VehicleFilterParameters();
         filterParams.setCodespaces(codespaces);
         filterParams.setSystems(systems);
@@ -86,34 +118,83 @@ public class GraphQLQueryController implements GraphQLQueryResolver {
         filterParams.setIncludeReserved(includeReserved);
         filterParams.setIncludeDisabled(includeDisabled);
 
+        if (isBoundingBoxQuery(minLat, minLon, maxLat, maxLon)) {
+            var queryParams = getBoundingBoxQueryParameters(lat, lon, range, count, nearest, minLat, minLon, maxLat, maxLon);
+
+            logger.debug("getVehicles called query={} filter={}", queryParams, filterParams);
+
+            return resume(geoSearchService.getVehiclesInBoundingBox(queryParams, filterParams, isSpatialIndexSelection(environment)));
+        }
+
+        var queryParams = getRangeQueryParameters(lat, lon, range, count, nearest);
+
         logger.debug("getVehicles called query={} filter={}", queryParams, filterParams);
 
-        return geoSearchService.getVehiclesNearby(queryParams, filterParams);
+        return resume(geoSearchService.getVehiclesNearby(queryParams, filterParams, isSpatialIndexSelection(environment)));
+    }
+
+    public CompletableFuture<List<VehicleCluster>> getVehicleClusters(
+            Double minLat,
+            Double minLon,
+            Double maxLat,
+            Double maxLon,
+            Integer zoom,
+            List<String> codespaces,
+            List<String> systems,
+            List<String> operators,
+            List<FormFactor> formFactors,
+            List<PropulsionType> propulsionTypes,
+            boolean includeReserved,
+            boolean includeDisabled
+    ) {
+        validate(p -> p <= maxLat, minLat, "minLat must not be greater than maxLat");
+        validate(p -> p <= maxLon, minLon, "minLon must not be greater than maxLon");
+        validate(p -> p >= 0 && p <= MAX_CLUSTER_ZOOM, zoom, "Zoom must be between 0 and " + MAX_CLUSTER_ZOOM);
+        validateCodespaces(codespaces);
+        validateSystems(systems);
+        validateOperators(operators);
+
+        var queryParams = new BoundingBoxQueryParameters();
+        queryParams.setMinLat(minLat);
+        queryParams.setMinLon(minLon);
+        queryParams.setMaxLat(maxLat);
+        queryParams.setMaxLon(maxLon);
+
+        var filterParams = new VehicleFilterParameters();
+        filterParams.setCodespaces(codespaces);
+        filterParams.setSystems(systems);
+        filterParams.setOperators(operators);
+        filterParams.setFormFactors(formFactors);
+        filterParams.setPropulsionTypes(propulsionTypes);
+        filterParams.setIncludeReserved(includeReserved);
+        filterParams.setIncludeDisabled(includeDisabled);
+
+        logger.debug("getVehicleClusters called query={} zoom={} filter={}", queryParams, zoom, filterParams);
+
+        return resume(geoSearchService.getVehicleClusters(queryParams, zoom, filterParams));
     }
 
-    public Collection<Station> getStations(
+    public CompletableFuture<List<Station>> getStations(
             Double lat,
             Double lon,
             Double range,
             Integer count,
+            Integer nearest,
+            Double minLat,
+            Double minLon,
+            Double maxLat,
+            Double maxLon,
             List<String> codespaces,
             List<String> systems,
             List<String> operators,
             List<FormFactor> availableFormFactors,
             List<PropulsionType> availablePropulsionTypes
     ) {
-        validateRange(range);
         validateCount(count);
         validateCodespaces(codespaces);
         validateSystems(systems);
         validateOperators(operators);
 
-        var queryParams = new RangeQueryParameters();
-        queryParams.setLat(lat);
-        queryParams.setLon(lon);
-        queryParams.setRange(range);
-        queryParams.setCount(count);
-
         var filterParams = new StationFilterParameters();
         filterParams.setCodespaces(codespaces);
         filterParams.setSystems(systems);
@@ -121,30 +202,127 @@ public class GraphQLQueryController implements GraphQLQueryResolver {
         filterParams.setAvailableFormFactors(availableFormFactors);
         filterParams.setAvailablePropulsionTypes(availablePropulsionTypes);
 
+        if (isBoundingBoxQuery(minLat, minLon, maxLat, maxLon)) {
+            var queryParams = getBoundingBoxQueryParameters(lat, lon, range, count, nearest, minLat, minLon, maxLat, maxLon);
+
+            logger.debug("getStations called query={} filter={}", queryParams, filterParams);
+
+            return resume(geoSearchService.getStationsInBoundingBox(queryParams, filterParams));
+        }
+
+        var queryParams = getRangeQueryParameters(lat, lon, range, count, nearest);
+
         logger.debug("getStations called query={} filter={}", queryParams, filterParams);
 
-        return geoSearchService.getStationsNearby(queryParams, filterParams);
+        return resume(geoSearchService.getStationsNearby(queryParams, filterParams));
     }
 
-    public Collection<Station> getStationsById(
+    public CompletableFuture<List<Station>> getStationsById(
         List<String> ids
     ) {
         logger.debug("getStationsByIds called ids={}", ids);
-        return stationCache.getAll(new HashSet<>(ids));
+        return resume(stationCache.getAllAsync(new HashSet<>(ids)));
     }
 
     public Collection<GeofencingZones> geofencingZones(
+            List<String> systemIds,
+            Double minLat,
+            Double minLon,
+            Double maxLat,
+            Double maxLon,
+            Double tolerance
+    ) {
+        logger.debug("geofencingZones called systemIds={} minLat={} minLon={} maxLat={} maxLon={} tolerance={}", systemIds, minLat, minLon, maxLat, maxLon, tolerance);
+
+        validateSystems(systemIds);
+        validateTolerance(tolerance);
+
+        BoundingBox boundingBox = null;
+        if (isBoundingBoxQuery(minLat, minLon, maxLat, maxLon)) {
+            var queryParams = getBoundingBoxQueryParameters(null, null, null, null, null, minLat, minLon, maxLat, maxLon);
+            boundingBox = new BoundingBox(queryParams.getMinLat(), queryParams.getMinLon(), queryParams.getMaxLat(), queryParams.getMaxLon());
+        }
+
+        return geofencingZonesService.getGeofencingZones(systemIds, boundingBox, tolerance);
+    }
+
+    public Collection<GeofencingRules> geofencingRules(
+            double lat,
+            double lon,
+            String vehicleTypeId,
             List<String> systemIds
     ) {
-        logger.debug("geofencingZones called systemIds={}", systemIds);
+        logger.debug("geofencingRules called lat={} lon={} vehicleTypeId={} systemIds={}", lat, lon, vehicleTypeId, systemIds);
 
         validateSystems(systemIds);
 
-        if (systemIds == null || systemIds.isEmpty()) {
-            return geofencingZonesCache.getAll();
-        } else {
-            return geofencingZonesCache.getAll(new HashSet<>(systemIds));
+        return geofencingZonesService.getGeofencingRules(lat, lon, vehicleTypeId, systemIds);
+    }
+
+    /**
+     * Whether every selected vehicle field can be answered from the spatial index, so that
+     * vehicles need not be read from the vehicle cache. Positions read from the spatial index are
+     * rounded to its geohash precision, as told by the schema.
+     */
+    private boolean isSpatialIndexSelection(DataFetchingEnvironment environment) {
+        return environment.getSelectionSet().getFields().stream()
+                .allMatch(field -> SPATIAL_INDEX_VEHICLE_FIELDS.contains(field.getQualifiedName()));
+    }
+
+    /**
+     * The results of asynchronous cache lookups are completed on the Redis client's event loop,
+     * and the fields below them are resolved wherever the result completes
+     */
+    private <T> CompletableFuture<T> resume(CompletableFuture<T> result) {
+        return result.thenApplyAsync(Function.identity(), resolverExecutor);
+    }
+
+    private boolean isBoundingBoxQuery(Double minLat, Double minLon, Double maxLat, Double maxLon) {
+        return minLat != null || minLon != null || maxLat != null || maxLon != null;
+    }
+
+    private RangeQueryParameters getRangeQueryParameters(Double lat, Double lon, Double range, Integer count, Integer nearest) {
+        validate(p -> p != null, lat, "Lat and lon must be given");
+        validate(p -> p != null, lon, "Lat and lon must be given");
+        validateRange(range, nearest);
+        validateNearest(nearest, count);
+
+        var queryParams = new RangeQueryParameters();
+        queryParams.setLat(lat);
+        queryParams.setLon(lon);
+        queryParams.setRange(range);
+        queryParams.setCount(count);
+        queryParams.setNearest(nearest);
+        return queryParams;
+    }
+
+    private BoundingBoxQueryParameters getBoundingBoxQueryParameters(
+            Double lat,
+            Double lon,
+            Double range,
+            Integer count,
+            Integer nearest,
+            Double minLat,
+            Double minLon,
+            Double maxLat,
+            Double maxLon
+    ) {
+        if (lat != null || lon != null || range != null || nearest != null) {
+            throw new GraphqlErrorException.Builder().message("Bounding box cannot be combined with lat, lon, range or nearest").build();
         }
+        if (minLat == null || minLon == null || maxLat == null || maxLon == null) {
+            throw new GraphqlErrorException.Builder().message("Bounding box must have minLat, minLon, maxLat and maxLon").build();
+        }
+        validate(p -> p <= maxLat, minLat, "minLat must not be greater than maxLat");
+        validate(p -> p <= maxLon, minLon, "minLon must not be greater than maxLon");
+
+        var queryParams = new BoundingBoxQueryParameters();
+        queryParams.setMinLat(minLat);
+        queryParams.setMinLon(minLon);
+        queryParams.setMaxLat(maxLat);
+        queryParams.setMaxLon(maxLon);
+        queryParams.setCount(count);
+        return queryParams;
     }
 
     private void validateCount(Integer count) {
@@ -153,8 +331,20 @@ public class GraphQLQueryController implements GraphQLQueryResolver {
         }
     }
 
-    private void validateRange(Double range) {
-        validate(p -> p > -1, range, "Range must be non-negative");
+    private void validateRange(Double range, Integer nearest) {
+        if (range == null && nearest == null) {
+            throw new GraphqlErrorException.Builder().message("Either range or nearest must be given").build();
+        }
+        if (range != null) {
+            validate(p -> p > -1, range, "Range must be non-negative");
+        }
+    }
+
+    private void validateNearest(Integer nearest, Integer count) {
+        if (nearest != null) {
+            validate(p -> p > 0, nearest, "Nearest must be positive");
+            validate(p -> p == null, count, "Count cannot be combined with nearest");
+        }
     }
 
 
@@ -176,6 +366,12 @@ public class GraphQLQueryController implements GraphQLQueryResolver {
         return feedProviderService.getFeedProviders().stream().map(FeedProvider::getSystemId).collect(Collectors.toSet());
     }
 
+    private void validateTolerance(Double tolerance) {
+        if (tolerance != null) {
+            validate(p -> p >= 0, tolerance, "Tolerance must not be negative");
+        }
+    }
+
     private void validateOperators(List<String> operators) {
         if (operators != null) {
             var validOperators = getOperators().stream().map(Operator::getId).collect(Collectors.toList());
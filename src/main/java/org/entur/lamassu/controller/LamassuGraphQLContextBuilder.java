@@ -0,0 +1,48 @@
+package org.entur.lamassu.controller;
+
+import graphql.kickstart.execution.context.DefaultGraphQLContext;
+import graphql.kickstart.execution.context.GraphQLContext;
+import graphql.kickstart.servlet.context.DefaultGraphQLServletContext;
+import graphql.kickstart.servlet.context.DefaultGraphQLWebSocketContext;
+import graphql.kickstart.servlet.context.GraphQLServletContextBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.websocket.Session;
+import javax.websocket.server.HandshakeRequest;
+
+/**
+ * Gives each GraphQL request its own data loaders
+ */
+@Component
+public class LamassuGraphQLContextBuilder implements GraphQLServletContextBuilder {
+    private final EntityDataLoaders entityDataLoaders;
+
+    @Autowired
+    public LamassuGraphQLContextBuilder(EntityDataLoaders entityDataLoaders) {
+        this.entityDataLoaders = entityDataLoaders;
+    }
+
+    @Override
+    public GraphQLContext build(HttpServletRequest request, HttpServletResponse response) {
+        return DefaultGraphQLServletContext.createServletContext(entityDataLoaders.newRegistry(), null)
+                .with(request)
+                .with(response)
+                .build();
+    }
+
+    @Override
+    public GraphQLContext build(Session session, HandshakeRequest handshakeRequest) {
+        return DefaultGraphQLWebSocketContext.createWebSocketContext(entityDataLoaders.newRegistry(), null)
+                .with(session)
+                .with(handshakeRequest)
+                .build();
+    }
+
+    @Override
+    public GraphQLContext build() {
+        return new DefaultGraphQLContext(entityDataLoaders.newRegistry(), null);
+    }
+}
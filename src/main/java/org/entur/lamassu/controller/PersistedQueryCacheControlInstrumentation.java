@@ -0,0 +1,50 @@
+package org.entur.lamassu.controller;
+
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.kickstart.servlet.context.GraphQLServletContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lets HTTP caches, such as a CDN in front of the API, keep the responses of persisted queries
+ * sent with GET for maxAge seconds. Their URL holds only the hash of the query and its variables,
+ * so it identifies the response the way a cache needs it to. Responses with errors are not to be
+ * stored, as a client told that its hash is unknown must reach the server when it sends the query.
+ * Queries sent with POST, or with the whole query in the URL, are left as they are.
+ */
+@Component
+public class PersistedQueryCacheControlInstrumentation extends SimpleInstrumentation {
+    static final String CACHE_CONTROL_HEADER = "Cache-Control";
+
+    private final int maxAge;
+
+    public PersistedQueryCacheControlInstrumentation(
+            @Value("${org.entur.lamassu.persistedQueries.maxAge:10}") int maxAge
+    ) {
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult, InstrumentationExecutionParameters parameters) {
+        var executionInput = parameters.getExecutionInput();
+        var extensions = executionInput.getExtensions();
+        Object context = executionInput.getContext();
+
+        if (context instanceof GraphQLServletContext
+                && extensions != null
+                && extensions.containsKey(PersistedQueryDocumentProvider.PERSISTED_QUERY_EXTENSION)) {
+            var servletContext = (GraphQLServletContext) context;
+            if ("GET".equals(servletContext.getHttpServletRequest().getMethod())) {
+                servletContext.getHttpServletResponse().setHeader(
+                        CACHE_CONTROL_HEADER,
+                        executionResult.getErrors().isEmpty() ? "public, max-age=" + maxAge : "no-store"
+                );
+            }
+        }
+        return CompletableFuture.completedFuture(executionResult);
+    }
+}
@@ -0,0 +1,140 @@
+package org.entur.lamassu.controller;
+
+import graphql.ExecutionInput;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import org.entur.lamassu.util.LocalCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Keeps the parsed and validated documents of recent queries, so that queries clients send over
+ * and over are parsed and validated once. Also supports automatic persisted queries, where a
+ * client sends the SHA-256 hash of a query in place of the query, and sends the query only when
+ * told that the hash is unknown. Persisted queries may be sent with GET, as
+ * /graphql?query=&amp;extensions={"persistedQuery":{"version":1,"sha256Hash":"..."}}
+ *
+ * <p>At most cacheSize documents are kept, and the least recently used ones are evicted first, so
+ * a stream of one-off queries can not push out the queries clients repeat.
+ *
+ * <p>With an allow-list, given as a resource pattern of files holding one query each, only the
+ * queries of the allow-list are executed. Clients may send them by hash without sending them
+ * first.
+ *
+ * <p>graphql-java's ApolloPersistedQuerySupport is not used, as its in-memory cache is unbounded,
+ * it does not check that a query matches the hash it is sent with, and it has no allow-list.
+ */
+@Component
+public class PersistedQueryDocumentProvider implements PreparsedDocumentProvider {
+    static final String PERSISTED_QUERY_EXTENSION = "persistedQuery";
+    private static final String SHA256_HASH = "sha256Hash";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final LocalCache<String, PreparsedDocumentEntry> documents;
+    private final Map<String, String> allowList;
+
+    @Autowired
+    public PersistedQueryDocumentProvider(
+            @Value("${org.entur.lamassu.persistedQueries.cacheSize:1000}") int cacheSize,
+            @Value("${org.entur.lamassu.persistedQueries.allowList:}") String allowListLocation
+    ) throws IOException {
+        this.documents = new LocalCache<>(1, TimeUnit.HOURS, cacheSize);
+        this.allowList = allowListLocation.isBlank() ? null : loadAllowList(allowListLocation);
+    }
+
+    @Override
+    public PreparsedDocumentEntry getDocument(ExecutionInput executionInput, Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        var persistedQueryHash = getPersistedQueryHash(executionInput);
+        var query = executionInput.getQuery();
+
+        if (query == null || query.isBlank() || PersistedQuerySupport.PERSISTED_QUERY_MARKER.equals(query)) {
+            if (persistedQueryHash == null) {
+                return parseAndValidateFunction.apply(executionInput);
+            }
+            var document = documents.get(persistedQueryHash);
+            if (document != null) {
+                return document;
+            }
+            var allowedQuery = allowList != null ? allowList.get(persistedQueryHash) : null;
+            if (allowedQuery == null) {
+                return new PreparsedDocumentEntry(new PersistedQueryNotFound(persistedQueryHash));
+            }
+            return parseAndValidate(persistedQueryHash, executionInput.transform(builder -> builder.query(allowedQuery)), parseAndValidateFunction);
+        }
+
+        var hash = sha256(query);
+        if (persistedQueryHash != null && !persistedQueryHash.equals(hash)) {
+            return new PreparsedDocumentEntry(GraphqlErrorBuilder.newError().message("Persisted query hash does not match the query").build());
+        }
+        if (allowList != null && !allowList.containsKey(hash)) {
+            return new PreparsedDocumentEntry(GraphqlErrorBuilder.newError().message("Query is not in the allow-list").build());
+        }
+
+        var document = documents.get(hash);
+        if (document != null) {
+            return document;
+        }
+        return parseAndValidate(hash, executionInput, parseAndValidateFunction);
+    }
+
+    /**
+     * Documents with errors are not kept, so that invalid queries can not fill the cache
+     */
+    private PreparsedDocumentEntry parseAndValidate(String hash, ExecutionInput executionInput, Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        var document = parseAndValidateFunction.apply(executionInput);
+        if (!document.hasErrors()) {
+            documents.put(hash, document);
+        }
+        return document;
+    }
+
+    private String getPersistedQueryHash(ExecutionInput executionInput) {
+        var extensions = executionInput.getExtensions();
+        var persistedQuery = extensions != null ? extensions.get(PERSISTED_QUERY_EXTENSION) : null;
+        if (persistedQuery instanceof Map) {
+            var hash = ((Map<?, ?>) persistedQuery).get(SHA256_HASH);
+            return hash instanceof String ? ((String) hash).toLowerCase() : null;
+        }
+        return null;
+    }
+
+    private Map<String, String> loadAllowList(String location) throws IOException {
+        var queries = new HashMap<String, String>();
+        for (var resource : new PathMatchingResourcePatternResolver().getResources(location)) {
+            try (var inputStream = resource.getInputStream()) {
+                var query = StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8);
+                queries.put(sha256(query), query);
+            }
+        }
+        logger.info("Loaded {} queries into the allow-list from {}", queries.size(), location);
+        return queries;
+    }
+
+    static String sha256(String query) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+            return String.format("%064x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
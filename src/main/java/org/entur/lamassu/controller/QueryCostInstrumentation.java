@@ -0,0 +1,366 @@
+package org.entur.lamassu.controller;
+
+import graphql.GraphqlErrorException;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.kickstart.servlet.context.GraphQLServletContext;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingEnvironmentImpl;
+import org.entur.lamassu.cache.SpatialIndex;
+import org.entur.lamassu.cache.StationSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndex;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.PropulsionType;
+import org.entur.lamassu.service.FilterParameters;
+import org.entur.lamassu.service.GeoSearchService;
+import org.entur.lamassu.service.GeofencingZonesService;
+import org.entur.lamassu.service.StationFilterParameters;
+import org.entur.lamassu.service.VehicleFilterParameters;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.LocalCache;
+import org.entur.lamassu.util.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Admits queries by their cost, the number of entities they are expected to return or read.
+ * Vehicles and stations are estimated from the density of the spatial index, vehicle clusters
+ * from the cells of the spatial index, stations by id from the ids, and geofencing zones and rules
+ * from the zone indexes. Vehicle and station queries are limited to maxResults entities, and
+ * queries for clusters and stations by id that would exceed it are rejected. Each client pays for
+ * its queries from a token bucket of its own, so that a client sending expensive queries is turned
+ * away before it slows down the others.
+ *
+ * <p>Clients are told apart by their address together with the ET-Client-Name header, so that a
+ * client can not spend the budget of another client by taking its name. Behind proxies listed in
+ * trustedProxies, the address is taken from the X-Forwarded-For header.
+ */
+@Component
+public class QueryCostInstrumentation extends SimpleInstrumentation {
+    public static final String CLIENT_NAME_HEADER = "ET-Client-Name";
+    public static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+
+    private static final String UNKNOWN_CLIENT = "unknown";
+
+    // Share of the bounding box of a circle that is covered by the circle
+    private static final double CIRCLE_SHARE_OF_BOUNDING_BOX = Math.PI / 4;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final VehicleSpatialIndex vehicleSpatialIndex;
+    private final StationSpatialIndex stationSpatialIndex;
+    private final GeofencingZonesService geofencingZonesService;
+    private final Executor resolverExecutor;
+    private final int maxResults;
+    private final double clientBudget;
+    private final double clientRefillRate;
+    private final Set<String> trustedProxies;
+    private final LocalCache<String, TokenBucket> clientBuckets = new LocalCache<>(1, TimeUnit.MINUTES, 10000);
+
+    @Autowired
+    public QueryCostInstrumentation(
+            VehicleSpatialIndex vehicleSpatialIndex,
+            StationSpatialIndex stationSpatialIndex,
+            GeofencingZonesService geofencingZonesService,
+            @Qualifier("resolverExecutor") Executor resolverExecutor,
+            @Value("${org.entur.lamassu.queryCost.maxResults:5000}") int maxResults,
+            @Value("${org.entur.lamassu.queryCost.clientBudget:50000}") double clientBudget,
+            @Value("${org.entur.lamassu.queryCost.clientRefillRate:10000}") double clientRefillRate,
+            @Value("${org.entur.lamassu.queryCost.trustedProxies:}") List<String> trustedProxies
+    ) {
+        this.vehicleSpatialIndex = vehicleSpatialIndex;
+        this.stationSpatialIndex = stationSpatialIndex;
+        this.geofencingZonesService = geofencingZonesService;
+        this.resolverExecutor = resolverExecutor;
+        this.maxResults = maxResults;
+        this.clientBudget = clientBudget;
+        this.clientRefillRate = clientRefillRate;
+        this.trustedProxies = new HashSet<>(trustedProxies);
+
+        if (clientBudget > 0 && maxResults > 0 && clientBudget < maxResults + 1) {
+            logger.warn("Query cost client budget {} is less than the cost of a query of {} results, such queries are always rejected", clientBudget, maxResults);
+        }
+    }
+
+    @Override
+    public DataFetcher<?> instrumentDataFetcher(DataFetcher<?> dataFetcher, InstrumentationFieldFetchParameters parameters) {
+        var environment = parameters.getEnvironment();
+        if (environment.getExecutionStepInfo().getPath().getLevel() != 1) {
+            return dataFetcher;
+        }
+        switch (environment.getFieldDefinition().getName()) {
+            case "vehicles":
+                return admit(
+                        arguments -> estimateCount(arguments, vehicleSpatialIndex, QueryCostInstrumentation::getVehicleFilterParameters),
+                        (environment, estimate) -> fetchLimited(dataFetcher, environment, estimate)
+                );
+            case "stations":
+                return admit(
+                        arguments -> estimateCount(arguments, stationSpatialIndex, QueryCostInstrumentation::getStationFilterParameters),
+                        (environment, estimate) -> fetchLimited(dataFetcher, environment, estimate)
+                );
+            case "vehicleClusters":
+                return admit(
+                        this::estimateClusterCount,
+                        (environment, estimate) -> fetchBounded(dataFetcher, environment, estimate, "Too many vehicles to cluster, query a smaller area or a lower zoom")
+                );
+            case "stationsById":
+                return admit(
+                        QueryCostInstrumentation::countIds,
+                        (environment, estimate) -> fetchBounded(dataFetcher, environment, estimate, "Too many stations, query at most " + maxResults + " ids")
+                );
+            case "geofencingZones":
+                return admit(
+                        this::countGeofencingZones,
+                        (environment, estimate) -> fetch(dataFetcher, environment, 1 + estimate)
+                );
+            case "geofencingRules":
+                return admit(
+                        this::countGeofencingRulesSystems,
+                        (environment, estimate) -> fetch(dataFetcher, environment, 1 + estimate)
+                );
+            default:
+                return dataFetcher;
+        }
+    }
+
+    private DataFetcher<?> admit(
+            Function<Map<String, Object>, CompletableFuture<Double>> estimator,
+            BiFunction<DataFetchingEnvironment, Double, CompletableFuture<Object>> fetch
+    ) {
+        return environment -> {
+            var estimate = estimator.apply(environment.getArguments());
+
+            // The estimate may be completed on the Redis client's event loop, which must not run the query
+            return estimate.isDone()
+                    ? estimate.thenCompose(count -> fetch.apply(environment, count))
+                    : estimate.thenComposeAsync(count -> fetch.apply(environment, count), resolverExecutor);
+        };
+    }
+
+    /**
+     * Queries with invalid arguments are estimated to return nothing, as they are rejected by
+     * GraphQLQueryController
+     */
+    private <F extends FilterParameters> CompletableFuture<Double> estimateCount(
+            Map<String, Object> arguments,
+            SpatialIndex<?, ?, F> spatialIndex,
+            Function<Map<String, Object>, F> filterParameters
+    ) {
+        var nearest = getInteger(arguments, "nearest");
+        if (nearest != null) {
+            return CompletableFuture.completedFuture((double) Math.max(0, nearest));
+        }
+
+        var minLat = getDouble(arguments, "minLat");
+        var minLon = getDouble(arguments, "minLon");
+        var maxLat = getDouble(arguments, "maxLat");
+        var maxLon = getDouble(arguments, "maxLon");
+        if (minLat != null && minLon != null && maxLat != null && maxLon != null) {
+            return spatialIndex.estimateCountAsync(new BoundingBox(minLat, minLon, maxLat, maxLon), filterParameters.apply(arguments));
+        }
+
+        var lat = getDouble(arguments, "lat");
+        var lon = getDouble(arguments, "lon");
+        var range = getDouble(arguments, "range");
+        if (lat != null && lon != null && range != null && range >= 0) {
+            return spatialIndex.estimateCountAsync(BoundingBox.ofCircle(lat, lon, range), filterParameters.apply(arguments))
+                    .thenApply(count -> count * CIRCLE_SHARE_OF_BOUNDING_BOX);
+        }
+
+        return CompletableFuture.completedFuture(0.0);
+    }
+
+    /**
+     * Clusters are counted from the cells of the spatial index, see
+     * {@link SpatialIndex#cellsAsync}. Queries with invalid arguments are estimated to return
+     * nothing, as they are rejected by GraphQLQueryController.
+     */
+    private CompletableFuture<Double> estimateClusterCount(Map<String, Object> arguments) {
+        var minLat = getDouble(arguments, "minLat");
+        var minLon = getDouble(arguments, "minLon");
+        var maxLat = getDouble(arguments, "maxLat");
+        var maxLon = getDouble(arguments, "maxLon");
+        var zoom = getInteger(arguments, "zoom");
+        if (minLat == null || minLon == null || maxLat == null || maxLon == null || zoom == null || zoom < 0 || zoom > GraphQLQueryController.MAX_CLUSTER_ZOOM) {
+            return CompletableFuture.completedFuture(0.0);
+        }
+        return vehicleSpatialIndex.estimateCellCountAsync(
+                new BoundingBox(minLat, minLon, maxLat, maxLon),
+                getVehicleFilterParameters(arguments),
+                zoom + GeoSearchService.CLUSTER_GRID_ZOOM_OFFSET
+        );
+    }
+
+    private static CompletableFuture<Double> countIds(Map<String, Object> arguments) {
+        var ids = arguments.get("ids");
+        return CompletableFuture.completedFuture(ids instanceof Collection ? (double) new HashSet<>((Collection<?>) ids).size() : 0.0);
+    }
+
+    /**
+     * The zone indexes are held locally once read, so the zones are counted without reading them
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Double> countGeofencingZones(Map<String, Object> arguments) {
+        var minLat = getDouble(arguments, "minLat");
+        var minLon = getDouble(arguments, "minLon");
+        var maxLat = getDouble(arguments, "maxLat");
+        var maxLon = getDouble(arguments, "maxLon");
+        var boundingBox = minLat != null && minLon != null && maxLat != null && maxLon != null
+                ? new BoundingBox(minLat, minLon, maxLat, maxLon)
+                : null;
+        var systemIds = (List<String>) arguments.get("systemIds");
+        return CompletableFuture.completedFuture((double) geofencingZonesService.countGeofencingZones(systemIds, boundingBox));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Double> countGeofencingRulesSystems(Map<String, Object> arguments) {
+        var lat = getDouble(arguments, "lat");
+        var lon = getDouble(arguments, "lon");
+        if (lat == null || lon == null) {
+            return CompletableFuture.completedFuture(0.0);
+        }
+        var systemIds = (List<String>) arguments.get("systemIds");
+        return CompletableFuture.completedFuture((double) geofencingZonesService.countGeofencingRulesSystems(lat, lon, systemIds));
+    }
+
+    /**
+     * Limits the query to maxResults entities with its count or nearest argument
+     */
+    private CompletableFuture<Object> fetchLimited(DataFetcher<?> dataFetcher, DataFetchingEnvironment environment, double estimate) {
+        var arguments = environment.getArguments();
+        var limitArgument = arguments.get("nearest") != null ? "nearest" : "count";
+        var limit = getInteger(arguments, limitArgument);
+
+        if (maxResults > 0 && (limit == null || limit > maxResults)) {
+            logger.debug("Limiting query with {} {} to {} results", limitArgument, limit, maxResults);
+            var limitedArguments = new HashMap<>(arguments);
+            limitedArguments.put(limitArgument, maxResults);
+            environment = DataFetchingEnvironmentImpl.newDataFetchingEnvironment(environment).arguments(limitedArguments).build();
+            limit = maxResults;
+        }
+
+        // The estimate only prices the query, the limit above applies however dense the index is
+        var cost = 1 + (limit != null ? Math.min(estimate, Math.max(0, limit)) : estimate);
+        return fetch(dataFetcher, environment, cost);
+    }
+
+    /**
+     * Rejects the query if it is estimated to exceed maxResults entities, as it can not be limited
+     */
+    private CompletableFuture<Object> fetchBounded(DataFetcher<?> dataFetcher, DataFetchingEnvironment environment, double estimate, String message) {
+        if (maxResults > 0 && estimate > maxResults) {
+            logger.info("Rejected {} query with estimated {} results", environment.getFieldDefinition().getName(), estimate);
+            return CompletableFuture.failedFuture(new GraphqlErrorException.Builder().message(message).build());
+        }
+        return fetch(dataFetcher, environment, 1 + estimate);
+    }
+
+    private CompletableFuture<Object> fetch(DataFetcher<?> dataFetcher, DataFetchingEnvironment environment, double cost) {
+        var client = getClient(environment);
+        if (!tryAdmit(client, cost)) {
+            logger.info("Rejected query from client {} with estimated cost {}", client, cost);
+            return CompletableFuture.failedFuture(
+                    new GraphqlErrorException.Builder().message("Query cost limit exceeded, try again later").build()
+            );
+        }
+
+        try {
+            var result = dataFetcher.get(environment);
+            return result instanceof CompletionStage
+                    ? ((CompletionStage<?>) result).toCompletableFuture().thenApply(Function.identity())
+                    : CompletableFuture.completedFuture(result);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private boolean tryAdmit(String client, double cost) {
+        if (clientBudget <= 0) {
+            return true;
+        }
+        return clientBuckets.getOrLoad(client, key -> new TokenBucket(clientBudget, clientRefillRate)).tryConsume(cost);
+    }
+
+    private String getClient(DataFetchingEnvironment environment) {
+        Object context = environment.getContext();
+        if (context instanceof GraphQLServletContext) {
+            var request = ((GraphQLServletContext) context).getHttpServletRequest();
+            var clientName = request.getHeader(CLIENT_NAME_HEADER);
+            var address = getClientAddress(request.getRemoteAddr(), request.getHeader(FORWARDED_FOR_HEADER));
+            return clientName != null && !clientName.isBlank() ? clientName + "@" + address : address;
+        }
+        return UNKNOWN_CLIENT;
+    }
+
+    /**
+     * The client's address is the last address of X-Forwarded-For that is not one of the trusted
+     * proxies, as the addresses before it may be made up by the client
+     */
+    private String getClientAddress(String remoteAddress, String forwardedFor) {
+        if (forwardedFor == null || !trustedProxies.contains(remoteAddress)) {
+            return remoteAddress;
+        }
+        var address = remoteAddress;
+        var forwardedAddresses = forwardedFor.split(",");
+        for (int i = forwardedAddresses.length - 1; i >= 0 && trustedProxies.contains(address); i--) {
+            var forwardedAddress = forwardedAddresses[i].trim();
+            if (!forwardedAddress.isEmpty()) {
+                address = forwardedAddress;
+            }
+        }
+        return address;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static VehicleFilterParameters getVehicleFilterParameters(Map<String, Object> arguments) {
+        var filterParameters = new VehicleFilterParameters();
+        filterParameters.setCodespaces((List<String>) arguments.get("codespaces"));
+        filterParameters.setSystems((List<String>) arguments.get("systems"));
+        filterParameters.setOperators((List<String>) arguments.get("operators"));
+        filterParameters.setFormFactors((List<FormFactor>) arguments.get("formFactors"));
+        filterParameters.setPropulsionTypes((List<PropulsionType>) arguments.get("propulsionTypes"));
+        filterParameters.setIncludeReserved(Boolean.TRUE.equals(arguments.get("includeReserved")));
+        filterParameters.setIncludeDisabled(Boolean.TRUE.equals(arguments.get("includeDisabled")));
+        return filterParameters;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StationFilterParameters getStationFilterParameters(Map<String, Object> arguments) {
+        var filterParameters = new StationFilterParameters();
+        filterParameters.setCodespaces((List<String>) arguments.get("codespaces"));
+        filterParameters.setSystems((List<String>) arguments.get("systems"));
+        filterParameters.setOperators((List<String>) arguments.get("operators"));
+        filterParameters.setAvailableFormFactors((List<FormFactor>) arguments.get("availableFormFactors"));
+        filterParameters.setAvailablePropulsionTypes((List<PropulsionType>) arguments.get("availablePropulsionTypes"));
+        return filterParameters;
+    }
+
+    private static Integer getInteger(Map<String, Object> arguments, String name) {
+        var value = arguments.get(name);
+        return value instanceof Number ? ((Number) value).intValue() : null;
+    }
+
+    private static Double getDouble(Map<String, Object> arguments, String name) {
+        var value = arguments.get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+}
@@ -0,0 +1,53 @@
+package org.entur.lamassu.controller;
+
+import org.entur.lamassu.service.VectorTileService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+public class VectorTileController {
+    private static final MediaType VECTOR_TILE_MEDIA_TYPE = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+    private static final int MAX_ZOOM = 22;
+
+    private final VectorTileService vectorTileService;
+
+    @Autowired
+    public VectorTileController(VectorTileService vectorTileService) {
+        this.vectorTileService = vectorTileService;
+    }
+
+    /**
+     * Spring answers requests with a matching If-None-Match header with 304 Not Modified, as the
+     * response carries the tile's ETag
+     */
+    @GetMapping("/tiles/{layer}/{z}/{x}/{y}.pbf")
+    public CompletableFuture<ResponseEntity<byte[]>> getTile(
+            @PathVariable String layer,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y
+    ) {
+        if (!VectorTileService.LAYERS.contains(layer)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+
+        if (z < 0 || z > MAX_ZOOM || x < 0 || x >= (1 << z) || y < 0 || y >= (1 << z)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }
+
+        return vectorTileService.getTile(layer, z, x, y).thenApply(tile -> ResponseEntity.ok()
+                .contentType(VECTOR_TILE_MEDIA_TYPE)
+                .cacheControl(CacheControl.noCache())
+                .eTag(tile.getETag())
+                .body(tile.getData()));
+    }
+}
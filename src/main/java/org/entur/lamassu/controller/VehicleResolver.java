@@ -0,0 +1,67 @@
+package org.entur.lamassu.controller;
+
+import graphql.GraphqlErrorException;
+import graphql.kickstart.tools.GraphQLResolver;
+import graphql.schema.DataFetchingEnvironment;
+import org.entur.lamassu.model.entities.PricingPlan;
+import org.entur.lamassu.model.entities.SpatialIndexVehicle;
+import org.entur.lamassu.model.entities.System;
+import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.entities.VehicleType;
+import org.entur.lamassu.util.CacheUtil;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves the entities referenced by a vehicle through the data loaders of the request, see
+ * {@link EntityDataLoaders}. The referenced entities are written along with the vehicles and are
+ * kept at least as long, so a reference is only missing if the entity was removed in between.
+ * The vehicle type is then made from the fields the vehicle keeps of it, while a missing pricing
+ * plan or system fails the field with an error saying which entity is missing.
+ */
+@Component
+public class VehicleResolver implements GraphQLResolver<Vehicle> {
+
+    public CompletableFuture<VehicleType> getVehicleType(Vehicle vehicle, DataFetchingEnvironment environment) {
+        if (vehicle instanceof SpatialIndexVehicle) {
+            return CompletableFuture.completedFuture(getVehicleType(vehicle));
+        }
+        return environment.<String, VehicleType>getDataLoader(EntityDataLoaders.VEHICLE_TYPES)
+                .load(CacheUtil.getSystemScopedCacheKey(vehicle.getVehicleTypeId(), vehicle.getSystemId()))
+                .thenApply(vehicleType -> vehicleType != null ? vehicleType : getVehicleType(vehicle));
+    }
+
+    /**
+     * Only the fields the vehicle keeps of its vehicle type are set. These are the only fields of
+     * the vehicle type queries served from the spatial index may ask for, see GraphQLQueryController.
+     */
+    private VehicleType getVehicleType(Vehicle vehicle) {
+        var vehicleType = new VehicleType();
+        vehicleType.setId(vehicle.getVehicleTypeId());
+        vehicleType.setFormFactor(vehicle.getFormFactor());
+        vehicleType.setPropulsionType(vehicle.getPropulsionType());
+        return vehicleType;
+    }
+
+    public CompletableFuture<PricingPlan> getPricingPlan(Vehicle vehicle, DataFetchingEnvironment environment) {
+        return environment.<String, PricingPlan>getDataLoader(EntityDataLoaders.PRICING_PLANS)
+                .load(CacheUtil.getSystemScopedCacheKey(vehicle.getPricingPlanId(), vehicle.getSystemId()))
+                .thenApply(pricingPlan -> requireReference(pricingPlan, "Pricing plan", vehicle.getPricingPlanId(), vehicle));
+    }
+
+    public CompletableFuture<System> getSystem(Vehicle vehicle, DataFetchingEnvironment environment) {
+        return environment.<String, System>getDataLoader(EntityDataLoaders.SYSTEMS)
+                .load(vehicle.getSystemId())
+                .thenApply(system -> requireReference(system, "System", vehicle.getSystemId(), vehicle));
+    }
+
+    private static <T> T requireReference(T entity, String entityName, String id, Vehicle vehicle) {
+        if (entity == null) {
+            throw new GraphqlErrorException.Builder()
+                    .message(entityName + " " + id + " of vehicle " + vehicle.getId() + " is not available")
+                    .build();
+        }
+        return entity;
+    }
+}
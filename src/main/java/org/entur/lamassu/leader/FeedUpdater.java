@@ -27,6 +27,8 @@ import org.entur.lamassu.leader.entityupdater.EntityCachesUpdater;
 import org.entur.lamassu.leader.feedcachesupdater.FeedCachesUpdater;
 import org.entur.lamassu.mapper.feedmapper.GbfsDeliveryMapper;
 import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.util.CoalescingDispatcher;
+import org.entur.lamassu.util.VirtualThreadUtil;
 import org.redisson.api.RBucket;
 import org.redisson.api.RMapCache;
 import org.slf4j.Logger;
@@ -38,6 +40,7 @@ import org.springframework.stereotype.Component;
 
 import java.net.URI;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
@@ -56,12 +59,17 @@ public class FeedUpdater {
 
     private GbfsSubscriptionManager subscriptionManager;
     private ForkJoinPool updaterThreadPool;
+    private ExecutorService updateExecutor;
+    private CoalescingDispatcher<String, Runnable> updateDispatcher;
 
     private final RMapCache<String, ValidationResult> validationResultCache;
 
     @Value("${org.entur.lamassu.enableValidation:false}")
     private boolean enableValidation;
 
+    @Value("${org.entur.lamassu.virtualThreads:false}")
+    private boolean virtualThreads;
+
     @Autowired
     public FeedUpdater(
             FeedProviderConfig feedProviderConfig,
@@ -81,6 +89,12 @@ public class FeedUpdater {
 
     public void start() {
         updaterThreadPool = new ForkJoinPool(NUM_CORES * 2);
+        if (virtualThreads) {
+            updateExecutor = VirtualThreadUtil.newVirtualThreadPerTaskExecutor().orElse(null);
+        }
+        if (updateExecutor != null) {
+            updateDispatcher = new CoalescingDispatcher<>(updateExecutor, this::runUpdate);
+        }
         subscriptionManager = new GbfsSubscriptionManager(updaterThreadPool);
         updaterThreadPool.execute(this::createSubscriptions);
     }
@@ -91,6 +105,9 @@ public class FeedUpdater {
 
     public void stop() {
         updaterThreadPool.shutdown();
+        if (updateExecutor != null) {
+            updateExecutor.shutdown();
+        }
     }
 
     private void createSubscriptions() {
@@ -105,7 +122,7 @@ public class FeedUpdater {
             options.setRequestAuthenticator(feedProvider.getAuthentication().getRequestAuthenticator());
         }
         options.setEnableValidation(enableValidation);
-        String id = subscriptionManager.subscribe(options, delivery -> receiveUpdate(feedProvider, delivery));
+        String id = subscriptionManager.subscribe(options, delivery -> dispatchUpdate(feedProvider, delivery));
 
         if (id == null) {
             logger.warn("Failed to setup subscription, trying again in 5 seconds - systemId={}", feedProvider.getSystemId());
@@ -115,6 +132,33 @@ public class FeedUpdater {
         }
     }
 
+    /**
+     * Without an update executor, updates are written to the caches on the subscription thread.
+     * Otherwise they are written on the update executor, so that the subscription threads are
+     * free to fetch feeds while the caches are written. Each update of a system is compared with
+     * the one in the caches, so they are written one at a time. A delivery that arrives while
+     * the previous one of its system is still waiting to be written replaces it, so a system
+     * whose updates are slow to write never has more than one delivery waiting.
+     */
+    private void dispatchUpdate(FeedProvider feedProvider, GbfsDelivery delivery) {
+        if (updateDispatcher == null) {
+            receiveUpdate(feedProvider, delivery);
+            return;
+        }
+
+        if (!updateDispatcher.dispatch(feedProvider.getSystemId(), () -> receiveUpdate(feedProvider, delivery))) {
+            logger.debug("Skipped a delivery waiting to be written, replaced by a newer one - systemId={}", feedProvider.getSystemId());
+        }
+    }
+
+    private void runUpdate(String systemId, Runnable update) {
+        try {
+            update.run();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to update caches - systemId={}", systemId, e);
+        }
+    }
+
     private void receiveUpdate(FeedProvider feedProvider, GbfsDelivery delivery) {
         if (enableValidation) {
             if (delivery.getValidationResult().getSummary().getErrorsCount() > 0) {
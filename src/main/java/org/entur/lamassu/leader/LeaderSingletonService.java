@@ -18,11 +18,13 @@ public class LeaderSingletonService {
     private final FeedUpdater feedUpdater;
     private final ListenerManager listenerManager;
     private final GeoSearchService geoSearchService;
+    private final VehicleOrphanRemover vehicleOrphanRemover;
 
-    public LeaderSingletonService(@Autowired FeedUpdater feedUpdater, @Autowired ListenerManager listenerManager, @Autowired GeoSearchService geoSearchService) {
+    public LeaderSingletonService(@Autowired FeedUpdater feedUpdater, @Autowired ListenerManager listenerManager, @Autowired GeoSearchService geoSearchService, @Autowired VehicleOrphanRemover vehicleOrphanRemover) {
         this.feedUpdater = feedUpdater;
         this.listenerManager = listenerManager;
         this.geoSearchService = geoSearchService;
+        this.vehicleOrphanRemover = vehicleOrphanRemover;
     }
 
     @PostConstruct
@@ -46,6 +48,17 @@ public class LeaderSingletonService {
 
     @Scheduled(fixedRate = 60000)
     public void removeOrphans() {
+        var removedOrphans = vehicleOrphanRemover.removeExpiredOrphans();
+        if (!removedOrphans.isEmpty()) {
+            logger.info("Removed {} expired orphans in vehicle spatial index", removedOrphans.size());
+        }
+    }
+
+    @Scheduled(
+            initialDelayString = "${org.entur.lamassu.orphanReconciliationInterval:3600000}",
+            fixedRateString = "${org.entur.lamassu.orphanReconciliationInterval:3600000}"
+    )
+    public void reconcileOrphans() {
         var removedOrphans = geoSearchService.removeVehicleSpatialIndexOrphans();
         if (!removedOrphans.isEmpty()) {
             logger.info("Removed {} orphans in vehicle spatial index", removedOrphans.size());
@@ -0,0 +1,117 @@
+package org.entur.lamassu.leader;
+
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.cache.VehicleCache;
+import org.entur.lamassu.cache.VehicleExpiryIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.service.FeedProviderService;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.CacheUtil;
+import org.redisson.api.GeoPosition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes vehicle spatial index entries whose vehicle has expired from the vehicle cache. Only the
+ * entries recorded as expired in the {@link VehicleExpiryIndex} are checked, so the cost of a run
+ * is proportional to the number of expirations since the previous run.
+ */
+@Component
+@Profile("leader")
+public class VehicleOrphanRemover {
+    private static final int MAX_CANDIDATES_PER_SYSTEM = 10000;
+
+    // Candidates whose vehicle is still cached are checked again after this delay, which lets the
+    // next run move on to the candidates after them
+    private static final long RECHECK_DELAY_SECONDS = 60;
+
+    private final FeedProviderService feedProviderService;
+    private final VehicleExpiryIndex expiryIndex;
+    private final VehicleCache vehicleCache;
+    private final VehicleSpatialIndex spatialIndex;
+    private final LayerUpdateCache layerUpdateCache;
+
+    @Autowired
+    public VehicleOrphanRemover(
+            FeedProviderService feedProviderService,
+            VehicleExpiryIndex expiryIndex,
+            VehicleCache vehicleCache,
+            VehicleSpatialIndex spatialIndex,
+            LayerUpdateCache layerUpdateCache
+    ) {
+        this.feedProviderService = feedProviderService;
+        this.expiryIndex = expiryIndex;
+        this.vehicleCache = vehicleCache;
+        this.spatialIndex = spatialIndex;
+        this.layerUpdateCache = layerUpdateCache;
+    }
+
+    public Set<VehicleSpatialIndexId> removeExpiredOrphans() {
+        var now = Instant.now().getEpochSecond();
+        var orphans = new HashSet<VehicleSpatialIndexId>();
+        feedProviderService.getFeedProviders().stream()
+                .map(FeedProvider::getSystemId)
+                .forEach(systemId -> orphans.addAll(removeExpiredOrphans(systemId, now)));
+        return orphans;
+    }
+
+    private Set<VehicleSpatialIndexId> removeExpiredOrphans(String systemId, long now) {
+        var candidates = expiryIndex.getExpired(systemId, now, MAX_CANDIDATES_PER_SYSTEM);
+        if (candidates.isEmpty()) {
+            return Set.of();
+        }
+
+        var candidatesByKey = new HashMap<String, Set<VehicleSpatialIndexId>>();
+        candidates.forEach(id -> candidatesByKey
+                .computeIfAbsent(CacheUtil.getSystemScopedCacheKey(id.getId(), id.getSystemId()), key -> new HashSet<>())
+                .add(id));
+
+        var existingKeys = vehicleCache.getExistingKeys(candidatesByKey.keySet());
+
+        var orphans = new HashSet<VehicleSpatialIndexId>();
+        var kept = new HashSet<VehicleSpatialIndexId>();
+        candidatesByKey.forEach((key, ids) -> {
+            if (existingKeys.contains(key)) {
+                kept.addAll(ids);
+            } else {
+                orphans.addAll(ids);
+            }
+        });
+
+        if (!orphans.isEmpty()) {
+            // Looked up before removal, so that the map tiles showing the orphans are encoded again
+            var area = getArea(spatialIndex.getPositions(orphans).values());
+            spatialIndex.removeAll(orphans);
+            expiryIndex.removeAll(systemId, orphans);
+            if (area != null) {
+                layerUpdateCache.updateWithin(LayerUpdateCache.VEHICLES, systemId, area);
+            }
+        }
+        if (!kept.isEmpty()) {
+            expiryIndex.addAll(systemId, kept, now + RECHECK_DELAY_SECONDS);
+        }
+
+        return orphans;
+    }
+
+    private static BoundingBox getArea(Collection<GeoPosition> positions) {
+        BoundingBox area = null;
+        for (var position : positions) {
+            if (area == null) {
+                area = new BoundingBox(position.getLatitude(), position.getLongitude(), position.getLatitude(), position.getLongitude());
+            } else {
+                area.expandToInclude(position.getLatitude(), position.getLongitude());
+            }
+        }
+        return area;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.leader.entityupdater;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps a content hash per entity and system, so that entities which have not changed since
+ * the previous delivery need not be written to the cache again. Unchanged entities are reported
+ * separately once their last write is older than the given refresh interval, so their time to
+ * live in the cache can be extended.
+ */
+class EntityChangeTracker<T> {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private final Map<String, Map<String, TrackedEntity>> trackedEntitiesBySystem = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    EntityChangeTracker() {
+        this(System::currentTimeMillis);
+    }
+
+    EntityChangeTracker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Compare the entities of a delivery with those of the previous delivery for the same system.
+     * The fingerprint of an entity is what its content hash is computed from. Entities that are
+     * not part of the delivery are no longer tracked.
+     */
+    Changes<T> detectChanges(String systemId, Map<String, T> entities, Function<T, Object> fingerprint, long refreshIntervalMillis) {
+        var now = clock.getAsLong();
+        var previouslyTracked = trackedEntitiesBySystem.getOrDefault(systemId, Map.of());
+        var tracked = new HashMap<String, TrackedEntity>(entities.size());
+        var changes = new Changes<T>();
+
+        entities.forEach((key, entity) -> {
+            var hash = hash(fingerprint.apply(entity));
+            var previous = previouslyTracked.get(key);
+
+            if (previous == null || previous.hash != hash) {
+                changes.changed.put(key, entity);
+                tracked.put(key, new TrackedEntity(hash, now));
+            } else if (now - previous.lastWrittenAt >= refreshIntervalMillis) {
+                changes.refreshed.put(key, entity);
+                tracked.put(key, new TrackedEntity(hash, now));
+            } else {
+                tracked.put(key, previous);
+            }
+        });
+
+        trackedEntitiesBySystem.put(systemId, tracked);
+        return changes;
+    }
+
+    /**
+     * Forget the entities of a system, so that all of its entities are reported as changed in the
+     * next delivery.
+     */
+    void reset(String systemId) {
+        trackedEntitiesBySystem.remove(systemId);
+    }
+
+    private long hash(Object fingerprint) {
+        byte[] bytes;
+        try {
+            bytes = objectMapper.writeValueAsBytes(fingerprint);
+        } catch (JsonProcessingException e) {
+            logger.warn("Unable to compute content hash of entity, it will always be treated as changed", e);
+            return clock.getAsLong() ^ System.nanoTime();
+        }
+
+        // FNV-1a
+        var hash = FNV_OFFSET_BASIS;
+        for (byte b : bytes) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    static class Changes<T> {
+        private final Map<String, T> changed = new HashMap<>();
+        private final Map<String, T> refreshed = new HashMap<>();
+
+        /**
+         * Entities that were added or changed since the previous delivery
+         */
+        Map<String, T> getChanged() {
+            return changed;
+        }
+
+        /**
+         * Unchanged entities whose time to live in the cache should be extended
+         */
+        Map<String, T> getRefreshed() {
+            return refreshed;
+        }
+    }
+
+    private static class TrackedEntity {
+        private final long hash;
+        private final long lastWrittenAt;
+
+        TrackedEntity(long hash, long lastWrittenAt) {
+            this.hash = hash;
+            this.lastWrittenAt = lastWrittenAt;
+        }
+    }
+}
@@ -20,27 +20,46 @@ package org.entur.lamassu.leader.entityupdater;
 
 import org.entur.gbfs.v2_3.geofencing_zones.GBFSGeofencingZones;
 import org.entur.lamassu.cache.GeofencingZonesCache;
+import org.entur.lamassu.cache.GeofencingZonesIndex;
+import org.entur.lamassu.cache.GeofencingZonesIndexCache;
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.cache.SimplifiedGeofencingZonesCache;
 import org.entur.lamassu.mapper.entitymapper.GeofencingZonesMapper;
+import org.entur.lamassu.model.entities.GeofencingZones;
 import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.util.BoundingBox;
 import org.entur.lamassu.util.CacheUtil;
+import org.entur.lamassu.util.GeoUtil;
+import org.entur.lamassu.util.GeometryUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Component
 public class GeofencingZonesUpdater {
     private final GeofencingZonesCache geofencingZonesCache;
+    private final GeofencingZonesIndexCache geofencingZonesIndexCache;
+    private final SimplifiedGeofencingZonesCache simplifiedGeofencingZonesCache;
     private final GeofencingZonesMapper geofencingZonesMapper;
+    private final LayerUpdateCache layerUpdateCache;
 
     @Autowired
     public GeofencingZonesUpdater(
             GeofencingZonesCache geofencingZonesCache,
-            GeofencingZonesMapper geofencingZonesMapper
+            GeofencingZonesMapper geofencingZonesMapper,
+            LayerUpdateCache layerUpdateCache,
+            GeofencingZonesIndexCache geofencingZonesIndexCache,
+            SimplifiedGeofencingZonesCache simplifiedGeofencingZonesCache
     ) {
         this.geofencingZonesCache = geofencingZonesCache;
+        this.geofencingZonesIndexCache = geofencingZonesIndexCache;
+        this.simplifiedGeofencingZonesCache = simplifiedGeofencingZonesCache;
         this.geofencingZonesMapper = geofencingZonesMapper;
+        this.layerUpdateCache = layerUpdateCache;
     }
 
     public void addOrUpdateGeofencingZones(
@@ -51,6 +70,66 @@ public class GeofencingZonesUpdater {
         var lastUpdated = feed.getLastUpdated();
         var ttl = feed.getTtl();
 
-        geofencingZonesCache.updateAll(Map.of(mapped.getId(), mapped), CacheUtil.getTtl(lastUpdated, ttl, 3600), TimeUnit.SECONDS);
+        var cacheTtl = CacheUtil.getTtl(lastUpdated, ttl, 3600);
+
+        geofencingZonesCache.updateAll(Map.of(mapped.getId(), mapped), cacheTtl, TimeUnit.SECONDS);
+
+        var simplified = new HashMap<String, GeofencingZones>();
+        for (var tolerance : SimplifiedGeofencingZonesCache.TOLERANCES) {
+            simplified.put(
+                    CacheUtil.getSystemScopedCacheKey(String.valueOf(tolerance), mapped.getSystemId()),
+                    simplify(mapped, GeoUtil.metersToLatitudeDegrees(tolerance))
+            );
+        }
+        simplifiedGeofencingZonesCache.updateAll(simplified, cacheTtl, TimeUnit.SECONDS);
+
+        // The index must be in place before the layer update, which readers use to pick it up
+        var index = GeofencingZonesIndex.of(mapped);
+        geofencingZonesIndexCache.updateAll(Map.of(index.getId(), index), cacheTtl, TimeUnit.SECONDS);
+        layerUpdateCache.update(LayerUpdateCache.GEOFENCING_ZONES, mapped.getSystemId(), getExtent(mapped));
+    }
+
+    /**
+     * A copy of the geofencing zones with simplified polygons. All features are kept, in the
+     * same order, so they can be looked up in the zone index.
+     */
+    private GeofencingZones simplify(GeofencingZones geofencingZones, double tolerance) {
+        var simplified = new GeofencingZones();
+        simplified.setSystemId(geofencingZones.getSystemId());
+        if (geofencingZones.getGeojson() == null || geofencingZones.getGeojson().getFeatures() == null) {
+            simplified.setGeojson(geofencingZones.getGeojson());
+            return simplified;
+        }
+
+        var features = new ArrayList<GeofencingZones.Feature>();
+        for (var feature : geofencingZones.getGeojson().getFeatures()) {
+            var simplifiedFeature = new GeofencingZones.Feature();
+            simplifiedFeature.setGeometry(GeometryUtil.simplify(feature.getGeometry(), tolerance));
+            simplifiedFeature.setProperties(feature.getProperties());
+            features.add(simplifiedFeature);
+        }
+        var featureCollection = new GeofencingZones.FeatureCollection();
+        featureCollection.setFeatures(features);
+        simplified.setGeojson(featureCollection);
+        return simplified;
+    }
+
+    private BoundingBox getExtent(GeofencingZones geofencingZones) {
+        if (geofencingZones.getGeojson() == null || geofencingZones.getGeojson().getFeatures() == null) {
+            return null;
+        }
+        BoundingBox extent = null;
+        for (var feature : geofencingZones.getGeojson().getFeatures()) {
+            var boundingBox = GeometryUtil.getBoundingBox(feature.getGeometry());
+            if (boundingBox == null) {
+                continue;
+            }
+            if (extent == null) {
+                extent = boundingBox;
+            } else {
+                extent.expandToInclude(boundingBox);
+            }
+        }
+        return extent;
     }
 }
@@ -27,6 +27,8 @@ import org.entur.gbfs.v2_3.system_information.GBFSSystemInformation;
 import org.entur.gbfs.v2_3.system_pricing_plans.GBFSSystemPricingPlans;
 import org.entur.gbfs.v2_3.system_regions.GBFSSystemRegions;
 import org.entur.gbfs.v2_3.vehicle_types.GBFSVehicleTypes;
+import org.entur.lamassu.cache.EntityCacheUpdate;
+import org.entur.lamassu.cache.LayerUpdateCache;
 import org.entur.lamassu.cache.StationCache;
 import org.entur.lamassu.cache.StationSpatialIndex;
 import org.entur.lamassu.cache.StationSpatialIndexId;
@@ -36,13 +38,21 @@ import org.entur.lamassu.mapper.entitymapper.SystemMapper;
 import org.entur.lamassu.model.entities.PricingPlan;
 import org.entur.lamassu.model.entities.Station;
 import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.util.BoundingBox;
 import org.entur.lamassu.util.CacheUtil;
 import org.entur.lamassu.util.SpatialIndexIdUtil;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -58,21 +68,37 @@ public class StationsUpdater {
     private final SystemMapper systemMapper;
     private final PricingPlanMapper pricingPlanMapper;
     private final StationMapper stationMapper;
+    private final LayerUpdateCache layerUpdateCache;
+    private final RTopic stationUpdatesTopic;
+    private final RedissonClient redissonClient;
+    private final BatchOptions batchOptions;
+    private final EntityChangeTracker<Station> changeTracker = new EntityChangeTracker<>();
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    @Value("${org.entur.lamassu.localReplica.enabled:false}")
+    private boolean publishUpdates;
+
     @Autowired
     public StationsUpdater(
             StationCache stationCache,
             StationSpatialIndex spatialIndex,
+            LayerUpdateCache layerUpdateCache,
             SystemMapper systemMapper,
             PricingPlanMapper pricingPlanMapper,
-            StationMapper stationMapper
+            StationMapper stationMapper,
+            @Qualifier("stationUpdatesTopic") RTopic stationUpdatesTopic,
+            RedissonClient redissonClient,
+            BatchOptions cacheUpdateBatchOptions
     ) {
         this.stationCache = stationCache;
         this.spatialIndex = spatialIndex;
+        this.layerUpdateCache = layerUpdateCache;
         this.systemMapper = systemMapper;
         this.pricingPlanMapper = pricingPlanMapper;
         this.stationMapper = stationMapper;
+        this.stationUpdatesTopic = stationUpdatesTopic;
+        this.redissonClient = redissonClient;
+        this.batchOptions = cacheUpdateBatchOptions;
     }
 
     public void addOrUpdateStations(
@@ -99,18 +125,15 @@ public class StationsUpdater {
                     .map(GBFSStation::getStationId).collect(Collectors.toSet());
             stationIdsToRemove.removeAll(stationIds);
             logger.debug("Found {} stationIds to remove from old station_status feed", stationIdsToRemove.size());
-
-            // Add station ids that are staged for removal to the set of stations ids that will be used to
-            // fetch current stations from cache
-            stationIds.addAll(stationIdsToRemove);
         }
 
         if (stationIdsToRemove == null) {
             stationIdsToRemove = new HashSet<>(stationIds);
             logger.debug("Old station_status feed was not available or had no data. As a workaround, removing all stations for provider {}", feedProvider.getSystemId());
-        }
 
-        var originalStations = stationCache.getAllAsMap(stationIds);
+            // All stations are removed, so all stations in the feed must be written again
+            changeTracker.reset(feedProvider.getSystemId());
+        }
 
         var system = getSystem(feedProvider, systemInformationFeed);
         var pricingPlans = getPricingPlans(pricingPlansFeed, system.getLanguage());
@@ -141,10 +164,26 @@ public class StationsUpdater {
                         system.getLanguage())
                 ).collect(Collectors.toMap(Station::getId, s->s));
 
-        Set<StationSpatialIndexId> spatialIndicesToRemove = new java.util.HashSet<>(Set.of());
-        Map<StationSpatialIndexId, Station> spatialIndexUpdateMap = new java.util.HashMap<>(Map.of());
+        var ttl = CacheUtil.getTtl(stationStatusFeed.getLastUpdated(), stationStatusFeed.getTtl(), 300);
+        var changes = changeTracker.detectChanges(
+                feedProvider.getSystemId(),
+                stations,
+                station -> station,
+                TimeUnit.SECONDS.toMillis(ttl) / 2
+        );
+        var changedStations = changes.getChanged();
+
+        // Only changed and removed stations can have stale entries in the spatial index
+        var originalStationIds = new HashSet<>(changedStations.keySet());
+        originalStationIds.addAll(stationIdsToRemove);
+        var originalStations = originalStationIds.isEmpty()
+                ? Map.<String, Station>of()
+                : stationCache.getAllAsMap(originalStationIds);
 
-        stations.forEach((key, station) -> {
+        Set<StationSpatialIndexId> spatialIndicesToRemove = new HashSet<>();
+        Map<StationSpatialIndexId, Station> spatialIndexUpdateMap = new HashMap<>();
+
+        changedStations.forEach((key, station) -> {
             var spatialIndexId = SpatialIndexIdUtil.createStationSpatialIndexId(station, feedProvider);
             var previousStation = originalStations.get(key);
 
@@ -157,26 +196,55 @@ public class StationsUpdater {
             spatialIndexUpdateMap.put(spatialIndexId, station);
         });
 
+        // All mutations of this update are sent in one batch, so readers do not see stations that are
+        // in the spatial index but not in the station cache, or the reverse
+        var batch = redissonClient.createBatch(batchOptions);
+
         if (!spatialIndicesToRemove.isEmpty()) {
             logger.debug("Removing {} stale entries in spatial index", spatialIndicesToRemove.size());
-            spatialIndex.removeAll(spatialIndicesToRemove);
+            spatialIndex.removeAll(batch, spatialIndicesToRemove);
         }
 
         if (!stationIdsToRemove.isEmpty()) {
             logger.debug("Removing {} stations from station cache", stationIdsToRemove.size());
-            stationCache.removeAll(stationIdsToRemove);
+            stationCache.removeAll(batch, stationIdsToRemove);
+        }
+
+        if (!changedStations.isEmpty()) {
+            logger.debug("Adding/updating {} of {} stations in station cache", changedStations.size(), stations.size());
+            stationCache.updateAll(batch, changedStations, ttl, TimeUnit.SECONDS);
         }
 
-        if (!stations.isEmpty()) {
-            logger.debug("Adding/updating {} stations in station cache", stations.size());
-            var lastUpdated = stationStatusFeed.getLastUpdated();
-            var ttl = stationStatusFeed.getTtl();
-            stationCache.updateAll(stations, CacheUtil.getTtl(lastUpdated, ttl, 300), TimeUnit.SECONDS);
+        if (!changes.getRefreshed().isEmpty()) {
+            logger.debug("Refreshing ttl of {} unchanged stations in station cache", changes.getRefreshed().size());
+            stationCache.refreshTtl(batch, changes.getRefreshed().keySet(), ttl, TimeUnit.SECONDS);
         }
 
         if (!spatialIndexUpdateMap.isEmpty()) {
             logger.debug("Updating {} entries in spatial index", spatialIndexUpdateMap.size());
-            spatialIndex.addAll(spatialIndexUpdateMap);
+            spatialIndex.addAll(batch, spatialIndexUpdateMap);
+        }
+
+        // The feed holds all of the system's stations, so it determines the extent of the system's partition
+        spatialIndex.updatePartitions(batch, feedProvider, stations.values().stream()
+                .collect(Collectors.toMap(station -> SpatialIndexIdUtil.createStationSpatialIndexId(station, feedProvider), station -> station)));
+
+        if (!changedStations.isEmpty() || !stationIdsToRemove.isEmpty()) {
+            layerUpdateCache.update(batch, LayerUpdateCache.STATIONS, feedProvider.getSystemId(), BoundingBox.ofEntities(stations.values()));
+        }
+
+        try {
+            batch.execute();
+        } catch (RedisException e) {
+            logger.warn("Unable to update stations for provider {}", feedProvider.getSystemId(), e);
+
+            // The tracked hashes no longer reflect what is in the cache
+            changeTracker.reset(feedProvider.getSystemId());
+            return;
+        }
+
+        if (publishUpdates && (!changedStations.isEmpty() || !stationIdsToRemove.isEmpty())) {
+            stationUpdatesTopic.publishAsync(new EntityCacheUpdate<>(feedProvider.getSystemId(), changedStations, stationIdsToRemove));
         }
     }
 
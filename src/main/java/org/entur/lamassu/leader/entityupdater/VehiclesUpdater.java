@@ -24,9 +24,15 @@ import org.entur.gbfs.v2_3.free_bike_status.GBFSFreeBikeStatus;
 import org.entur.gbfs.v2_3.system_information.GBFSSystemInformation;
 import org.entur.gbfs.v2_3.system_pricing_plans.GBFSSystemPricingPlans;
 import org.entur.gbfs.v2_3.vehicle_types.GBFSVehicleTypes;
+import org.entur.lamassu.cache.EntityCacheUpdate;
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.cache.PricingPlanCache;
+import org.entur.lamassu.cache.SystemCache;
 import org.entur.lamassu.cache.VehicleCache;
+import org.entur.lamassu.cache.VehicleExpiryIndex;
 import org.entur.lamassu.cache.VehicleSpatialIndex;
 import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.cache.VehicleTypeCache;
 import org.entur.lamassu.mapper.entitymapper.PricingPlanMapper;
 import org.entur.lamassu.mapper.entitymapper.SystemMapper;
 import org.entur.lamassu.mapper.entitymapper.VehicleMapper;
@@ -35,45 +41,84 @@ import org.entur.lamassu.model.entities.PricingPlan;
 import org.entur.lamassu.model.entities.Vehicle;
 import org.entur.lamassu.model.entities.VehicleType;
 import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.util.BoundingBox;
 import org.entur.lamassu.util.CacheUtil;
 import org.entur.lamassu.util.SpatialIndexIdUtil;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Component
 public class VehiclesUpdater {
     private final VehicleCache vehicleCache;
     private final VehicleSpatialIndex spatialIndex;
+    private final VehicleExpiryIndex expiryIndex;
+    private final VehicleTypeCache vehicleTypeCache;
+    private final PricingPlanCache pricingPlanCache;
+    private final SystemCache systemCache;
     private final SystemMapper systemMapper;
     private final PricingPlanMapper pricingPlanMapper;
     private final VehicleTypeMapper vehicleTypeMapper;
     private final VehicleMapper vehicleMapper;
+    private final LayerUpdateCache layerUpdateCache;
+    private final RTopic vehicleUpdatesTopic;
+    private final RedissonClient redissonClient;
+    private final BatchOptions batchOptions;
+    private final EntityChangeTracker<Vehicle> changeTracker = new EntityChangeTracker<>();
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    @Value("${org.entur.lamassu.localReplica.enabled:false}")
+    private boolean publishUpdates;
+
     @Autowired
     public VehiclesUpdater(
             VehicleCache vehicleCache,
             VehicleSpatialIndex spatialIndex,
+            VehicleExpiryIndex expiryIndex,
+            LayerUpdateCache layerUpdateCache,
+            VehicleTypeCache vehicleTypeCache,
+            PricingPlanCache pricingPlanCache,
+            SystemCache systemCache,
             VehicleMapper vehicleMapper,
             SystemMapper systemMapper,
             PricingPlanMapper pricingPlanMapper,
-            VehicleTypeMapper vehicleTypeMapper
+            VehicleTypeMapper vehicleTypeMapper,
+            @Qualifier("vehicleUpdatesTopic") RTopic vehicleUpdatesTopic,
+            RedissonClient redissonClient,
+            BatchOptions cacheUpdateBatchOptions
     ) {
         this.vehicleCache = vehicleCache;
         this.spatialIndex = spatialIndex;
+        this.expiryIndex = expiryIndex;
+        this.layerUpdateCache = layerUpdateCache;
+        this.vehicleTypeCache = vehicleTypeCache;
+        this.pricingPlanCache = pricingPlanCache;
+        this.systemCache = systemCache;
         this.vehicleMapper = vehicleMapper;
         this.systemMapper = systemMapper;
         this.pricingPlanMapper = pricingPlanMapper;
         this.vehicleTypeMapper = vehicleTypeMapper;
+        this.vehicleUpdatesTopic = vehicleUpdatesTopic;
+        this.redissonClient = redissonClient;
+        this.batchOptions = cacheUpdateBatchOptions;
     }
 
     public void addOrUpdateVehicles(
@@ -100,22 +145,15 @@ public class VehiclesUpdater {
             // Find vehicle ids in old feed not present in new feed
             vehicleIdsToRemove.removeAll(vehicleIds);
             logger.trace("Found {} vehicleIds to remove from old free_bike_status feed: {}", vehicleIdsToRemove.size(), oldFreeBikeStatusFeed);
-
-            // Add vehicle ids that are staged for removal to the set of vehicle ids that will be used to
-            // fetch current vehicles from cache
-            vehicleIds.addAll(vehicleIdsToRemove);
         }
 
         if (vehicleIdsToRemove == null) {
             vehicleIdsToRemove = new HashSet<>(vehicleIds);
             logger.debug("Old free_bike_status feed was not available or had no data. As a workaround, removing all vehicles for provider {}", feedProvider.getSystemId());
-        }
 
-        var currentVehicles = vehicleCache.getAllAsMap(
-                vehicleIds.stream()
-                        .map(id -> getVehicleCacheKey(id, feedProvider))
-                        .collect(Collectors.toSet())
-        );
+            // All vehicles are removed, so all vehicles in the feed must be written again
+            changeTracker.reset(feedProvider.getSystemId());
+        }
 
         var system = getSystem(feedProvider, systemInformationFeed);
         var pricingPlans = getPricingPlans(pricingPlansFeed, system.getLanguage());
@@ -124,19 +162,41 @@ public class VehiclesUpdater {
 
         var vehicles = freeBikeStatusFeed.getData().getBikes().stream()
                 .filter(new VehicleFilter(pricingPlans, vehicleTypes))
-                .map(vehicle -> vehicleMapper.mapVehicle(
-                        vehicle,
-                        vehicleTypes.get(vehicle.getVehicleTypeId()),
-                        pricingPlans.get(vehicle.getPricingPlanId()),
-                        system
-                ))
+                .map(vehicle -> vehicleMapper.mapVehicle(vehicle, vehicleTypes.get(vehicle.getVehicleTypeId()), feedProvider.getSystemId()))
                 .collect(Collectors.toMap(v -> getVehicleCacheKey(v.getId(), feedProvider), v -> v));
 
-        Set<VehicleSpatialIndexId> spatialIndicesToRemove = new java.util.HashSet<>(Set.of());
-        Map<VehicleSpatialIndexId, Vehicle> spatialIndexUpdateMap = new java.util.HashMap<>(Map.of());
+        var ttl = CacheUtil.getTtl(freeBikeStatusFeed.getLastUpdated(), freeBikeStatusFeed.getTtl(), 300);
+
+        var changes = changeTracker.detectChanges(
+                feedProvider.getSystemId(),
+                vehicles,
+                Function.identity(),
+                TimeUnit.SECONDS.toMillis(ttl) / 2
+        );
+        var changedVehicles = changes.getChanged();
 
-        vehicles.forEach((key, vehicle) -> {
-            var spatialIndexId = SpatialIndexIdUtil.createVehicleSpatialIndexId(vehicle, feedProvider);
+        var spatialIndexIds = vehicles.entrySet().stream()
+                .collect(Collectors.toMap(
+                        Map.Entry::getKey,
+                        entry -> SpatialIndexIdUtil.createVehicleSpatialIndexId(entry.getValue(), feedProvider)
+                ));
+
+        var vehicleKeysToRemove = vehicleIdsToRemove.stream()
+                .map(id -> getVehicleCacheKey(id, feedProvider))
+                .collect(Collectors.toSet());
+
+        // Only changed and removed vehicles can have stale entries in the spatial index
+        var currentVehicleKeys = new HashSet<>(changedVehicles.keySet());
+        currentVehicleKeys.addAll(vehicleKeysToRemove);
+        var currentVehicles = currentVehicleKeys.isEmpty()
+                ? Map.<String, Vehicle>of()
+                : vehicleCache.getAllAsMap(currentVehicleKeys);
+
+        Set<VehicleSpatialIndexId> spatialIndicesToRemove = new HashSet<>();
+        Map<VehicleSpatialIndexId, Vehicle> spatialIndexUpdateMap = new HashMap<>();
+
+        changedVehicles.forEach((key, vehicle) -> {
+            var spatialIndexId = spatialIndexIds.get(key);
             var previousVehicle = currentVehicles.get(key);
 
             if (previousVehicle != null) {
@@ -149,36 +209,120 @@ public class VehiclesUpdater {
         });
 
         spatialIndicesToRemove.addAll(
-                vehicleIdsToRemove.stream()
-                        .map(vehicleId -> getVehicleCacheKey(vehicleId, feedProvider))
+                vehicleKeysToRemove.stream()
                         .filter(currentVehicles::containsKey)
                         .map(vehicleCacheKey -> SpatialIndexIdUtil.createVehicleSpatialIndexId(currentVehicles.get(vehicleCacheKey), feedProvider))
                         .collect(Collectors.toSet())
         );
 
+        // All mutations of this update are sent in one batch, so readers do not see vehicles that are
+        // in the spatial index but not in the vehicle cache, or the reverse
+        var batch = redissonClient.createBatch(batchOptions);
+
+        // Vehicles only hold references to these, so they must be written along with the vehicles
+        updateSystemEntities(batch, feedProvider, delivery, system, pricingPlans, vehicleTypes, ttl);
+
         if (!spatialIndicesToRemove.isEmpty()) {
             logger.debug("Removing {} stale entries in spatial index", spatialIndicesToRemove.size());
-            spatialIndex.removeAll(spatialIndicesToRemove);
+            spatialIndex.removeAll(batch, spatialIndicesToRemove);
+            expiryIndex.removeAll(batch, feedProvider.getSystemId(), spatialIndicesToRemove);
         }
 
-        if (!vehicleIdsToRemove.isEmpty()) {
-            logger.debug("Removing {} vehicles from vehicle cache", vehicleIdsToRemove.size());
-            vehicleCache.removeAll(vehicleIdsToRemove.stream().map(id -> getVehicleCacheKey(id, feedProvider)).collect(Collectors.toSet()));
+        if (!vehicleKeysToRemove.isEmpty()) {
+            logger.debug("Removing {} vehicles from vehicle cache", vehicleKeysToRemove.size());
+            vehicleCache.removeAll(batch, vehicleKeysToRemove);
         }
 
-        if (!vehicles.isEmpty()) {
-            logger.debug("Adding/updating {} vehicles in vehicle cache", vehicles.size());
-            var lastUpdated = freeBikeStatusFeed.getLastUpdated();
-            var ttl = freeBikeStatusFeed.getTtl();
-            vehicleCache.updateAll(vehicles, CacheUtil.getTtl(lastUpdated, ttl, 300), TimeUnit.SECONDS);
+        if (!changedVehicles.isEmpty()) {
+            logger.debug("Adding/updating {} of {} vehicles in vehicle cache", changedVehicles.size(), vehicles.size());
+            vehicleCache.updateAll(batch, changedVehicles, ttl, TimeUnit.SECONDS);
+        }
+
+        if (!changes.getRefreshed().isEmpty()) {
+            logger.debug("Refreshing ttl of {} unchanged vehicles in vehicle cache", changes.getRefreshed().size());
+            vehicleCache.refreshTtl(batch, changes.getRefreshed().keySet(), ttl, TimeUnit.SECONDS);
         }
 
         if (!spatialIndexUpdateMap.isEmpty()) {
             logger.debug("Updating {} entries in spatial index", spatialIndexUpdateMap.size());
-            spatialIndex.addAll(spatialIndexUpdateMap);
+            spatialIndex.addAll(batch, spatialIndexUpdateMap);
+        }
+
+        // The feed holds all of the system's vehicles, so it determines the extent of each of the system's partitions
+        spatialIndex.updatePartitions(batch, feedProvider, vehicles.entrySet().stream()
+                .collect(Collectors.toMap(entry -> spatialIndexIds.get(entry.getKey()), Map.Entry::getValue)));
+
+        if (!changedVehicles.isEmpty() || !vehicleKeysToRemove.isEmpty()) {
+            layerUpdateCache.update(batch, LayerUpdateCache.VEHICLES, feedProvider.getSystemId(), BoundingBox.ofEntities(vehicles.values()));
+        }
+
+        // Written vehicles expire from the vehicle cache after ttl, at which point their spatial index
+        // entries become orphan candidates
+        var writtenSpatialIndexIds = new HashSet<>(spatialIndexUpdateMap.keySet());
+        changes.getRefreshed().keySet().forEach(key -> writtenSpatialIndexIds.add(spatialIndexIds.get(key)));
+        if (!writtenSpatialIndexIds.isEmpty()) {
+            var expiresAt = Instant.now().getEpochSecond() + ttl;
+            expiryIndex.addAll(batch, feedProvider.getSystemId(), writtenSpatialIndexIds, expiresAt);
+        }
+
+        try {
+            batch.execute();
+        } catch (RedisException e) {
+            logger.warn("Unable to update vehicles for provider {}", feedProvider.getSystemId(), e);
+
+            // The tracked hashes no longer reflect what is in the cache
+            changeTracker.reset(feedProvider.getSystemId());
+            return;
+        }
+
+        if (publishUpdates && (!changedVehicles.isEmpty() || !vehicleKeysToRemove.isEmpty())) {
+            vehicleUpdatesTopic.publishAsync(new EntityCacheUpdate<>(feedProvider.getSystemId(), changedVehicles, vehicleKeysToRemove));
         }
     }
 
+    private void updateSystemEntities(
+            RBatch batch,
+            FeedProvider feedProvider,
+            GbfsDelivery delivery,
+            org.entur.lamassu.model.entities.System system,
+            Map<String, PricingPlan> pricingPlans,
+            Map<String, VehicleType> vehicleTypes,
+            int vehicleTtl
+    ) {
+        // Referenced entities must not expire before the vehicles referencing them
+        var minimumTtl = Math.max(3600, vehicleTtl);
+
+        var systemInformationFeed = delivery.getSystemInformation();
+        systemCache.updateAll(
+                batch,
+                Map.of(feedProvider.getSystemId(), system),
+                CacheUtil.getTtl(systemInformationFeed.getLastUpdated(), systemInformationFeed.getTtl(), minimumTtl),
+                TimeUnit.SECONDS
+        );
+
+        var pricingPlansFeed = delivery.getSystemPricingPlans();
+        pricingPlanCache.updateAll(
+                batch,
+                pricingPlans.values().stream().collect(Collectors.toMap(
+                        pricingPlan -> CacheUtil.getSystemScopedCacheKey(pricingPlan.getId(), feedProvider.getSystemId()),
+                        pricingPlan -> pricingPlan
+                )),
+                CacheUtil.getTtl(pricingPlansFeed.getLastUpdated(), pricingPlansFeed.getTtl(), minimumTtl),
+                TimeUnit.SECONDS
+        );
+
+        var vehicleTypesFeed = delivery.getVehicleTypes();
+        vehicleTypeCache.updateAll(
+                batch,
+                vehicleTypes.values().stream().collect(Collectors.toMap(
+                        vehicleType -> CacheUtil.getSystemScopedCacheKey(vehicleType.getId(), feedProvider.getSystemId()),
+                        vehicleType -> vehicleType
+                )),
+                CacheUtil.getTtl(vehicleTypesFeed.getLastUpdated(), vehicleTypesFeed.getTtl(), minimumTtl),
+                TimeUnit.SECONDS
+        );
+    }
+
     private Map<String, VehicleType> getVehicleTypes(GBFSVehicleTypes vehicleTypesFeed, Map<String, PricingPlan> pricingPlans, String language) {
         return vehicleTypesFeed.getData().getVehicleTypes().stream()
                 .map(vehicleType -> vehicleTypeMapper.mapVehicleType(vehicleType, new ArrayList<>(pricingPlans.values()), language))
@@ -18,29 +18,39 @@
 
 package org.entur.lamassu.leader.feedcachesupdater;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.entur.gbfs.GbfsDelivery;
 import org.entur.gbfs.v2_3.gbfs.GBFSFeedName;
 import org.entur.lamassu.cache.GBFSFeedCache;
+import org.entur.lamassu.cache.SerializedGBFSFeed;
 import org.entur.lamassu.model.provider.FeedProvider;
 import org.entur.lamassu.util.CacheUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 @Component
 public class FeedCachesUpdater {
     private final GBFSFeedCache feedCache;
+    private final ObjectMapper objectMapper;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
     public FeedCachesUpdater(
-            GBFSFeedCache feedCache
+            GBFSFeedCache feedCache,
+            ObjectMapper objectMapper
     ) {
         this.feedCache = feedCache;
+        this.objectMapper = objectMapper;
     }
 
     public GbfsDelivery updateFeedCaches(FeedProvider feedProvider, GbfsDelivery delivery) {
@@ -68,11 +78,55 @@ public class FeedCachesUpdater {
             logger.trace("updating feed {} for provider {} data {}", feedName, feedProvider.getSystemId(), feed);
             var ttl = getTtl(feedName.implementingClass(), feed, 3600);
             feedCache.update(feedName, feedProvider, feed, ttl, TimeUnit.SECONDS);
+            updateSerializedFeedCache(feedProvider, feedName, feed, ttl);
         } else {
             logger.debug("no feed {} found for provider {}", feedName, feedProvider.getSystemId());
         }
     }
 
+    /**
+     * Stores the feed as the JSON it is served as, so readers can write it out as it is instead
+     * of deserializing and serializing it again on every request
+     */
+    private <T> void updateSerializedFeedCache(FeedProvider feedProvider, GBFSFeedName feedName, T feed, int ttl) {
+        try {
+            var data = objectMapper.writeValueAsBytes(feed);
+            var serialized = new SerializedGBFSFeed(
+                    data,
+                    gzip(data),
+                    DigestUtils.md5DigestAsHex(data),
+                    getLastUpdated(feedName.implementingClass(), feed)
+            );
+            feedCache.updateSerialized(feedName, feedProvider, serialized, ttl, TimeUnit.SECONDS);
+        } catch (JsonProcessingException e) {
+            logger.warn("Unable to serialize feed {} for provider {}", feedName, feedProvider.getSystemId(), e);
+        }
+    }
+
+    /**
+     * Compresses the feed once per update rather than once per request. Returns null when
+     * compression does not make the feed smaller.
+     */
+    private byte[] gzip(byte[] data) {
+        var outputStream = new ByteArrayOutputStream(data.length / 4);
+        try (var gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(data);
+        } catch (IOException e) {
+            logger.warn("Unable to compress feed", e);
+            return null;
+        }
+        var compressed = outputStream.toByteArray();
+        return compressed.length < data.length ? compressed : null;
+    }
+
+    private <T> Integer getLastUpdated(Class<?> implementingClass, T feed) {
+        try {
+            return (Integer) implementingClass.getMethod("getLastUpdated").invoke(feed);
+        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
     private <T> int getTtl(Class<?> implementingClass, T feed, int minimumTtl) {
         try {
             Integer lastUpdated = (Integer) implementingClass.getMethod("getLastUpdated").invoke(feed);
@@ -90,6 +144,7 @@ public class FeedCachesUpdater {
             logger.debug("updating feed {} for provider {}", feedName, feedProvider.getSystemId());
             logger.trace("updating feed {} for provider {} data {}", feedName, feedProvider.getSystemId(), feed);
             var ttl = getTtl(feedName.implementingClass(), feed, 3600);
+            updateSerializedFeedCache(feedProvider, feedName, feed, ttl);
             return feedCache.getAndUpdate(feedName, feedProvider, feed, ttl, TimeUnit.SECONDS);
         } else {
             logger.debug("no feed {} found for provider {}", feedName, feedProvider.getSystemId());
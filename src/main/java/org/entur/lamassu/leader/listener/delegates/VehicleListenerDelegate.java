@@ -18,10 +18,12 @@
 
 package org.entur.lamassu.leader.listener.delegates;
 
+import org.entur.lamassu.cache.LayerUpdateCache;
 import org.entur.lamassu.cache.VehicleSpatialIndex;
 import org.entur.lamassu.leader.listener.CacheEntryListenerDelegate;
 import org.entur.lamassu.model.entities.Vehicle;
 import org.entur.lamassu.service.FeedProviderService;
+import org.entur.lamassu.util.BoundingBox;
 import org.entur.lamassu.util.SpatialIndexIdUtil;
 import org.redisson.api.map.event.EntryEvent;
 import org.slf4j.Logger;
@@ -29,21 +31,25 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
 import java.util.Set;
 
 @Component
 public class VehicleListenerDelegate implements CacheEntryListenerDelegate<Vehicle> {
     private final FeedProviderService feedProviderService;
     private final VehicleSpatialIndex spatialIndex;
+    private final LayerUpdateCache layerUpdateCache;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
     public VehicleListenerDelegate(
             FeedProviderService feedProviderService,
-            VehicleSpatialIndex spatialIndex
+            VehicleSpatialIndex spatialIndex,
+            LayerUpdateCache layerUpdateCache
     ) {
         this.feedProviderService = feedProviderService;
         this.spatialIndex = spatialIndex;
+        this.layerUpdateCache = layerUpdateCache;
     }
 
     @Override
@@ -55,12 +61,16 @@ public class VehicleListenerDelegate implements CacheEntryListenerDelegate<Vehic
         var feedProvider = feedProviderService.getFeedProviderBySystemId(split[split.length - 1]);
         if (feedProvider == null) {
             logger.warn("Feed provider not found on expired vehicle={}. Probably means feed provider was removed.", name);
-        } else {
-            var id = SpatialIndexIdUtil.createVehicleSpatialIndexId(
-                    vehicle,
-                    feedProvider
-            );
-            spatialIndex.removeAll(Set.of(id));
+            return;
+        }
+
+        var id = SpatialIndexIdUtil.createVehicleSpatialIndexId(vehicle, feedProvider);
+        spatialIndex.removeAll(Set.of(id));
+
+        // Map tiles showing the vehicle must be encoded again
+        var area = BoundingBox.ofEntities(List.of(vehicle));
+        if (area != null) {
+            layerUpdateCache.updateWithin(LayerUpdateCache.VEHICLES, feedProvider.getSystemId(), area);
         }
     }
 }
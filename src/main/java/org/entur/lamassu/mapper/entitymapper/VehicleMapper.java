@@ -19,8 +19,6 @@
 package org.entur.lamassu.mapper.entitymapper;
 
 import org.entur.gbfs.v2_3.free_bike_status.GBFSBike;
-import org.entur.lamassu.model.entities.PricingPlan;
-import org.entur.lamassu.model.entities.System;
 import org.entur.lamassu.model.entities.Vehicle;
 import org.entur.lamassu.model.entities.VehicleEquipment;
 import org.entur.lamassu.model.entities.VehicleType;
@@ -39,7 +37,7 @@ public class VehicleMapper {
         this.rentalUrisMapper = rentalUrisMapper;
     }
 
-    public Vehicle mapVehicle(GBFSBike bike, VehicleType vehicleType, PricingPlan pricingPlan, System system) {
+    public Vehicle mapVehicle(GBFSBike bike, VehicleType vehicleType, String systemId) {
         var vehicle = new Vehicle();
         vehicle.setId(bike.getBikeId());
         vehicle.setLat(bike.getLat());
@@ -48,12 +46,14 @@ public class VehicleMapper {
         vehicle.setDisabled(bike.getIsDisabled());
         vehicle.setCurrentRangeMeters(bike.getCurrentRangeMeters());
         vehicle.setCurrentFuelPercent(bike.getCurrentFuelPercent());
-        vehicle.setVehicleType(vehicleType);
-        vehicle.setPricingPlan(pricingPlan);
+        vehicle.setVehicleTypeId(bike.getVehicleTypeId());
+        vehicle.setFormFactor(vehicleType.getFormFactor());
+        vehicle.setPropulsionType(vehicleType.getPropulsionType());
+        vehicle.setPricingPlanId(bike.getPricingPlanId());
         vehicle.setVehicleEquipment(mapVehicleEquipment(bike.getVehicleEquipment()));
         vehicle.setRentalUris(rentalUrisMapper.mapRentalUris(bike.getRentalUris()));
         vehicle.setAvailableUntil(bike.getAvailableUntil());
-        vehicle.setSystem(system);
+        vehicle.setSystemId(systemId);
         return vehicle;
     }
 
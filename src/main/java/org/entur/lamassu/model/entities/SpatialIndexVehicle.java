@@ -0,0 +1,9 @@
+package org.entur.lamassu.model.entities;
+
+/**
+ * A vehicle read from the spatial index instead of the vehicle cache. It has its id, position,
+ * system and status, and the form factor and propulsion type of its vehicle type, but no other
+ * fields.
+ */
+public class SpatialIndexVehicle extends Vehicle {
+}
@@ -11,11 +11,16 @@ public class Vehicle implements LocationEntity {
     private Boolean isDisabled;
     private Double currentRangeMeters;
     private Double currentFuelPercent;
-    private VehicleType vehicleType;
+    private String vehicleTypeId;
+
+    // Kept from the vehicle type, so that the vehicle's spatial index id does not depend on its vehicle type being cached
+    private FormFactor formFactor;
+    private PropulsionType propulsionType;
+
     private List<VehicleEquipment> vehicleEquipment;
     private String availableUntil;
-    private PricingPlan pricingPlan;
-    private System system;
+    private String pricingPlanId;
+    private String systemId;
     private RentalUris rentalUris;
 
     @Override
@@ -77,12 +82,28 @@ public class Vehicle implements LocationEntity {
         this.currentFuelPercent = currentFuelPercent;
     }
 
-    public VehicleType getVehicleType() {
-        return vehicleType;
+    public String getVehicleTypeId() {
+        return vehicleTypeId;
+    }
+
+    public void setVehicleTypeId(String vehicleTypeId) {
+        this.vehicleTypeId = vehicleTypeId;
+    }
+
+    public FormFactor getFormFactor() {
+        return formFactor;
+    }
+
+    public void setFormFactor(FormFactor formFactor) {
+        this.formFactor = formFactor;
+    }
+
+    public PropulsionType getPropulsionType() {
+        return propulsionType;
     }
 
-    public void setVehicleType(VehicleType vehicleType) {
-        this.vehicleType = vehicleType;
+    public void setPropulsionType(PropulsionType propulsionType) {
+        this.propulsionType = propulsionType;
     }
 
     public List<VehicleEquipment> getVehicleEquipment() {
@@ -101,20 +122,20 @@ public class Vehicle implements LocationEntity {
         this.availableUntil = availableUntil;
     }
 
-    public PricingPlan getPricingPlan() {
-        return pricingPlan;
+    public String getPricingPlanId() {
+        return pricingPlanId;
     }
 
-    public void setPricingPlan(PricingPlan pricingPlan) {
-        this.pricingPlan = pricingPlan;
+    public void setPricingPlanId(String pricingPlanId) {
+        this.pricingPlanId = pricingPlanId;
     }
 
-    public System getSystem() {
-        return system;
+    public String getSystemId() {
+        return systemId;
     }
 
-    public void setSystem(System system) {
-        this.system = system;
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
     }
 
     public RentalUris getRentalUris() {
@@ -135,11 +156,13 @@ public class Vehicle implements LocationEntity {
                 ", isDisabled=" + isDisabled +
                 ", currentRangeMeters=" + currentRangeMeters +
                 ", currentFuelPercent=" + currentFuelPercent +
-                ", vehicleType=" + vehicleType +
+                ", vehicleTypeId='" + vehicleTypeId + '\'' +
+                ", formFactor=" + formFactor +
+                ", propulsionType=" + propulsionType +
                 ", vehicleEquipment=" + vehicleEquipment +
                 ", availableUntil='" + availableUntil + '\'' +
-                ", pricingPlan=" + pricingPlan +
-                ", system=" + system +
+                ", pricingPlanId='" + pricingPlanId + '\'' +
+                ", systemId='" + systemId + '\'' +
                 ", rentalUris=" + rentalUris +
                 '}';
     }
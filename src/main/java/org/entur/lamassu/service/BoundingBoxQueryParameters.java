@@ -0,0 +1,72 @@
+package org.entur.lamassu.service;
+
+import java.util.Objects;
+
+public class BoundingBoxQueryParameters {
+    private Double minLat;
+    private Double minLon;
+    private Double maxLat;
+    private Double maxLon;
+    private Integer count;
+
+    public Double getMinLat() {
+        return minLat;
+    }
+
+    public void setMinLat(Double minLat) {
+        this.minLat = minLat;
+    }
+
+    public Double getMinLon() {
+        return minLon;
+    }
+
+    public void setMinLon(Double minLon) {
+        this.minLon = minLon;
+    }
+
+    public Double getMaxLat() {
+        return maxLat;
+    }
+
+    public void setMaxLat(Double maxLat) {
+        this.maxLat = maxLat;
+    }
+
+    public Double getMaxLon() {
+        return maxLon;
+    }
+
+    public void setMaxLon(Double maxLon) {
+        this.maxLon = maxLon;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        BoundingBoxQueryParameters that = (BoundingBoxQueryParameters) o;
+        return Objects.equals(minLat, that.minLat)
+                && Objects.equals(minLon, that.minLon)
+                && Objects.equals(maxLat, that.maxLat)
+                && Objects.equals(maxLon, that.maxLon)
+                && Objects.equals(count, that.count);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minLat, minLon, maxLat, maxLon, count);
+    }
+}
@@ -19,6 +19,7 @@
 package org.entur.lamassu.service;
 
 import java.util.List;
+import java.util.Objects;
 
 public class FilterParameters {
     private List<String> codespaces;
@@ -48,4 +49,23 @@ public class FilterParameters {
     public void setOperators(List<String> operators) {
         this.operators = operators;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FilterParameters that = (FilterParameters) o;
+        return Objects.equals(codespaces, that.codespaces)
+                && Objects.equals(systems, that.systems)
+                && Objects.equals(operators, that.operators);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(codespaces, systems, operators);
+    }
 }
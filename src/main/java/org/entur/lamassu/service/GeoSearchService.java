@@ -2,13 +2,26 @@ package org.entur.lamassu.service;
 
 import org.entur.lamassu.model.entities.Station;
 import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.entities.VehicleCluster;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface GeoSearchService {
-    List<Vehicle> getVehiclesNearby(RangeQueryParameters rangeQueryParameters, VehicleFilterParameters vehicleFilterParameters);
-    List<Station> getStationsNearby(RangeQueryParameters rangeQueryParameters, StationFilterParameters stationFilterParameters);
+
+    // Clusters are cells of the tile grid two zoom levels down, i.e. 4x4 cells per tile
+    int CLUSTER_GRID_ZOOM_OFFSET = 2;
+
+    /**
+     * With fromSpatialIndex, vehicles are read from the spatial index only, see
+     * {@link org.entur.lamassu.model.entities.SpatialIndexVehicle}
+     */
+    CompletableFuture<List<Vehicle>> getVehiclesNearby(RangeQueryParameters rangeQueryParameters, VehicleFilterParameters vehicleFilterParameters, boolean fromSpatialIndex);
+    CompletableFuture<List<Vehicle>> getVehiclesInBoundingBox(BoundingBoxQueryParameters boundingBoxQueryParameters, VehicleFilterParameters vehicleFilterParameters, boolean fromSpatialIndex);
+    CompletableFuture<List<VehicleCluster>> getVehicleClusters(BoundingBoxQueryParameters boundingBoxQueryParameters, int zoom, VehicleFilterParameters vehicleFilterParameters);
+    CompletableFuture<List<Station>> getStationsNearby(RangeQueryParameters rangeQueryParameters, StationFilterParameters stationFilterParameters);
+    CompletableFuture<List<Station>> getStationsInBoundingBox(BoundingBoxQueryParameters boundingBoxQueryParameters, StationFilterParameters stationFilterParameters);
     Collection<String> getVehicleSpatialIndexOrphans();
     Collection<String> removeVehicleSpatialIndexOrphans();
 }
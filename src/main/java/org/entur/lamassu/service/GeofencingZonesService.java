@@ -0,0 +1,23 @@
+package org.entur.lamassu.service;
+
+import org.entur.lamassu.model.entities.GeofencingRules;
+import org.entur.lamassu.model.entities.GeofencingZones;
+import org.entur.lamassu.util.BoundingBox;
+
+import java.util.List;
+
+public interface GeofencingZonesService {
+    List<GeofencingZones> getGeofencingZones(List<String> systemIds, BoundingBox boundingBox, Double tolerance);
+    List<GeofencingRules> getGeofencingRules(double lat, double lon, String vehicleTypeId, List<String> systemIds);
+
+    /**
+     * Number of zones getGeofencingZones returns, counted from the zone indexes without reading
+     * the zones themselves
+     */
+    int countGeofencingZones(List<String> systemIds, BoundingBox boundingBox);
+
+    /**
+     * Number of systems whose zones getGeofencingRules looks the position up in
+     */
+    int countGeofencingRulesSystems(double lat, double lon, List<String> systemIds);
+}
@@ -1,10 +1,13 @@
 package org.entur.lamassu.service;
 
+import java.util.Objects;
+
 public class RangeQueryParameters {
     private Double lat;
     private Double lon;
     private Double range;
     private Integer count;
+    private Integer nearest;
 
     public Double getLat() {
         return lat;
@@ -37,4 +40,33 @@ public class RangeQueryParameters {
     public void setCount(Integer count) {
         this.count = count;
     }
+
+    public Integer getNearest() {
+        return nearest;
+    }
+
+    public void setNearest(Integer nearest) {
+        this.nearest = nearest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RangeQueryParameters that = (RangeQueryParameters) o;
+        return Objects.equals(lat, that.lat)
+                && Objects.equals(lon, that.lon)
+                && Objects.equals(range, that.range)
+                && Objects.equals(count, that.count)
+                && Objects.equals(nearest, that.nearest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lat, lon, range, count, nearest);
+    }
 }
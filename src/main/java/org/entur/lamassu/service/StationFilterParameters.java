@@ -22,6 +22,7 @@ import org.entur.lamassu.model.entities.FormFactor;
 import org.entur.lamassu.model.entities.PropulsionType;
 
 import java.util.List;
+import java.util.Objects;
 
 public class StationFilterParameters extends FilterParameters {
     private List<FormFactor> availableFormFactors;
@@ -42,4 +43,23 @@ public class StationFilterParameters extends FilterParameters {
     public void setAvailablePropulsionTypes(List<PropulsionType> availablePropulsionTypes) {
         this.availablePropulsionTypes = availablePropulsionTypes;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        StationFilterParameters that = (StationFilterParameters) o;
+        return super.equals(o)
+                && Objects.equals(availableFormFactors, that.availableFormFactors)
+                && Objects.equals(availablePropulsionTypes, that.availablePropulsionTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), availableFormFactors, availablePropulsionTypes);
+    }
 }
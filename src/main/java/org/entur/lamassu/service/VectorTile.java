@@ -0,0 +1,19 @@
+package org.entur.lamassu.service;
+
+public class VectorTile {
+    private final byte[] data;
+    private final String eTag;
+
+    public VectorTile(byte[] data, String eTag) {
+        this.data = data;
+        this.eTag = eTag;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+}
@@ -0,0 +1,12 @@
+package org.entur.lamassu.service;
+
+import org.entur.lamassu.cache.LayerUpdateCache;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+public interface VectorTileService {
+    Set<String> LAYERS = Set.of(LayerUpdateCache.VEHICLES, LayerUpdateCache.STATIONS, LayerUpdateCache.GEOFENCING_ZONES);
+
+    CompletableFuture<VectorTile> getTile(String layer, int z, int x, int y);
+}
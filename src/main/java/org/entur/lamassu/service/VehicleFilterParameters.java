@@ -4,6 +4,7 @@ import org.entur.lamassu.model.entities.FormFactor;
 import org.entur.lamassu.model.entities.PropulsionType;
 
 import java.util.List;
+import java.util.Objects;
 
 public class VehicleFilterParameters extends FilterParameters {
     private List<FormFactor> formFactors;
@@ -42,4 +43,25 @@ public class VehicleFilterParameters extends FilterParameters {
     public void setIncludeDisabled(boolean includeDisabled) {
         this.includeDisabled = includeDisabled;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        VehicleFilterParameters that = (VehicleFilterParameters) o;
+        return super.equals(o)
+                && Objects.equals(formFactors, that.formFactors)
+                && Objects.equals(propulsionTypes, that.propulsionTypes)
+                && includeReserved == that.includeReserved
+                && includeDisabled == that.includeDisabled;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), formFactors, propulsionTypes, includeReserved, includeDisabled);
+    }
 }
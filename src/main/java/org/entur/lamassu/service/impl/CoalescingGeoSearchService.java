@@ -0,0 +1,175 @@
+package org.entur.lamassu.service.impl;
+
+import org.entur.lamassu.model.entities.Station;
+import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.entities.VehicleCluster;
+import org.entur.lamassu.service.BoundingBoxQueryParameters;
+import org.entur.lamassu.service.GeoSearchService;
+import org.entur.lamassu.service.RangeQueryParameters;
+import org.entur.lamassu.service.StationFilterParameters;
+import org.entur.lamassu.service.VehicleFilterParameters;
+import org.entur.lamassu.util.LocalCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Shares the results of geo searches between identical queries. Coordinates are rounded to a
+ * grid and ranges are rounded up, so queries from nearly the same place are identical, and are
+ * answered as if they were made from the grid point. Concurrent identical queries share one
+ * search, and its result is reused for a short while after.
+ */
+@Component
+@Primary
+public class CoalescingGeoSearchService implements GeoSearchService {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final GeoSearchService geoSearchService;
+    private final double coordinateResolution;
+    private final double rangeResolution;
+    private final LocalCache<List<Object>, CompletableFuture<?>> results;
+
+    @Autowired
+    public CoalescingGeoSearchService(
+            @Qualifier("geoSearchServiceImpl") GeoSearchService geoSearchService,
+            @Value("${org.entur.lamassu.queryCoalescing.coordinateResolution:0.0001}") double coordinateResolution,
+            @Value("${org.entur.lamassu.queryCoalescing.rangeResolution:10}") double rangeResolution,
+            @Value("${org.entur.lamassu.queryCoalescing.ttl:1000}") long ttl,
+            @Value("${org.entur.lamassu.feedupdateinterval:30000}") long feedUpdateInterval
+    ) {
+        this.geoSearchService = geoSearchService;
+        this.coordinateResolution = coordinateResolution;
+        this.rangeResolution = rangeResolution;
+
+        // Results must not outlive the feed update they were read from by more than one update
+        if (ttl > feedUpdateInterval) {
+            logger.warn("Query coalescing ttl {} ms is longer than the feed update interval, using {} ms", ttl, feedUpdateInterval);
+            ttl = feedUpdateInterval;
+        }
+        this.results = ttl > 0 ? new LocalCache<>(ttl, TimeUnit.MILLISECONDS, 10000) : null;
+    }
+
+    @Override
+    public CompletableFuture<List<Vehicle>> getVehiclesNearby(RangeQueryParameters rangeQueryParameters, VehicleFilterParameters vehicleFilterParameters, boolean fromSpatialIndex) {
+        var queryParameters = quantize(rangeQueryParameters);
+        return coalesce(
+                Arrays.asList("vehiclesNearby", queryParameters, vehicleFilterParameters, fromSpatialIndex),
+                () -> geoSearchService.getVehiclesNearby(queryParameters, vehicleFilterParameters, fromSpatialIndex)
+        );
+    }
+
+    @Override
+    public CompletableFuture<List<Vehicle>> getVehiclesInBoundingBox(BoundingBoxQueryParameters boundingBoxQueryParameters, VehicleFilterParameters vehicleFilterParameters, boolean fromSpatialIndex) {
+        var queryParameters = quantize(boundingBoxQueryParameters);
+        return coalesce(
+                Arrays.asList("vehiclesInBoundingBox", queryParameters, vehicleFilterParameters, fromSpatialIndex),
+                () -> geoSearchService.getVehiclesInBoundingBox(queryParameters, vehicleFilterParameters, fromSpatialIndex)
+        );
+    }
+
+    @Override
+    public CompletableFuture<List<VehicleCluster>> getVehicleClusters(BoundingBoxQueryParameters boundingBoxQueryParameters, int zoom, VehicleFilterParameters vehicleFilterParameters) {
+        var queryParameters = quantize(boundingBoxQueryParameters);
+        return coalesce(
+                Arrays.asList("vehicleClusters", queryParameters, zoom, vehicleFilterParameters),
+                () -> geoSearchService.getVehicleClusters(queryParameters, zoom, vehicleFilterParameters)
+        );
+    }
+
+    @Override
+    public CompletableFuture<List<Station>> getStationsNearby(RangeQueryParameters rangeQueryParameters, StationFilterParameters stationFilterParameters) {
+        var queryParameters = quantize(rangeQueryParameters);
+        return coalesce(
+                Arrays.asList("stationsNearby", queryParameters, stationFilterParameters),
+                () -> geoSearchService.getStationsNearby(queryParameters, stationFilterParameters)
+        );
+    }
+
+    @Override
+    public CompletableFuture<List<Station>> getStationsInBoundingBox(BoundingBoxQueryParameters boundingBoxQueryParameters, StationFilterParameters stationFilterParameters) {
+        var queryParameters = quantize(boundingBoxQueryParameters);
+        return coalesce(
+                Arrays.asList("stationsInBoundingBox", queryParameters, stationFilterParameters),
+                () -> geoSearchService.getStationsInBoundingBox(queryParameters, stationFilterParameters)
+        );
+    }
+
+    @Override
+    public Collection<String> getVehicleSpatialIndexOrphans() {
+        return geoSearchService.getVehicleSpatialIndexOrphans();
+    }
+
+    @Override
+    public Collection<String> removeVehicleSpatialIndexOrphans() {
+        return geoSearchService.removeVehicleSpatialIndexOrphans();
+    }
+
+    private <T> CompletableFuture<T> coalesce(List<Object> key, Supplier<CompletableFuture<T>> search) {
+        if (results == null) {
+            return search.get();
+        }
+
+        @SuppressWarnings("unchecked") var result = (CompletableFuture<T>) results.getOrLoad(key, k -> search.get());
+
+        // Failed searches are not shared with later queries, but a newer search of the key is kept
+        result.whenComplete((value, e) -> {
+            if (e != null) {
+                results.invalidate(key, result);
+            }
+        });
+
+        return result;
+    }
+
+    private RangeQueryParameters quantize(RangeQueryParameters rangeQueryParameters) {
+        if (results == null) {
+            return rangeQueryParameters;
+        }
+        var quantized = new RangeQueryParameters();
+        quantized.setLat(round(rangeQueryParameters.getLat(), coordinateResolution));
+        quantized.setLon(round(rangeQueryParameters.getLon(), coordinateResolution));
+        quantized.setRange(ceil(rangeQueryParameters.getRange(), rangeResolution));
+        quantized.setCount(rangeQueryParameters.getCount());
+        quantized.setNearest(rangeQueryParameters.getNearest());
+        return quantized;
+    }
+
+    /**
+     * The bounding box is widened to the grid, so it covers at least the requested area
+     */
+    private BoundingBoxQueryParameters quantize(BoundingBoxQueryParameters boundingBoxQueryParameters) {
+        if (results == null) {
+            return boundingBoxQueryParameters;
+        }
+        var quantized = new BoundingBoxQueryParameters();
+        quantized.setMinLat(floor(boundingBoxQueryParameters.getMinLat(), coordinateResolution));
+        quantized.setMinLon(floor(boundingBoxQueryParameters.getMinLon(), coordinateResolution));
+        quantized.setMaxLat(ceil(boundingBoxQueryParameters.getMaxLat(), coordinateResolution));
+        quantized.setMaxLon(ceil(boundingBoxQueryParameters.getMaxLon(), coordinateResolution));
+        quantized.setCount(boundingBoxQueryParameters.getCount());
+        return quantized;
+    }
+
+    private static Double round(Double value, double resolution) {
+        return value != null && resolution > 0 ? Math.round(value / resolution) * resolution : value;
+    }
+
+    private static Double floor(Double value, double resolution) {
+        return value != null && resolution > 0 ? Math.floor(value / resolution) * resolution : value;
+    }
+
+    private static Double ceil(Double value, double resolution) {
+        return value != null && resolution > 0 ? Math.ceil(value / resolution) * resolution : value;
+    }
+}
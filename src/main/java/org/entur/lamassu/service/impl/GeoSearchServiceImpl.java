@@ -1,37 +1,55 @@
 package org.entur.lamassu.service.impl;
 
+import org.entur.lamassu.cache.SpatialIndexCell;
 import org.entur.lamassu.cache.StationCache;
 import org.entur.lamassu.cache.StationSpatialIndex;
 import org.entur.lamassu.cache.StationSpatialIndexId;
 import org.entur.lamassu.cache.VehicleCache;
 import org.entur.lamassu.cache.VehicleSpatialIndex;
 import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.FormFactorCount;
+import org.entur.lamassu.model.entities.SpatialIndexVehicle;
 import org.entur.lamassu.model.entities.Station;
 import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.entities.VehicleCluster;
+import org.entur.lamassu.service.BoundingBoxQueryParameters;
 import org.entur.lamassu.service.StationFilterParameters;
 import org.entur.lamassu.service.VehicleFilterParameters;
 import org.entur.lamassu.service.RangeQueryParameters;
 import org.entur.lamassu.service.GeoSearchService;
-import org.entur.lamassu.util.SpatialIndexIdFilter;
+import org.entur.lamassu.util.BoundingBox;
 import org.redisson.api.GeoOrder;
+import org.redisson.api.GeoPosition;
 import org.redisson.api.GeoUnit;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Component
 public class GeoSearchServiceImpl implements GeoSearchService {
+    private static final int ORPHAN_SCAN_CHUNK_SIZE = 1000;
 
     private final VehicleSpatialIndex vehicleSpatialIndex;
     private final StationSpatialIndex stationSpatialIndex;
     private final VehicleCache vehicleCache;
     private final StationCache stationCache;
 
+    @Value("${org.entur.lamassu.nearestMaxRange:50000}")
+    private double nearestMaxRange;
+
     @Autowired
     public GeoSearchServiceImpl(VehicleSpatialIndex vehicleSpatialIndex, StationSpatialIndex stationSpatialIndex, VehicleCache vehicleCache, StationCache stationCache) {
         this.vehicleSpatialIndex = vehicleSpatialIndex;
@@ -41,26 +59,84 @@ public class GeoSearchServiceImpl implements GeoSearchService {
     }
 
     @Override
-    public List<Vehicle> getVehiclesNearby(RangeQueryParameters rangeQueryParameters, VehicleFilterParameters vehicleFilterParameters) {
+    public CompletableFuture<List<Vehicle>> getVehiclesNearby(RangeQueryParameters rangeQueryParameters, VehicleFilterParameters vehicleFilterParameters, boolean fromSpatialIndex) {
         Double longitude = rangeQueryParameters.getLon();
         Double latitude = rangeQueryParameters.getLat();
         Double range = rangeQueryParameters.getRange();
         Integer count = rangeQueryParameters.getCount();
+        Integer nearest = rangeQueryParameters.getNearest();
 
-        List<VehicleSpatialIndexId> indexIds = vehicleSpatialIndex.radius(longitude, latitude, range, GeoUnit.METERS, GeoOrder.ASC);
+        if (fromSpatialIndex) {
+            var positions = nearest != null
+                    ? vehicleSpatialIndex.nearestWithPositionsAsync(longitude, latitude, vehicleFilterParameters, nearest, range != null ? range : nearestMaxRange)
+                    : vehicleSpatialIndex.radiusWithPositionsAsync(longitude, latitude, range, GeoUnit.METERS, GeoOrder.ASC, vehicleFilterParameters, count);
+            return positions.thenApply(this::getSpatialIndexVehicles);
+        }
 
-        var stream = indexIds.stream()
-                .filter(Objects::nonNull)
-                .filter(id -> SpatialIndexIdFilter.filterVehicle(id, vehicleFilterParameters));
+        var indexIds = nearest != null
+                ? vehicleSpatialIndex.nearestAsync(longitude, latitude, vehicleFilterParameters, nearest, range != null ? range : nearestMaxRange)
+                : vehicleSpatialIndex.radiusAsync(longitude, latitude, range, GeoUnit.METERS, GeoOrder.ASC, vehicleFilterParameters, count);
 
-        if (count != null) {
-            stream = stream.limit(count.longValue());
+        return indexIds.thenCompose(this::getVehicles);
+    }
+
+    @Override
+    public CompletableFuture<List<Vehicle>> getVehiclesInBoundingBox(BoundingBoxQueryParameters boundingBoxQueryParameters, VehicleFilterParameters vehicleFilterParameters, boolean fromSpatialIndex) {
+        var boundingBox = getBoundingBox(boundingBoxQueryParameters);
+        var count = boundingBoxQueryParameters.getCount();
+        if (fromSpatialIndex) {
+            return vehicleSpatialIndex.boxWithPositionsAsync(boundingBox, vehicleFilterParameters, count)
+                    .thenApply(this::getSpatialIndexVehicles);
         }
+        return vehicleSpatialIndex.boxAsync(boundingBox, vehicleFilterParameters, count).thenCompose(this::getVehicles);
+    }
+
+    @Override
+    public CompletableFuture<List<VehicleCluster>> getVehicleClusters(BoundingBoxQueryParameters boundingBoxQueryParameters, int zoom, VehicleFilterParameters vehicleFilterParameters) {
+        var gridZoom = zoom + CLUSTER_GRID_ZOOM_OFFSET;
+        return vehicleSpatialIndex.cellsAsync(getBoundingBox(boundingBoxQueryParameters), vehicleFilterParameters, gridZoom)
+                .thenApply(this::getVehicleClusters);
+    }
+
+    private List<VehicleCluster> getVehicleClusters(List<SpatialIndexCell<VehicleSpatialIndexId>> cells) {
+        // Vehicles are partitioned by form factor, so all the vehicles counted in a cell share the form factor of its id
+        var clusters = new HashMap<Long, ClusterBuilder>();
+        cells.forEach(cell -> clusters.computeIfAbsent(((long) cell.getX() << 32) | cell.getY(), key -> new ClusterBuilder())
+                .add(cell.getLatitude(), cell.getLongitude(), cell.getCount(), cell.getId().getFormFactor()));
+
+        return clusters.values().stream().map(ClusterBuilder::build).collect(Collectors.toList());
+    }
 
-        Set<String> vehicleIds = stream.map(this::getVehicleCacheKey)
+    private CompletableFuture<List<Vehicle>> getVehicles(List<VehicleSpatialIndexId> indexIds) {
+        Set<String> vehicleIds = indexIds.stream()
+                .filter(Objects::nonNull)
+                .map(this::getVehicleCacheKey)
                 .collect(Collectors.toSet());
 
-        return vehicleCache.getAll(vehicleIds);
+        return vehicleCache.getAllAsync(vehicleIds);
+    }
+
+    /**
+     * The searches return the position of each vehicle along with its spatial index id, so the
+     * vehicles are made from the search results alone, in search order
+     */
+    private List<Vehicle> getSpatialIndexVehicles(Map<VehicleSpatialIndexId, GeoPosition> positions) {
+        return positions.entrySet().stream()
+                .map(entry -> toVehicle(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    private Vehicle toVehicle(VehicleSpatialIndexId indexId, GeoPosition position) {
+        var vehicle = new SpatialIndexVehicle();
+        vehicle.setId(indexId.getId());
+        vehicle.setLat(position.getLatitude());
+        vehicle.setLon(position.getLongitude());
+        vehicle.setSystemId(indexId.getSystemId());
+        vehicle.setReserved(indexId.getReserved());
+        vehicle.setDisabled(indexId.getDisabled());
+        vehicle.setFormFactor(indexId.getFormFactor());
+        vehicle.setPropulsionType(indexId.getPropulsionType());
+        return vehicle;
     }
 
     private String getVehicleCacheKey(VehicleSpatialIndexId spatialIndexId) {
@@ -68,50 +144,127 @@ public class GeoSearchServiceImpl implements GeoSearchService {
     }
 
     @Override
-    public List<Station> getStationsNearby(RangeQueryParameters rangeQueryParameters, StationFilterParameters filterParameters) {
+    public CompletableFuture<List<Station>> getStationsNearby(RangeQueryParameters rangeQueryParameters, StationFilterParameters filterParameters) {
         Double longitude = rangeQueryParameters.getLon();
         Double latitude = rangeQueryParameters.getLat();
         Double range = rangeQueryParameters.getRange();
         Integer count = rangeQueryParameters.getCount();
+        Integer nearest = rangeQueryParameters.getNearest();
 
-        List<StationSpatialIndexId> indexIds = stationSpatialIndex.radius(longitude, latitude, range, GeoUnit.METERS, GeoOrder.ASC);
+        var indexIds = nearest != null
+                ? stationSpatialIndex.nearestAsync(longitude, latitude, filterParameters, nearest, range != null ? range : nearestMaxRange)
+                : stationSpatialIndex.radiusAsync(longitude, latitude, range, GeoUnit.METERS, GeoOrder.ASC, filterParameters, count);
 
-        var stream = indexIds.stream()
-                .filter(Objects::nonNull)
-                .filter(id -> SpatialIndexIdFilter.filterStation(id, filterParameters));
+        return indexIds.thenCompose(this::getStations);
+    }
 
-        if (count != null) {
-            stream = stream.limit(count.longValue());
-        }
+    @Override
+    public CompletableFuture<List<Station>> getStationsInBoundingBox(BoundingBoxQueryParameters boundingBoxQueryParameters, StationFilterParameters filterParameters) {
+        return stationSpatialIndex.boxAsync(
+                getBoundingBox(boundingBoxQueryParameters),
+                filterParameters,
+                boundingBoxQueryParameters.getCount()
+        ).thenCompose(this::getStations);
+    }
 
-        Set<String> stationIds = stream.map(StationSpatialIndexId::getId).collect(Collectors.toSet());
+    private CompletableFuture<List<Station>> getStations(List<StationSpatialIndexId> indexIds) {
+        Set<String> stationIds = indexIds.stream()
+                .filter(Objects::nonNull)
+                .map(StationSpatialIndexId::getId)
+                .collect(Collectors.toSet());
+
+        return stationCache.getAllAsync(stationIds);
+    }
 
-        return stationCache.getAll(stationIds);
+    private BoundingBox getBoundingBox(BoundingBoxQueryParameters boundingBoxQueryParameters) {
+        return new BoundingBox(
+                boundingBoxQueryParameters.getMinLat(),
+                boundingBoxQueryParameters.getMinLon(),
+                boundingBoxQueryParameters.getMaxLat(),
+                boundingBoxQueryParameters.getMaxLon()
+        );
     }
 
     @Override
     public Collection<String> getVehicleSpatialIndexOrphans() {
-        var indexIds = vehicleSpatialIndex.getAll();
-        return indexIds.stream()
-                .filter(Objects::nonNull)
+        return findVehicleSpatialIndexOrphans().stream()
                 .map(this::getVehicleCacheKey)
-                .filter(key -> !vehicleCache.hasKey(key))
                 .collect(Collectors.toList());
     }
 
     @Override
     public Collection<String> removeVehicleSpatialIndexOrphans() {
-        var indexIds = vehicleSpatialIndex.getAll();
-        var orphans = indexIds.stream()
-                .filter(Objects::nonNull)
-                .filter(indexId -> {
-                    var cacheKey = getVehicleCacheKey(indexId);
-                    return !vehicleCache.hasKey(cacheKey);
-                })
-                .collect(Collectors.toSet());
+        var orphans = findVehicleSpatialIndexOrphans();
 
-        vehicleSpatialIndex.removeAll(orphans);
+        if (!orphans.isEmpty()) {
+            vehicleSpatialIndex.removeAll(orphans);
+        }
 
         return orphans.stream().map(this::getVehicleCacheKey).collect(Collectors.toList());
     }
+
+    /**
+     * Scan the spatial index in chunks, and check each chunk against the vehicle cache with one
+     * round of existence checks, instead of reading the whole index and checking entries one by one.
+     */
+    private Set<VehicleSpatialIndexId> findVehicleSpatialIndexOrphans() {
+        var orphans = new HashSet<VehicleSpatialIndexId>();
+        var chunk = new ArrayList<VehicleSpatialIndexId>(ORPHAN_SCAN_CHUNK_SIZE);
+        var iterator = vehicleSpatialIndex.iterator(ORPHAN_SCAN_CHUNK_SIZE);
+
+        while (iterator.hasNext()) {
+            var indexId = iterator.next();
+            if (indexId != null) {
+                chunk.add(indexId);
+            }
+            if (chunk.size() >= ORPHAN_SCAN_CHUNK_SIZE) {
+                collectOrphans(chunk, orphans);
+                chunk.clear();
+            }
+        }
+        collectOrphans(chunk, orphans);
+
+        return orphans;
+    }
+
+    private void collectOrphans(List<VehicleSpatialIndexId> chunk, Set<VehicleSpatialIndexId> orphans) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        var existingKeys = vehicleCache.getExistingKeys(
+                chunk.stream().map(this::getVehicleCacheKey).collect(Collectors.toSet())
+        );
+
+        chunk.stream()
+                .filter(indexId -> !existingKeys.contains(getVehicleCacheKey(indexId)))
+                .forEach(orphans::add);
+    }
+
+    private static class ClusterBuilder {
+        private double latSum;
+        private double lonSum;
+        private int count;
+        private final Map<FormFactor, Integer> formFactorCounts = new EnumMap<>(FormFactor.class);
+
+        void add(double lat, double lon, int cellCount, FormFactor formFactor) {
+            latSum += lat * cellCount;
+            lonSum += lon * cellCount;
+            count += cellCount;
+            if (formFactor != null) {
+                formFactorCounts.merge(formFactor, cellCount, Integer::sum);
+            }
+        }
+
+        VehicleCluster build() {
+            var cluster = new VehicleCluster();
+            cluster.setLat(latSum / count);
+            cluster.setLon(lonSum / count);
+            cluster.setCount(count);
+            cluster.setFormFactors(formFactorCounts.entrySet().stream()
+                    .map(entry -> new FormFactorCount(entry.getKey(), entry.getValue()))
+                    .collect(Collectors.toList()));
+            return cluster;
+        }
+    }
 }
@@ -0,0 +1,259 @@
+package org.entur.lamassu.service.impl;
+
+import org.entur.lamassu.cache.GeofencingZonesCache;
+import org.entur.lamassu.cache.GeofencingZonesIndex;
+import org.entur.lamassu.cache.GeofencingZonesIndexCache;
+import org.entur.lamassu.cache.LayerUpdate;
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.cache.SimplifiedGeofencingZonesCache;
+import org.entur.lamassu.model.entities.GeofencingRules;
+import org.entur.lamassu.model.entities.GeofencingZones;
+import org.entur.lamassu.service.GeofencingZonesService;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.CacheUtil;
+import org.entur.lamassu.util.GeometryUtil;
+import org.entur.lamassu.util.LocalCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Serves geofencing zones and rules using the zone indexes and simplified zones built by the
+ * leader. Indexes are held locally, keyed by the latest geofencing zones update of their system,
+ * so they are only fetched again after the system's zones have changed.
+ */
+@Component
+public class GeofencingZonesServiceImpl implements GeofencingZonesService {
+    private final GeofencingZonesCache geofencingZonesCache;
+    private final SimplifiedGeofencingZonesCache simplifiedGeofencingZonesCache;
+    private final GeofencingZonesIndexCache geofencingZonesIndexCache;
+    private final LayerUpdateCache layerUpdateCache;
+
+    private final LocalCache<String, GeofencingZonesIndex> indexes = new LocalCache<>(300, TimeUnit.SECONDS, 1000);
+
+    @Autowired
+    public GeofencingZonesServiceImpl(
+            GeofencingZonesCache geofencingZonesCache,
+            SimplifiedGeofencingZonesCache simplifiedGeofencingZonesCache,
+            GeofencingZonesIndexCache geofencingZonesIndexCache,
+            LayerUpdateCache layerUpdateCache
+    ) {
+        this.geofencingZonesCache = geofencingZonesCache;
+        this.simplifiedGeofencingZonesCache = simplifiedGeofencingZonesCache;
+        this.geofencingZonesIndexCache = geofencingZonesIndexCache;
+        this.layerUpdateCache = layerUpdateCache;
+    }
+
+    @Override
+    public List<GeofencingZones> getGeofencingZones(List<String> systemIds, BoundingBox boundingBox, Double tolerance) {
+        var updates = layerUpdateCache.getAll(LayerUpdateCache.GEOFENCING_ZONES);
+        var simplifiedTolerance = getSimplifiedTolerance(tolerance);
+        var allSystems = systemIds == null || systemIds.isEmpty();
+
+        Collection<String> ids = allSystems ? updates.keySet() : systemIds;
+        if (boundingBox != null) {
+            // The zones of a system are all within its extent, so systems outside the bounding box are not read
+            ids = ids.stream()
+                    .filter(id -> mayIntersect(updates.get(id), boundingBox))
+                    .collect(Collectors.toList());
+        }
+
+        List<GeofencingZones> geofencingZones;
+        if (simplifiedTolerance == null) {
+            geofencingZones = allSystems && boundingBox == null
+                    ? geofencingZonesCache.getAll()
+                    : geofencingZonesCache.getAll(new HashSet<>(ids));
+        } else {
+            var keys = new HashSet<String>();
+            ids.forEach(id -> keys.add(CacheUtil.getSystemScopedCacheKey(String.valueOf(simplifiedTolerance), id)));
+            geofencingZones = simplifiedGeofencingZonesCache.getAll(keys);
+        }
+
+        if (boundingBox == null) {
+            return geofencingZones;
+        }
+
+        var result = new ArrayList<GeofencingZones>();
+        for (var zones : geofencingZones) {
+            var filtered = filter(zones, boundingBox, updates.get(zones.getSystemId()));
+            if (filtered != null) {
+                result.add(filtered);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<GeofencingRules> getGeofencingRules(double lat, double lon, String vehicleTypeId, List<String> systemIds) {
+        var updates = layerUpdateCache.getAll(LayerUpdateCache.GEOFENCING_ZONES);
+        var now = System.currentTimeMillis() / 1000;
+        var result = new ArrayList<GeofencingRules>();
+
+        for (var entry : updates.entrySet()) {
+            var systemId = entry.getKey();
+            var update = entry.getValue();
+            if (!isSelected(systemId, systemIds) || update.getExtent() == null || !update.getExtent().contains(lat, lon)) {
+                continue;
+            }
+
+            var index = getIndex(systemId, update);
+            if (index == null) {
+                continue;
+            }
+
+            var rules = getGeofencingRules(index, lat, lon, vehicleTypeId, now);
+            if (rules != null) {
+                result.add(rules);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int countGeofencingZones(List<String> systemIds, BoundingBox boundingBox) {
+        var count = 0;
+        for (var entry : layerUpdateCache.getAll(LayerUpdateCache.GEOFENCING_ZONES).entrySet()) {
+            var systemId = entry.getKey();
+            var update = entry.getValue();
+            if (!isSelected(systemId, systemIds)) {
+                continue;
+            }
+            if (boundingBox != null && (update.getExtent() == null || !update.getExtent().intersects(boundingBox))) {
+                continue;
+            }
+
+            var index = getIndex(systemId, update);
+            if (index != null) {
+                count += boundingBox == null ? index.getZoneCount() : index.getZonesIntersecting(boundingBox).size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int countGeofencingRulesSystems(double lat, double lon, List<String> systemIds) {
+        return (int) layerUpdateCache.getAll(LayerUpdateCache.GEOFENCING_ZONES).entrySet().stream()
+                .filter(entry -> isSelected(entry.getKey(), systemIds))
+                .filter(entry -> entry.getValue().getExtent() != null && entry.getValue().getExtent().contains(lat, lon))
+                .count();
+    }
+
+    // Systems without a recorded extent may have zones anywhere
+    private boolean mayIntersect(LayerUpdate update, BoundingBox boundingBox) {
+        return update == null || update.getExtent() == null || update.getExtent().intersects(boundingBox);
+    }
+
+    private boolean isSelected(String systemId, List<String> systemIds) {
+        return systemIds == null || systemIds.isEmpty() || systemIds.contains(systemId);
+    }
+
+    /**
+     * The largest precomputed tolerance that is not larger than the requested one, so polygons
+     * are never simplified more than asked for
+     */
+    private Integer getSimplifiedTolerance(Double tolerance) {
+        if (tolerance == null) {
+            return null;
+        }
+        Integer simplifiedTolerance = null;
+        for (var candidate : SimplifiedGeofencingZonesCache.TOLERANCES) {
+            if (candidate <= tolerance && (simplifiedTolerance == null || candidate > simplifiedTolerance)) {
+                simplifiedTolerance = candidate;
+            }
+        }
+        return simplifiedTolerance;
+    }
+
+    /**
+     * A copy of the geofencing zones with only the features intersecting the bounding box, or
+     * null if there are none. The simplified zones keep all features in their original order,
+     * so the zone index applies to them as well.
+     */
+    private GeofencingZones filter(GeofencingZones geofencingZones, BoundingBox boundingBox, LayerUpdate update) {
+        if (geofencingZones.getGeojson() == null || geofencingZones.getGeojson().getFeatures() == null) {
+            return null;
+        }
+        var features = geofencingZones.getGeojson().getFeatures();
+        var index = update != null ? getIndex(geofencingZones.getSystemId(), update) : null;
+
+        var filteredFeatures = new ArrayList<GeofencingZones.Feature>();
+        if (index != null && index.getZoneCount() == features.size()) {
+            index.getZonesIntersecting(boundingBox).forEach(zone -> filteredFeatures.add(features.get(zone)));
+        } else {
+            for (var feature : features) {
+                var featureBoundingBox = GeometryUtil.getBoundingBox(feature.getGeometry());
+                if (featureBoundingBox != null && featureBoundingBox.intersects(boundingBox)) {
+                    filteredFeatures.add(feature);
+                }
+            }
+        }
+        if (filteredFeatures.isEmpty()) {
+            return null;
+        }
+
+        var featureCollection = new GeofencingZones.FeatureCollection();
+        featureCollection.setFeatures(filteredFeatures);
+        var filtered = new GeofencingZones();
+        filtered.setSystemId(geofencingZones.getSystemId());
+        filtered.setGeojson(featureCollection);
+        return filtered;
+    }
+
+    private GeofencingZonesIndex getIndex(String systemId, LayerUpdate update) {
+        return indexes.get(
+                systemId + "_" + update.getGeneration(),
+                key -> geofencingZonesIndexCache.get(systemId)
+        );
+    }
+
+    /**
+     * Where zones overlap, the zone listed first takes precedence, and within a zone the first
+     * rule that applies to the vehicle type does. Zones outside their start and end time, and
+     * zones without a rule for the vehicle type, are skipped.
+     */
+    private GeofencingRules getGeofencingRules(GeofencingZonesIndex index, double lat, double lon, String vehicleTypeId, long now) {
+        for (var zone : index.getZonesContaining(lat, lon)) {
+            var properties = index.getProperties(zone);
+            if (properties == null || properties.getRules() == null || !isActive(properties, now)) {
+                continue;
+            }
+
+            List<GeofencingZones.Rule> rules;
+            if (vehicleTypeId == null) {
+                rules = properties.getRules();
+            } else {
+                rules = properties.getRules().stream()
+                        .filter(rule -> appliesTo(rule, vehicleTypeId))
+                        .limit(1)
+                        .collect(Collectors.toList());
+            }
+            if (rules.isEmpty()) {
+                continue;
+            }
+
+            var geofencingRules = new GeofencingRules();
+            geofencingRules.setSystemId(index.getSystemId());
+            geofencingRules.setZoneName(properties.getName());
+            geofencingRules.setRules(rules);
+            return geofencingRules;
+        }
+        return null;
+    }
+
+    private boolean isActive(GeofencingZones.Properties properties, long now) {
+        return (properties.getStart() == null || properties.getStart() <= now)
+                && (properties.getEnd() == null || properties.getEnd() >= now);
+    }
+
+    private boolean appliesTo(GeofencingZones.Rule rule, String vehicleTypeId) {
+        return rule.getVehicleTypeIds() == null
+                || rule.getVehicleTypeIds().isEmpty()
+                || rule.getVehicleTypeIds().contains(vehicleTypeId);
+    }
+}
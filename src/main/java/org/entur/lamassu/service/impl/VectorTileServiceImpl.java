@@ -0,0 +1,254 @@
+package org.entur.lamassu.service.impl;
+
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.cache.StationSpatialIndex;
+import org.entur.lamassu.cache.StationSpatialIndexId;
+import org.entur.lamassu.cache.VehicleSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.GeofencingZones;
+import org.entur.lamassu.service.GeofencingZonesService;
+import org.entur.lamassu.service.VectorTile;
+import org.entur.lamassu.service.VectorTileService;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.GeometryUtil;
+import org.entur.lamassu.util.LocalCache;
+import org.entur.lamassu.util.VectorTileEncoder;
+import org.entur.lamassu.util.WebMercatorUtil;
+import org.redisson.api.GeoPosition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes vector tiles from the spatial indexes and the geofencing zones. Encoded tiles are
+ * cached locally, keyed by the latest update of every system whose extent overlaps the tile, so
+ * a tile is only encoded again after a system it may show data from has been updated, or has had
+ * vehicles expire or removed as orphans, see LayerUpdateCache.updateWithin.
+ *
+ * Tiles are encoded on the resolver executor, as spatial index searches complete on the Redis
+ * client's event loop, and geofencing zones are read with blocking calls.
+ */
+@Component
+public class VectorTileServiceImpl implements VectorTileService {
+    private static final int EXTENT = VectorTileEncoder.DEFAULT_EXTENT;
+    private static final int BUFFER = 64;
+
+    // Geometries are simplified to a tolerance of one pixel of a 256 pixel tile
+    private static final double SIMPLIFICATION_TOLERANCE = EXTENT / 256.0;
+
+    // Meters per pixel of a 256 pixel tile at zoom 0 at the equator
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156543.03;
+
+    // Zoomed further out, there are too many vehicles and stations for a tile, and clusters should be used instead
+    private static final int MIN_POINT_LAYER_ZOOM = 12;
+
+    private final VehicleSpatialIndex vehicleSpatialIndex;
+    private final StationSpatialIndex stationSpatialIndex;
+    private final GeofencingZonesService geofencingZonesService;
+    private final LayerUpdateCache layerUpdateCache;
+    private final Executor resolverExecutor;
+
+    // Tiles being encoded are cached too, so that concurrent requests for a tile share its encoding
+    private final LocalCache<String, CompletableFuture<VectorTile>> tiles = new LocalCache<>(300, TimeUnit.SECONDS, 10000);
+
+    @Autowired
+    public VectorTileServiceImpl(
+            VehicleSpatialIndex vehicleSpatialIndex,
+            StationSpatialIndex stationSpatialIndex,
+            GeofencingZonesService geofencingZonesService,
+            LayerUpdateCache layerUpdateCache,
+            @Qualifier("resolverExecutor") Executor resolverExecutor
+    ) {
+        this.vehicleSpatialIndex = vehicleSpatialIndex;
+        this.stationSpatialIndex = stationSpatialIndex;
+        this.geofencingZonesService = geofencingZonesService;
+        this.layerUpdateCache = layerUpdateCache;
+        this.resolverExecutor = resolverExecutor;
+    }
+
+    @Override
+    public CompletableFuture<VectorTile> getTile(String layer, int z, int x, int y) {
+        if (!LAYERS.contains(layer)) {
+            throw new IllegalArgumentException("Unknown layer " + layer);
+        }
+
+        var boundingBox = getBufferedBoundingBox(z, x, y);
+        var version = getVersion(layer, boundingBox);
+        var key = layer + "/" + z + "/" + x + "/" + y + "/" + version;
+
+        var tile = tiles.get(key, k -> encode(layer, z, x, y, boundingBox)
+                .thenApply(data -> new VectorTile(data, Long.toHexString(version))));
+
+        // A tile that failed is encoded again by the next request for it
+        tile.whenComplete((result, e) -> {
+            if (e != null) {
+                tiles.invalidate(key, tile);
+            }
+        });
+        return tile;
+    }
+
+    /**
+     * Combines the latest updates of the systems whose extents overlap the tile. A system's entities
+     * are all within its extent, so the tile can only have changed if this changes.
+     */
+    private long getVersion(String layer, BoundingBox boundingBox) {
+        var version = 0xcbf29ce484222325L;
+        for (var entry : new TreeMap<>(layerUpdateCache.getAll(layer)).entrySet()) {
+            var extent = entry.getValue().getExtent();
+            if (extent != null && extent.intersects(boundingBox)) {
+                version = (version ^ entry.getKey().hashCode()) * 0x100000001b3L;
+                version = (version ^ entry.getValue().getGeneration()) * 0x100000001b3L;
+            }
+        }
+        return version;
+    }
+
+    private CompletableFuture<byte[]> encode(String layer, int z, int x, int y, BoundingBox boundingBox) {
+        if (LayerUpdateCache.VEHICLES.equals(layer) && z >= MIN_POINT_LAYER_ZOOM) {
+            return vehicleSpatialIndex.boxWithPositionsAsync(boundingBox, null, null)
+                    .thenApplyAsync(positions -> encodeVehicles(layer, positions, z, x, y), resolverExecutor);
+        }
+        if (LayerUpdateCache.STATIONS.equals(layer) && z >= MIN_POINT_LAYER_ZOOM) {
+            return stationSpatialIndex.boxWithPositionsAsync(boundingBox, null, null)
+                    .thenApplyAsync(positions -> encodeStations(layer, positions, z, x, y), resolverExecutor);
+        }
+        if (LayerUpdateCache.GEOFENCING_ZONES.equals(layer)) {
+            return CompletableFuture.supplyAsync(() -> encodeGeofencingZones(layer, boundingBox, z, x, y), resolverExecutor);
+        }
+        return CompletableFuture.completedFuture(new VectorTileEncoder(EXTENT).encode());
+    }
+
+    private byte[] encodeVehicles(String layer, Map<VehicleSpatialIndexId, GeoPosition> positions, int z, int x, int y) {
+        var encoder = new VectorTileEncoder(EXTENT);
+        positions.forEach((id, position) -> {
+            var attributes = new LinkedHashMap<String, Object>();
+            attributes.put("id", id.getId());
+            attributes.put("systemId", id.getSystemId());
+            attributes.put("formFactor", id.getFormFactor());
+            attributes.put("propulsionType", id.getPropulsionType());
+            attributes.put("isReserved", id.getReserved());
+            attributes.put("isDisabled", id.getDisabled());
+            addPoint(encoder, layer, attributes, position, z, x, y);
+        });
+        return encoder.encode();
+    }
+
+    private byte[] encodeStations(String layer, Map<StationSpatialIndexId, GeoPosition> positions, int z, int x, int y) {
+        var encoder = new VectorTileEncoder(EXTENT);
+        positions.forEach((id, position) -> {
+            var attributes = new LinkedHashMap<String, Object>();
+            attributes.put("id", id.getId());
+            attributes.put("systemId", id.getSystemId());
+            addPoint(encoder, layer, attributes, position, z, x, y);
+        });
+        return encoder.encode();
+    }
+
+    /**
+     * Zones are read simplified to at most a pixel of the tile, and only the zones of the systems
+     * whose extents overlap the tile, and of those only the zones the zone index finds in the tile
+     */
+    private byte[] encodeGeofencingZones(String layer, BoundingBox boundingBox, int z, int x, int y) {
+        var encoder = new VectorTileEncoder(EXTENT);
+        geofencingZonesService.getGeofencingZones(null, boundingBox, getPixelSize(boundingBox, z)).forEach(geofencingZones ->
+                addGeofencingZones(encoder, layer, geofencingZones, z, x, y)
+        );
+        return encoder.encode();
+    }
+
+    /**
+     * Pixels are smallest at the edge of the tile farthest from the equator
+     */
+    private double getPixelSize(BoundingBox boundingBox, int z) {
+        var latitude = Math.max(Math.abs(boundingBox.getMinLat()), Math.abs(boundingBox.getMaxLat()));
+        return METERS_PER_PIXEL_AT_ZOOM_0 * Math.cos(Math.toRadians(latitude)) / (1 << z);
+    }
+
+    private void addPoint(VectorTileEncoder encoder, String layer, Map<String, Object> attributes, GeoPosition position, int z, int x, int y) {
+        encoder.addPoint(
+                layer,
+                attributes,
+                (int) Math.round((WebMercatorUtil.lonToTileX(position.getLongitude(), z) - x) * EXTENT),
+                (int) Math.round((WebMercatorUtil.latToTileY(position.getLatitude(), z) - y) * EXTENT)
+        );
+    }
+
+    private void addGeofencingZones(VectorTileEncoder encoder, String layer, GeofencingZones geofencingZones, int z, int x, int y) {
+        if (geofencingZones.getGeojson() == null || geofencingZones.getGeojson().getFeatures() == null) {
+            return;
+        }
+
+        for (var feature : geofencingZones.getGeojson().getFeatures()) {
+            if (feature.getGeometry() == null || feature.getGeometry().getCoordinates() == null) {
+                continue;
+            }
+
+            var polygons = new ArrayList<List<List<int[]>>>();
+            for (var polygon : feature.getGeometry().getCoordinates()) {
+                var rings = new ArrayList<List<int[]>>();
+                for (var ring : polygon) {
+                    rings.add(toTileRing(ring, z, x, y));
+                }
+                polygons.add(rings);
+            }
+
+            var attributes = new LinkedHashMap<String, Object>();
+            attributes.put("systemId", geofencingZones.getSystemId());
+            var properties = feature.getProperties();
+            if (properties != null) {
+                attributes.put("name", properties.getName());
+                attributes.put("start", properties.getStart());
+                attributes.put("end", properties.getEnd());
+                if (properties.getRules() != null && !properties.getRules().isEmpty()) {
+                    // The first rule is the one that applies to vehicle types without a rule of their own
+                    var rule = properties.getRules().get(0);
+                    attributes.put("rideAllowed", rule.getRideAllowed());
+                    attributes.put("rideThroughAllowed", rule.getRideThroughAllowed());
+                    attributes.put("maximumSpeedKph", rule.getMaximumSpeedKph());
+                    attributes.put("stationParking", rule.getStationParking());
+                }
+            }
+
+            encoder.addPolygons(layer, attributes, polygons);
+        }
+    }
+
+    private List<int[]> toTileRing(List<List<Double>> ring, int z, int x, int y) {
+        var points = new ArrayList<double[]>(ring.size());
+        for (var coordinate : ring) {
+            points.add(new double[] {
+                    (WebMercatorUtil.lonToTileX(coordinate.get(0), z) - x) * EXTENT,
+                    (WebMercatorUtil.latToTileY(coordinate.get(1), z) - y) * EXTENT
+            });
+        }
+
+        var clipped = GeometryUtil.clipRing(points, -BUFFER, EXTENT + BUFFER);
+        var simplified = GeometryUtil.simplifyRing(clipped, SIMPLIFICATION_TOLERANCE);
+
+        var result = new ArrayList<int[]>(simplified.size());
+        for (var point : simplified) {
+            result.add(new int[] { (int) Math.round(point[0]), (int) Math.round(point[1]) });
+        }
+        return result;
+    }
+
+    private BoundingBox getBufferedBoundingBox(int z, int x, int y) {
+        var buffer = (double) BUFFER / EXTENT;
+        return new BoundingBox(
+                WebMercatorUtil.tileYToLat(y + 1 + buffer, z),
+                Math.max(-180, WebMercatorUtil.tileXToLon(x - buffer, z)),
+                WebMercatorUtil.tileYToLat(y - buffer, z),
+                Math.min(180, WebMercatorUtil.tileXToLon(x + 1 + buffer, z))
+        );
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.model.entities.LocationEntity;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+public class BoundingBox implements Serializable {
+    private double minLat;
+    private double minLon;
+    private double maxLat;
+    private double maxLon;
+
+    public BoundingBox() {}
+
+    public BoundingBox(double minLat, double minLon, double maxLat, double maxLon) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * The smallest bounding box containing the circle with the given center and radius. Circles
+     * crossing the antimeridian get the full longitude range.
+     */
+    public static BoundingBox ofCircle(double lat, double lon, double radiusMeters) {
+        var latDelta = GeoUtil.metersToLatitudeDegrees(radiusMeters);
+        var minLat = Math.max(-90, lat - latDelta);
+        var maxLat = Math.min(90, lat + latDelta);
+        var lonDelta = GeoUtil.metersToLongitudeDegrees(radiusMeters, Math.max(Math.abs(minLat), Math.abs(maxLat)));
+        if (lon - lonDelta < -180 || lon + lonDelta > 180) {
+            return new BoundingBox(minLat, -180, maxLat, 180);
+        }
+        return new BoundingBox(minLat, lon - lonDelta, maxLat, lon + lonDelta);
+    }
+
+    /**
+     * The smallest bounding box containing all the given entities, or null if none of them
+     * have a position.
+     */
+    public static BoundingBox ofEntities(Collection<? extends LocationEntity> entities) {
+        BoundingBox boundingBox = null;
+        for (var entity : entities) {
+            if (entity.getLat() == null || entity.getLon() == null) {
+                continue;
+            }
+            if (boundingBox == null) {
+                boundingBox = new BoundingBox(entity.getLat(), entity.getLon(), entity.getLat(), entity.getLon());
+            } else {
+                boundingBox.expandToInclude(entity.getLat(), entity.getLon());
+            }
+        }
+        return boundingBox;
+    }
+
+    public void expandToInclude(double lat, double lon) {
+        minLat = Math.min(minLat, lat);
+        minLon = Math.min(minLon, lon);
+        maxLat = Math.max(maxLat, lat);
+        maxLon = Math.max(maxLon, lon);
+    }
+
+    public void expandToInclude(BoundingBox other) {
+        expandToInclude(other.minLat, other.minLon);
+        expandToInclude(other.maxLat, other.maxLon);
+    }
+
+    public boolean intersects(BoundingBox other) {
+        return minLat <= other.maxLat && maxLat >= other.minLat && minLon <= other.maxLon && maxLon >= other.minLon;
+    }
+
+    /**
+     * The fraction of the area of this bounding box that is covered by the other. A bounding box
+     * without area, such as that of a single entity, is either fully covered or not at all.
+     */
+    public double overlap(BoundingBox other) {
+        if (!intersects(other)) {
+            return 0;
+        }
+        var height = maxLat - minLat;
+        var width = maxLon - minLon;
+        var overlapHeight = Math.min(maxLat, other.maxLat) - Math.max(minLat, other.minLat);
+        var overlapWidth = Math.min(maxLon, other.maxLon) - Math.max(minLon, other.minLon);
+        return (height > 0 ? overlapHeight / height : 1) * (width > 0 ? overlapWidth / width : 1);
+    }
+
+    public boolean contains(double lat, double lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /**
+     * Distance in meters from the given point to the farthest corner of the bounding box, which
+     * is the farthest point of the box for boxes of the size of a service area
+     */
+    public double maxDistance(double lat, double lon) {
+        return Math.max(
+                Math.max(GeoUtil.distance(lat, lon, minLat, minLon), GeoUtil.distance(lat, lon, minLat, maxLon)),
+                Math.max(GeoUtil.distance(lat, lon, maxLat, minLon), GeoUtil.distance(lat, lon, maxLat, maxLon))
+        );
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public void setMinLat(double minLat) {
+        this.minLat = minLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public void setMinLon(double minLon) {
+        this.minLon = minLon;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public void setMaxLat(double maxLat) {
+        this.maxLat = maxLat;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+    public void setMaxLon(double maxLon) {
+        this.maxLon = maxLon;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundingBox{" +
+                "minLat=" + minLat +
+                ", minLon=" + minLon +
+                ", maxLat=" + maxLat +
+                ", maxLon=" + maxLon +
+                '}';
+    }
+}
@@ -27,4 +27,8 @@ public class CacheUtil {
         var now = (int) Instant.now().getEpochSecond();
         return Math.max(lastUpdated + ttl - now, minimumTtl);
     }
+
+    public static String getSystemScopedCacheKey(String id, String systemId) {
+        return id + "_" + systemId;
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Hands values to a consumer on an executor, one at a time per key and in the order they are
+ * dispatched. Only the latest value of a key is kept while the consumer is busy with the key, so
+ * a slow consumer skips values instead of queueing them without limit.
+ */
+public class CoalescingDispatcher<K, V> {
+    private final Executor executor;
+    private final BiConsumer<K, V> consumer;
+
+    // The latest value of each key not yet handed to the consumer
+    private final Map<K, V> pending = new ConcurrentHashMap<>();
+
+    // The latest task of each key, which the next task of the key is chained to
+    private final Map<K, CompletableFuture<Void>> tasks = new ConcurrentHashMap<>();
+
+    public CoalescingDispatcher(Executor executor, BiConsumer<K, V> consumer) {
+        this.executor = executor;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return false if the value replaced a pending value of the key, which is then skipped
+     */
+    public boolean dispatch(K key, V value) {
+        if (pending.put(key, value) != null) {
+            return false;
+        }
+        // A failed task must not stop the tasks chained to it
+        tasks.compute(key, (k, previous) ->
+                (previous != null ? previous.exceptionally(e -> null) : CompletableFuture.<Void>completedFuture(null))
+                        .thenRunAsync(() -> {
+                            var next = pending.remove(k);
+                            if (next != null) {
+                                consumer.accept(k, next);
+                            }
+                        }, executor)
+        );
+        return true;
+    }
+}
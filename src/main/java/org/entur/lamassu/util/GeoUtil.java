@@ -0,0 +1,63 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.redisson.api.GeoUnit;
+
+public class GeoUtil {
+    // Same earth radius as used by redis' geo commands
+    public static final double EARTH_RADIUS_METERS = 6372797.560856;
+    public static final double METERS_PER_DEGREE_LATITUDE = Math.toRadians(EARTH_RADIUS_METERS);
+
+    private GeoUtil() {}
+
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        var lat1r = Math.toRadians(lat1);
+        var lat2r = Math.toRadians(lat2);
+        var u = Math.sin((lat2r - lat1r) / 2);
+        var v = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        var a = u * u + Math.cos(lat1r) * Math.cos(lat2r) * v * v;
+        return 2.0 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(a));
+    }
+
+    public static double toMeters(double value, GeoUnit geoUnit) {
+        switch (geoUnit) {
+            case KILOMETERS:
+                return value * 1000;
+            case MILES:
+                return value * 1609.34;
+            case FEET:
+                return value * 0.3048;
+            default:
+                return value;
+        }
+    }
+
+    public static double metersToLongitudeDegrees(double meters, double latitude) {
+        var cos = Math.cos(Math.toRadians(latitude));
+        if (cos < 1e-6) {
+            return 360;
+        }
+        return meters / (METERS_PER_DEGREE_LATITUDE * cos);
+    }
+
+    public static double metersToLatitudeDegrees(double meters) {
+        return meters / METERS_PER_DEGREE_LATITUDE;
+    }
+}
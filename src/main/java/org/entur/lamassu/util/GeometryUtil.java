@@ -0,0 +1,240 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.model.entities.MultiPolygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Planar geometry operations on rings, given as lists of [x, y] points where the last point is
+ * not a repetition of the first.
+ */
+public class GeometryUtil {
+    private GeometryUtil() {}
+
+    /**
+     * The bounding box of a GeoJSON multipolygon, or null if it has no coordinates
+     */
+    public static BoundingBox getBoundingBox(MultiPolygon multiPolygon) {
+        if (multiPolygon == null || multiPolygon.getCoordinates() == null) {
+            return null;
+        }
+        BoundingBox boundingBox = null;
+        for (var polygon : multiPolygon.getCoordinates()) {
+            for (var ring : polygon) {
+                for (var coordinate : ring) {
+                    var lon = coordinate.get(0);
+                    var lat = coordinate.get(1);
+                    if (boundingBox == null) {
+                        boundingBox = new BoundingBox(lat, lon, lat, lon);
+                    } else {
+                        boundingBox.expandToInclude(lat, lon);
+                    }
+                }
+            }
+        }
+        return boundingBox;
+    }
+
+    /**
+     * Clips a ring to the square [min, max] x [min, max] (Sutherland-Hodgman)
+     */
+    public static List<double[]> clipRing(List<double[]> ring, double min, double max) {
+        var result = ring;
+        result = clipEdge(result, 0, min, true);
+        result = clipEdge(result, 0, max, false);
+        result = clipEdge(result, 1, min, true);
+        result = clipEdge(result, 1, max, false);
+        return result;
+    }
+
+    private static List<double[]> clipEdge(List<double[]> ring, int axis, double bound, boolean isMin) {
+        var result = new ArrayList<double[]>();
+        if (ring.isEmpty()) {
+            return result;
+        }
+        var previous = ring.get(ring.size() - 1);
+        var previousInside = isInside(previous, axis, bound, isMin);
+        for (var current : ring) {
+            var currentInside = isInside(current, axis, bound, isMin);
+            if (currentInside != previousInside) {
+                result.add(intersect(previous, current, axis, bound));
+            }
+            if (currentInside) {
+                result.add(current);
+            }
+            previous = current;
+            previousInside = currentInside;
+        }
+        return result;
+    }
+
+    private static boolean isInside(double[] point, int axis, double bound, boolean isMin) {
+        return isMin ? point[axis] >= bound : point[axis] <= bound;
+    }
+
+    private static double[] intersect(double[] a, double[] b, int axis, double bound) {
+        var t = (bound - a[axis]) / (b[axis] - a[axis]);
+        var point = new double[2];
+        point[axis] = bound;
+        point[1 - axis] = a[1 - axis] + t * (b[1 - axis] - a[1 - axis]);
+        return point;
+    }
+
+    /**
+     * Simplifies a ring by removing points closer than tolerance to the line through their
+     * neighbours (Douglas-Peucker)
+     */
+    public static List<double[]> simplifyRing(List<double[]> ring, double tolerance) {
+        if (ring.size() < 4) {
+            return ring;
+        }
+        // The ring is simplified as a line from the first point around and back to it
+        var points = new ArrayList<>(ring);
+        points.add(ring.get(0));
+        var keep = new boolean[points.size()];
+        keep[0] = true;
+        keep[points.size() - 1] = true;
+
+        var stack = new ArrayList<int[]>();
+        stack.add(new int[] { 0, points.size() - 1 });
+        while (!stack.isEmpty()) {
+            var range = stack.remove(stack.size() - 1);
+            var maxDistance = 0.0;
+            var index = -1;
+            for (var i = range[0] + 1; i < range[1]; i++) {
+                var distance = distanceToSegment(points.get(i), points.get(range[0]), points.get(range[1]));
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+            if (index != -1 && maxDistance > tolerance) {
+                keep[index] = true;
+                stack.add(new int[] { range[0], index });
+                stack.add(new int[] { index, range[1] });
+            }
+        }
+
+        var result = new ArrayList<double[]>();
+        for (var i = 0; i < points.size() - 1; i++) {
+            if (keep[i]) {
+                result.add(points.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Simplifies every ring of a GeoJSON multipolygon to the given tolerance in degrees. Holes
+     * that collapse are dropped, while exterior rings that would collapse are kept as they are.
+     */
+    public static MultiPolygon simplify(MultiPolygon multiPolygon, double tolerance) {
+        if (multiPolygon == null || multiPolygon.getCoordinates() == null) {
+            return multiPolygon;
+        }
+        var polygons = new ArrayList<List<List<List<Double>>>>();
+        for (var polygon : multiPolygon.getCoordinates()) {
+            var rings = new ArrayList<List<List<Double>>>();
+            for (var i = 0; i < polygon.size(); i++) {
+                var ring = simplifyGeoJsonRing(polygon.get(i), tolerance);
+                if (ring != null) {
+                    rings.add(ring);
+                } else if (i == 0) {
+                    rings.add(polygon.get(i));
+                }
+            }
+            polygons.add(rings);
+        }
+        var simplified = new MultiPolygon();
+        simplified.setCoordinates(polygons);
+        return simplified;
+    }
+
+    private static List<List<Double>> simplifyGeoJsonRing(List<List<Double>> ring, double tolerance) {
+        // GeoJSON rings repeat their first point at the end
+        var points = new ArrayList<double[]>(ring.size());
+        for (var coordinate : ring) {
+            points.add(new double[] { coordinate.get(0), coordinate.get(1) });
+        }
+        if (points.size() > 1 && Arrays.equals(points.get(0), points.get(points.size() - 1))) {
+            points.remove(points.size() - 1);
+        }
+
+        var simplified = simplifyRing(points, tolerance);
+        if (simplified.size() < 3) {
+            return null;
+        }
+
+        // Plain lists, as the result is serialized to the cache
+        var result = new ArrayList<List<Double>>(simplified.size() + 1);
+        for (var point : simplified) {
+            result.add(new ArrayList<>(List.of(point[0], point[1])));
+        }
+        result.add(new ArrayList<>(result.get(0)));
+        return result;
+    }
+
+    private static double distanceToSegment(double[] point, double[] start, double[] end) {
+        var dx = end[0] - start[0];
+        var dy = end[1] - start[1];
+        var lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return Math.hypot(point[0] - start[0], point[1] - start[1]);
+        }
+        var t = Math.max(0, Math.min(1, ((point[0] - start[0]) * dx + (point[1] - start[1]) * dy) / lengthSquared));
+        return Math.hypot(point[0] - (start[0] + t * dx), point[1] - (start[1] + t * dy));
+    }
+
+    /**
+     * Whether a point is inside a ring given as a flat array [x0, y0, x1, y1, ...] (ray casting).
+     * The ring may or may not repeat its first point at the end.
+     */
+    public static boolean ringContains(double[] ring, double x, double y) {
+        var inside = false;
+        var n = ring.length / 2;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            var xi = ring[2 * i];
+            var yi = ring[2 * i + 1];
+            var xj = ring[2 * j];
+            var yj = ring[2 * j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Twice the signed area of a ring (shoelace formula). Positive for rings that are clockwise
+     * when y grows downwards.
+     */
+    public static long signedArea2(List<int[]> ring) {
+        long area = 0;
+        for (var i = 0; i < ring.size(); i++) {
+            var current = ring.get(i);
+            var next = ring.get((i + 1) % ring.size());
+            area += (long) current[0] * next[1] - (long) next[0] * current[1];
+        }
+        return area;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Small in-memory cache with a fixed time to live per entry and an upper bound on
+ * the number of entries. When full, expired entries are evicted first, then the least
+ * recently used ones. Null values are not cached.
+ */
+public class LocalCache<K, V> {
+    private final long ttlMillis;
+    private final int maximumSize;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final Map<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+
+    public LocalCache(long ttl, TimeUnit timeUnit, int maximumSize) {
+        this.ttlMillis = timeUnit.toMillis(ttl);
+        this.maximumSize = maximumSize;
+    }
+
+    public V get(K key) {
+        var entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        return entry.value;
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        var value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Like get with a loader, except that concurrent calls for a missing key share a single
+     * call to the loader. The loader runs outside of the map's locks, so a slow loader only
+     * holds up the callers waiting for its own key.
+     */
+    public V getOrLoad(K key, Function<K, V> loader) {
+        var value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        var load = new CompletableFuture<V>();
+        var otherLoad = loads.putIfAbsent(key, load);
+        if (otherLoad != null) {
+            return otherLoad.join();
+        }
+        try {
+            // Another load may have completed since the first look
+            value = get(key);
+            if (value == null) {
+                value = loader.apply(key);
+                put(key, value);
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    public Map<K, V> getAll(Set<K> keys, Function<Set<K>, Map<K, V>> loader) {
+        var result = new HashMap<K, V>();
+        var missingKeys = new HashSet<K>();
+        keys.forEach(key -> {
+            var value = get(key);
+            if (value == null) {
+                missingKeys.add(key);
+            } else {
+                result.put(key, value);
+            }
+        });
+        if (!missingKeys.isEmpty()) {
+            var loaded = loader.apply(missingKeys);
+            loaded.forEach(this::put);
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    public void put(K key, V value) {
+        if (value == null) {
+            return;
+        }
+        if (entries.size() >= maximumSize) {
+            evict();
+        }
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Invalidates the key only if it still holds the given value
+     */
+    public void invalidate(K key, V value) {
+        entries.computeIfPresent(key, (k, entry) -> entry.value == value ? null : entry);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Evicts down to a tenth below the maximum size, so that a full cache sorts its entries
+     * once per tenth of its size rather than on every put
+     */
+    private synchronized void evict() {
+        if (entries.size() < maximumSize) {
+            return;
+        }
+        var now = System.currentTimeMillis();
+        entries.entrySet().removeIf(e -> e.getValue().isExpired(now));
+        if (entries.size() < maximumSize) {
+            return;
+        }
+        var excess = entries.size() - (maximumSize - Math.max(1, maximumSize / 10));
+        // Access times are copied first, as they change while sorting
+        var lastAccesses = new HashMap<K, Long>();
+        entries.forEach((key, entry) -> lastAccesses.put(key, entry.lastAccess));
+        lastAccesses.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .limit(excess)
+                .forEach(e -> entries.remove(e.getKey()));
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private volatile long lastAccess = System.nanoTime();
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
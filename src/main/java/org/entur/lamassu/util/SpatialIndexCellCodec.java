@@ -0,0 +1,68 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.cache.SpatialIndexCell;
+import org.entur.lamassu.cache.SpatialIndexId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Encodes the cells of one partition of a spatial index at one zoom level, along with the encoded
+ * member of an entry of the partition, which is shared by all the cells.
+ *
+ * 4 bytes member length, member, 4 bytes cell count, then for each cell 4 bytes x, 4 bytes y,
+ * 4 bytes count, 8 bytes mean latitude and 8 bytes mean longitude.
+ */
+public class SpatialIndexCellCodec {
+    private static final int CELL_LENGTH = 3 * Integer.BYTES + 2 * Double.BYTES;
+
+    private SpatialIndexCellCodec() {}
+
+    public static byte[] encode(byte[] member, List<? extends SpatialIndexCell<?>> cells) {
+        var buffer = ByteBuffer.allocate(2 * Integer.BYTES + member.length + cells.size() * CELL_LENGTH);
+        buffer.putInt(member.length);
+        buffer.put(member);
+        buffer.putInt(cells.size());
+        for (var cell : cells) {
+            buffer.putInt(cell.getX());
+            buffer.putInt(cell.getY());
+            buffer.putInt(cell.getCount());
+            buffer.putDouble(cell.getLatitude());
+            buffer.putDouble(cell.getLongitude());
+        }
+        return buffer.array();
+    }
+
+    public static <S extends SpatialIndexId> List<SpatialIndexCell<S>> decode(byte[] value, Function<byte[], S> decodeMember) {
+        var buffer = ByteBuffer.wrap(value);
+        var member = new byte[buffer.getInt()];
+        buffer.get(member);
+        var id = decodeMember.apply(member);
+        var cellCount = buffer.getInt();
+        var cells = new ArrayList<SpatialIndexCell<S>>(cellCount);
+        for (int i = 0; i < cellCount; i++) {
+            cells.add(new SpatialIndexCell<>(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getDouble(), buffer.getDouble(), id));
+        }
+        return cells;
+    }
+}
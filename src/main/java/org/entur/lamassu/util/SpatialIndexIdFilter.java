@@ -1,7 +1,9 @@
 package org.entur.lamassu.util;
 
+import org.entur.lamassu.cache.SpatialIndexPartition;
 import org.entur.lamassu.cache.StationSpatialIndexId;
 import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.service.FilterParameters;
 import org.entur.lamassu.service.StationFilterParameters;
 import org.entur.lamassu.service.VehicleFilterParameters;
 
@@ -66,4 +68,43 @@ public class SpatialIndexIdFilter {
         return true;
     }
 
+    public static boolean filterPartition(SpatialIndexPartition partition, FilterParameters filters) {
+        if (filters.getCodespaces() != null && !filters.getCodespaces().contains(partition.getCodespace())) {
+            return false;
+        }
+
+        if (filters.getSystems() != null && !filters.getSystems().contains(partition.getSystemId())) {
+            return false;
+        }
+
+        if (filters.getOperators() != null && !filters.getOperators().contains(partition.getOperatorId())) {
+            return false;
+        }
+
+        return true;
+    }
+
+    public static boolean filterVehiclePartition(SpatialIndexPartition partition, VehicleFilterParameters filters) {
+        if (!filterPartition(partition, filters)) {
+            return false;
+        }
+
+        if (filters.getFormFactors() != null && !filters.getFormFactors().contains(partition.getFormFactor())) {
+            return false;
+        }
+
+        if (filters.getPropulsionTypes() != null && !filters.getPropulsionTypes().contains(partition.getPropulsionType())) {
+            return false;
+        }
+
+        if (!filters.getIncludeReserved() && partition.getReserved()) {
+            return false;
+        }
+
+        if (!filters.getIncludeDisabled() && partition.getDisabled()) {
+            return false;
+        }
+
+        return true;
+    }
 }
@@ -18,8 +18,8 @@ public class SpatialIndexIdUtil {
         id.setCodespace(feedProvider.getCodespace());
         id.setSystemId(feedProvider.getSystemId());
         id.setOperatorId(feedProvider.getOperatorId());
-        id.setFormFactor(vehicle.getVehicleType().getFormFactor());
-        id.setPropulsionType(vehicle.getVehicleType().getPropulsionType());
+        id.setFormFactor(vehicle.getFormFactor());
+        id.setPropulsionType(vehicle.getPropulsionType());
         id.setReserved(vehicle.getReserved());
         id.setDisabled(vehicle.getDisabled());
         return id;
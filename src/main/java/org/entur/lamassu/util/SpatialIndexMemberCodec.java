@@ -0,0 +1,203 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.cache.SpatialIndexPartition;
+import org.entur.lamassu.cache.StationSpatialIndexId;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.PropulsionType;
+import org.entur.lamassu.service.StationFilterParameters;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Encodes spatial index ids as compact geo set members. The codespace, system and operator are
+ * shared by all members of a partition, so they are taken from the partition descriptor when
+ * decoding, and only the attributes that vary within a partition are stored with the id.
+ *
+ * Vehicle members: 1 byte flags (reserved, disabled), 1 byte form factor, 1 byte propulsion type, id.
+ * Station members: 2 bytes available form factors, 2 bytes available propulsion types, id.
+ *
+ * Enums are stored by the codes given to each of their values below, with 0 meaning null, and sets
+ * of enums as bitmasks with bit code - 1 set for each value. The codes are stored in Redis, so
+ * they must not be changed or reused, and new enum values must be given new codes of at most 16.
+ */
+public class SpatialIndexMemberCodec {
+    private static final int RESERVED_FLAG = 1;
+    private static final int DISABLED_FLAG = 2;
+
+    private static final int VEHICLE_HEADER_LENGTH = 3;
+    private static final int STATION_HEADER_LENGTH = 4;
+
+    private static final int MAX_CODE = 16;
+
+    static final Map<FormFactor, Integer> FORM_FACTOR_CODES = new EnumMap<>(Map.of(
+            FormFactor.BICYCLE, 1,
+            FormFactor.CARGO_BICYCLE, 2,
+            FormFactor.CAR, 3,
+            FormFactor.MOPED, 4,
+            FormFactor.SCOOTER, 5,
+            FormFactor.SCOOTER_STANDING, 6,
+            FormFactor.SCOOTER_SEATED, 7,
+            FormFactor.OTHER, 8
+    ));
+
+    static final Map<PropulsionType, Integer> PROPULSION_TYPE_CODES = new EnumMap<>(Map.of(
+            PropulsionType.HUMAN, 1,
+            PropulsionType.ELECTRIC_ASSIST, 2,
+            PropulsionType.ELECTRIC, 3,
+            PropulsionType.COMBUSTION, 4,
+            PropulsionType.COMBUSTION_DIESEL, 5,
+            PropulsionType.HYBRID, 6,
+            PropulsionType.PLUG_IN_HYBRID, 7,
+            PropulsionType.HYDROGEN_FUEL_CELL, 8
+    ));
+
+    private static final FormFactor[] FORM_FACTORS = byCode(FormFactor.class, FORM_FACTOR_CODES);
+    private static final PropulsionType[] PROPULSION_TYPES = byCode(PropulsionType.class, PROPULSION_TYPE_CODES);
+
+    private SpatialIndexMemberCodec() {}
+
+    public static byte[] encodeVehicle(VehicleSpatialIndexId id) {
+        var member = withHeader(VEHICLE_HEADER_LENGTH, id.getId());
+        member[0] = (byte) ((id.getReserved() ? RESERVED_FLAG : 0) | (id.getDisabled() ? DISABLED_FLAG : 0));
+        member[1] = (byte) toCode(id.getFormFactor(), FORM_FACTOR_CODES);
+        member[2] = (byte) toCode(id.getPropulsionType(), PROPULSION_TYPE_CODES);
+        return member;
+    }
+
+    public static VehicleSpatialIndexId decodeVehicle(byte[] member, SpatialIndexPartition partition) {
+        var id = new VehicleSpatialIndexId();
+        id.setId(readId(member, VEHICLE_HEADER_LENGTH));
+        id.setCodespace(partition.getCodespace());
+        id.setSystemId(partition.getSystemId());
+        id.setOperatorId(partition.getOperatorId());
+        id.setReserved((member[0] & RESERVED_FLAG) != 0);
+        id.setDisabled((member[0] & DISABLED_FLAG) != 0);
+        id.setFormFactor(fromCode(member[1], FORM_FACTORS));
+        id.setPropulsionType(fromCode(member[2], PROPULSION_TYPES));
+        return id;
+    }
+
+    public static byte[] encodeStation(StationSpatialIndexId id) {
+        var member = withHeader(STATION_HEADER_LENGTH, id.getId());
+        writeShort(member, 0, toBitmask(id.getAvailableFormFactors(), FORM_FACTOR_CODES));
+        writeShort(member, 2, toBitmask(id.getAvailablePropulsionTypes(), PROPULSION_TYPE_CODES));
+        return member;
+    }
+
+    public static StationSpatialIndexId decodeStation(byte[] member, SpatialIndexPartition partition) {
+        var id = new StationSpatialIndexId();
+        id.setId(readId(member, STATION_HEADER_LENGTH));
+        id.setCodespace(partition.getCodespace());
+        id.setSystemId(partition.getSystemId());
+        id.setOperatorId(partition.getOperatorId());
+        id.setAvailableFormFactors(fromBitmask(readShort(member, 0), FORM_FACTORS));
+        id.setAvailablePropulsionTypes(fromBitmask(readShort(member, 2), PROPULSION_TYPES));
+        return id;
+    }
+
+    /**
+     * Filter on the availability of a station member without decoding it. Codespace, system and
+     * operator are filtered by partition.
+     */
+    public static Predicate<byte[]> stationFilter(StationFilterParameters filters) {
+        var filterFormFactors = filters.getAvailableFormFactors() != null;
+        var filterPropulsionTypes = filters.getAvailablePropulsionTypes() != null;
+        var formFactors = toBitmask(filters.getAvailableFormFactors(), FORM_FACTOR_CODES);
+        var propulsionTypes = toBitmask(filters.getAvailablePropulsionTypes(), PROPULSION_TYPE_CODES);
+        return member -> (!filterFormFactors || (readShort(member, 0) & formFactors) != 0)
+                && (!filterPropulsionTypes || (readShort(member, 2) & propulsionTypes) != 0);
+    }
+
+    private static byte[] withHeader(int headerLength, String id) {
+        var idBytes = id.getBytes(StandardCharsets.UTF_8);
+        var member = new byte[headerLength + idBytes.length];
+        System.arraycopy(idBytes, 0, member, headerLength, idBytes.length);
+        return member;
+    }
+
+    private static String readId(byte[] member, int headerLength) {
+        return new String(member, headerLength, member.length - headerLength, StandardCharsets.UTF_8);
+    }
+
+    private static void writeShort(byte[] member, int offset, int value) {
+        member[offset] = (byte) (value >>> 8);
+        member[offset + 1] = (byte) value;
+    }
+
+    private static int readShort(byte[] member, int offset) {
+        return ((member[offset] & 0xff) << 8) | (member[offset + 1] & 0xff);
+    }
+
+    private static <E extends Enum<E>> int toCode(E value, Map<E, Integer> codes) {
+        return value != null ? codes.get(value) : 0;
+    }
+
+    // Codes unknown to this version, written by a newer one, are read as null
+    private static <E extends Enum<E>> E fromCode(int code, E[] values) {
+        return code > 0 && code < values.length ? values[code] : null;
+    }
+
+    private static <E extends Enum<E>> int toBitmask(Collection<E> values, Map<E, Integer> codes) {
+        var bitmask = 0;
+        if (values != null) {
+            for (var value : values) {
+                if (value != null) {
+                    bitmask |= 1 << (codes.get(value) - 1);
+                }
+            }
+        }
+        return bitmask;
+    }
+
+    private static <E extends Enum<E>> List<E> fromBitmask(int bitmask, E[] values) {
+        var result = new ArrayList<E>();
+        for (int code = 1; code < values.length; code++) {
+            if (values[code] != null && (bitmask & (1 << (code - 1))) != 0) {
+                result.add(values[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The enum values indexed by code, failing on values without a code or with a code in use
+     */
+    private static <E extends Enum<E>> E[] byCode(Class<E> type, Map<E, Integer> codes) {
+        @SuppressWarnings("unchecked")
+        var values = (E[]) Array.newInstance(type, MAX_CODE + 1);
+        for (var value : type.getEnumConstants()) {
+            var code = codes.get(value);
+            if (code == null || code < 1 || code > MAX_CODE || values[code] != null) {
+                throw new IllegalStateException("No unique code between 1 and " + MAX_CODE + " for " + type.getSimpleName() + "." + value);
+            }
+            values[code] = value;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes features in tile coordinates as a Mapbox Vector Tile (version 2.1 of the
+ * specification). Geometries must already be clipped to the tile and its buffer.
+ */
+public class VectorTileEncoder {
+    public static final int DEFAULT_EXTENT = 4096;
+
+    private static final int GEOM_TYPE_POINT = 1;
+    private static final int GEOM_TYPE_POLYGON = 3;
+
+    private static final int COMMAND_MOVE_TO = 1;
+    private static final int COMMAND_LINE_TO = 2;
+    private static final int COMMAND_CLOSE_PATH = 7;
+
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_64_BIT = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+
+    private final int extent;
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+
+    public VectorTileEncoder() {
+        this(DEFAULT_EXTENT);
+    }
+
+    public VectorTileEncoder(int extent) {
+        this.extent = extent;
+    }
+
+    public void addPoint(String layerName, Map<String, Object> attributes, int x, int y) {
+        var geometry = new ArrayList<Integer>();
+        geometry.add(command(COMMAND_MOVE_TO, 1));
+        geometry.add(zigZag(x));
+        geometry.add(zigZag(y));
+        getLayer(layerName).addFeature(GEOM_TYPE_POINT, attributes, geometry);
+    }
+
+    /**
+     * Add a feature of one or more polygons, each given as an exterior ring followed by its
+     * holes. Rings are reoriented as required by the specification, and rings without area
+     * are left out.
+     */
+    public void addPolygons(String layerName, Map<String, Object> attributes, List<List<List<int[]>>> polygons) {
+        var geometry = new ArrayList<Integer>();
+        var cursor = new int[2];
+        for (var polygon : polygons) {
+            for (var i = 0; i < polygon.size(); i++) {
+                var ring = removeRepeatedPoints(polygon.get(i));
+                var area = ring.size() < 3 ? 0 : GeometryUtil.signedArea2(ring);
+                if (area == 0) {
+                    if (i == 0) {
+                        // Holes are meaningless without their exterior ring
+                        break;
+                    }
+                    continue;
+                }
+                // Exterior rings must have positive area, and holes negative area
+                if ((i == 0) != (area > 0)) {
+                    Collections.reverse(ring);
+                }
+                encodeRing(ring, cursor, geometry);
+            }
+        }
+        if (!geometry.isEmpty()) {
+            getLayer(layerName).addFeature(GEOM_TYPE_POLYGON, attributes, geometry);
+        }
+    }
+
+    public byte[] encode() {
+        var tile = new ByteArrayOutputStream();
+        for (var entry : layers.entrySet()) {
+            writeBytes(tile, 3, entry.getValue().encode(entry.getKey(), extent));
+        }
+        return tile.toByteArray();
+    }
+
+    private Layer getLayer(String layerName) {
+        return layers.computeIfAbsent(layerName, name -> new Layer());
+    }
+
+    private static List<int[]> removeRepeatedPoints(List<int[]> ring) {
+        var result = new ArrayList<int[]>();
+        for (var point : ring) {
+            var previous = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (previous == null || previous[0] != point[0] || previous[1] != point[1]) {
+                result.add(point);
+            }
+        }
+        while (result.size() > 1 && result.get(0)[0] == result.get(result.size() - 1)[0] && result.get(0)[1] == result.get(result.size() - 1)[1]) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    private static void encodeRing(List<int[]> ring, int[] cursor, List<Integer> geometry) {
+        geometry.add(command(COMMAND_MOVE_TO, 1));
+        addPoint(ring.get(0), cursor, geometry);
+        geometry.add(command(COMMAND_LINE_TO, ring.size() - 1));
+        for (var i = 1; i < ring.size(); i++) {
+            addPoint(ring.get(i), cursor, geometry);
+        }
+        geometry.add(command(COMMAND_CLOSE_PATH, 1));
+    }
+
+    private static void addPoint(int[] point, int[] cursor, List<Integer> geometry) {
+        geometry.add(zigZag(point[0] - cursor[0]));
+        geometry.add(zigZag(point[1] - cursor[1]));
+        cursor[0] = point[0];
+        cursor[1] = point[1];
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static class Layer {
+        private final List<byte[]> features = new ArrayList<>();
+        private final Map<String, Integer> keys = new LinkedHashMap<>();
+        private final Map<Object, Integer> values = new LinkedHashMap<>();
+
+        void addFeature(int type, Map<String, Object> attributes, List<Integer> geometry) {
+            var tags = new ArrayList<Integer>();
+            attributes.forEach((key, value) -> {
+                if (value == null) {
+                    return;
+                }
+                tags.add(keys.computeIfAbsent(key, k -> keys.size()));
+                tags.add(values.computeIfAbsent(value, v -> values.size()));
+            });
+
+            var feature = new ByteArrayOutputStream();
+            writePacked(feature, 2, tags);
+            writeTag(feature, 3, WIRE_TYPE_VARINT);
+            writeVarint(feature, type);
+            writePacked(feature, 4, geometry);
+            features.add(feature.toByteArray());
+        }
+
+        byte[] encode(String name, int extent) {
+            var layer = new ByteArrayOutputStream();
+            writeTag(layer, 15, WIRE_TYPE_VARINT);
+            writeVarint(layer, 2);
+            writeBytes(layer, 1, name.getBytes(StandardCharsets.UTF_8));
+            features.forEach(feature -> writeBytes(layer, 2, feature));
+            keys.keySet().forEach(key -> writeBytes(layer, 3, key.getBytes(StandardCharsets.UTF_8)));
+            values.keySet().forEach(value -> writeBytes(layer, 4, encodeValue(value)));
+            writeTag(layer, 5, WIRE_TYPE_VARINT);
+            writeVarint(layer, extent);
+            return layer.toByteArray();
+        }
+
+        private static byte[] encodeValue(Object value) {
+            var out = new ByteArrayOutputStream();
+            if (value instanceof Boolean) {
+                writeTag(out, 7, WIRE_TYPE_VARINT);
+                writeVarint(out, (Boolean) value ? 1 : 0);
+            } else if (value instanceof Integer || value instanceof Long) {
+                var longValue = ((Number) value).longValue();
+                if (longValue >= 0) {
+                    writeTag(out, 5, WIRE_TYPE_VARINT);
+                    writeVarint(out, longValue);
+                } else {
+                    writeTag(out, 6, WIRE_TYPE_VARINT);
+                    writeVarint(out, (longValue << 1) ^ (longValue >> 63));
+                }
+            } else if (value instanceof Number) {
+                writeTag(out, 3, WIRE_TYPE_64_BIT);
+                var bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                for (var i = 0; i < 8; i++) {
+                    out.write((int) (bits >>> (8 * i)) & 0xff);
+                }
+            } else {
+                writeBytes(out, 1, value.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void writeTag(ByteArrayOutputStream out, int field, int wireType) {
+        writeVarint(out, ((long) field << 3) | wireType);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, int field, byte[] bytes) {
+        writeTag(out, field, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writePacked(ByteArrayOutputStream out, int field, List<Integer> values) {
+        var packed = new ByteArrayOutputStream();
+        values.forEach(value -> writeVarint(packed, value & 0xFFFFFFFFL));
+        writeBytes(out, field, packed.toByteArray());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+/**
+ * Conversions between positions and web mercator (EPSG:3857) tile coordinates, where the world
+ * at zoom level z is 2^z by 2^z tiles, with x growing eastwards and y growing southwards.
+ */
+public class WebMercatorUtil {
+    public static final double MAX_LATITUDE = 85.0511287798066;
+
+    private WebMercatorUtil() {}
+
+    public static double lonToTileX(double lon, int zoom) {
+        return (lon + 180) / 360 * (1 << zoom);
+    }
+
+    public static double latToTileY(double lat, int zoom) {
+        var latRad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+        return (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * (1 << zoom);
+    }
+
+    public static double tileXToLon(double x, int zoom) {
+        return x / (1 << zoom) * 360 - 180;
+    }
+
+    public static double tileYToLat(double y, int zoom) {
+        var n = Math.PI - 2 * Math.PI * y / (1 << zoom);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    public static BoundingBox getTileBoundingBox(int zoom, int x, int y) {
+        return new BoundingBox(tileYToLat(y + 1.0, zoom), tileXToLon(x, zoom), tileYToLat(y, zoom), tileXToLon(x + 1.0, zoom));
+    }
+}
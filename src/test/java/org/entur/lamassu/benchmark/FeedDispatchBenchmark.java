@@ -0,0 +1,94 @@
+package org.entur.lamassu.benchmark;
+
+import org.entur.lamassu.util.CoalescingDispatcher;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput of dispatching feed deliveries to the cache writers, with writes slower than the
+ * deliveries arrive. The queued counter is the rate of deliveries handed to a writer, the coalesced
+ * counter the rate of deliveries replaced by a newer delivery of their system before they were
+ * written.
+ *
+ * <p>Run with the main method, from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FeedDispatchBenchmark {
+
+    @Param({"10", "100"})
+    public int systems;
+
+    @Param({"1000"})
+    public int writeMicros;
+
+    private ExecutorService executor;
+    private CoalescingDispatcher<Integer, Long> dispatcher;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+        dispatcher = new CoalescingDispatcher<>(executor, (system, delivery) -> {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(writeMicros));
+        });
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void dispatch(Dispatches dispatches) {
+        if (dispatcher.dispatch(ThreadLocalRandom.current().nextInt(systems), System.nanoTime())) {
+            dispatches.queued++;
+        } else {
+            dispatches.coalesced++;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Dispatches {
+        public long queued;
+        public long coalesced;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            queued = 0;
+            coalesced = 0;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FeedDispatchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
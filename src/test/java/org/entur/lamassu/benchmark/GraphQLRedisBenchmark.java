@@ -0,0 +1,282 @@
+package org.entur.lamassu.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.entur.lamassu.TestLamassuApplication;
+import org.entur.lamassu.leader.LeaderSingletonService;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput of hundreds of concurrent GraphQL queries through the whole application: Tomcat,
+ * graphql-java, the resolver executor and Redis. The application runs with the test and leader
+ * profiles against an embedded Redis, which it reaches through a proxy that delays all traffic by
+ * redisLatencyMillis, and with the feeds of the integration tests. The errors counter is the rate
+ * of responses with GraphQL errors, such as cache lookups that timed out.
+ *
+ * <p>Run with the main method, from the test classpath. The feeds are served on port 8888, as in
+ * the integration tests, so the port must be free.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class GraphQLRedisBenchmark {
+
+    @Param({"vehicles_query_with_disabled.graphql", "stations_query.graphql"})
+    public String query;
+
+    @Param({"1", "10"})
+    public int redisLatencyMillis;
+
+    @Param({"200"})
+    public int resolverThreads;
+
+    private MockWebServer feedServer;
+    private LatencyProxy redisProxy;
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        feedServer = new MockWebServer();
+        feedServer.setDispatcher(new FeedDispatcher());
+        feedServer.start(8888);
+
+        var redisPort = getFreePort();
+        redisProxy = new LatencyProxy(redisPort, TimeUnit.MILLISECONDS.toNanos(redisLatencyMillis));
+
+        context = new SpringApplicationBuilder(TestLamassuApplication.class)
+                .profiles("test", "leader")
+                .properties(
+                        "scheduling.enabled=false",
+                        "server.port=0",
+                        "spring.redis.port=" + redisPort,
+                        "org.entur.lamassu.redis.master.port=" + redisProxy.getPort(),
+                        "org.entur.lamassu.resolverThreads=" + resolverThreads
+                )
+                .run();
+
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/graphql"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(new ObjectMapper().writeValueAsString(Map.of("query", read(query)))))
+                .build();
+
+        context.getBean(LeaderSingletonService.class).update();
+        awaitEntities();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        redisProxy.close();
+        feedServer.shutdown();
+    }
+
+    @Benchmark
+    @Threads(400)
+    public int query(Responses responses) throws IOException, InterruptedException {
+        var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Query failed with status " + response.statusCode());
+        }
+        if (response.body().contains("\"errors\"")) {
+            responses.errors++;
+        }
+        return response.body().length();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Responses {
+        public long errors;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            errors = 0;
+        }
+    }
+
+    /**
+     * The leader writes the feeds to Redis in the background, so wait until queries find them
+     */
+    private void awaitEntities() throws IOException, InterruptedException {
+        for (int attempt = 0; attempt < 60; attempt++) {
+            var body = httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            if (body.contains("TST:")) {
+                return;
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Query " + query + " found nothing after 30 seconds");
+    }
+
+    private static int getFreePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String read(String resource) throws IOException {
+        return StreamUtils.copyToString(new ClassPathResource(resource).getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serves each feed from the json resource named after its path, like the integration tests
+     */
+    private static class FeedDispatcher extends Dispatcher {
+        @NotNull
+        @Override
+        public MockResponse dispatch(@NotNull RecordedRequest recordedRequest) {
+            var resource = new ClassPathResource(recordedRequest.getPath().substring(1) + ".json");
+            if (!resource.exists()) {
+                return new MockResponse().setResponseCode(404);
+            }
+            try {
+                return new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                return new MockResponse().setResponseCode(500);
+            }
+        }
+    }
+
+    /**
+     * Forwards connections to a local port, holding back everything read in either direction
+     * until latencyNanos after it was read. Reads are not held back by the reads before them, so
+     * the added latency does not limit how many commands a connection has in flight.
+     */
+    private static class LatencyProxy implements Closeable {
+        private static final Chunk END = new Chunk(0, null);
+
+        private final int targetPort;
+        private final long latencyNanos;
+        private final ServerSocket serverSocket;
+        private final ExecutorService threads = Executors.newCachedThreadPool();
+
+        LatencyProxy(int targetPort, long latencyNanos) throws IOException {
+            this.targetPort = targetPort;
+            this.latencyNanos = latencyNanos;
+            serverSocket = new ServerSocket(0);
+            threads.execute(this::accept);
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            threads.shutdownNow();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    var client = serverSocket.accept();
+                    var target = new Socket("localhost", targetPort);
+                    forward(client, target);
+                    forward(target, client);
+                } catch (IOException e) {
+                    // The proxy was closed
+                    return;
+                }
+            }
+        }
+
+        private void forward(Socket from, Socket to) {
+            BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+
+            threads.execute(() -> {
+                var buffer = new byte[8192];
+                try (var in = from.getInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        chunks.add(new Chunk(System.nanoTime() + latencyNanos, Arrays.copyOf(buffer, read)));
+                    }
+                } catch (IOException e) {
+                    // The connection was closed
+                }
+                chunks.add(END);
+            });
+
+            threads.execute(() -> {
+                try (var out = to.getOutputStream()) {
+                    for (var chunk = chunks.take(); chunk != END; chunk = chunks.take()) {
+                        LockSupport.parkNanos(chunk.due - System.nanoTime());
+                        out.write(chunk.bytes);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // The connection was closed
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        private static class Chunk {
+            final long due;
+            final byte[] bytes;
+
+            Chunk(long due, byte[] bytes) {
+                this.due = due;
+                this.bytes = bytes;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GraphQLRedisBenchmark.class.getSimpleName()).build()).run();
+    }
+}
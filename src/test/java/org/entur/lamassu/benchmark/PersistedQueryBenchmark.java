@@ -0,0 +1,90 @@
+package org.entur.lamassu.benchmark;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.UnExecutableSchemaGenerator;
+import graphql.validation.Validator;
+import org.entur.lamassu.controller.PersistedQueryDocumentProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Time spent parsing and validating the vehicles and stations queries of the integration tests
+ * against the schema, on every request and with the documents kept by
+ * PersistedQueryDocumentProvider. The difference is the CPU time the provider saves per request.
+ *
+ * <p>Run with the main method, from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PersistedQueryBenchmark {
+
+    @Param({"vehicles_query_without_disabled.graphql", "stations_query.graphql"})
+    public String query;
+
+    private ExecutionInput executionInput;
+    private Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidate;
+    private PersistedQueryDocumentProvider documentProvider;
+
+    @Setup
+    public void setup() throws IOException {
+        var schema = UnExecutableSchemaGenerator.makeUnExecutableSchema(new SchemaParser().parse(read("graphql/schema.graphqls")));
+        parseAndValidate = input -> parseAndValidate(schema, input);
+        executionInput = ExecutionInput.newExecutionInput().query(read(query)).build();
+        documentProvider = new PersistedQueryDocumentProvider(1000, "");
+
+        if (documentProvider.getDocument(executionInput, parseAndValidate).hasErrors()) {
+            throw new IllegalStateException("Query " + query + " is not valid");
+        }
+    }
+
+    @Benchmark
+    public PreparsedDocumentEntry parseAndValidate() {
+        return parseAndValidate.apply(executionInput);
+    }
+
+    @Benchmark
+    public PreparsedDocumentEntry cachedDocument() {
+        return documentProvider.getDocument(executionInput, parseAndValidate);
+    }
+
+    private static PreparsedDocumentEntry parseAndValidate(GraphQLSchema schema, ExecutionInput executionInput) {
+        var document = new Parser().parseDocument(executionInput.getQuery());
+        var errors = new Validator().validateDocument(schema, document);
+        return errors.isEmpty() ? new PreparsedDocumentEntry(document) : new PreparsedDocumentEntry(errors);
+    }
+
+    private static String read(String resource) throws IOException {
+        return StreamUtils.copyToString(new ClassPathResource(resource).getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PersistedQueryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
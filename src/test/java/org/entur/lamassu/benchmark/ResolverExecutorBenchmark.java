@@ -0,0 +1,88 @@
+package org.entur.lamassu.benchmark;
+
+import org.entur.lamassu.util.VirtualThreadUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput of the resolver executor with many concurrent resolvers, each waiting on Redis for
+ * redisMicros and then doing a little work, on the default 200 platform threads and on virtual
+ * threads. Virtual threads need a Java 21 runtime, and the benchmark fails without one. Redis
+ * and GraphQL are left out, to isolate the executor; GraphQLRedisBenchmark measures queries
+ * through both.
+ *
+ * <p>Run with the main method, from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ResolverExecutorBenchmark {
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"1000"})
+    public int concurrentResolvers;
+
+    @Param({"500", "5000"})
+    public int redisMicros;
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = "virtual".equals(threads)
+                ? VirtualThreadUtil.newVirtualThreadPerTaskExecutor().orElseThrow(() -> new IllegalStateException("Virtual threads are not supported by this runtime"))
+                : Executors.newFixedThreadPool(200);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * One operation is a batch of concurrentResolvers resolvers
+     */
+    @Benchmark
+    public void resolve(Blackhole blackhole) {
+        var resolvers = new ArrayList<CompletableFuture<Integer>>(concurrentResolvers);
+        for (int i = 0; i < concurrentResolvers; i++) {
+            var seed = i;
+            resolvers.add(CompletableFuture.supplyAsync(() -> {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(redisMicros));
+                return Integer.toString(seed).hashCode();
+            }, executor));
+        }
+        resolvers.forEach(resolver -> blackhole.consume(resolver.join()));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ResolverExecutorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
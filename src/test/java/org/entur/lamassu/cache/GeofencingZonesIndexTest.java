@@ -0,0 +1,110 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache;
+
+import org.entur.lamassu.model.entities.GeofencingZones;
+import org.entur.lamassu.model.entities.MultiPolygon;
+import org.entur.lamassu.util.BoundingBox;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class GeofencingZonesIndexTest {
+
+    @Test
+    void testGetZonesContainingReturnsZonesInFeedOrder() {
+        var index = GeofencingZonesIndex.of(geofencingZones(List.of(
+                square(0, 0, 10),
+                square(5, 5, 10),
+                square(20, 20, 10)
+        )));
+
+        Assertions.assertEquals(List.of(0, 1), index.getZonesContaining(7, 7));
+        Assertions.assertEquals(List.of(0), index.getZonesContaining(2, 2));
+        Assertions.assertEquals(List.of(2), index.getZonesContaining(25, 25));
+        Assertions.assertTrue(index.getZonesContaining(17, 17).isEmpty());
+    }
+
+    @Test
+    void testGetZonesIntersecting() {
+        var index = GeofencingZonesIndex.of(geofencingZones(List.of(
+                square(0, 0, 10),
+                square(5, 5, 10),
+                square(20, 20, 10)
+        )));
+
+        Assertions.assertEquals(List.of(0, 1), index.getZonesIntersecting(new BoundingBox(8, 8, 12, 12)));
+        Assertions.assertEquals(List.of(1, 2), index.getZonesIntersecting(new BoundingBox(14, 14, 22, 22)));
+        Assertions.assertTrue(index.getZonesIntersecting(new BoundingBox(40, 40, 50, 50)).isEmpty());
+    }
+
+    @Test
+    void testGetZonesContainingExcludesHoles() {
+        var polygon = new ArrayList<>(square(0, 0, 10));
+        polygon.add(square(4, 4, 2).get(0));
+        var index = GeofencingZonesIndex.of(geofencingZones(List.of(polygon)));
+
+        Assertions.assertTrue(index.getZonesContaining(5, 5).isEmpty());
+        Assertions.assertEquals(List.of(0), index.getZonesContaining(1, 1));
+    }
+
+    @Test
+    void testGetZonesContainingWithManyZones() {
+        var polygons = new ArrayList<List<List<List<Double>>>>();
+        for (var i = 0; i < 50; i++) {
+            for (var j = 0; j < 50; j++) {
+                polygons.add(square(i, j, 1));
+            }
+        }
+        var index = GeofencingZonesIndex.of(geofencingZones(polygons));
+
+        Assertions.assertEquals(List.of(12 * 50 + 34), index.getZonesContaining(34.5, 12.5));
+        Assertions.assertTrue(index.getZonesContaining(60, 60).isEmpty());
+    }
+
+    private GeofencingZones geofencingZones(List<List<List<List<Double>>>> polygons) {
+        var features = new ArrayList<GeofencingZones.Feature>();
+        for (var polygon : polygons) {
+            var geometry = new MultiPolygon();
+            geometry.setCoordinates(List.of(polygon));
+            var feature = new GeofencingZones.Feature();
+            feature.setGeometry(geometry);
+            feature.setProperties(new GeofencingZones.Properties());
+            features.add(feature);
+        }
+        var featureCollection = new GeofencingZones.FeatureCollection();
+        featureCollection.setFeatures(features);
+        var geofencingZones = new GeofencingZones();
+        geofencingZones.setSystemId("testsystem");
+        geofencingZones.setGeojson(featureCollection);
+        return geofencingZones;
+    }
+
+    private List<List<List<Double>>> square(double lon, double lat, double size) {
+        return List.of(List.of(
+                List.of(lon, lat),
+                List.of(lon + size, lat),
+                List.of(lon + size, lat + size),
+                List.of(lon, lat + size),
+                List.of(lon, lat)
+        ));
+    }
+}
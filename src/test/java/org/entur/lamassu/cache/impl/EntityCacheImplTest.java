@@ -0,0 +1,140 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.impl;
+
+import org.entur.lamassu.model.entities.Vehicle;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RedissonClient;
+import org.redisson.codec.Kryo5Codec;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Writes entities through the batch variants of the entity cache in an embedded Redis
+ */
+class EntityCacheImplTest {
+    private static RedisServer redisServer;
+    private static RedissonClient redissonClient;
+
+    private RMapCache<String, Vehicle> map;
+    private VehicleCacheImpl cache;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+
+        var config = new Config();
+        config.setCodec(new Kryo5Codec(EntityCacheImplTest.class.getClassLoader()));
+        config.useSingleServer().setAddress("redis://127.0.0.1:" + port);
+        redissonClient = Redisson.create(config);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redissonClient.shutdown();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setup() {
+        redissonClient.getKeys().flushall();
+        map = redissonClient.getMapCache("test");
+        cache = new VehicleCacheImpl(map);
+    }
+
+    @Test
+    void batchUpdatesAreWrittenWhenTheBatchIsExecuted() {
+        var batch = redissonClient.createBatch();
+        cache.updateAll(batch, Map.of("1", vehicle("1"), "2", vehicle("2")), 60, TimeUnit.SECONDS);
+
+        Assertions.assertTrue(map.isEmpty());
+
+        batch.execute();
+
+        Assertions.assertEquals(Set.of("1", "2"), cache.getAllAsMap(Set.of("1", "2", "3")).keySet());
+        Assertions.assertTrue(map.remainTimeToLive("1") > 0);
+    }
+
+    @Test
+    void ttlRefreshesOnlyMoveTheExpiryOfExistingEntities() {
+        map.put("1", vehicle("1"), 10, TimeUnit.SECONDS);
+
+        var batch = redissonClient.createBatch();
+        cache.refreshTtl(batch, Set.of("1", "2"), 60, TimeUnit.SECONDS);
+        batch.execute();
+
+        Assertions.assertTrue(map.remainTimeToLive("1") > TimeUnit.SECONDS.toMillis(10));
+        Assertions.assertEquals("1", cache.get("1").getId());
+        Assertions.assertFalse(map.containsKey("2"));
+    }
+
+    @Test
+    void batchRemovalsRemoveEachKey() {
+        map.putAll(Map.of("1", vehicle("1"), "2", vehicle("2"), "3", vehicle("3")));
+
+        var batch = redissonClient.createBatch();
+        cache.removeAll(batch, Set.of("1", "2"));
+        batch.execute();
+
+        Assertions.assertEquals(Set.of("3"), map.readAllKeySet());
+    }
+
+    @Test
+    void removalsRemoveEachKey() {
+        @SuppressWarnings("unchecked")
+        RMapCache<String, Vehicle> mockedMap = mock(RMapCache.class);
+
+        new VehicleCacheImpl(mockedMap).removeAll(Set.of("1"));
+
+        verify(mockedMap).fastRemoveAsync(new String[] {"1"});
+    }
+
+    @Test
+    void existingKeysAreFoundInOneGo() {
+        map.putAll(Map.of("1", vehicle("1"), "2", vehicle("2")));
+
+        Assertions.assertEquals(Set.of("1", "2"), cache.getExistingKeys(Set.of("1", "2", "3")));
+    }
+
+    private static Vehicle vehicle(String id) {
+        var vehicle = new Vehicle();
+        vehicle.setId(id);
+        return vehicle;
+    }
+}
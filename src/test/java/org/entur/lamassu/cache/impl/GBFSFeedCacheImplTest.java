@@ -0,0 +1,152 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.impl;
+
+import org.entur.gbfs.v2_3.gbfs.GBFSFeedName;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.redisson.api.RFuture;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RTopic;
+import org.redisson.api.listener.MessageListener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class GBFSFeedCacheImplTest {
+    private static final String KEY = "system_information_testsystem";
+
+    @SuppressWarnings("unchecked")
+    private final RMapCache<String, Object> cache = mock(RMapCache.class);
+    private final RTopic feedUpdatesTopic = mock(RTopic.class);
+    private final AtomicReference<Object> remoteFeed = new AtomicReference<>("first");
+    private final FeedProvider feedProvider = new FeedProvider();
+
+    private GBFSFeedCacheImpl feedCache;
+    private MessageListener<String> invalidationListener;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        feedProvider.setSystemId("testsystem");
+        doAnswer(invocation -> remote(remoteFeed.get())).when(cache).getAsync(anyString());
+
+        feedCache = new GBFSFeedCacheImpl(cache, feedUpdatesTopic, 60);
+        feedCache.start();
+
+        ArgumentCaptor<MessageListener<String>> listener = ArgumentCaptor.forClass(MessageListener.class);
+        verify(feedUpdatesTopic).addListener(eq(String.class), listener.capture());
+        invalidationListener = listener.getValue();
+    }
+
+    @Test
+    void testRepeatedFindIsServedFromNearCache() {
+        Assertions.assertEquals("first", find());
+        Assertions.assertEquals("first", find());
+
+        verify(cache, times(1)).getAsync(KEY);
+    }
+
+    @Test
+    void testInvalidationOnTopicDropsNearCopy() {
+        Assertions.assertEquals("first", find());
+
+        remoteFeed.set("second");
+        invalidationListener.onMessage(KEY, KEY);
+
+        Assertions.assertEquals("second", find());
+        verify(cache, times(2)).getAsync(KEY);
+    }
+
+    @Test
+    void testFeedLoadedDuringInvalidationIsNotKept() {
+        var pending = new CompletableFuture<Object>();
+        doAnswer(invocation -> remote(pending)).when(cache).getAsync(anyString());
+        var loading = feedCache.<Object>findAsync(GBFSFeedName.SystemInformation, feedProvider);
+
+        invalidationListener.onMessage(KEY, KEY);
+        pending.complete("first");
+        Assertions.assertEquals("first", loading.join());
+
+        doAnswer(invocation -> remote("second")).when(cache).getAsync(anyString());
+        Assertions.assertEquals("second", find());
+    }
+
+    @Test
+    void testFailedRemoteReadFailsFind() {
+        doAnswer(invocation -> remote(CompletableFuture.failedFuture(new TimeoutException()))).when(cache).getAsync(anyString());
+
+        var e = Assertions.assertThrows(CompletionException.class, this::find);
+        Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+    }
+
+    /**
+     * Loads race with invalidations on other threads. However they interleave, a find after the
+     * last invalidation must not return a feed loaded before it.
+     */
+    @Test
+    void testNoStaleFeedIsKeptWhenLoadsRaceInvalidations() throws InterruptedException {
+        var version = new AtomicInteger();
+        remoteFeed.set(0);
+        doAnswer(invocation -> remote(CompletableFuture.supplyAsync(remoteFeed::get))).when(cache).getAsync(anyString());
+
+        var invalidator = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                remoteFeed.set(version.incrementAndGet());
+                invalidationListener.onMessage(KEY, KEY);
+            }
+        });
+        invalidator.start();
+        while (invalidator.isAlive()) {
+            find();
+        }
+        invalidator.join();
+
+        Assertions.assertEquals(version.get(), find());
+    }
+
+    private Object find() {
+        return feedCache.findAsync(GBFSFeedName.SystemInformation, feedProvider).join();
+    }
+
+    private static RFuture<Object> remote(Object feed) {
+        return remote(CompletableFuture.completedFuture(feed));
+    }
+
+    /**
+     * Only toCompletableFuture is called on the future, so it answers every call with the feed
+     */
+    @SuppressWarnings("unchecked")
+    private static RFuture<Object> remote(CompletableFuture<Object> feed) {
+        return mock(RFuture.class, invocation -> feed);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.impl;
+
+import org.entur.lamassu.cache.SpatialIndexCell;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.PropulsionType;
+import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.util.BoundingBox;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.codec.Kryo5Codec;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Searches a spatial index in an embedded Redis. The bounding box is far north, where a box
+ * measured at its center latitude is noticeably too wide at its northern edge and too narrow at
+ * its southern edge.
+ */
+class VehicleSpatialIndexImplTest {
+    private static final BoundingBox BOUNDING_BOX = new BoundingBox(69.60, 18.90, 69.70, 19.10);
+    private static final double INSIDE = 0.0001;
+    private static final double OUTSIDE = 0.0005;
+
+    private static RedisServer redisServer;
+    private static RedissonClient redissonClient;
+
+    private VehicleSpatialIndexImpl index;
+    private Map<VehicleSpatialIndexId, Vehicle> vehicles;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+
+        var config = new Config();
+        config.setCodec(new Kryo5Codec(VehicleSpatialIndexImplTest.class.getClassLoader()));
+        config.useSingleServer().setAddress("redis://127.0.0.1:" + port);
+        redissonClient = Redisson.create(config);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redissonClient.shutdown();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setup() {
+        redissonClient.getKeys().flushall();
+        index = new VehicleSpatialIndexImpl(redissonClient, "test");
+
+        vehicles = new HashMap<>();
+        vehicles.put(id("southWest"), vehicle(BOUNDING_BOX.getMinLat() + INSIDE, BOUNDING_BOX.getMinLon() + INSIDE));
+        vehicles.put(id("southEast"), vehicle(BOUNDING_BOX.getMinLat() + INSIDE, BOUNDING_BOX.getMaxLon() - INSIDE));
+        vehicles.put(id("northWest"), vehicle(BOUNDING_BOX.getMaxLat() - INSIDE, BOUNDING_BOX.getMinLon() + INSIDE));
+        vehicles.put(id("northEast"), vehicle(BOUNDING_BOX.getMaxLat() - INSIDE, BOUNDING_BOX.getMaxLon() - INSIDE));
+        vehicles.put(id("center"), vehicle(69.65, 19.00));
+        vehicles.put(id("outsideNorthWest"), vehicle(BOUNDING_BOX.getMaxLat() - INSIDE, BOUNDING_BOX.getMinLon() - OUTSIDE));
+        vehicles.put(id("outsideNorthEast"), vehicle(BOUNDING_BOX.getMaxLat() - INSIDE, BOUNDING_BOX.getMaxLon() + OUTSIDE));
+        vehicles.put(id("outsideNorth"), vehicle(BOUNDING_BOX.getMaxLat() + OUTSIDE, 19.00));
+        vehicles.put(id("outsideSouth"), vehicle(BOUNDING_BOX.getMinLat() - OUTSIDE, 19.00));
+
+        var batch = redissonClient.createBatch();
+        index.addAll(batch, vehicles);
+        index.updatePartitions(batch, feedProvider(), vehicles);
+        batch.execute();
+    }
+
+    @Test
+    void boxReturnsCornersAndNothingOutside() {
+        var result = index.box(BOUNDING_BOX, null, null);
+
+        Assertions.assertEquals(Set.of("center", "southWest", "southEast", "northWest", "northEast"), ids(result));
+        Assertions.assertEquals("center", result.get(0).getId());
+    }
+
+    @Test
+    void boxWithCountReturnsNearestEntriesInside() {
+        var result = index.box(BOUNDING_BOX, null, 1);
+
+        Assertions.assertEquals(List.of("center"), List.of(result.get(0).getId()));
+        Assertions.assertEquals(5, index.box(BOUNDING_BOX, null, 10).size());
+    }
+
+    @Test
+    void boxWithPositionsReturnsCornersAndNothingOutside() {
+        var result = index.boxWithPositions(BOUNDING_BOX, null, null);
+
+        Assertions.assertEquals(Set.of("center", "southWest", "southEast", "northWest", "northEast"), ids(result.keySet()));
+        result.values().forEach(position ->
+                Assertions.assertTrue(BOUNDING_BOX.contains(position.getLatitude(), position.getLongitude()))
+        );
+    }
+
+    @Test
+    void nearestWithPositionsReturnsPositionsInSearchOrder() {
+        var result = index.nearestWithPositionsAsync(19.00, 69.65, null, 2, 50000).join();
+
+        var ids = new ArrayList<>(result.keySet());
+        Assertions.assertEquals(2, ids.size());
+        Assertions.assertEquals("center", ids.get(0).getId());
+        Assertions.assertEquals(69.65, result.get(ids.get(0)).getLatitude(), 0.0001);
+        Assertions.assertEquals(19.00, result.get(ids.get(0)).getLongitude(), 0.0001);
+    }
+
+    @Test
+    void batchRemovalsRemoveFromEachPartition() {
+        var bicycle = id("bicycle");
+        bicycle.setFormFactor(FormFactor.BICYCLE);
+        vehicles.put(bicycle, vehicle(69.65, 19.00));
+
+        var batch = redissonClient.createBatch();
+        index.addAll(batch, Map.of(bicycle, vehicles.get(bicycle)));
+        index.updatePartitions(batch, feedProvider(), vehicles);
+        batch.execute();
+        Assertions.assertEquals(6, index.box(BOUNDING_BOX, null, null).size());
+
+        batch = redissonClient.createBatch();
+        index.removeAll(batch, Set.of(bicycle, id("center"), id("outsideNorth")));
+        Assertions.assertEquals(6, index.box(BOUNDING_BOX, null, null).size());
+        batch.execute();
+
+        Assertions.assertEquals(Set.of("southWest", "southEast", "northWest", "northEast"), ids(index.box(BOUNDING_BOX, null, null)));
+        Assertions.assertEquals(7, index.getAll().size());
+    }
+
+    @Test
+    void unusedPartitionsAreNotSearched() {
+        var bicycle = id("bicycle");
+        bicycle.setFormFactor(FormFactor.BICYCLE);
+        var vehicles = Map.of(bicycle, vehicle(69.65, 19.00));
+
+        var batch = redissonClient.createBatch();
+        index.addAll(batch, vehicles);
+        index.updatePartitions(batch, feedProvider(), vehicles);
+        batch.execute();
+
+        Assertions.assertEquals(Set.of("bicycle"), ids(index.box(BOUNDING_BOX, null, null)));
+
+        var cells = index.cellsAsync(BOUNDING_BOX, null, 0).join();
+        Assertions.assertEquals(1, cells.size());
+        Assertions.assertEquals(1, cells.get(0).getCount());
+        Assertions.assertEquals(FormFactor.BICYCLE, cells.get(0).getId().getFormFactor());
+    }
+
+    @Test
+    void storedCellsCountEveryEntryOfThePartition() {
+        var cells = index.cellsAsync(BOUNDING_BOX, null, 0).join();
+
+        Assertions.assertEquals(1, cells.size());
+        var cell = cells.get(0);
+        Assertions.assertEquals(0, cell.getX());
+        Assertions.assertEquals(0, cell.getY());
+        Assertions.assertEquals(9, cell.getCount());
+        Assertions.assertEquals(69.65, cell.getLatitude(), 0.001);
+        Assertions.assertEquals(19.00, cell.getLongitude(), 0.001);
+        Assertions.assertEquals(FormFactor.SCOOTER, cell.getId().getFormFactor());
+    }
+
+    @Test
+    void cellsBelowStoredZoomLevelsCountEntriesInside() {
+        var cells = index.cellsAsync(BOUNDING_BOX, null, 20).join();
+
+        Assertions.assertEquals(5, cells.size());
+        Assertions.assertEquals(5, cells.stream().mapToInt(SpatialIndexCell::getCount).sum());
+        cells.forEach(cell ->
+                Assertions.assertTrue(BOUNDING_BOX.contains(cell.getLatitude(), cell.getLongitude()))
+        );
+    }
+
+    private static Set<String> ids(Iterable<VehicleSpatialIndexId> ids) {
+        var result = new HashSet<String>();
+        ids.forEach(id -> result.add(id.getId()));
+        return result;
+    }
+
+    private static VehicleSpatialIndexId id(String id) {
+        var spatialIndexId = new VehicleSpatialIndexId();
+        spatialIndexId.setId(id);
+        spatialIndexId.setSystemId("testsystem");
+        spatialIndexId.setCodespace("TST");
+        spatialIndexId.setOperatorId("TST:Operator:test");
+        spatialIndexId.setFormFactor(FormFactor.SCOOTER);
+        spatialIndexId.setPropulsionType(PropulsionType.ELECTRIC);
+        return spatialIndexId;
+    }
+
+    private static Vehicle vehicle(double lat, double lon) {
+        var vehicle = new Vehicle();
+        vehicle.setLat(lat);
+        vehicle.setLon(lon);
+        return vehicle;
+    }
+
+    private static FeedProvider feedProvider() {
+        var feedProvider = new FeedProvider();
+        feedProvider.setSystemId("testsystem");
+        feedProvider.setCodespace("TST");
+        feedProvider.setOperatorId("TST:Operator:test");
+        return feedProvider;
+    }
+}
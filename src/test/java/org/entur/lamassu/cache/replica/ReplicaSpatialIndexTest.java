@@ -0,0 +1,108 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.cache.replica;
+
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.util.BoundingBox;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.GeoOrder;
+import org.redisson.api.GeoUnit;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class ReplicaSpatialIndexTest {
+
+    private ReplicaVehicleSpatialIndex index;
+
+    @BeforeEach
+    void setup() {
+        index = new ReplicaVehicleSpatialIndex();
+        index.addAll(Map.of(
+                id("near"), vehicle(59.9110, 10.7500),
+                id("middle"), vehicle(59.9150, 10.7500),
+                id("far"), vehicle(59.9500, 10.7500)
+        ));
+    }
+
+    @Test
+    void radiusReturnsEntriesWithinRangeOrderedByDistance() {
+        var result = index.radius(10.7500, 59.9100, 1000.0, GeoUnit.METERS, GeoOrder.ASC, null, null);
+        Assertions.assertEquals(List.of(id("near"), id("middle")), result);
+    }
+
+    @Test
+    void radiusSupportsDescendingOrderAndOtherUnits() {
+        var result = index.radius(10.7500, 59.9100, 10.0, GeoUnit.KILOMETERS, GeoOrder.DESC, null, null);
+        Assertions.assertEquals(List.of(id("far"), id("middle"), id("near")), result);
+    }
+
+    @Test
+    void movedEntriesAreOnlyFoundAtTheirNewPosition() {
+        index.addAll(Map.of(id("far"), vehicle(59.9101, 10.7500)));
+
+        var result = index.radius(10.7500, 59.9100, 1000.0, GeoUnit.METERS, GeoOrder.ASC, null, null);
+        Assertions.assertEquals(List.of(id("far"), id("near"), id("middle")), result);
+        Assertions.assertEquals(3, index.getAll().size());
+    }
+
+    @Test
+    void removedEntriesAreNotFound() {
+        index.removeAll(Set.of(id("near")));
+
+        var result = index.radius(10.7500, 59.9100, 1000.0, GeoUnit.METERS, GeoOrder.ASC, null, null);
+        Assertions.assertEquals(List.of(id("middle")), result);
+    }
+
+    @Test
+    void nearestExpandsUntilCountIsFound() {
+        Assertions.assertEquals(List.of(id("near"), id("middle")), index.nearest(10.7500, 59.9100, null, 2, 50000));
+        Assertions.assertEquals(List.of(id("near"), id("middle"), id("far")), index.nearest(10.7500, 59.9100, null, 5, 50000));
+    }
+
+    @Test
+    void nearestDoesNotSearchBeyondMaxRadius() {
+        Assertions.assertEquals(List.of(id("near"), id("middle")), index.nearest(10.7500, 59.9100, null, 3, 1000));
+    }
+
+    @Test
+    void boxReturnsEntriesInsideBoundingBoxOrderedByDistanceFromCenter() {
+        var result = index.box(new BoundingBox(59.9100, 10.7400, 59.9200, 10.7600), null, null);
+        Assertions.assertEquals(List.of(id("middle"), id("near")), result);
+        Assertions.assertEquals(List.of(id("middle")), index.box(new BoundingBox(59.9100, 10.7400, 59.9200, 10.7600), null, 1));
+    }
+
+    private VehicleSpatialIndexId id(String id) {
+        var spatialIndexId = new VehicleSpatialIndexId();
+        spatialIndexId.setId(id);
+        spatialIndexId.setSystemId("testsystem");
+        return spatialIndexId;
+    }
+
+    private Vehicle vehicle(double lat, double lon) {
+        var vehicle = new Vehicle();
+        vehicle.setLat(lat);
+        vehicle.setLon(lon);
+        return vehicle;
+    }
+}
@@ -0,0 +1,65 @@
+package org.entur.lamassu.controller;
+
+import org.entur.lamassu.cache.PricingPlanCache;
+import org.entur.lamassu.cache.SystemCache;
+import org.entur.lamassu.cache.VehicleTypeCache;
+import org.entur.lamassu.model.entities.VehicleType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EntityDataLoadersTest {
+
+    private final VehicleTypeCache vehicleTypeCache = mock(VehicleTypeCache.class);
+    private final EntityDataLoaders entityDataLoaders = new EntityDataLoaders(vehicleTypeCache, mock(PricingPlanCache.class), mock(SystemCache.class));
+
+    @Test
+    void testLoadsReferencesOfARequestInOneBatch() {
+        when(vehicleTypeCache.getAllAsMapAsync(any())).thenReturn(CompletableFuture.completedFuture(Map.of(
+                "Scooter_testatlantis", vehicleType("Scooter"),
+                "Bicycle_testatlantis", vehicleType("Bicycle")
+        )));
+
+        var loader = entityDataLoaders.newRegistry().<String, VehicleType>getDataLoader(EntityDataLoaders.VEHICLE_TYPES);
+        var first = loader.load("Scooter_testatlantis");
+        var second = loader.load("Bicycle_testatlantis");
+        var third = loader.load("Scooter_testatlantis");
+        loader.dispatchAndJoin();
+
+        Assertions.assertEquals("Scooter", first.join().getId());
+        Assertions.assertEquals("Bicycle", second.join().getId());
+        Assertions.assertEquals("Scooter", third.join().getId());
+        verify(vehicleTypeCache, times(1)).getAllAsMapAsync(Set.of("Scooter_testatlantis", "Bicycle_testatlantis"));
+    }
+
+    @Test
+    void testLaterRequestsUseLocalCache() {
+        when(vehicleTypeCache.getAllAsMapAsync(any())).thenReturn(CompletableFuture.completedFuture(Map.of(
+                "Scooter_testatlantis", vehicleType("Scooter")
+        )));
+
+        for (int i = 0; i < 2; i++) {
+            var loader = entityDataLoaders.newRegistry().<String, VehicleType>getDataLoader(EntityDataLoaders.VEHICLE_TYPES);
+            var vehicleType = loader.load("Scooter_testatlantis");
+            loader.dispatchAndJoin();
+            Assertions.assertEquals("Scooter", vehicleType.join().getId());
+        }
+
+        verify(vehicleTypeCache, times(1)).getAllAsMapAsync(any());
+    }
+
+    private VehicleType vehicleType(String id) {
+        var vehicleType = new VehicleType();
+        vehicleType.setId(id);
+        return vehicleType;
+    }
+}
@@ -0,0 +1,65 @@
+package org.entur.lamassu.controller;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.kickstart.servlet.context.GraphQLServletContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PersistedQueryCacheControlInstrumentationTest {
+    private static final Map<String, Object> PERSISTED_QUERY = Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", "abc"));
+
+    private final PersistedQueryCacheControlInstrumentation instrumentation = new PersistedQueryCacheControlInstrumentation(10);
+
+    @Test
+    void testPersistedGetIsCacheable() {
+        var response = execute("GET", PERSISTED_QUERY, data());
+
+        Assertions.assertEquals("public, max-age=10", response.getHeader(PersistedQueryCacheControlInstrumentation.CACHE_CONTROL_HEADER));
+    }
+
+    @Test
+    void testPersistedGetWithErrorsIsNotStored() {
+        var response = execute("GET", PERSISTED_QUERY, ExecutionResultImpl.newExecutionResult().addError(new PersistedQueryNotFound("abc")).build());
+
+        Assertions.assertEquals("no-store", response.getHeader(PersistedQueryCacheControlInstrumentation.CACHE_CONTROL_HEADER));
+    }
+
+    @Test
+    void testOtherQueriesAreLeftAlone() {
+        Assertions.assertNull(execute("POST", PERSISTED_QUERY, data()).getHeader(PersistedQueryCacheControlInstrumentation.CACHE_CONTROL_HEADER));
+        Assertions.assertNull(execute("GET", Map.of(), data()).getHeader(PersistedQueryCacheControlInstrumentation.CACHE_CONTROL_HEADER));
+    }
+
+    private MockHttpServletResponse execute(String method, Map<String, Object> extensions, ExecutionResult result) {
+        var request = new MockHttpServletRequest(method, "/graphql");
+        var response = new MockHttpServletResponse();
+        var context = mock(GraphQLServletContext.class);
+        when(context.getHttpServletRequest()).thenReturn(request);
+        when(context.getHttpServletResponse()).thenReturn(response);
+
+        var parameters = mock(InstrumentationExecutionParameters.class);
+        when(parameters.getExecutionInput()).thenReturn(ExecutionInput.newExecutionInput()
+                .query("{ codespaces }")
+                .extensions(extensions)
+                .context(context)
+                .build());
+
+        Assertions.assertSame(result, instrumentation.instrumentExecutionResult(result, parameters).join());
+        return response;
+    }
+
+    private static ExecutionResult data() {
+        return ExecutionResultImpl.newExecutionResult().data(Map.of("codespaces", "TST")).build();
+    }
+}
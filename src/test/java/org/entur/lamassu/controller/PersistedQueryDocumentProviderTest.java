@@ -0,0 +1,103 @@
+package org.entur.lamassu.controller;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.parser.Parser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+class PersistedQueryDocumentProviderTest {
+    private static final String QUERY = "{ codespaces }";
+
+    private final AtomicInteger parseCount = new AtomicInteger();
+    private final Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidate = executionInput -> {
+        parseCount.incrementAndGet();
+        return new PreparsedDocumentEntry(new Parser().parseDocument(executionInput.getQuery()));
+    };
+
+    @Test
+    void testParsesRepeatedQueryOnce() throws IOException {
+        var provider = new PersistedQueryDocumentProvider(10, "");
+
+        var first = provider.getDocument(query(QUERY, null), parseAndValidate);
+        var second = provider.getDocument(query(QUERY, null), parseAndValidate);
+
+        Assertions.assertFalse(first.hasErrors());
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, parseCount.get());
+    }
+
+    @Test
+    void testKeepsRecentlyUsedQueryWhenFull() throws IOException {
+        var provider = new PersistedQueryDocumentProvider(10, "");
+
+        provider.getDocument(query(QUERY, null), parseAndValidate);
+        for (int i = 0; i < 9; i++) {
+            provider.getDocument(query("{ operators(codespaces: [\"" + i + "\"]) { id } }", null), parseAndValidate);
+        }
+        provider.getDocument(query(QUERY, null), parseAndValidate);
+        provider.getDocument(query("{ operators { id } }", null), parseAndValidate);
+        provider.getDocument(query(QUERY, null), parseAndValidate);
+
+        Assertions.assertEquals(11, parseCount.get());
+    }
+
+    @Test
+    void testUnknownPersistedQueryIsNotFound() throws IOException {
+        var provider = new PersistedQueryDocumentProvider(10, "");
+
+        var document = provider.getDocument(query("", PersistedQueryDocumentProvider.sha256(QUERY)), parseAndValidate);
+
+        Assertions.assertTrue(document.getErrors().get(0) instanceof PersistedQueryNotFound);
+    }
+
+    @Test
+    void testPersistedQueryIsServedByHash() throws IOException {
+        var provider = new PersistedQueryDocumentProvider(10, "");
+        var hash = PersistedQueryDocumentProvider.sha256(QUERY);
+
+        var registered = provider.getDocument(query(QUERY, hash), parseAndValidate);
+        var byHash = provider.getDocument(query("", hash.toUpperCase()), parseAndValidate);
+
+        Assertions.assertSame(registered, byHash);
+        Assertions.assertEquals(1, parseCount.get());
+    }
+
+    @Test
+    void testPersistedQueryWithWrongHashIsRejected() throws IOException {
+        var provider = new PersistedQueryDocumentProvider(10, "");
+
+        var document = provider.getDocument(query(QUERY, PersistedQueryDocumentProvider.sha256("{ operators { id } }")), parseAndValidate);
+
+        Assertions.assertTrue(document.hasErrors());
+        Assertions.assertEquals(0, parseCount.get());
+    }
+
+    @Test
+    void testAllowListOnlyAllowsItsQueries() throws IOException {
+        var provider = new PersistedQueryDocumentProvider(10, "classpath:stations_query.graphql");
+        var allowedQuery = StreamUtils.copyToString(new ClassPathResource("stations_query.graphql").getInputStream(), StandardCharsets.UTF_8);
+
+        Assertions.assertTrue(provider.getDocument(query(QUERY, null), parseAndValidate).hasErrors());
+        Assertions.assertFalse(provider.getDocument(query("", PersistedQueryDocumentProvider.sha256(allowedQuery)), parseAndValidate).hasErrors());
+        Assertions.assertFalse(provider.getDocument(query(allowedQuery, null), parseAndValidate).hasErrors());
+        Assertions.assertEquals(1, parseCount.get());
+    }
+
+    private ExecutionInput query(String query, String persistedQueryHash) {
+        var builder = ExecutionInput.newExecutionInput().query(query);
+        if (persistedQueryHash != null) {
+            builder.extensions(Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", persistedQueryHash)));
+        }
+        return builder.build();
+    }
+}
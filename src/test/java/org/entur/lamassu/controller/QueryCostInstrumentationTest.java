@@ -0,0 +1,174 @@
+package org.entur.lamassu.controller;
+
+import graphql.GraphqlErrorException;
+import graphql.Scalars;
+import graphql.execution.ExecutionStepInfo;
+import graphql.execution.ResultPath;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.kickstart.servlet.context.GraphQLServletContext;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingEnvironmentImpl;
+import graphql.schema.GraphQLFieldDefinition;
+import org.entur.lamassu.cache.StationSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndex;
+import org.entur.lamassu.service.GeofencingZonesService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class QueryCostInstrumentationTest {
+    private static final Map<String, Object> BOUNDING_BOX = Map.of("minLat", 59.9, "minLon", 10.7, "maxLat", 60.0, "maxLon", 10.8);
+    private static final String PROXY = "10.0.0.1";
+
+    private final VehicleSpatialIndex vehicleSpatialIndex = mock(VehicleSpatialIndex.class);
+    private final GeofencingZonesService geofencingZonesService = mock(GeofencingZonesService.class);
+    private final DataFetcher<Map<String, Object>> dataFetcher = DataFetchingEnvironment::getArguments;
+
+    @BeforeEach
+    void setup() {
+        when(vehicleSpatialIndex.estimateCountAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(10.0));
+    }
+
+    @Test
+    void testLimitsQueriesWithoutCount() {
+        var instrumentation = instrumentation(0);
+
+        Assertions.assertEquals(100, fetch(instrumentation, BOUNDING_BOX, request("client", "1.2.3.4", null)).get("count"));
+    }
+
+    @Test
+    void testLimitsCountAndNearestToMaxResults() {
+        var instrumentation = instrumentation(0);
+
+        Assertions.assertEquals(100, fetch(instrumentation, with(BOUNDING_BOX, "count", 1000), request("client", "1.2.3.4", null)).get("count"));
+        Assertions.assertEquals(50, fetch(instrumentation, with(BOUNDING_BOX, "count", 50), request("client", "1.2.3.4", null)).get("count"));
+        Assertions.assertEquals(100, fetch(instrumentation, Map.of("lat", 59.9, "lon", 10.7, "nearest", 1000), request("client", "1.2.3.4", null)).get("nearest"));
+    }
+
+    @Test
+    void testRejectsClientWithoutBudget() {
+        when(vehicleSpatialIndex.estimateCountAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(1000.0));
+        var instrumentation = instrumentation(150);
+
+        Assertions.assertNotNull(fetch(instrumentation, BOUNDING_BOX, request("client", "1.2.3.4", null)));
+        var exception = Assertions.assertThrows(CompletionException.class, () -> fetch(instrumentation, BOUNDING_BOX, request("client", "1.2.3.4", null)));
+        Assertions.assertTrue(exception.getCause() instanceof GraphqlErrorException);
+    }
+
+    @Test
+    void testClientNameDoesNotShareBudgetAcrossAddresses() {
+        when(vehicleSpatialIndex.estimateCountAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(1000.0));
+        var instrumentation = instrumentation(150);
+
+        Assertions.assertNotNull(fetch(instrumentation, BOUNDING_BOX, request("client", "1.2.3.4", null)));
+        Assertions.assertNotNull(fetch(instrumentation, BOUNDING_BOX, request("client", "5.6.7.8", null)));
+    }
+
+    @Test
+    void testForwardedForIsOnlyTrustedFromProxies() {
+        when(vehicleSpatialIndex.estimateCountAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(1000.0));
+        var instrumentation = instrumentation(150);
+
+        Assertions.assertNotNull(fetch(instrumentation, BOUNDING_BOX, request(null, PROXY, "9.9.9.9, 1.2.3.4")));
+        Assertions.assertNotNull(fetch(instrumentation, BOUNDING_BOX, request(null, PROXY, "9.9.9.9, 5.6.7.8")));
+        Assertions.assertThrows(CompletionException.class, () -> fetch(instrumentation, BOUNDING_BOX, request(null, PROXY, "1.2.3.4")));
+
+        Assertions.assertNotNull(fetch(instrumentation, BOUNDING_BOX, request(null, "2.2.2.2", "3.3.3.3")));
+        Assertions.assertThrows(CompletionException.class, () -> fetch(instrumentation, BOUNDING_BOX, request(null, "2.2.2.2", "4.4.4.4")));
+    }
+
+    @Test
+    void testRejectsClustersOfTooManyCells() {
+        var instrumentation = instrumentation(0);
+        var arguments = with(BOUNDING_BOX, "zoom", 10);
+
+        when(vehicleSpatialIndex.estimateCellCountAsync(any(), any(), eq(12))).thenReturn(CompletableFuture.completedFuture(50.0));
+        Assertions.assertNotNull(fetch(instrumentation, "vehicleClusters", arguments, request("client", "1.2.3.4", null)));
+
+        when(vehicleSpatialIndex.estimateCellCountAsync(any(), any(), eq(12))).thenReturn(CompletableFuture.completedFuture(1000.0));
+        var exception = Assertions.assertThrows(CompletionException.class, () -> fetch(instrumentation, "vehicleClusters", arguments, request("client", "1.2.3.4", null)));
+        Assertions.assertTrue(exception.getCause() instanceof GraphqlErrorException);
+    }
+
+    @Test
+    void testRejectsTooManyStationIds() {
+        var instrumentation = instrumentation(0);
+        var ids = IntStream.range(0, 101).mapToObj(String::valueOf).collect(Collectors.toList());
+
+        Assertions.assertNotNull(fetch(instrumentation, "stationsById", Map.of("ids", ids.subList(0, 100)), request("client", "1.2.3.4", null)));
+        Assertions.assertThrows(CompletionException.class, () -> fetch(instrumentation, "stationsById", Map.of("ids", ids), request("client", "1.2.3.4", null)));
+    }
+
+    @Test
+    void testChargesGeofencingZonesByZoneCount() {
+        when(geofencingZonesService.countGeofencingZones(any(), any())).thenReturn(100);
+        var instrumentation = instrumentation(150);
+
+        Assertions.assertNotNull(fetch(instrumentation, "geofencingZones", BOUNDING_BOX, request("client", "1.2.3.4", null)));
+        Assertions.assertThrows(CompletionException.class, () -> fetch(instrumentation, "geofencingZones", BOUNDING_BOX, request("client", "1.2.3.4", null)));
+    }
+
+    private QueryCostInstrumentation instrumentation(double clientBudget) {
+        return new QueryCostInstrumentation(vehicleSpatialIndex, mock(StationSpatialIndex.class), geofencingZonesService, Runnable::run, 100, clientBudget, 0, List.of(PROXY));
+    }
+
+    private Map<String, Object> fetch(QueryCostInstrumentation instrumentation, Map<String, Object> arguments, MockHttpServletRequest request) {
+        return fetch(instrumentation, "vehicles", arguments, request);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> fetch(QueryCostInstrumentation instrumentation, String field, Map<String, Object> arguments, MockHttpServletRequest request) {
+        var context = mock(GraphQLServletContext.class);
+        when(context.getHttpServletRequest()).thenReturn(request);
+        var environment = DataFetchingEnvironmentImpl.newDataFetchingEnvironment()
+                .arguments(arguments)
+                .context(context)
+                .fieldDefinition(GraphQLFieldDefinition.newFieldDefinition().name(field).type(Scalars.GraphQLString).build())
+                .executionStepInfo(ExecutionStepInfo.newExecutionStepInfo().type(Scalars.GraphQLString).path(ResultPath.rootPath().segment(field)).build())
+                .build();
+        var parameters = mock(InstrumentationFieldFetchParameters.class);
+        when(parameters.getEnvironment()).thenReturn(environment);
+
+        try {
+            var result = instrumentation.instrumentDataFetcher(dataFetcher, parameters).get(environment);
+            return ((CompletableFuture<Map<String, Object>>) result).join();
+        } catch (CompletionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, Object> with(Map<String, Object> arguments, String name, Object value) {
+        var result = new HashMap<>(arguments);
+        result.put(name, value);
+        return result;
+    }
+
+    private static MockHttpServletRequest request(String clientName, String remoteAddress, String forwardedFor) {
+        var request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddress);
+        if (clientName != null) {
+            request.addHeader(QueryCostInstrumentation.CLIENT_NAME_HEADER, clientName);
+        }
+        if (forwardedFor != null) {
+            request.addHeader(QueryCostInstrumentation.FORWARDED_FOR_HEADER, forwardedFor);
+        }
+        return request;
+    }
+}
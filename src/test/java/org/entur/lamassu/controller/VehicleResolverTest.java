@@ -0,0 +1,81 @@
+package org.entur.lamassu.controller;
+
+import graphql.GraphqlErrorException;
+import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.PropulsionType;
+import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.model.entities.VehicleType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VehicleResolverTest {
+    private final VehicleResolver resolver = new VehicleResolver();
+    private final DataFetchingEnvironment environment = mock(DataFetchingEnvironment.class);
+
+    @Test
+    void testResolvesCachedVehicleType() {
+        var vehicleType = new VehicleType();
+        vehicleType.setId("TST:VehicleType:Scooter");
+        givenLoaded(EntityDataLoaders.VEHICLE_TYPES, "TST:VehicleType:Scooter_testsystem", vehicleType);
+
+        Assertions.assertSame(vehicleType, resolver.getVehicleType(vehicle(), environment).join());
+    }
+
+    @Test
+    void testMissingVehicleTypeIsMadeFromVehicle() {
+        givenLoaded(EntityDataLoaders.VEHICLE_TYPES, "TST:VehicleType:Scooter_testsystem", null);
+
+        var vehicleType = resolver.getVehicleType(vehicle(), environment).join();
+
+        Assertions.assertEquals("TST:VehicleType:Scooter", vehicleType.getId());
+        Assertions.assertEquals(FormFactor.SCOOTER, vehicleType.getFormFactor());
+        Assertions.assertEquals(PropulsionType.ELECTRIC, vehicleType.getPropulsionType());
+    }
+
+    @Test
+    void testMissingPricingPlanFailsWithError() {
+        givenLoaded(EntityDataLoaders.PRICING_PLANS, "TST:PricingPlan:Basic_testsystem", null);
+
+        var result = resolver.getPricingPlan(vehicle(), environment);
+
+        var exception = Assertions.assertThrows(CompletionException.class, result::join);
+        Assertions.assertTrue(exception.getCause() instanceof GraphqlErrorException);
+        Assertions.assertTrue(exception.getCause().getMessage().contains("TST:PricingPlan:Basic"));
+    }
+
+    @Test
+    void testMissingSystemFailsWithError() {
+        givenLoaded(EntityDataLoaders.SYSTEMS, "testsystem", null);
+
+        var result = resolver.getSystem(vehicle(), environment);
+
+        var exception = Assertions.assertThrows(CompletionException.class, result::join);
+        Assertions.assertTrue(exception.getCause() instanceof GraphqlErrorException);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> void givenLoaded(String dataLoaderName, String key, V value) {
+        DataLoader<String, V> dataLoader = mock(DataLoader.class);
+        when(dataLoader.load(key)).thenReturn(CompletableFuture.completedFuture(value));
+        when(environment.<String, V>getDataLoader(dataLoaderName)).thenReturn(dataLoader);
+    }
+
+    private Vehicle vehicle() {
+        var vehicle = new Vehicle();
+        vehicle.setId("TST:Vehicle:1");
+        vehicle.setSystemId("testsystem");
+        vehicle.setVehicleTypeId("TST:VehicleType:Scooter");
+        vehicle.setFormFactor(FormFactor.SCOOTER);
+        vehicle.setPropulsionType(PropulsionType.ELECTRIC);
+        vehicle.setPricingPlanId("TST:PricingPlan:Basic");
+        return vehicle;
+    }
+}
@@ -5,9 +5,14 @@ import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @AutoConfigureMockMvc
@@ -26,7 +31,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testGBFS() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/gbfs")
+        performAsync(get("/gbfs/testatlantis/gbfs")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.last_updated").value(1606727710));
@@ -34,7 +39,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test @Ignore("gbfs_versions intentionally not mapped")
     public void testGBFSVersions() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/gbfs_versions")
+        performAsync(get("/gbfs/testatlantis/gbfs_versions")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.versions[0].version").value("2.1"));
@@ -42,7 +47,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testSystemInformation() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/system_information")
+        performAsync(get("/gbfs/testatlantis/system_information")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.system_id").value("testatlantis"));
@@ -50,7 +55,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testVehicleTypes() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/vehicle_types")
+        performAsync(get("/gbfs/testatlantis/vehicle_types")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.vehicle_types[0].vehicle_type_id").value("TST:VehicleType:Scooter"));
@@ -58,7 +63,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testFreeBikeStatus() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/free_bike_status")
+        performAsync(get("/gbfs/testatlantis/free_bike_status")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.bikes[0].bike_id").value("TST:Vehicle:1234"))
@@ -68,7 +73,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testSystemRegions() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/system_regions")
+        performAsync(get("/gbfs/testatlantis/system_regions")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.regions[0].region_id").value("TST:Region:Sahara"));
@@ -76,7 +81,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testSystemPricingPlans() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/system_pricing_plans")
+        performAsync(get("/gbfs/testatlantis/system_pricing_plans")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.plans[0].plan_id").value("TST:PricingPlan:Basic"));
@@ -84,7 +89,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testStationInformation() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/station_information")
+        performAsync(get("/gbfs/testatlantis/station_information")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.stations[0].station_id").value("TST:Station:1"));
@@ -92,7 +97,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testStationStatus() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/station_status")
+        performAsync(get("/gbfs/testatlantis/station_status")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.stations[1].station_id").value("TST:Station:2"));
@@ -100,7 +105,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testSystemHours() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/system_hours")
+        performAsync(get("/gbfs/testatlantis/system_hours")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.rental_hours[0].user_types[0]").value("member"));
@@ -108,7 +113,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testSystemCalendar() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/system_calendar")
+        performAsync(get("/gbfs/testatlantis/system_calendar")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.calendars[0].start_month").value(1));
@@ -116,7 +121,7 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testSystemAlerts() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/system_alerts")
+        performAsync(get("/gbfs/testatlantis/system_alerts")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.alerts[0].alert_id").value("TST:Alert:1"))
@@ -126,12 +131,36 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
 
     @Test
     public void testGeofencingZones() throws Exception {
-        mockMvc.perform(get("/gbfs/testatlantis/geofencing_zones")
+        performAsync(get("/gbfs/testatlantis/geofencing_zones")
                 .contentType("application/json"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.geofencing_zones.features[0].properties.name").value("Nes"));
     }
 
+    @Test
+    public void testUnchangedFeedResponds304() throws Exception {
+        var eTag = performAsync(get("/gbfs/testatlantis/system_information")
+                .contentType("application/json"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        performAsync(get("/gbfs/testatlantis/system_information")
+                .contentType("application/json")
+                .header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void testGzipEncodedFeed() throws Exception {
+        performAsync(get("/gbfs/testatlantis/free_bike_status")
+                .contentType("application/json")
+                .header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept-Encoding"));
+    }
+
     @Test
     public void testUnknownProviderResponds404() throws Exception {
             mockMvc.perform(get("/gbfs/foobar/gbfs")
@@ -152,4 +181,11 @@ public class GBFSRestIntegrationTest extends AbstractIntegrationTestBase {
                 .contentType("application/json"))
                 .andExpect(status().isBadRequest());
     }
+
+    private ResultActions performAsync(MockHttpServletRequestBuilder requestBuilder) throws Exception {
+        var result = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
 }
@@ -32,6 +32,14 @@ public class GraphQLIntegrationTest extends AbstractIntegrationTestBase {
         assertTrue(response.get("$.data.vehicles", List.class).isEmpty());
     }
 
+    @Test
+    public void testVehiclesMapMarkerQuery() throws IOException {
+        GraphQLResponse response = graphQLTestTemplate.postForResource("vehicles_map_marker_query.graphql");
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("TST:Vehicle:1234", response.get("$.data.vehicles[0].id"));
+        assertEquals("SCOOTER", response.get("$.data.vehicles[0].vehicleType.formFactor"));
+    }
+
     @Test
     public void testStationsQuery() throws IOException {
         GraphQLResponse response = graphQLTestTemplate.postForResource("stations_query.graphql");
@@ -11,10 +11,11 @@ public class LeaderSingletonServiceTest {
     FeedUpdater mockedFeedUpdater = mock(FeedUpdater.class);
     ListenerManager mockedListenerManager = mock(ListenerManager.class);
     GeoSearchService mockedGeoSearchService = mock(GeoSearchService.class);
+    VehicleOrphanRemover mockedVehicleOrphanRemover = mock(VehicleOrphanRemover.class);
 
     @Test
     public void testStartsScheduling() {
-        var service = new LeaderSingletonService(mockedFeedUpdater, mockedListenerManager, mockedGeoSearchService);
+        var service = new LeaderSingletonService(mockedFeedUpdater, mockedListenerManager, mockedGeoSearchService, mockedVehicleOrphanRemover);
         service.init();
         verify(mockedFeedUpdater).start();
     }
@@ -0,0 +1,97 @@
+package org.entur.lamassu.leader;
+
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.cache.VehicleCache;
+import org.entur.lamassu.cache.VehicleExpiryIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.provider.FeedProvider;
+import org.entur.lamassu.service.FeedProviderService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.redisson.api.GeoPosition;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.when;
+
+class VehicleOrphanRemoverTest {
+    FeedProviderService mockFeedProviderService = Mockito.mock(FeedProviderService.class);
+    VehicleExpiryIndex mockExpiryIndex = Mockito.mock(VehicleExpiryIndex.class);
+    VehicleCache mockVehicleCache = Mockito.mock(VehicleCache.class);
+    VehicleSpatialIndex mockSpatialIndex = Mockito.mock(VehicleSpatialIndex.class);
+    LayerUpdateCache mockLayerUpdateCache = Mockito.mock(LayerUpdateCache.class);
+
+    @Test
+    void testRemovesOnlyExpiredCandidatesMissingFromCache() {
+        var feedProvider = new FeedProvider();
+        feedProvider.setSystemId("bar");
+        var expired = spatialIndexId("expired");
+        var refreshed = spatialIndexId("refreshed");
+
+        when(mockFeedProviderService.getFeedProviders()).thenReturn(List.of(feedProvider));
+        when(mockExpiryIndex.getExpired(eq("bar"), anyLong(), anyInt())).thenReturn(List.of(expired, refreshed));
+        when(mockVehicleCache.getExistingKeys(Set.of("expired_bar", "refreshed_bar"))).thenReturn(Set.of("refreshed_bar"));
+        when(mockSpatialIndex.getPositions(Set.of(expired))).thenReturn(Map.of(expired, new GeoPosition(10.75, 59.91)));
+
+        var subject = new VehicleOrphanRemover(mockFeedProviderService, mockExpiryIndex, mockVehicleCache, mockSpatialIndex, mockLayerUpdateCache);
+        var removed = subject.removeExpiredOrphans();
+
+        Assertions.assertEquals(Set.of(expired), removed);
+        Mockito.verify(mockSpatialIndex).removeAll(Set.of(expired));
+        Mockito.verify(mockExpiryIndex).removeAll("bar", Set.of(expired));
+        Mockito.verify(mockLayerUpdateCache).updateWithin(
+                eq(LayerUpdateCache.VEHICLES),
+                eq("bar"),
+                argThat(area -> area.contains(59.91, 10.75))
+        );
+    }
+
+    @Test
+    void testReschedulesCandidatesStillCached() {
+        var feedProvider = new FeedProvider();
+        feedProvider.setSystemId("bar");
+        var refreshed = spatialIndexId("refreshed");
+
+        when(mockFeedProviderService.getFeedProviders()).thenReturn(List.of(feedProvider));
+        when(mockExpiryIndex.getExpired(eq("bar"), anyLong(), anyInt())).thenReturn(List.of(refreshed));
+        when(mockVehicleCache.getExistingKeys(Set.of("refreshed_bar"))).thenReturn(Set.of("refreshed_bar"));
+
+        var before = Instant.now().getEpochSecond();
+        var subject = new VehicleOrphanRemover(mockFeedProviderService, mockExpiryIndex, mockVehicleCache, mockSpatialIndex, mockLayerUpdateCache);
+
+        Assertions.assertTrue(subject.removeExpiredOrphans().isEmpty());
+        Mockito.verify(mockExpiryIndex).addAll(eq("bar"), eq(Set.of(refreshed)), longThat(expiresAt -> expiresAt > before));
+        Mockito.verifyNoInteractions(mockSpatialIndex, mockLayerUpdateCache);
+    }
+
+    @Test
+    void testDoesNothingWithoutCandidates() {
+        var feedProvider = new FeedProvider();
+        feedProvider.setSystemId("bar");
+
+        when(mockFeedProviderService.getFeedProviders()).thenReturn(List.of(feedProvider));
+        when(mockExpiryIndex.getExpired(eq("bar"), anyLong(), anyInt())).thenReturn(List.of());
+
+        var subject = new VehicleOrphanRemover(mockFeedProviderService, mockExpiryIndex, mockVehicleCache, mockSpatialIndex, mockLayerUpdateCache);
+
+        Assertions.assertTrue(subject.removeExpiredOrphans().isEmpty());
+        Mockito.verifyNoMoreInteractions(mockVehicleCache, mockSpatialIndex, mockLayerUpdateCache);
+    }
+
+    private VehicleSpatialIndexId spatialIndexId(String id) {
+        var spatialIndexId = new VehicleSpatialIndexId();
+        spatialIndexId.setId(id);
+        spatialIndexId.setSystemId("bar");
+        return spatialIndexId;
+    }
+}
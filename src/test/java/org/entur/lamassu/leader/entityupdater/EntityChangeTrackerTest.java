@@ -0,0 +1,94 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.leader.entityupdater;
+
+import org.entur.lamassu.model.entities.Vehicle;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+class EntityChangeTrackerTest {
+    private final AtomicLong clock = new AtomicLong(0);
+    private final EntityChangeTracker<Vehicle> subject = new EntityChangeTracker<>(clock::get);
+
+    @Test
+    void testNewEntitiesAreChanged() {
+        var changes = subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        Assertions.assertTrue(changes.getChanged().containsKey("a"));
+        Assertions.assertTrue(changes.getRefreshed().isEmpty());
+    }
+
+    @Test
+    void testUnchangedEntitiesAreSkipped() {
+        subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0), "b", vehicle("b", 1.0)), v -> v, 1000);
+        clock.set(500);
+        var changes = subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0), "b", vehicle("b", 2.0)), v -> v, 1000);
+        Assertions.assertEquals(1, changes.getChanged().size());
+        Assertions.assertTrue(changes.getChanged().containsKey("b"));
+        Assertions.assertTrue(changes.getRefreshed().isEmpty());
+    }
+
+    @Test
+    void testUnchangedEntitiesAreRefreshed() {
+        subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        clock.set(1000);
+        var changes = subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        Assertions.assertTrue(changes.getChanged().isEmpty());
+        Assertions.assertTrue(changes.getRefreshed().containsKey("a"));
+
+        clock.set(1500);
+        changes = subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        Assertions.assertTrue(changes.getRefreshed().isEmpty());
+    }
+
+    @Test
+    void testEntitiesMissingFromDeliveryAreForgotten() {
+        subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        subject.detectChanges("sys", Map.of(), v -> v, 1000);
+        var changes = subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        Assertions.assertTrue(changes.getChanged().containsKey("a"));
+    }
+
+    @Test
+    void testSystemsAreTrackedSeparately() {
+        subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        var changes = subject.detectChanges("other", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        Assertions.assertTrue(changes.getChanged().containsKey("a"));
+    }
+
+    @Test
+    void testReset() {
+        subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        subject.reset("sys");
+        var changes = subject.detectChanges("sys", Map.of("a", vehicle("a", 1.0)), v -> v, 1000);
+        Assertions.assertTrue(changes.getChanged().containsKey("a"));
+    }
+
+    private Vehicle vehicle(String id, double lat) {
+        var vehicle = new Vehicle();
+        vehicle.setId(id);
+        vehicle.setLat(lat);
+        vehicle.setLon(10.0);
+        vehicle.setReserved(false);
+        vehicle.setDisabled(false);
+        return vehicle;
+    }
+}
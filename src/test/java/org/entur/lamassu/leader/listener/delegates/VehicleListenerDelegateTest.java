@@ -18,25 +18,29 @@
 
 package org.entur.lamassu.leader.listener.delegates;
 
+import org.entur.lamassu.cache.LayerUpdateCache;
 import org.entur.lamassu.cache.VehicleSpatialIndex;
 import org.entur.lamassu.model.entities.FormFactor;
 import org.entur.lamassu.model.entities.PropulsionType;
 import org.entur.lamassu.model.entities.Vehicle;
-import org.entur.lamassu.model.entities.VehicleType;
 import org.entur.lamassu.model.provider.FeedProvider;
 import org.entur.lamassu.service.FeedProviderService;
 import org.entur.lamassu.util.SpatialIndexIdUtil;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.redisson.api.map.event.EntryEvent;
 
 import java.util.Set;
 
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 class VehicleListenerDelegateTest {
     VehicleSpatialIndex mockIndex = Mockito.mock(VehicleSpatialIndex.class);
     FeedProviderService mockFeedProviderService = Mockito.mock(FeedProviderService.class);
+    LayerUpdateCache mockLayerUpdateCache = Mockito.mock(LayerUpdateCache.class);
 
 
     @Test
@@ -48,21 +52,29 @@ class VehicleListenerDelegateTest {
 
         EntryEvent<String, Vehicle> event = new EntryEvent<>(null, EntryEvent.Type.EXPIRED, "foo_bar", vehicle, null);
 
-        var subject = new VehicleListenerDelegate(mockFeedProviderService, mockIndex);
+        var subject = new VehicleListenerDelegate(mockFeedProviderService, mockIndex, mockLayerUpdateCache);
         subject.onExpired(event);
 
         var expectedId = SpatialIndexIdUtil.createVehicleSpatialIndexId(vehicle, feedProvider);
+        Assertions.assertEquals(FormFactor.SCOOTER, expectedId.getFormFactor());
         Mockito.verify(mockIndex).removeAll(Set.of(expectedId));
+        Mockito.verify(mockLayerUpdateCache).updateWithin(
+                eq(LayerUpdateCache.VEHICLES),
+                eq("bar"),
+                argThat(area -> area.contains(vehicle.getLat(), vehicle.getLon()))
+        );
 
     }
 
     private Vehicle getVehicle() {
         var vehicle = new Vehicle();
         vehicle.setId("foo");
-        var vehicleType = new VehicleType();
-        vehicleType.setFormFactor(FormFactor.SCOOTER);
-        vehicleType.setPropulsionType(PropulsionType.ELECTRIC);
-        vehicle.setVehicleType(vehicleType);
+        vehicle.setVehicleTypeId("baz");
+        vehicle.setFormFactor(FormFactor.SCOOTER);
+        vehicle.setPropulsionType(PropulsionType.ELECTRIC);
+        vehicle.setSystemId("bar");
+        vehicle.setLat(59.91);
+        vehicle.setLon(10.75);
         vehicle.setReserved(false);
         vehicle.setDisabled(false);
         return vehicle;
@@ -0,0 +1,75 @@
+package org.entur.lamassu.service.impl;
+
+import org.entur.lamassu.model.entities.Vehicle;
+import org.entur.lamassu.service.GeoSearchService;
+import org.entur.lamassu.service.RangeQueryParameters;
+import org.entur.lamassu.service.VehicleFilterParameters;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CoalescingGeoSearchServiceTest {
+
+    private final GeoSearchService delegate = mock(GeoSearchService.class);
+
+    @Test
+    void testNearlyIdenticalQueriesShareOneSearch() {
+        var pending = new CompletableFuture<List<Vehicle>>();
+        when(delegate.getVehiclesNearby(any(), any(), anyBoolean())).thenReturn(pending);
+        var service = new CoalescingGeoSearchService(delegate, 0.001, 10, 1000, 30000);
+
+        var first = service.getVehiclesNearby(query(59.91121, 10.75012, 200.0), filter(), false);
+        var second = service.getVehiclesNearby(query(59.91138, 10.74987, 195.0), filter(), false);
+
+        Assertions.assertSame(first, second);
+        verify(delegate, times(1)).getVehiclesNearby(any(), any(), anyBoolean());
+    }
+
+    @Test
+    void testDifferentQueriesAreNotShared() {
+        when(delegate.getVehiclesNearby(any(), any(), anyBoolean())).thenReturn(CompletableFuture.completedFuture(List.of()));
+        var service = new CoalescingGeoSearchService(delegate, 0.001, 10, 1000, 30000);
+
+        service.getVehiclesNearby(query(59.91121, 10.75012, 200.0), filter(), false);
+        service.getVehiclesNearby(query(59.92121, 10.75012, 200.0), filter(), false);
+
+        verify(delegate, times(2)).getVehiclesNearby(any(), any(), anyBoolean());
+    }
+
+    @Test
+    void testFailedSearchIsNotShared() {
+        when(delegate.getVehiclesNearby(any(), any(), anyBoolean()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException()))
+                .thenReturn(CompletableFuture.completedFuture(List.of()));
+        var service = new CoalescingGeoSearchService(delegate, 0.001, 10, 1000, 30000);
+
+        service.getVehiclesNearby(query(59.91121, 10.75012, 200.0), filter(), false);
+        var retried = service.getVehiclesNearby(query(59.91121, 10.75012, 200.0), filter(), false);
+
+        Assertions.assertEquals(List.of(), retried.join());
+        verify(delegate, times(2)).getVehiclesNearby(any(), any(), anyBoolean());
+    }
+
+    private RangeQueryParameters query(double lat, double lon, double range) {
+        var query = new RangeQueryParameters();
+        query.setLat(lat);
+        query.setLon(lon);
+        query.setRange(range);
+        return query;
+    }
+
+    private VehicleFilterParameters filter() {
+        var filter = new VehicleFilterParameters();
+        filter.setSystems(List.of("testatlantis"));
+        return filter;
+    }
+}
@@ -0,0 +1,105 @@
+package org.entur.lamassu.service.impl;
+
+import org.entur.lamassu.cache.SpatialIndexCell;
+import org.entur.lamassu.cache.StationCache;
+import org.entur.lamassu.cache.StationSpatialIndex;
+import org.entur.lamassu.cache.VehicleCache;
+import org.entur.lamassu.cache.VehicleSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.FormFactorCount;
+import org.entur.lamassu.model.entities.VehicleCluster;
+import org.entur.lamassu.service.BoundingBoxQueryParameters;
+import org.entur.lamassu.util.WebMercatorUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.GeoPosition;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GeoSearchServiceImplTest {
+    private static final int ZOOM = 12;
+
+    // Clusters are cells of the tile grid two zoom levels down
+    private static final int GRID_ZOOM = ZOOM + 2;
+
+    private final VehicleSpatialIndex vehicleSpatialIndex = mock(VehicleSpatialIndex.class);
+    private final GeoSearchServiceImpl service = new GeoSearchServiceImpl(
+            vehicleSpatialIndex,
+            mock(StationSpatialIndex.class),
+            mock(VehicleCache.class),
+            mock(StationCache.class)
+    );
+
+    @Test
+    void testMergesCellsOfEachGridCellAndCountsFormFactors() {
+        var cellX = (int) WebMercatorUtil.lonToTileX(10.75, GRID_ZOOM);
+        var cellY = (int) WebMercatorUtil.latToTileY(59.91, GRID_ZOOM);
+
+        var scooters = cell(cellX, cellY, 3, position(cellX + 0.25, cellY + 0.25), FormFactor.SCOOTER);
+        var bicycles = cell(cellX, cellY, 1, position(cellX + 0.75, cellY + 0.75), FormFactor.BICYCLE);
+        var unknown = cell(cellX, cellY, 1, position(cellX + 0.5, cellY + 0.5), null);
+        var single = cell(cellX + 3, cellY, 1, position(cellX + 3.5, cellY + 0.5), FormFactor.SCOOTER);
+        when(vehicleSpatialIndex.cellsAsync(any(), isNull(), eq(GRID_ZOOM)))
+                .thenReturn(CompletableFuture.completedFuture(List.of(scooters, single, bicycles, unknown)));
+
+        var clusters = service.getVehicleClusters(boundingBox(), ZOOM, null).join();
+        clusters.sort(Comparator.comparingDouble(VehicleCluster::getLon));
+
+        Assertions.assertEquals(2, clusters.size());
+
+        var cluster = clusters.get(0);
+        Assertions.assertEquals(5, cluster.getCount());
+        Assertions.assertEquals(Map.of(FormFactor.SCOOTER, 3, FormFactor.BICYCLE, 1), formFactorCounts(cluster));
+        Assertions.assertEquals((3 * scooters.getLatitude() + bicycles.getLatitude() + unknown.getLatitude()) / 5, cluster.getLat(), 1e-9);
+        Assertions.assertEquals((3 * scooters.getLongitude() + bicycles.getLongitude() + unknown.getLongitude()) / 5, cluster.getLon(), 1e-9);
+
+        var singleCluster = clusters.get(1);
+        Assertions.assertEquals(1, singleCluster.getCount());
+        Assertions.assertEquals(Map.of(FormFactor.SCOOTER, 1), formFactorCounts(singleCluster));
+        Assertions.assertEquals(single.getLongitude(), singleCluster.getLon(), 1e-9);
+    }
+
+    @Test
+    void testNoVehiclesGiveNoClusters() {
+        when(vehicleSpatialIndex.cellsAsync(any(), isNull(), eq(GRID_ZOOM))).thenReturn(CompletableFuture.completedFuture(List.of()));
+
+        Assertions.assertTrue(service.getVehicleClusters(boundingBox(), ZOOM, null).join().isEmpty());
+    }
+
+    private static Map<FormFactor, Integer> formFactorCounts(VehicleCluster cluster) {
+        return cluster.getFormFactors().stream()
+                .collect(Collectors.toMap(FormFactorCount::getFormFactor, FormFactorCount::getCount));
+    }
+
+    private static SpatialIndexCell<VehicleSpatialIndexId> cell(int x, int y, int count, GeoPosition position, FormFactor formFactor) {
+        var id = new VehicleSpatialIndexId();
+        id.setId("TST:Vehicle:" + x + "-" + formFactor);
+        id.setSystemId("testsystem");
+        id.setFormFactor(formFactor);
+        return new SpatialIndexCell<>(x, y, count, position.getLatitude(), position.getLongitude(), id);
+    }
+
+    private static GeoPosition position(double x, double y) {
+        return new GeoPosition(WebMercatorUtil.tileXToLon(x, GRID_ZOOM), WebMercatorUtil.tileYToLat(y, GRID_ZOOM));
+    }
+
+    private static BoundingBoxQueryParameters boundingBox() {
+        var parameters = new BoundingBoxQueryParameters();
+        parameters.setMinLat(59.8);
+        parameters.setMinLon(10.6);
+        parameters.setMaxLat(60.0);
+        parameters.setMaxLon(11.0);
+        return parameters;
+    }
+}
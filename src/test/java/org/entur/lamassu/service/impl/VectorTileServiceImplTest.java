@@ -0,0 +1,142 @@
+package org.entur.lamassu.service.impl;
+
+import org.entur.lamassu.cache.LayerUpdate;
+import org.entur.lamassu.cache.LayerUpdateCache;
+import org.entur.lamassu.cache.StationSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndex;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.GeofencingZones;
+import org.entur.lamassu.model.entities.MultiPolygon;
+import org.entur.lamassu.service.GeofencingZonesService;
+import org.entur.lamassu.util.BoundingBox;
+import org.entur.lamassu.util.WebMercatorUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.redisson.api.GeoPosition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class VectorTileServiceImplTest {
+    private static final int Z = 14;
+    private static final int X = (int) WebMercatorUtil.lonToTileX(10.75, Z);
+    private static final int Y = (int) WebMercatorUtil.latToTileY(59.91, Z);
+    private static final BoundingBox TILE = WebMercatorUtil.getTileBoundingBox(Z, X, Y);
+    private static final BoundingBox EXTENT = new BoundingBox(59.8, 10.6, 60.0, 11.0);
+
+    private final VehicleSpatialIndex vehicleSpatialIndex = mock(VehicleSpatialIndex.class);
+    private final GeofencingZonesService geofencingZonesService = mock(GeofencingZonesService.class);
+    private final LayerUpdateCache layerUpdateCache = mock(LayerUpdateCache.class);
+    private final VectorTileServiceImpl service = new VectorTileServiceImpl(
+            vehicleSpatialIndex,
+            mock(StationSpatialIndex.class),
+            geofencingZonesService,
+            layerUpdateCache,
+            Runnable::run
+    );
+
+    @Test
+    void testTilesAreEncodedOncePerUpdate() {
+        when(layerUpdateCache.getAll(LayerUpdateCache.VEHICLES)).thenReturn(Map.of("testsystem", new LayerUpdate(1, EXTENT)));
+        when(vehicleSpatialIndex.boxWithPositionsAsync(any(), isNull(), isNull())).thenReturn(CompletableFuture.completedFuture(Map.of(
+                vehicleId("TST:Vehicle:1"), center(TILE)
+        )));
+
+        var tile = service.getTile(LayerUpdateCache.VEHICLES, Z, X, Y).join();
+        Assertions.assertTrue(contains(tile.getData(), "TST:Vehicle:1"));
+        Assertions.assertSame(tile, service.getTile(LayerUpdateCache.VEHICLES, Z, X, Y).join());
+        verify(vehicleSpatialIndex, times(1)).boxWithPositionsAsync(any(), isNull(), isNull());
+
+        when(layerUpdateCache.getAll(LayerUpdateCache.VEHICLES)).thenReturn(Map.of("testsystem", new LayerUpdate(2, EXTENT)));
+        var updated = service.getTile(LayerUpdateCache.VEHICLES, Z, X, Y).join();
+        Assertions.assertNotEquals(tile.getETag(), updated.getETag());
+        verify(vehicleSpatialIndex, times(2)).boxWithPositionsAsync(any(), isNull(), isNull());
+    }
+
+    @Test
+    void testFailedTilesAreEncodedAgain() {
+        when(layerUpdateCache.getAll(LayerUpdateCache.VEHICLES)).thenReturn(Map.of());
+        when(vehicleSpatialIndex.boxWithPositionsAsync(any(), isNull(), isNull()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException()))
+                .thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        Assertions.assertThrows(CompletionException.class, () -> service.getTile(LayerUpdateCache.VEHICLES, Z, X, Y).join());
+        Assertions.assertNotNull(service.getTile(LayerUpdateCache.VEHICLES, Z, X, Y).join());
+    }
+
+    @Test
+    void testPointsAreLeftOutWhenZoomedOut() {
+        when(layerUpdateCache.getAll(LayerUpdateCache.VEHICLES)).thenReturn(Map.of("testsystem", new LayerUpdate(1, EXTENT)));
+
+        Assertions.assertNotNull(service.getTile(LayerUpdateCache.VEHICLES, 8, 135, 74).join());
+        verifyNoInteractions(vehicleSpatialIndex);
+    }
+
+    @Test
+    void testGeofencingZonesAreReadForTheTileAtItsResolution() {
+        when(layerUpdateCache.getAll(LayerUpdateCache.GEOFENCING_ZONES)).thenReturn(Map.of("testsystem", new LayerUpdate(1, EXTENT)));
+        when(geofencingZonesService.getGeofencingZones(isNull(), any(), anyDouble())).thenReturn(List.of(geofencingZones("Test zone")));
+
+        var tile = service.getTile(LayerUpdateCache.GEOFENCING_ZONES, Z, X, Y).join();
+        Assertions.assertTrue(contains(tile.getData(), "Test zone"));
+
+        var boundingBox = ArgumentCaptor.forClass(BoundingBox.class);
+        var tolerance = ArgumentCaptor.forClass(Double.class);
+        verify(geofencingZonesService).getGeofencingZones(isNull(), boundingBox.capture(), tolerance.capture());
+        Assertions.assertEquals(1, TILE.overlap(boundingBox.getValue()), 1e-9);
+        Assertions.assertTrue(boundingBox.getValue().getMaxLat() - boundingBox.getValue().getMinLat() < 2 * (TILE.getMaxLat() - TILE.getMinLat()));
+        // A pixel of a 256 pixel tile at zoom 14 is 9.5 meters at the equator, and half that at 60 degrees north
+        Assertions.assertEquals(4.8, tolerance.getValue(), 0.1);
+    }
+
+    private static VehicleSpatialIndexId vehicleId(String id) {
+        var vehicleId = new VehicleSpatialIndexId();
+        vehicleId.setId(id);
+        vehicleId.setSystemId("testsystem");
+        vehicleId.setFormFactor(FormFactor.SCOOTER);
+        return vehicleId;
+    }
+
+    private static GeofencingZones geofencingZones(String name) {
+        var geometry = new MultiPolygon();
+        geometry.setCoordinates(List.of(List.of(List.of(
+                List.of(TILE.getMinLon(), TILE.getMinLat()),
+                List.of(TILE.getMaxLon(), TILE.getMinLat()),
+                List.of(TILE.getMaxLon(), TILE.getMaxLat()),
+                List.of(TILE.getMinLon(), TILE.getMinLat())
+        ))));
+        var properties = new GeofencingZones.Properties();
+        properties.setName(name);
+        var feature = new GeofencingZones.Feature();
+        feature.setGeometry(geometry);
+        feature.setProperties(properties);
+        var featureCollection = new GeofencingZones.FeatureCollection();
+        featureCollection.setFeatures(List.of(feature));
+        var geofencingZones = new GeofencingZones();
+        geofencingZones.setSystemId("testsystem");
+        geofencingZones.setGeojson(featureCollection);
+        return geofencingZones;
+    }
+
+    private static GeoPosition center(BoundingBox boundingBox) {
+        return new GeoPosition((boundingBox.getMinLon() + boundingBox.getMaxLon()) / 2, (boundingBox.getMinLat() + boundingBox.getMaxLat()) / 2);
+    }
+
+    private static boolean contains(byte[] data, String text) {
+        return new String(data, StandardCharsets.ISO_8859_1).contains(text);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.model.entities.Vehicle;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class BoundingBoxTest {
+
+    @Test
+    void testOfCircleContainsCircle() {
+        var boundingBox = BoundingBox.ofCircle(59.91, 10.75, 1000);
+        Assertions.assertTrue(boundingBox.contains(59.91 + GeoUtil.metersToLatitudeDegrees(999), 10.75));
+        Assertions.assertTrue(boundingBox.contains(59.91, 10.75 - GeoUtil.metersToLongitudeDegrees(999, 59.91)));
+        Assertions.assertFalse(boundingBox.contains(59.91 + GeoUtil.metersToLatitudeDegrees(1100), 10.75));
+    }
+
+    @Test
+    void testOfCircleAcrossAntimeridian() {
+        var boundingBox = BoundingBox.ofCircle(0, 179.999, 1000);
+        Assertions.assertEquals(-180, boundingBox.getMinLon());
+        Assertions.assertEquals(180, boundingBox.getMaxLon());
+    }
+
+    @Test
+    void testOfEntities() {
+        Assertions.assertNull(BoundingBox.ofEntities(List.of()));
+
+        var boundingBox = BoundingBox.ofEntities(List.of(vehicle(59.9, 10.7), vehicle(60.0, 10.6), vehicle(null, null)));
+        Assertions.assertEquals(59.9, boundingBox.getMinLat());
+        Assertions.assertEquals(10.6, boundingBox.getMinLon());
+        Assertions.assertEquals(60.0, boundingBox.getMaxLat());
+        Assertions.assertEquals(10.7, boundingBox.getMaxLon());
+    }
+
+    @Test
+    void testOverlap() {
+        var boundingBox = new BoundingBox(59.0, 10.0, 60.0, 11.0);
+        Assertions.assertEquals(1.0, boundingBox.overlap(new BoundingBox(58.0, 9.0, 61.0, 12.0)), 1e-9);
+        Assertions.assertEquals(0.25, boundingBox.overlap(new BoundingBox(59.5, 10.5, 61.0, 12.0)), 1e-9);
+        Assertions.assertEquals(0.0, boundingBox.overlap(new BoundingBox(60.1, 10.0, 61.0, 11.0)), 1e-9);
+        Assertions.assertEquals(1.0, new BoundingBox(59.5, 10.5, 59.5, 10.5).overlap(boundingBox), 1e-9);
+    }
+
+    @Test
+    void testIntersects() {
+        var boundingBox = new BoundingBox(59.0, 10.0, 60.0, 11.0);
+        Assertions.assertTrue(boundingBox.intersects(new BoundingBox(59.5, 10.5, 61.0, 12.0)));
+        Assertions.assertTrue(boundingBox.intersects(new BoundingBox(60.0, 11.0, 61.0, 12.0)));
+        Assertions.assertFalse(boundingBox.intersects(new BoundingBox(60.1, 10.0, 61.0, 11.0)));
+        Assertions.assertFalse(boundingBox.intersects(new BoundingBox(59.0, 11.1, 60.0, 12.0)));
+    }
+
+    private Vehicle vehicle(Double lat, Double lon) {
+        var vehicle = new Vehicle();
+        vehicle.setLat(lat);
+        vehicle.setLon(lon);
+        return vehicle;
+    }
+}
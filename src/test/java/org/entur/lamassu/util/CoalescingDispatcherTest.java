@@ -0,0 +1,90 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+class CoalescingDispatcherTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<String> consumed = new ArrayList<>();
+
+    @Test
+    void testKeepsOnlyLatestPendingValue() {
+        var dispatcher = new CoalescingDispatcher<String, Integer>(tasks::add, (key, value) -> consumed.add(key + value));
+
+        Assertions.assertTrue(dispatcher.dispatch("a", 1));
+        Assertions.assertFalse(dispatcher.dispatch("a", 2));
+        Assertions.assertFalse(dispatcher.dispatch("a", 3));
+        runTasks();
+
+        Assertions.assertEquals(List.of("a3"), consumed);
+    }
+
+    @Test
+    void testKeysAreIndependent() {
+        var dispatcher = new CoalescingDispatcher<String, Integer>(tasks::add, (key, value) -> consumed.add(key + value));
+
+        Assertions.assertTrue(dispatcher.dispatch("a", 1));
+        Assertions.assertTrue(dispatcher.dispatch("b", 1));
+        runTasks();
+
+        Assertions.assertEquals(List.of("a1", "b1"), consumed);
+    }
+
+    @Test
+    void testDispatchesAgainAfterValueIsTaken() {
+        var dispatcher = new CoalescingDispatcher<String, Integer>(tasks::add, (key, value) -> consumed.add(key + value));
+
+        dispatcher.dispatch("a", 1);
+        runTasks();
+        Assertions.assertTrue(dispatcher.dispatch("a", 2));
+        runTasks();
+
+        Assertions.assertEquals(List.of("a1", "a2"), consumed);
+    }
+
+    @Test
+    void testContinuesAfterFailedConsumer() {
+        var dispatcher = new CoalescingDispatcher<String, Integer>(tasks::add, (key, value) -> {
+            if (value == 1) {
+                throw new IllegalStateException();
+            }
+            consumed.add(key + value);
+        });
+
+        dispatcher.dispatch("a", 1);
+        runTasks();
+        dispatcher.dispatch("a", 2);
+        runTasks();
+
+        Assertions.assertEquals(List.of("a2"), consumed);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+    }
+}
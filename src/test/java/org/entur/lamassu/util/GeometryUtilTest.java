@@ -0,0 +1,95 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.model.entities.MultiPolygon;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class GeometryUtilTest {
+
+    @Test
+    void testClipRing() {
+        var ring = List.of(new double[] { -10, -10 }, new double[] { 20, -10 }, new double[] { 20, 20 }, new double[] { -10, 20 });
+
+        var clipped = GeometryUtil.clipRing(ring, 0, 10);
+
+        Assertions.assertEquals(4, clipped.size());
+        clipped.forEach(point -> {
+            Assertions.assertTrue(point[0] >= 0 && point[0] <= 10);
+            Assertions.assertTrue(point[1] >= 0 && point[1] <= 10);
+        });
+    }
+
+    @Test
+    void testClipRingOutsideBounds() {
+        var ring = List.of(new double[] { 20, 20 }, new double[] { 30, 20 }, new double[] { 30, 30 });
+
+        Assertions.assertTrue(GeometryUtil.clipRing(ring, 0, 10).isEmpty());
+    }
+
+    @Test
+    void testSimplifyMultiPolygonKeepsRingsClosed() {
+        var multiPolygon = new MultiPolygon();
+        multiPolygon.setCoordinates(List.of(List.of(
+                List.of(List.of(0.0, 0.0), List.of(5.0, 0.1), List.of(10.0, 0.0), List.of(10.0, 10.0), List.of(0.0, 10.0), List.of(0.0, 0.0)),
+                List.of(List.of(4.0, 4.0), List.of(4.1, 4.0), List.of(4.1, 4.1), List.of(4.0, 4.1), List.of(4.0, 4.0))
+        )));
+
+        var simplified = GeometryUtil.simplify(multiPolygon, 1);
+
+        var polygon = simplified.getCoordinates().get(0);
+        Assertions.assertEquals(1, polygon.size());
+        Assertions.assertEquals(5, polygon.get(0).size());
+        Assertions.assertEquals(polygon.get(0).get(0), polygon.get(0).get(4));
+    }
+
+    @Test
+    void testRingContains() {
+        var ring = new double[] { 0, 0, 10, 0, 10, 10, 0, 10, 0, 0 };
+
+        Assertions.assertTrue(GeometryUtil.ringContains(ring, 5, 5));
+        Assertions.assertFalse(GeometryUtil.ringContains(ring, 15, 5));
+        Assertions.assertFalse(GeometryUtil.ringContains(ring, 5, -1));
+    }
+
+    @Test
+    void testSimplifyRingRemovesPointsWithinTolerance() {
+        var ring = List.of(
+                new double[] { 0, 0 },
+                new double[] { 5, 0.1 },
+                new double[] { 10, 0 },
+                new double[] { 10, 10 },
+                new double[] { 0, 10 }
+        );
+
+        var simplified = GeometryUtil.simplifyRing(ring, 1);
+
+        Assertions.assertEquals(4, simplified.size());
+        Assertions.assertEquals(5, GeometryUtil.simplifyRing(ring, 0.01).size());
+    }
+
+    @Test
+    void testSignedArea() {
+        var clockwise = List.of(new int[] { 0, 0 }, new int[] { 10, 0 }, new int[] { 10, 10 }, new int[] { 0, 10 });
+        Assertions.assertEquals(200, GeometryUtil.signedArea2(clockwise));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class LocalCacheTest {
+
+    @Test
+    void testEvictsLeastRecentlyUsed() throws InterruptedException {
+        var cache = new LocalCache<Integer, String>(1, TimeUnit.MINUTES, 10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "value" + i);
+            Thread.sleep(1);
+        }
+        Assertions.assertEquals("value0", cache.get(0));
+
+        cache.put(10, "value10");
+
+        Assertions.assertEquals(10, cache.size());
+        Assertions.assertNull(cache.get(1));
+        Assertions.assertEquals("value0", cache.get(0));
+        Assertions.assertEquals("value10", cache.get(10));
+    }
+
+    @Test
+    void testEvictsExpiredBeforeUsed() throws InterruptedException {
+        var cache = new LocalCache<Integer, String>(200, TimeUnit.MILLISECONDS, 2);
+        cache.put(0, "value0");
+        Thread.sleep(250);
+        cache.put(1, "value1");
+
+        cache.put(2, "value2");
+
+        Assertions.assertEquals("value1", cache.get(1));
+        Assertions.assertEquals("value2", cache.get(2));
+    }
+
+    @Test
+    void testConcurrentLoadsOfAKeyShareOneLoad() throws Exception {
+        var cache = new LocalCache<Integer, String>(1, TimeUnit.MINUTES, 10);
+        var loads = new AtomicInteger();
+        var loading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        var first = CompletableFuture.supplyAsync(() -> cache.getOrLoad(1, key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "value1";
+        }));
+        loading.await();
+
+        // Other keys are not held up by the slow load
+        Assertions.assertEquals("value2", cache.getOrLoad(2, key -> "value2"));
+
+        var second = CompletableFuture.supplyAsync(() -> cache.getOrLoad(1, key -> {
+            loads.incrementAndGet();
+            return "other";
+        }));
+        release.countDown();
+
+        Assertions.assertEquals("value1", first.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("value1", second.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testInvalidatesOnlyGivenValue() {
+        var cache = new LocalCache<Integer, String>(1, TimeUnit.MINUTES, 10);
+        cache.put(1, "old");
+        var newer = "newer";
+        cache.put(1, newer);
+
+        cache.invalidate(1, "old");
+        Assertions.assertEquals("newer", cache.get(1));
+
+        cache.invalidate(1, newer);
+        Assertions.assertNull(cache.get(1));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
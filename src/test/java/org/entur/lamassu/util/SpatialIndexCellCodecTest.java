@@ -0,0 +1,67 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.cache.SpatialIndexCell;
+import org.entur.lamassu.cache.SpatialIndexPartition;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class SpatialIndexCellCodecTest {
+
+    @Test
+    void testRoundTrip() {
+        var id = new VehicleSpatialIndexId();
+        id.setId("TST:Vehicle:1");
+        id.setFormFactor(FormFactor.SCOOTER);
+        var partition = new SpatialIndexPartition();
+        partition.setSystemId("testsystem");
+
+        var value = SpatialIndexCellCodec.encode(SpatialIndexMemberCodec.encodeVehicle(id), List.of(
+                new SpatialIndexCell<>(34722, 19044, 3, 59.9, 10.7, id),
+                new SpatialIndexCell<>(34723, 19044, 1, 59.91, 10.76, id)
+        ));
+        var cells = SpatialIndexCellCodec.decode(value, member -> SpatialIndexMemberCodec.decodeVehicle(member, partition));
+
+        Assertions.assertEquals(2, cells.size());
+        Assertions.assertEquals(34722, cells.get(0).getX());
+        Assertions.assertEquals(19044, cells.get(0).getY());
+        Assertions.assertEquals(3, cells.get(0).getCount());
+        Assertions.assertEquals(59.9, cells.get(0).getLatitude());
+        Assertions.assertEquals(10.7, cells.get(0).getLongitude());
+        Assertions.assertEquals(34723, cells.get(1).getX());
+        Assertions.assertEquals("TST:Vehicle:1", cells.get(1).getId().getId());
+        Assertions.assertEquals(FormFactor.SCOOTER, cells.get(1).getId().getFormFactor());
+        Assertions.assertEquals("testsystem", cells.get(1).getId().getSystemId());
+    }
+
+    @Test
+    void testNoCells() {
+        var id = new VehicleSpatialIndexId();
+        id.setId("TST:Vehicle:1");
+
+        var value = SpatialIndexCellCodec.encode(SpatialIndexMemberCodec.encodeVehicle(id), List.of());
+
+        Assertions.assertTrue(SpatialIndexCellCodec.decode(value, member -> SpatialIndexMemberCodec.decodeVehicle(member, new SpatialIndexPartition())).isEmpty());
+    }
+}
@@ -195,7 +195,10 @@ public class SpatialIndexIdFilterTest {
         vehicle.setId("TST:Vehicle:abc123");
         vehicle.setReserved(false);
         vehicle.setDisabled(false);
-        vehicle.setVehicleType(scooterVehicle());
+        vehicle.setVehicleTypeId(scooterVehicle().getId());
+        vehicle.setFormFactor(scooterVehicle().getFormFactor());
+        vehicle.setPropulsionType(scooterVehicle().getPropulsionType());
+        vehicle.setSystemId(testProvider().getSystemId());
         return vehicle;
     }
 
@@ -0,0 +1,124 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.entur.lamassu.cache.SpatialIndexPartition;
+import org.entur.lamassu.cache.StationSpatialIndexId;
+import org.entur.lamassu.cache.VehicleSpatialIndexId;
+import org.entur.lamassu.model.entities.FormFactor;
+import org.entur.lamassu.model.entities.PropulsionType;
+import org.entur.lamassu.service.StationFilterParameters;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+class SpatialIndexMemberCodecTest {
+
+    @Test
+    void testVehicleRoundTrip() {
+        var id = new VehicleSpatialIndexId();
+        id.setId("TST:Vehicle:æøå-1");
+        id.setCodespace("TST");
+        id.setSystemId("testsystem");
+        id.setOperatorId("TST:Operator:test");
+        id.setFormFactor(FormFactor.SCOOTER);
+        id.setPropulsionType(PropulsionType.ELECTRIC);
+        id.setReserved(true);
+        id.setDisabled(false);
+
+        var member = SpatialIndexMemberCodec.encodeVehicle(id);
+
+        Assertions.assertEquals(id, SpatialIndexMemberCodec.decodeVehicle(member, testPartition()));
+    }
+
+    @Test
+    void testStationRoundTrip() {
+        var id = testStationId();
+
+        var decoded = SpatialIndexMemberCodec.decodeStation(SpatialIndexMemberCodec.encodeStation(id), testPartition());
+
+        Assertions.assertEquals(id.getId(), decoded.getId());
+        Assertions.assertEquals("testsystem", decoded.getSystemId());
+        Assertions.assertEquals(List.of(FormFactor.BICYCLE, FormFactor.SCOOTER), decoded.getAvailableFormFactors());
+        Assertions.assertEquals(List.of(PropulsionType.HUMAN), decoded.getAvailablePropulsionTypes());
+    }
+
+    @Test
+    void testStationFilter() {
+        var member = SpatialIndexMemberCodec.encodeStation(testStationId());
+        var filters = new StationFilterParameters();
+
+        Assertions.assertTrue(SpatialIndexMemberCodec.stationFilter(filters).test(member));
+
+        filters.setAvailableFormFactors(List.of(FormFactor.CAR, FormFactor.SCOOTER));
+        Assertions.assertTrue(SpatialIndexMemberCodec.stationFilter(filters).test(member));
+
+        filters.setAvailablePropulsionTypes(List.of(PropulsionType.ELECTRIC));
+        Assertions.assertFalse(SpatialIndexMemberCodec.stationFilter(filters).test(member));
+
+        filters.setAvailableFormFactors(List.of(FormFactor.CAR));
+        filters.setAvailablePropulsionTypes(null);
+        Assertions.assertFalse(SpatialIndexMemberCodec.stationFilter(filters).test(member));
+    }
+
+    @Test
+    void testStoredCodesAreStable() {
+        Assertions.assertEquals(FormFactor.values().length, SpatialIndexMemberCodec.FORM_FACTOR_CODES.size());
+        Assertions.assertEquals(PropulsionType.values().length, SpatialIndexMemberCodec.PROPULSION_TYPE_CODES.size());
+
+        var id = new VehicleSpatialIndexId();
+        id.setId("TST:Vehicle:1");
+        id.setFormFactor(FormFactor.SCOOTER);
+        id.setPropulsionType(PropulsionType.ELECTRIC);
+        var member = SpatialIndexMemberCodec.encodeVehicle(id);
+        Assertions.assertEquals(5, member[1]);
+        Assertions.assertEquals(3, member[2]);
+
+        var stationMember = SpatialIndexMemberCodec.encodeStation(testStationId());
+        Assertions.assertArrayEquals(new byte[] { 0, 0b10001, 0, 0b1 }, Arrays.copyOf(stationMember, 4));
+    }
+
+    @Test
+    void testUnknownCodesAreReadAsNull() {
+        var id = new VehicleSpatialIndexId();
+        id.setId("TST:Vehicle:1");
+        var member = SpatialIndexMemberCodec.encodeVehicle(id);
+        member[1] = 15;
+
+        Assertions.assertNull(SpatialIndexMemberCodec.decodeVehicle(member, testPartition()).getFormFactor());
+    }
+
+    private StationSpatialIndexId testStationId() {
+        var id = new StationSpatialIndexId();
+        id.setId("TST:Station:1");
+        id.setAvailableFormFactors(List.of(FormFactor.SCOOTER, FormFactor.BICYCLE, FormFactor.SCOOTER));
+        id.setAvailablePropulsionTypes(List.of(PropulsionType.HUMAN));
+        return id;
+    }
+
+    private SpatialIndexPartition testPartition() {
+        var partition = new SpatialIndexPartition();
+        partition.setCodespace("TST");
+        partition.setSystemId("testsystem");
+        partition.setOperatorId("TST:Operator:test");
+        return partition;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class TokenBucketTest {
+
+    @Test
+    void testConsumesUpToCapacity() {
+        var bucket = new TokenBucket(100, 10, 0);
+        Assertions.assertTrue(bucket.tryConsume(60, 0));
+        Assertions.assertFalse(bucket.tryConsume(60, 0));
+        Assertions.assertTrue(bucket.tryConsume(40, 0));
+        Assertions.assertFalse(bucket.tryConsume(1, 0));
+    }
+
+    @Test
+    void testRefillsOverTime() {
+        var bucket = new TokenBucket(100, 10, 0);
+        Assertions.assertTrue(bucket.tryConsume(100, 0));
+        Assertions.assertFalse(bucket.tryConsume(20, TimeUnit.SECONDS.toNanos(1)));
+        Assertions.assertTrue(bucket.tryConsume(15, TimeUnit.SECONDS.toNanos(2)));
+    }
+
+    @Test
+    void testRefillsUpToCapacity() {
+        var bucket = new TokenBucket(100, 10, 0);
+        Assertions.assertFalse(bucket.tryConsume(101, TimeUnit.MINUTES.toNanos(1)));
+        Assertions.assertTrue(bucket.tryConsume(100, TimeUnit.MINUTES.toNanos(1)));
+    }
+}
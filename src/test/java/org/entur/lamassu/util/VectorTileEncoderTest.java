@@ -0,0 +1,70 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+class VectorTileEncoderTest {
+
+    @Test
+    void testEncodePoint() {
+        var encoder = new VectorTileEncoder();
+        encoder.addPoint("v", Map.of("id", "a"), 1, 2);
+
+        var expected = new byte[] {
+                0x1A, 0x1E,
+                0x78, 0x02,
+                0x0A, 0x01, 'v',
+                0x12, 0x0B, 0x12, 0x02, 0x00, 0x00, 0x18, 0x01, 0x22, 0x03, 0x09, 0x02, 0x04,
+                0x1A, 0x02, 'i', 'd',
+                0x22, 0x03, 0x0A, 0x01, 'a',
+                0x28, (byte) 0x80, 0x20
+        };
+        Assertions.assertArrayEquals(expected, encoder.encode());
+    }
+
+    @Test
+    void testExteriorRingsAreMadeClockwise() {
+        var counterClockwise = new VectorTileEncoder();
+        counterClockwise.addPolygons("p", Map.of(), List.of(List.of(
+                List.of(new int[] { 0, 0 }, new int[] { 0, 10 }, new int[] { 10, 10 }, new int[] { 10, 0 })
+        )));
+
+        var clockwise = new VectorTileEncoder();
+        clockwise.addPolygons("p", Map.of(), List.of(List.of(
+                List.of(new int[] { 10, 0 }, new int[] { 10, 10 }, new int[] { 0, 10 }, new int[] { 0, 0 })
+        )));
+
+        Assertions.assertArrayEquals(clockwise.encode(), counterClockwise.encode());
+    }
+
+    @Test
+    void testRingsWithoutAreaAreLeftOut() {
+        var encoder = new VectorTileEncoder();
+        encoder.addPolygons("p", Map.of(), List.of(List.of(
+                List.of(new int[] { 0, 0 }, new int[] { 5, 5 }, new int[] { 10, 10 }, new int[] { 0, 0 })
+        )));
+
+        Assertions.assertEquals(0, encoder.encode().length);
+    }
+}
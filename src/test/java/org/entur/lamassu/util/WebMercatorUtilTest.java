@@ -0,0 +1,44 @@
+/*
+ *
+ *
+ *  * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ *  * the European Commission - subsequent versions of the EUPL (the "Licence");
+ *  * You may not use this work except in compliance with the Licence.
+ *  * You may obtain a copy of the Licence at:
+ *  *
+ *  *   https://joinup.ec.europa.eu/software/page/eupl
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the Licence is distributed on an "AS IS" basis,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the Licence for the specific language governing permissions and
+ *  * limitations under the Licence.
+ *
+ */
+
+package org.entur.lamassu.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class WebMercatorUtilTest {
+
+    @Test
+    void testTileCoordinatesRoundTrip() {
+        var x = WebMercatorUtil.lonToTileX(10.75, 14);
+        var y = WebMercatorUtil.latToTileY(59.91, 14);
+        Assertions.assertEquals(8681, (int) x);
+        Assertions.assertEquals(4766, (int) y);
+        Assertions.assertEquals(10.75, WebMercatorUtil.tileXToLon(x, 14), 1e-9);
+        Assertions.assertEquals(59.91, WebMercatorUtil.tileYToLat(y, 14), 1e-9);
+    }
+
+    @Test
+    void testTileBoundingBox() {
+        var boundingBox = WebMercatorUtil.getTileBoundingBox(0, 0, 0);
+        Assertions.assertEquals(-180, boundingBox.getMinLon(), 1e-9);
+        Assertions.assertEquals(180, boundingBox.getMaxLon(), 1e-9);
+        Assertions.assertEquals(-WebMercatorUtil.MAX_LATITUDE, boundingBox.getMinLat(), 1e-9);
+        Assertions.assertEquals(WebMercatorUtil.MAX_LATITUDE, boundingBox.getMaxLat(), 1e-9);
+    }
+}